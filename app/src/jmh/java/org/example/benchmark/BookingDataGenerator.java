@@ -0,0 +1,135 @@
+package org.example.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.entity.User;
+import org.example.storage.LocalDatabase;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes a synthetic local database of a given size for the benchmarks.
+ * <p>
+ * Trains run over {@value #STOPS_PER_TRAIN} stops drawn from a pool of {@value #STATION_POOL}
+ * stations, so station searches hit a realistic share of the fleet. Tickets are spread over
+ * users and trains and each books a distinct whole-run seat. The same seed always produces
+ * the same data.
+ */
+public final class BookingDataGenerator {
+    public static final int STATION_POOL = 200;
+    public static final int STOPS_PER_TRAIN = 8;
+    public static final int TICKETS_PER_USER = 10;
+
+    public static final Instant FIRST_DEPARTURE = Instant.parse("2025-04-10T00:00:00Z");
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Benchmarks measure lookups, not hashing, so every user shares one cheap hash of "password"
+    private static final int PASSWORD_COST = 4;
+
+    private BookingDataGenerator() {
+    }
+
+    public static String trainId(int index) {
+        return "T" + index;
+    }
+
+    public static String station(int index) {
+        return "S" + index;
+    }
+
+    public static String userId(int index) {
+        return "U" + index;
+    }
+
+    /**
+     * Number of users needed to hold the given number of tickets.
+     */
+    public static int userCount(int tickets) {
+        return Math.max(1, (tickets + TICKETS_PER_USER - 1) / TICKETS_PER_USER);
+    }
+
+    /**
+     * Writes trains, users and tickets JSON files into the directory, replacing any there.
+     * @param seatsPerTrain Seats per train, laid out in rows of ten; rounded up to a whole row.
+     * @param tickets Tickets to book; capped at the total number of seats.
+     */
+    public static void generate(Path directory, int trains, int seatsPerTrain, int tickets, long seed) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(LocalDatabase.JOURNAL_FILE));
+        Random random = new Random(seed);
+        int cols = Math.min(10, seatsPerTrain);
+        int rows = (seatsPerTrain + cols - 1) / cols;
+        int[] rowLengths = new int[rows];
+        Arrays.fill(rowLengths, cols);
+
+        List<Train> trainList = new ArrayList<>(trains);
+        for (int t = 0; t < trains; t++) {
+            List<String> stations = new ArrayList<>(STOPS_PER_TRAIN);
+            Map<String, String> stationTimes = new LinkedHashMap<>();
+            Instant time = FIRST_DEPARTURE.plus(Duration.ofMinutes(random.nextInt(24 * 60)));
+            int stop = random.nextInt(STATION_POOL);
+            while (stations.size() < STOPS_PER_TRAIN) {
+                String station = station(stop);
+                if (!stations.contains(station)) {
+                    stations.add(station);
+                    stationTimes.put(station, time.toString());
+                    time = time.plus(Duration.ofMinutes(30 + random.nextInt(90)));
+                }
+                stop = (stop + 1 + random.nextInt(7)) % STATION_POOL;
+            }
+            SeatMap seats = new SeatMap(stations.size() - 1, rowLengths);
+            trainList.add(new Train(trainId(t), "Express " + t, seats, stationTimes, stations));
+        }
+
+        int ticketCount = (int) Math.min(tickets, (long) trains * rows * cols);
+        int userCount = userCount(ticketCount);
+        String passwordHash = BCrypt.hashpw("password", BCrypt.gensalt(PASSWORD_COST));
+        List<User> users = new ArrayList<>(userCount);
+        for (int u = 0; u < userCount; u++) {
+            users.add(new User(userId(u), "user" + u, passwordHash, new ArrayList<>()));
+        }
+        List<Ticket> ticketList = new ArrayList<>(ticketCount);
+        for (int k = 0; k < ticketCount; k++) {
+            // Fill trains round-robin so every train carries a similar load
+            Train train = trainList.get(k % trains);
+            int seat = k / trains;
+            int row = seat / cols;
+            int col = seat % cols;
+            train.getSeats().book(row, col);
+            User user = users.get(k % userCount);
+            Ticket ticket = new Ticket("TKT" + k, user.getUserId(), train.getStations().get(0),
+                    train.getStations().get(train.getStations().size() - 1), "2025-04-10", train.getTrainId(), row, col);
+            ticketList.add(ticket);
+            user.getTicketIds().add(ticket.getTicketId());
+        }
+
+        objectMapper.writeValue(directory.resolve(LocalDatabase.TRAIN_FILE).toFile(), trainList);
+        objectMapper.writeValue(directory.resolve(LocalDatabase.USER_FILE).toFile(), users);
+        objectMapper.writeValue(directory.resolve(LocalDatabase.TICKET_FILE).toFile(), ticketList);
+    }
+
+    /**
+     * Writes a dataset for manual runs: {@code <directory> <trains> <seatsPerTrain> <tickets>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("Usage: BookingDataGenerator <directory> <trains> <seatsPerTrain> <tickets>");
+            System.exit(2);
+        }
+        generate(Paths.get(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), 42L);
+    }
+}
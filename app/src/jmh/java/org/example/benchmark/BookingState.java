@@ -0,0 +1,72 @@
+package org.example.benchmark;
+
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.example.service.UserBookingService;
+import org.example.storage.LocalDatabase;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * A generated local database and the services over it, shared by all benchmark threads.
+ * The database is opened without fsync so journal appends cost what the write path costs,
+ * not what the disk costs. Service logging is turned down so console output does not dominate
+ * the measurements.
+ */
+@State(Scope.Benchmark)
+public class BookingState {
+    // Held so the configured level is not lost to garbage collection
+    private static final Logger serviceLogger = Logger.getLogger("org.example");
+
+    @Param({"100", "1000", "10000"})
+    public int trains;
+
+    @Param({"100"})
+    public int seatsPerTrain;
+
+    @Param({"10000"})
+    public int tickets;
+
+    public TrainService trainService;
+    public TrainTicketService trainTicketService;
+    public UserBookingService userBookingService;
+    public int rows;
+    public int cols;
+    public int users;
+
+    private Path directory;
+    private LocalDatabase localDatabase;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        serviceLogger.setLevel(java.util.logging.Level.SEVERE);
+        directory = Files.createTempDirectory("booking-bench");
+        BookingDataGenerator.generate(directory, trains, seatsPerTrain, tickets, 42L);
+        localDatabase = LocalDatabase.open(directory, false);
+        trainService = new TrainService(localDatabase.trains());
+        trainTicketService = new TrainTicketService(trainService);
+        userBookingService = new UserBookingService(localDatabase.users(), localDatabase.tickets(), localDatabase.trains());
+        cols = Math.min(10, seatsPerTrain);
+        rows = (seatsPerTrain + cols - 1) / cols;
+        users = BookingDataGenerator.userCount((int) Math.min(tickets, (long) trains * rows * cols));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        localDatabase.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.benchmark;
+
+import org.example.entity.Train;
+import org.example.service.Journey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of {@link org.example.service.TrainService}: lookup by ID, station search, seat
+ * availability and journey planning, each against a random train or station so no single entry
+ * stays hot.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class TrainServiceBenchmark {
+    private static final Duration CONNECTION = Duration.ofMinutes(10);
+
+    @Benchmark
+    public Optional<Train> getTrainById(BookingState state) {
+        return state.trainService.getTrainById(randomTrainId(state));
+    }
+
+    @Benchmark
+    public List<Train> searchTrainByStation(BookingState state) {
+        int station = ThreadLocalRandom.current().nextInt(BookingDataGenerator.STATION_POOL);
+        return state.trainService.searchTrainByStation(BookingDataGenerator.station(station));
+    }
+
+    @Benchmark
+    public int getAvailableSeats(BookingState state) {
+        return state.trainService.getAvailableSeats(randomTrainId(state));
+    }
+
+    @Benchmark
+    public Optional<Journey> planJourney(BookingState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String source = BookingDataGenerator.station(random.nextInt(BookingDataGenerator.STATION_POOL));
+        String destination = BookingDataGenerator.station(random.nextInt(BookingDataGenerator.STATION_POOL));
+        return state.trainService.planJourney(source, destination,
+                BookingDataGenerator.FIRST_DEPARTURE.plus(Duration.ofMinutes(random.nextInt(12 * 60))), 2, CONNECTION);
+    }
+
+    private static String randomTrainId(BookingState state) {
+        return BookingDataGenerator.trainId(ThreadLocalRandom.current().nextInt(state.trains));
+    }
+
+    /**
+     * The same paths with readers on four threads.
+     */
+    @Threads(4)
+    public static class Contended extends TrainServiceBenchmark {
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write path of {@link org.example.service.TrainTicketService}: books a random seat and, if the
+ * booking won, cancels it again so the train never fills up during a run. Each successful
+ * operation appends two events to the journal.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class TrainTicketServiceBenchmark {
+
+    @Benchmark
+    public boolean bookTicket(BookingState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String trainId = BookingDataGenerator.trainId(random.nextInt(state.trains));
+        int row = random.nextInt(state.rows);
+        int col = random.nextInt(state.cols);
+        // Seats sold by the generated tickets stay sold; only undo what this call booked
+        boolean booked = state.trainTicketService.bookTicket(trainId, row, col);
+        if (booked) {
+            state.trainTicketService.cancelTicket(trainId, row, col);
+        }
+        return booked;
+    }
+
+    /**
+     * The same path with four threads competing for seats.
+     */
+    @Threads(4)
+    public static class Contended extends TrainTicketServiceBenchmark {
+    }
+}
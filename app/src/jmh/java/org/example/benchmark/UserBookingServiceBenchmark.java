@@ -0,0 +1,72 @@
+package org.example.benchmark;
+
+import org.example.entity.Ticket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Booking listings of {@link org.example.service.UserBookingService} for a random user.
+ * {@code fetchBookings} prints its result, so standard output is discarded while it runs.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class UserBookingServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class MutedOutput {
+        private PrintStream original;
+
+        @Setup(Level.Trial)
+        public void mute() {
+            original = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+
+        @TearDown(Level.Trial)
+        public void restore() {
+            System.setOut(original);
+        }
+    }
+
+    @Benchmark
+    public List<Ticket> getBookings(BookingState state) {
+        return state.userBookingService.getBookings(randomUserId(state));
+    }
+
+    @Benchmark
+    public void fetchBookings(BookingState state, MutedOutput mutedOutput) {
+        state.userBookingService.fetchBookings(randomUserId(state));
+    }
+
+    private static String randomUserId(BookingState state) {
+        return BookingDataGenerator.userId(ThreadLocalRandom.current().nextInt(state.users));
+    }
+
+    /**
+     * The same paths with readers on four threads.
+     */
+    @Threads(4)
+    public static class Contended extends UserBookingServiceBenchmark {
+    }
+}
@@ -1,17 +1,21 @@
 package org.example;
 
 import org.example.entity.User;
+import org.example.metrics.ServiceMetrics;
 import org.example.service.UserBookingService;
 import org.example.service.TrainService;
 import org.example.service.TrainTicketService;
 import org.example.entity.Train;
+import org.example.storage.LocalDatabase;
 
+import java.io.IOException;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Scanner;
 
 public class App {
     private static final Scanner scanner = new Scanner(System.in);
+    private static LocalDatabase localDatabase;
     private static UserBookingService userBookingService;
     private static TrainService trainService;
     private static TrainTicketService trainTicketService;
@@ -22,10 +26,12 @@ public class App {
         System.out.println("Running Ticket Booking App...");
 
         try {
-            // Initialize services
-            userBookingService = new UserBookingService();
-            trainService = new TrainService();
+            // Open the local database (snapshots + booking journal) and initialize services
+            localDatabase = LocalDatabase.open();
+            userBookingService = new UserBookingService(localDatabase.users(), localDatabase.tickets(), localDatabase.trains());
+            trainService = new TrainService(localDatabase.trains(), localDatabase.runs());
             trainTicketService = new TrainTicketService(trainService);
+            ServiceMetrics.global().registerMBeans();
 
             // Login or Signup
             while (!isLoggedIn) {
@@ -74,6 +80,18 @@ public class App {
             e.printStackTrace();
         } finally {
             scanner.close();
+            closeLocalDatabase();
+        }
+    }
+
+    private static void closeLocalDatabase() {
+        if (localDatabase == null) {
+            return;
+        }
+        try {
+            localDatabase.close();
+        } catch (IOException e) {
+            System.out.println("Error closing local database: " + e.getMessage());
         }
     }
 
@@ -98,7 +116,11 @@ public class App {
             newUser.setUserName(username);
             newUser.setPasswordHash(password); // Password will be hashed by UserBookingService
 
-            userBookingService.signup(newUser);
+            if (userBookingService.signup(newUser)) {
+                System.out.println("Signup successful!");
+            } else {
+                System.out.println("Username already taken!");
+            }
         } catch (Exception e) {
             System.out.println("Error during signup: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,1015 @@
+package org.example.entity;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compact seat inventory of a train. Rows (coaches) may have different lengths; rowOffsets[r] is
+ * the index of the first seat of row r.
+ * <p>
+ * Occupancy is tracked per route segment (the leg between two consecutive stations): plane p is a
+ * bitset with one bit per seat, set when the seat is taken on segment p. A seat booked for the
+ * whole run has its bit set in every plane, while one sold from A to B only occupies the planes
+ * between them and stays sellable on the other legs. "Free from A to B" is the complement of the
+ * OR of planes [A, B), computed a word (64 seats) at a time.
+ * <p>
+ * Every bit is claimed with a compare-and-set on its word, so concurrent callers racing for the
+ * same seat and leg cannot both win. A multi-segment booking claims its planes in ascending order
+ * and rolls back if one is already taken, so it never holds a partial claim on success.
+ * <p>
+ * Free-seat counts for the whole run, per train and per row, are kept in {@link LongAdder}s
+ * updated whenever a seat goes from free to taken on any segment or back, so the most-read number
+ * is a lock-free sum rather than a scan. Counts for a leg are still a popcount over the planes.
+ * <p>
+ * A seat can also be held while its buyer pays: the hold takes the seat's bits like a booking, so
+ * nobody else can book it, and also sets them in a parallel set of "held" planes, allocated on the
+ * first hold. Held bits are left out of the serialized grid, so a hold never reaches disk unless it
+ * is confirmed, which just clears its held bits.
+ * <p>
+ * Serializes to the row-by-row grid used in the JSON files: 0 is free, 1 is taken for the whole
+ * run, and any other value is a partially sold seat encoded as {@code segmentMask << 1}. On routes
+ * longer than {@link #MASK_SEGMENTS} segments a partially sold seat is written as the list of
+ * segments it is taken on instead; both forms are read on any route.
+ */
+public class SeatMap {
+    /** Longest route (in segments) whose partial bookings are encoded as one number in the JSON grid. */
+    public static final int MASK_SEGMENTS = 62;
+
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_BITS = 1 << WORD_SHIFT;
+    private static final VarHandle SEGMENT_COUNT = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle WIDE_SEGMENT_COUNT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int[] rowOffsets;
+    private final int segments;
+    private final int wordsPerPlane;
+    private final AtomicLongArray words;
+    private volatile AtomicLongArray heldWords;
+    private volatile SeatMap emptyTemplate;
+    // Seats free for the whole run, kept up to date by every bit change so reads need no scan
+    private final LongAdder freeSeats = new LongAdder();
+    private final LongAdder[] freeSeatsByRow;
+    // Number of segments each seat is taken on, updated atomically through SEGMENT_COUNT. Null for
+    // a single-segment route, where the bit says it all, and for routes too long for a byte, which
+    // count in takenSegmentsWide instead
+    private final byte[] takenSegments;
+    private final int[] takenSegmentsWide;
+
+    /**
+     * Creates an empty (all free) map for a single-segment route with the given seats per row.
+     */
+    public SeatMap(int... rowLengths) {
+        this(1, rowLengths);
+    }
+
+    /**
+     * Creates an empty (all free) map for a route with the given number of segments.
+     */
+    public SeatMap(int segments, int[] rowLengths) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Segment count must be positive: " + segments);
+        }
+        this.segments = segments;
+        this.rowOffsets = new int[rowLengths.length + 1];
+        for (int r = 0; r < rowLengths.length; r++) {
+            if (rowLengths[r] < 0) {
+                throw new IllegalArgumentException("Row length must not be negative: " + rowLengths[r]);
+            }
+            rowOffsets[r + 1] = rowOffsets[r] + rowLengths[r];
+        }
+        this.wordsPerPlane = wordCount(totalSeats());
+        this.words = new AtomicLongArray(wordsPerPlane * segments);
+        this.takenSegments = segments == 1 || segments > Byte.MAX_VALUE ? null : new byte[totalSeats()];
+        this.takenSegmentsWide = segments > Byte.MAX_VALUE ? new int[totalSeats()] : null;
+        this.freeSeatsByRow = new LongAdder[rowLengths.length];
+        for (int r = 0; r < rowLengths.length; r++) {
+            freeSeatsByRow[r] = new LongAdder();
+            freeSeatsByRow[r].add(rowLengths[r]);
+        }
+        freeSeats.add(totalSeats());
+    }
+
+    /**
+     * Builds a map from the JSON grid for a route with the given number of segments. A cell is a
+     * number (see the class comment) or a list of the segments the seat is taken on.
+     */
+    public static SeatMap fromGrid(List<? extends List<?>> grid, int segments) {
+        int[] rowLengths = new int[grid.size()];
+        for (int r = 0; r < rowLengths.length; r++) {
+            rowLengths[r] = grid.get(r).size();
+        }
+        SeatMap map = new SeatMap(segments, rowLengths);
+        for (int r = 0; r < rowLengths.length; r++) {
+            List<?> row = grid.get(r);
+            for (int c = 0; c < row.size(); c++) {
+                Object value = row.get(c);
+                int seat = map.seatIndex(r, c);
+                if (value instanceof List<?> taken) {
+                    for (Object segment : taken) {
+                        int p = ((Number) segment).intValue();
+                        if (p < 0 || p >= segments) {
+                            throw new IllegalArgumentException("Segment " + p + " of seat (" + r + "," + c
+                                    + ") is not on a route of " + segments + " segments");
+                        }
+                        map.setBit(p, seat);
+                    }
+                    continue;
+                }
+                long cell = value == null ? 0 : ((Number) value).longValue();
+                if (cell == 1) {
+                    map.occupyLeg(seat, 0, segments);
+                } else if (cell != 0) {
+                    map.occupy(seat, decodeCell(cell, Math.min(segments, MASK_SEGMENTS)));
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Expands the map back into the grid used by the JSON files.
+     */
+    @JsonValue
+    public List<List<Object>> toGrid() {
+        long all = allSegments();
+        List<List<Object>> grid = new ArrayList<>(rowCount());
+        for (int r = 0; r < rowCount(); r++) {
+            List<Object> row = new ArrayList<>(rowLength(r));
+            for (int c = 0; c < rowLength(r); c++) {
+                int seat = seatIndex(r, c);
+                if (segments > MASK_SEGMENTS) {
+                    row.add(segmentCell(seat));
+                    continue;
+                }
+                long mask = segmentMask(seat) & ~heldMask(seat);
+                row.add(mask == 0 ? 0L : mask == all ? 1L : mask << 1);
+            }
+            grid.add(row);
+        }
+        return grid;
+    }
+
+    /**
+     * Builds a map from packed planes as returned by {@link #toPlanes}.
+     */
+    public static SeatMap fromPlanes(int segments, int[] rowLengths, LongBuffer planes) {
+        SeatMap map = new SeatMap(segments, rowLengths);
+        int wordsPerPlane = map.wordsPerPlane;
+        for (int p = 0; p < segments; p++) {
+            for (int w = 0; w < wordsPerPlane; w++) {
+                long taken = planes.get(p * wordsPerPlane + w) & validMask(w, map.totalSeats());
+                while (taken != 0) {
+                    map.setBit(p, (w << WORD_SHIFT) + Long.numberOfTrailingZeros(taken));
+                    taken &= taken - 1;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Copies the booked bits out as {@link #segmentCount()} planes of {@code ceil(totalSeats / 64)}
+     * words each; bit {@code s % 64} of word {@code p * wordsPerPlane + s / 64} is seat s on
+     * segment p. Held seats are left out, as in {@link #toGrid()}.
+     */
+    public long[] toPlanes() {
+        AtomicLongArray held = heldWords;
+        long[] planes = new long[words.length()];
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = held == null ? words.get(i) : words.get(i) & ~held.get(i);
+        }
+        return planes;
+    }
+
+    /**
+     * Returns a copy of this map laid out for a route with a different number of segments.
+     * Seats taken for the whole run stay taken for the whole new run; partial bookings are
+     * kept on the segments both layouts share.
+     */
+    public SeatMap withSegments(int newSegments) {
+        SeatMap copy = new SeatMap(newSegments, rowLengths());
+        int shared = Math.min(segments, newSegments);
+        for (int seat = 0; seat < totalSeats(); seat++) {
+            if (isTaken(seat, 0, segments)) {
+                copy.occupyLeg(seat, 0, newSegments);
+                continue;
+            }
+            for (int p = 0; p < shared; p++) {
+                if (isSet(words, p, seat)) {
+                    copy.setBit(p, seat);
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Overwrites this map's bookings, in place, with those of a map of the same layout, so code
+     * holding on to this map sees them. Seats held here stay held.
+     * @return false, changing nothing, if the two maps have different rows or segments.
+     */
+    public boolean assignBookings(SeatMap source) {
+        if (source.segments != segments || !Arrays.equals(source.rowOffsets, rowOffsets)) {
+            return false;
+        }
+        AtomicLongArray held = heldWords;
+        for (int seat = 0; seat < totalSeats(); seat++) {
+            for (int p = 0; p < segments; p++) {
+                boolean wanted = isSet(source.words, p, seat) || (held != null && isSet(held, p, seat));
+                boolean current = isSet(words, p, seat);
+                if (wanted && !current) {
+                    setBit(p, seat);
+                } else if (!wanted && current) {
+                    clearBit(p, seat);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a new all-free map with the same rows and segments as this one.
+     */
+    public SeatMap emptyCopy() {
+        return new SeatMap(segments, rowLengths());
+    }
+
+    /**
+     * Returns an all-free map with the same layout as this one, created on first use and then
+     * shared. It answers reads for inventory nothing has been booked on yet, so it must never be
+     * booked on; take an {@link #emptyCopy()} for that.
+     */
+    public SeatMap emptyTemplate() {
+        SeatMap template = emptyTemplate;
+        if (template == null) {
+            template = emptyCopy();
+            emptyTemplate = template;
+        }
+        return template;
+    }
+
+    public int rowCount() {
+        return rowOffsets.length - 1;
+    }
+
+    public int rowLength(int row) {
+        return rowOffsets[row + 1] - rowOffsets[row];
+    }
+
+    public int totalSeats() {
+        return rowOffsets[rowOffsets.length - 1];
+    }
+
+    public int segmentCount() {
+        return segments;
+    }
+
+    /**
+     * Checks that (row, col) addresses a seat of this map.
+     */
+    public boolean isValid(int row, int col) {
+        return row >= 0 && row < rowCount() && col >= 0 && col < rowLength(row);
+    }
+
+    /**
+     * Checks that [fromSegment, toSegment) is a non-empty range of this route's segments.
+     */
+    public boolean isValidLeg(int fromSegment, int toSegment) {
+        return fromSegment >= 0 && fromSegment < toSegment && toSegment <= segments;
+    }
+
+    /**
+     * Returns true if the seat is taken on any segment.
+     */
+    public boolean isBooked(int row, int col) {
+        return isBooked(seatIndex(row, col));
+    }
+
+    public boolean isBooked(int seat) {
+        return !isFree(seat, 0, segments);
+    }
+
+    /**
+     * Returns true if the seat is free on every segment in [fromSegment, toSegment).
+     */
+    public boolean isFree(int seat, int fromSegment, int toSegment) {
+        long bit = 1L << seat;
+        int w = seat >>> WORD_SHIFT;
+        for (int p = fromSegment; p < toSegment; p++) {
+            if ((words.get(p * wordsPerPlane + w) & bit) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the seat is taken on every segment in [fromSegment, toSegment).
+     */
+    public boolean isTaken(int seat, int fromSegment, int toSegment) {
+        for (int p = fromSegment; p < toSegment; p++) {
+            if (!isSet(words, p, seat)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Atomically books a seat for the whole run.
+     * @return true if this call took the seat, false if it was taken on any segment.
+     */
+    public boolean book(int row, int col) {
+        return book(seatIndex(row, col));
+    }
+
+    public boolean book(int seat) {
+        return bookLeg(seat, 0, segments);
+    }
+
+    /**
+     * Atomically books a seat on segments [fromSegment, toSegment).
+     * @return true if this call took the seat on every one of those segments.
+     */
+    public boolean bookLeg(int row, int col, int fromSegment, int toSegment) {
+        return bookLeg(seatIndex(row, col), fromSegment, toSegment);
+    }
+
+    public boolean bookLeg(int seat, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        for (int p = fromSegment; p < toSegment; p++) {
+            if (!setBit(p, seat)) {
+                for (int undo = fromSegment; undo < p; undo++) {
+                    clearBit(undo, seat);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Books a seat on segments [fromSegment, toSegment) whatever their state, turning a hold on
+     * them into a booking. Applies bookings recorded elsewhere, which local holds cannot refuse.
+     */
+    public void forceBookLeg(int row, int col, int fromSegment, int toSegment) {
+        forceBookLeg(seatIndex(row, col), fromSegment, toSegment);
+    }
+
+    public void forceBookLeg(int seat, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        if (heldWords != null) {
+            clearHeld(seat, fromSegment, toSegment);
+        }
+        for (int p = fromSegment; p < toSegment; p++) {
+            setBit(p, seat);
+        }
+    }
+
+    /**
+     * Atomically frees a seat on every segment.
+     * @return true if the seat was taken on any segment.
+     */
+    public boolean release(int row, int col) {
+        return release(seatIndex(row, col));
+    }
+
+    public boolean release(int seat) {
+        boolean released = false;
+        for (int p = 0; p < segments; p++) {
+            released |= clearBit(p, seat);
+        }
+        return released;
+    }
+
+    /**
+     * Frees a seat on segments [fromSegment, toSegment), leaving other legs untouched.
+     * @return true if the seat was taken on every one of those segments.
+     */
+    public boolean releaseLeg(int row, int col, int fromSegment, int toSegment) {
+        return releaseLeg(seatIndex(row, col), fromSegment, toSegment);
+    }
+
+    public boolean releaseLeg(int seat, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        long bit = 1L << seat;
+        int w = seat >>> WORD_SHIFT;
+        for (int p = fromSegment; p < toSegment; p++) {
+            if ((words.get(p * wordsPerPlane + w) & bit) == 0) {
+                return false;
+            }
+        }
+        // Whoever clears the first plane owns the release; concurrent callers back off
+        if (!clearBit(fromSegment, seat)) {
+            return false;
+        }
+        for (int p = fromSegment + 1; p < toSegment; p++) {
+            clearBit(p, seat);
+        }
+        return true;
+    }
+
+    /**
+     * Atomically holds a seat on segments [fromSegment, toSegment). The held bits are claimed
+     * first, so a concurrent hold of the same seat backs off, and then the seat itself is booked.
+     * @return true if this call took the seat on every one of those segments.
+     */
+    public boolean holdLeg(int seat, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        AtomicLongArray held = heldWords();
+        long bit = 1L << seat;
+        int w = seat >>> WORD_SHIFT;
+        for (int p = fromSegment; p < toSegment; p++) {
+            if (!setBit(held, p * wordsPerPlane + w, bit)) {
+                for (int undo = fromSegment; undo < p; undo++) {
+                    clearBit(held, undo * wordsPerPlane + w, bit);
+                }
+                return false;
+            }
+        }
+        if (!bookLeg(seat, fromSegment, toSegment)) {
+            for (int p = fromSegment; p < toSegment; p++) {
+                clearBit(held, p * wordsPerPlane + w, bit);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Turns a hold into a booking by clearing its held bits; the seat stays taken.
+     * @return true if the seat was held on every one of those segments.
+     */
+    public boolean confirmHold(int seat, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        if (!isHeldOnAll(seat, fromSegment, toSegment)) {
+            return false;
+        }
+        clearHeld(seat, fromSegment, toSegment);
+        return true;
+    }
+
+    /**
+     * Frees a held seat on the segments in [fromSegment, toSegment) it is still held on; a
+     * {@link #forceBookLeg forced booking} may have taken over the others.
+     * @return true if the seat was held on every one of those segments.
+     */
+    public boolean releaseHold(int seat, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        AtomicLongArray held = heldWords;
+        if (held == null) {
+            return false;
+        }
+        boolean[] heldOn = new boolean[toSegment - fromSegment];
+        int first = -1;
+        boolean heldOnAll = true;
+        for (int p = fromSegment; p < toSegment; p++) {
+            heldOn[p - fromSegment] = isSet(held, p, seat);
+            if (heldOn[p - fromSegment] && first < 0) {
+                first = p;
+            }
+            heldOnAll &= heldOn[p - fromSegment];
+        }
+        if (first < 0) {
+            return false;
+        }
+        // Free the seat before dropping the hold, so a snapshot in between never sees it booked.
+        // Whoever clears the first held plane owns the release; concurrent callers back off
+        if (!clearBit(first, seat)) {
+            return false;
+        }
+        for (int p = first + 1; p < toSegment; p++) {
+            if (heldOn[p - fromSegment]) {
+                clearBit(p, seat);
+            }
+        }
+        clearHeld(seat, fromSegment, toSegment);
+        return heldOnAll;
+    }
+
+    /**
+     * Returns true if the seat is held, not booked, on any segment.
+     */
+    public boolean isHeld(int row, int col) {
+        return isHeld(row, col, 0, segments);
+    }
+
+    /**
+     * Returns true if the seat is held on any segment in [fromSegment, toSegment).
+     */
+    public boolean isHeld(int row, int col, int fromSegment, int toSegment) {
+        int seat = seatIndex(row, col);
+        AtomicLongArray held = heldWords;
+        if (held == null) {
+            return false;
+        }
+        for (int p = fromSegment; p < toSegment; p++) {
+            if (isSet(held, p, seat)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isHeldOnAll(int seat, int fromSegment, int toSegment) {
+        AtomicLongArray held = heldWords;
+        if (held == null) {
+            return false;
+        }
+        for (int p = fromSegment; p < toSegment; p++) {
+            if (!isSet(held, p, seat)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts seats free for the whole run. Held seats count as taken. The count comes from a
+     * counter maintained as seats are booked and released, so reading it is lock-free and does
+     * not scan the map; while a booking is in flight it may briefly trail the bits.
+     */
+    public int availableSeats() {
+        return (int) freeSeats.sum();
+    }
+
+    /**
+     * Counts seats free on every segment in [fromSegment, toSegment) with a popcount of the
+     * OR of those planes, one word at a time.
+     */
+    public int availableSeats(int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        int taken = 0;
+        for (int w = 0; w < wordsPerPlane; w++) {
+            taken += Long.bitCount(occupiedWord(w, fromSegment, toSegment));
+        }
+        return totalSeats() - taken;
+    }
+
+    /**
+     * Counts seats in one row that are free for the whole run, from the row's counter.
+     */
+    public int availableSeatsInRow(int row) {
+        return (int) freeSeatsByRow[row].sum();
+    }
+
+    /**
+     * Counts seats in one row that are free on every segment in [fromSegment, toSegment).
+     */
+    public int availableSeatsInRow(int row, int fromSegment, int toSegment) {
+        int from = rowOffsets[row];
+        int to = rowOffsets[row + 1];
+        int free = 0;
+        for (int seat = from; seat < to; ) {
+            int span = Math.min(WORD_BITS - (seat & (WORD_BITS - 1)), to - seat);
+            free += Long.bitCount(freeBits(seat, span, fromSegment, toSegment));
+            seat += span;
+        }
+        return free;
+    }
+
+    /**
+     * Length of the longest run of adjacent seats in a row free on [fromSegment, toSegment).
+     */
+    public int longestFreeRun(int row, int fromSegment, int toSegment) {
+        return (int) (scanRow(row, Integer.MAX_VALUE, fromSegment, toSegment) >>> 32);
+    }
+
+    /**
+     * Finds the first run of {@code count} adjacent seats in a row free on [fromSegment, toSegment).
+     * @return flat index of the first seat of the run, or -1 if the row has no such run.
+     */
+    public int findFreeRun(int row, int count, int fromSegment, int toSegment) {
+        return (int) scanRow(row, count, fromSegment, toSegment);
+    }
+
+    /**
+     * Picks the best available {@code count} seats free on [fromSegment, toSegment) for a group.
+     * <p>
+     * Each row is summarized by its free seat count and longest free run, both computed a word
+     * at a time. Adjacent seats in one row win: the preferred row if it has a long enough run,
+     * otherwise the row whose longest run fits the group most tightly, leaving longer runs for
+     * larger groups. Failing that, the group is kept in one row (coach) with the most free seats,
+     * and only if no row can hold it and splitting is allowed is it spread over the emptiest rows.
+     * Nothing is claimed; pass the result to {@link #bookSeats(int[], int, int)}.
+     * @param preferredRow Row to try first, or -1 for none.
+     * @param allowSplit Whether the group may be spread over several rows.
+     * @return flat seat indices, or an empty array if the seats cannot be found.
+     */
+    public int[] findSeatGroup(int count, int fromSegment, int toSegment, int preferredRow, boolean allowSplit) {
+        checkLeg(fromSegment, toSegment);
+        if (count <= 0) {
+            return new int[0];
+        }
+        int rows = rowCount();
+        int[] free = new int[rows];
+        int[] longestRun = new int[rows];
+        int totalFree = 0;
+        for (int r = 0; r < rows; r++) {
+            free[r] = availableSeatsInRow(r, fromSegment, toSegment);
+            longestRun[r] = free[r] < count ? 0 : longestFreeRun(r, fromSegment, toSegment);
+            totalFree += free[r];
+        }
+        if (totalFree < count) {
+            return new int[0];
+        }
+
+        boolean hasPreferred = preferredRow >= 0 && preferredRow < rows;
+        int runRow = -1;
+        if (hasPreferred && longestRun[preferredRow] >= count) {
+            runRow = preferredRow;
+        } else {
+            for (int r = 0; r < rows; r++) {
+                if (longestRun[r] >= count && (runRow < 0 || longestRun[r] < longestRun[runRow])) {
+                    runRow = r;
+                }
+            }
+        }
+        int[] seats = new int[count];
+        if (runRow >= 0) {
+            int start = findFreeRun(runRow, count, fromSegment, toSegment);
+            if (start < 0) {
+                return new int[0]; // Taken concurrently since the summary was computed
+            }
+            for (int i = 0; i < count; i++) {
+                seats[i] = start + i;
+            }
+            return seats;
+        }
+
+        int sameRow = -1;
+        if (hasPreferred && free[preferredRow] >= count) {
+            sameRow = preferredRow;
+        } else {
+            for (int r = 0; r < rows; r++) {
+                if (free[r] >= count && (sameRow < 0 || free[r] > free[sameRow])) {
+                    sameRow = r;
+                }
+            }
+        }
+        if (sameRow >= 0) {
+            return takeFreeSeats(sameRow, seats, 0, fromSegment, toSegment) == count ? seats : new int[0];
+        }
+        if (!allowSplit) {
+            return new int[0];
+        }
+
+        Integer[] byFree = new Integer[rows];
+        for (int r = 0; r < rows; r++) {
+            byFree[r] = r;
+        }
+        Arrays.sort(byFree, (a, b) -> free[b] - free[a]);
+        int n = 0;
+        for (int r = 0; r < rows && n < count; r++) {
+            n = takeFreeSeats(byFree[r], seats, n, fromSegment, toSegment);
+        }
+        return n == count ? seats : new int[0];
+    }
+
+    /**
+     * Atomically books every given seat on [fromSegment, toSegment): either all are taken by
+     * this call or, if any is already taken, the ones claimed so far are released again.
+     * @return true if this call took all the seats.
+     */
+    public boolean bookSeats(int[] seats, int fromSegment, int toSegment) {
+        checkLeg(fromSegment, toSegment);
+        for (int i = 0; i < seats.length; i++) {
+            if (!bookLeg(seats[i], fromSegment, toSegment)) {
+                for (int undo = 0; undo < i; undo++) {
+                    releaseLeg(seats[undo], fromSegment, toSegment);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first {@code count} seats free for the whole run, in row-major order.
+     */
+    public int[] findFreeSeats(int count) {
+        return findFreeSeats(count, 0, segments);
+    }
+
+    /**
+     * Finds the first {@code count} seats free on [fromSegment, toSegment), in row-major order.
+     * @return flat seat indices (see {@link #rowOf(int)} and {@link #colOf(int)}),
+     *         or an empty array if fewer than {@code count} seats are free.
+     */
+    public int[] findFreeSeats(int count, int fromSegment, int toSegment) {
+        if (count <= 0 || count > availableSeats(fromSegment, toSegment)) {
+            return new int[0];
+        }
+        int[] found = new int[count];
+        int n = 0;
+        int total = totalSeats();
+        for (int w = 0; w < wordsPerPlane && n < count; w++) {
+            long free = ~occupiedWord(w, fromSegment, toSegment) & validMask(w, total);
+            while (free != 0 && n < count) {
+                found[n++] = (w << WORD_SHIFT) + Long.numberOfTrailingZeros(free);
+                free &= free - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the row of a flat seat index.
+     */
+    public int rowOf(int seat) {
+        int pos = Arrays.binarySearch(rowOffsets, seat);
+        if (pos < 0) {
+            return -pos - 2;
+        }
+        // Skip over empty rows that share the same offset
+        while (pos + 1 < rowOffsets.length - 1 && rowOffsets[pos + 1] == seat) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the column of a flat seat index.
+     */
+    public int colOf(int seat) {
+        return seat - rowOffsets[rowOf(seat)];
+    }
+
+    /**
+     * Returns the flat index of (row, col).
+     */
+    public int seatIndex(int row, int col) {
+        if (!isValid(row, col)) {
+            throw new IndexOutOfBoundsException("Invalid seat position: (" + row + "," + col + ")");
+        }
+        return rowOffsets[row] + col;
+    }
+
+    /**
+     * Returns the segments a seat is taken on, bit p standing for segment p; only for routes of
+     * up to {@link #MASK_SEGMENTS} segments.
+     */
+    private long segmentMask(int seat) {
+        long bit = 1L << seat;
+        int w = seat >>> WORD_SHIFT;
+        long mask = 0;
+        for (int p = 0; p < segments; p++) {
+            if ((words.get(p * wordsPerPlane + w) & bit) != 0) {
+                mask |= 1L << p;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Free bits of {@code span} seats starting at {@code seat}, all within one word; bit i stands
+     * for seat {@code seat + i}.
+     */
+    private long freeBits(int seat, int span, int fromSegment, int toSegment) {
+        long free = ~occupiedWord(seat >>> WORD_SHIFT, fromSegment, toSegment) >>> (seat & (WORD_BITS - 1));
+        return span == WORD_BITS ? free : free & ((1L << span) - 1);
+    }
+
+    /**
+     * Walks the free runs of a row a word at a time, jumping over whole runs with
+     * trailing-zero counts. Stops at the first run of {@code wanted} seats.
+     * @return the longest run seen in the high 32 bits, and in the low 32 bits the first seat of
+     *         the run that reached {@code wanted}, or -1 if none did.
+     */
+    private long scanRow(int row, int wanted, int fromSegment, int toSegment) {
+        int from = rowOffsets[row];
+        int to = rowOffsets[row + 1];
+        int run = 0;
+        int runStart = from;
+        int longest = 0;
+        for (int seat = from; seat < to; ) {
+            int span = Math.min(WORD_BITS - (seat & (WORD_BITS - 1)), to - seat);
+            long free = freeBits(seat, span, fromSegment, toSegment);
+            int i = 0;
+            while (i < span) {
+                long rest = free >>> i;
+                if ((rest & 1) == 0) {
+                    i += Math.min(Long.numberOfTrailingZeros(rest), span - i);
+                    run = 0;
+                    runStart = seat + i;
+                } else {
+                    int ones = Math.min(Long.numberOfTrailingZeros(~rest), span - i);
+                    run += ones;
+                    i += ones;
+                    longest = Math.max(longest, run);
+                    if (run >= wanted) {
+                        return ((long) longest << 32) | runStart;
+                    }
+                }
+            }
+            seat += span;
+        }
+        return ((long) longest << 32) | 0xFFFFFFFFL;
+    }
+
+    /**
+     * Appends free seats of a row, in order, to {@code seats} starting at index {@code n} until it is full.
+     * @return the number of seats filled in.
+     */
+    private int takeFreeSeats(int row, int[] seats, int n, int fromSegment, int toSegment) {
+        int to = rowOffsets[row + 1];
+        for (int seat = rowOffsets[row]; seat < to && n < seats.length; ) {
+            int span = Math.min(WORD_BITS - (seat & (WORD_BITS - 1)), to - seat);
+            long free = freeBits(seat, span, fromSegment, toSegment);
+            while (free != 0 && n < seats.length) {
+                seats[n++] = seat + Long.numberOfTrailingZeros(free);
+                free &= free - 1;
+            }
+            seat += span;
+        }
+        return n;
+    }
+
+    /**
+     * Grid cell of a seat on a route too long for a mask: 0 or 1 as for shorter routes, otherwise
+     * the segments the seat is booked (not held) on.
+     */
+    private Object segmentCell(int seat) {
+        AtomicLongArray held = heldWords;
+        List<Integer> taken = new ArrayList<>();
+        for (int p = 0; p < segments; p++) {
+            if (isSet(words, p, seat) && (held == null || !isSet(held, p, seat))) {
+                taken.add(p);
+            }
+        }
+        return taken.isEmpty() ? (Object) 0L : taken.size() == segments ? (Object) 1L : taken;
+    }
+
+    private long heldMask(int seat) {
+        AtomicLongArray held = heldWords;
+        if (held == null) {
+            return 0;
+        }
+        long bit = 1L << seat;
+        int w = seat >>> WORD_SHIFT;
+        long mask = 0;
+        for (int p = 0; p < segments; p++) {
+            if ((held.get(p * wordsPerPlane + w) & bit) != 0) {
+                mask |= 1L << p;
+            }
+        }
+        return mask;
+    }
+
+    private void clearHeld(int seat, int fromSegment, int toSegment) {
+        AtomicLongArray held = heldWords();
+        long bit = 1L << seat;
+        int w = seat >>> WORD_SHIFT;
+        for (int p = fromSegment; p < toSegment; p++) {
+            clearBit(held, p * wordsPerPlane + w, bit);
+        }
+    }
+
+    private AtomicLongArray heldWords() {
+        AtomicLongArray held = heldWords;
+        if (held == null) {
+            synchronized (this) {
+                held = heldWords;
+                if (held == null) {
+                    held = new AtomicLongArray(words.length());
+                    heldWords = held;
+                }
+            }
+        }
+        return held;
+    }
+
+    private long occupiedWord(int w, int fromSegment, int toSegment) {
+        long occupied = 0;
+        for (int p = fromSegment; p < toSegment; p++) {
+            occupied |= words.get(p * wordsPerPlane + w);
+        }
+        return occupied;
+    }
+
+    private void occupy(int seat, long segmentMask) {
+        while (segmentMask != 0) {
+            setBit(Long.numberOfTrailingZeros(segmentMask), seat);
+            segmentMask &= segmentMask - 1;
+        }
+    }
+
+    private void occupyLeg(int seat, int fromSegment, int toSegment) {
+        for (int p = fromSegment; p < toSegment; p++) {
+            setBit(p, seat);
+        }
+    }
+
+    private int[] rowLengths() {
+        int[] rowLengths = new int[rowCount()];
+        for (int r = 0; r < rowLengths.length; r++) {
+            rowLengths[r] = rowLength(r);
+        }
+        return rowLengths;
+    }
+
+    private long allSegments() {
+        return segments >= Long.SIZE ? -1L : (1L << segments) - 1;
+    }
+
+    /**
+     * Sets a seat's bit in one plane and, if the seat was free on every segment until now,
+     * counts it as taken.
+     */
+    private boolean setBit(int plane, int seat) {
+        if (!setBit(words, plane * wordsPerPlane + (seat >>> WORD_SHIFT), 1L << seat)) {
+            return false;
+        }
+        if (segments == 1 || addTakenSegments(seat, 1) == 0) {
+            freeSeats.decrement();
+            freeSeatsByRow[rowOf(seat)].decrement();
+        }
+        return true;
+    }
+
+    /**
+     * Clears a seat's bit in one plane and, if that was the last segment the seat was taken on,
+     * counts it as free.
+     */
+    private boolean clearBit(int plane, int seat) {
+        if (!clearBit(words, plane * wordsPerPlane + (seat >>> WORD_SHIFT), 1L << seat)) {
+            return false;
+        }
+        if (segments == 1 || addTakenSegments(seat, -1) == 1) {
+            freeSeats.increment();
+            freeSeatsByRow[rowOf(seat)].increment();
+        }
+        return true;
+    }
+
+    /**
+     * Adds to a seat's taken-segment count and returns the count before. A byte count is changed
+     * with a compare-and-set loop and a wide one with an atomic add, so the value returned is
+     * exactly the one that was replaced and the free counters stay exact when setBit and
+     * clearBit race on one seat.
+     */
+    private int addTakenSegments(int seat, int delta) {
+        if (takenSegmentsWide != null) {
+            return (int) WIDE_SEGMENT_COUNT.getAndAdd(takenSegmentsWide, seat, delta);
+        }
+        byte current;
+        do {
+            current = (byte) SEGMENT_COUNT.getVolatile(takenSegments, seat);
+        } while (!SEGMENT_COUNT.compareAndSet(takenSegments, seat, current, (byte) (current + delta)));
+        return current;
+    }
+
+    private boolean isSet(AtomicLongArray array, int plane, int seat) {
+        return (array.get(plane * wordsPerPlane + (seat >>> WORD_SHIFT)) & (1L << seat)) != 0;
+    }
+
+    private static boolean setBit(AtomicLongArray array, int index, long bit) {
+        long current;
+        do {
+            current = array.get(index);
+            if ((current & bit) != 0) {
+                return false;
+            }
+        } while (!array.compareAndSet(index, current, current | bit));
+        return true;
+    }
+
+    private static boolean clearBit(AtomicLongArray array, int index, long bit) {
+        long current;
+        do {
+            current = array.get(index);
+            if ((current & bit) == 0) {
+                return false;
+            }
+        } while (!array.compareAndSet(index, current, current & ~bit));
+        return true;
+    }
+
+    private void checkLeg(int fromSegment, int toSegment) {
+        if (!isValidLeg(fromSegment, toSegment)) {
+            throw new IndexOutOfBoundsException("Invalid segment range: [" + fromSegment + "," + toSegment + ")");
+        }
+    }
+
+    private static long decodeCell(long cell, int segments) {
+        long all = (1L << segments) - 1;
+        return cell == 1 ? all : (cell >>> 1) & all;
+    }
+
+    private static long validMask(int word, int totalSeats) {
+        int remaining = totalSeats - (word << WORD_SHIFT);
+        return remaining >= WORD_BITS ? -1L : (1L << remaining) - 1;
+    }
+
+    private static int wordCount(int seats) {
+        return (seats + WORD_BITS - 1) >>> WORD_SHIFT;
+    }
+}
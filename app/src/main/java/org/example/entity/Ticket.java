@@ -1,13 +1,12 @@
 package org.example.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonSetter;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-import java.util.Date;
-
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Getter
 @Setter
@@ -25,6 +24,31 @@ public class Ticket {
 
     private String dateOfJourney;
 
-    private Train train;
+    // Reference into the train store; the train itself is resolved on demand
+    private String trainId;
+
+    private Integer row;
+
+    private Integer col;
+
+    // Bumped by every save; a save based on an older version is rejected
+    private long version;
+
+    // Date of the run whose seat map holds the seat; null if it is on the train's own map
+    private String runDate;
+
+    public Ticket(String ticketId, String userId, String source, String destination, String dateOfJourney,
+                  String trainId, Integer row, Integer col) {
+        this(ticketId, userId, source, destination, dateOfJourney, trainId, row, col, 0, null);
+    }
 
+    /**
+     * Reads the train embedded by the old file format, keeping only its ID.
+     */
+    @JsonSetter("train")
+    private void setEmbeddedTrain(Train train) {
+        if (trainId == null && train != null) {
+            trainId = train.getTrainId();
+        }
+    }
 }
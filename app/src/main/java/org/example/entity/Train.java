@@ -1,12 +1,13 @@
 package org.example.entity;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -21,9 +22,49 @@ public class Train {
 
     private String trainNo;
 
-    private List<List<Integer>> seats;
+    private SeatMap seats;
 
     private Map<String, String>  stationTimes;
 
     private  List<String> stations;
+
+    // Bumped by every save of the train record; seat changes do not count
+    private long version;
+
+    public Train(String trainId, String trainNo, SeatMap seats, Map<String, String> stationTimes, List<String> stations) {
+        this(trainId, trainNo, seats, stationTimes, stations, 0);
+    }
+
+    /**
+     * Builds a train from JSON; the seat grid is decoded once the route, and so its
+     * number of segments, is known.
+     */
+    @JsonCreator
+    public static Train fromJson(@JsonProperty("trainId") String trainId,
+                                 @JsonProperty("trainNo") String trainNo,
+                                 @JsonProperty("seats") List<List<Object>> seats,
+                                 @JsonProperty("stationTimes") Map<String, String> stationTimes,
+                                 @JsonProperty("stations") List<String> stations,
+                                 @JsonProperty("version") long version) {
+        SeatMap seatMap = seats == null ? null : SeatMap.fromGrid(seats, segmentCount(stations));
+        return new Train(trainId, trainNo, seatMap, stationTimes, stations, version);
+    }
+
+    /**
+     * Number of legs between consecutive stations; a route without stations counts as one.
+     */
+    public int routeSegments() {
+        return segmentCount(stations);
+    }
+
+    /**
+     * Position of a station on the route, or -1 if the train does not stop there.
+     */
+    public int stopIndex(String station) {
+        return stations == null ? -1 : stations.indexOf(station);
+    }
+
+    private static int segmentCount(List<String> stations) {
+        return stations == null || stations.size() < 2 ? 1 : stations.size() - 1;
+    }
 }
@@ -0,0 +1,46 @@
+package org.example.entity;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The seat inventory of one train on one date of travel. The route and times stay on the
+ * {@link Train}; only the seats are kept per run.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrainRun {
+
+    private String trainId;
+
+    // ISO date (yyyy-MM-dd) the train leaves its first station
+    private String date;
+
+    private SeatMap seats;
+
+    /**
+     * Builds a run from JSON; the seat grid needs the segment count it was written with.
+     */
+    @JsonCreator
+    public static TrainRun fromJson(@JsonProperty("trainId") String trainId,
+                                    @JsonProperty("date") String date,
+                                    @JsonProperty("segments") int segments,
+                                    @JsonProperty("seats") List<List<Object>> seats) {
+        SeatMap seatMap = seats == null ? null : SeatMap.fromGrid(seats, Math.max(1, segments));
+        return new TrainRun(trainId, date, seatMap);
+    }
+
+    public int getSegments() {
+        return seats == null ? 1 : seats.segmentCount();
+    }
+}
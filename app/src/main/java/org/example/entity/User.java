@@ -1,11 +1,13 @@
 package org.example.entity;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonSetter;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -21,5 +23,31 @@ public class User {
 
     private String passwordHash;
 
-    private List<Ticket> ticketsBooked;
+    // References into the ticket store
+    private List<String> ticketIds;
+
+    // Bumped by every save; a save based on an older version is rejected
+    private long version;
+
+    public User(String userId, String userName, String passwordHash, List<String> ticketIds) {
+        this(userId, userName, passwordHash, ticketIds, 0);
+    }
+
+    /**
+     * Reads the tickets embedded by the old file format, keeping only their IDs.
+     */
+    @JsonSetter("ticketsBooked")
+    private void setEmbeddedTickets(List<Ticket> tickets) {
+        if (tickets == null) {
+            return;
+        }
+        if (ticketIds == null) {
+            ticketIds = new ArrayList<>();
+        }
+        for (Ticket ticket : tickets) {
+            if (!ticketIds.contains(ticket.getTicketId())) {
+                ticketIds.add(ticket.getTicketId());
+            }
+        }
+    }
 }
@@ -0,0 +1,568 @@
+package org.example.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.entity.User;
+import org.example.metrics.ServiceMetrics;
+import org.example.service.SessionService;
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.example.service.UserBookingService;
+import org.example.service.WaitlistEntry;
+import org.example.service.WaitlistService;
+import org.example.storage.LocalDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * HTTP/JSON front end for the booking services, bound to the loopback interface.
+ * The JDK server accepts connections on a selector thread and runs every exchange on its own
+ * virtual thread, so thousands of concurrent clients cost little more than their sockets.
+ * Authentication is per client: {@code POST /api/login} returns a session token which later
+ * requests send as {@code Authorization: Bearer <token>}.
+ *
+ * <pre>
+ * POST   /api/signup                 {"userName", "password"}
+ * POST   /api/login                  {"userName", "password"} -> {"token"}
+ * POST   /api/logout
+ * GET    /api/trains?station=S       or ?source=A&destination=B
+ * GET    /api/trains/{id}/seats      [?source=A&destination=B] [&date=yyyy-MM-dd]
+ * GET    /api/bookings
+ * POST   /api/bookings               {"trainId", "row", "col", ["source", "destination", "dateOfJourney"]}
+ * DELETE /api/bookings/{ticketId}
+ * POST   /api/waitlist               {"trainId", ["source", "destination", "dateOfJourney"]} -> {"waitlistId", "position"}
+ * GET    /api/waitlist/{waitlistId}  -> {"waitlistId", "position"}
+ * DELETE /api/waitlist/{waitlistId}
+ * GET    /metrics                    service latencies and outcome counts, Prometheus text format
+ * </pre>
+ * With a date, seats are those of the train's run on that day; without one, the train's own seat
+ * map, which is also where tickets booked before dated runs existed keep their seats.
+ * A waitlisted client is booked a seat by the server as soon as one is cancelled or found free;
+ * the ticket then shows up in {@code GET /api/bookings} and the waitlist entry is gone.
+ */
+public class BookingHttpServer {
+    private static final Logger logger = Logger.getLogger(BookingHttpServer.class.getName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final int BACKLOG = 4096;
+
+    private final TrainService trainService;
+    private final TrainTicketService trainTicketService;
+    private final UserBookingService userBookingService;
+    private final SessionService sessionService;
+    private final WaitlistService waitlistService;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public BookingHttpServer(int port, TrainService trainService, TrainTicketService trainTicketService,
+                             UserBookingService userBookingService, SessionService sessionService) throws IOException {
+        this(port, trainService, trainTicketService, userBookingService, sessionService, null);
+    }
+
+    /**
+     * Creates a server that also serves the waitlist; without one, its routes answer 404.
+     */
+    public BookingHttpServer(int port, TrainService trainService, TrainTicketService trainTicketService,
+                             UserBookingService userBookingService, SessionService sessionService,
+                             WaitlistService waitlistService) throws IOException {
+        this.trainService = trainService;
+        this.trainTicketService = trainTicketService;
+        this.userBookingService = userBookingService;
+        this.sessionService = sessionService;
+        this.waitlistService = waitlistService;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/signup", exchange -> handle(exchange, this::signup));
+        server.createContext("/api/login", exchange -> handle(exchange, this::login));
+        server.createContext("/api/logout", exchange -> handle(exchange, this::logout));
+        server.createContext("/api/trains", exchange -> handle(exchange, this::trains));
+        server.createContext("/api/bookings", exchange -> handle(exchange, this::bookings));
+        server.createContext("/api/waitlist", exchange -> handle(exchange, this::waitlist));
+        server.createContext("/metrics", exchange -> handle(exchange, this::metrics));
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Booking API listening on http://" + server.getAddress().getHostString() + ":" + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private Response signup(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        JsonNode body = readBody(exchange);
+        User user = new User();
+        user.setUserName(requireText(body, "userName"));
+        user.setPasswordHash(requireText(body, "password")); // Hashed by UserBookingService
+        if (!userBookingService.signup(user)) {
+            return Response.error(409, "Username already taken");
+        }
+        return Response.of(201, Map.of("userId", user.getUserId()));
+    }
+
+    private Response login(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        JsonNode body = readBody(exchange);
+        Optional<String> token;
+        try {
+            token = sessionService.login(requireText(body, "userName"), requireText(body, "password")).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                return Response.error(503, "Too many concurrent logins, retry later");
+            }
+            throw e;
+        }
+        return token.map(value -> Response.of(200, Map.of("token", value)))
+                .orElseGet(() -> Response.error(401, "Invalid username or password"));
+    }
+
+    private Response logout(HttpExchange exchange) {
+        requireMethod(exchange, "POST");
+        sessionService.logout(bearerToken(exchange));
+        return Response.of(204, null);
+    }
+
+    private Response trains(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        String[] path = pathSegments(exchange, "/api/trains");
+        Map<String, String> query = queryParameters(exchange);
+        if (path.length == 0) {
+            List<Train> trains;
+            if (query.containsKey("station")) {
+                trains = trainService.searchTrainByStation(query.get("station"));
+            } else if (query.containsKey("source") && query.containsKey("destination")) {
+                trains = trainService.searchTrainsBetween(query.get("source"), query.get("destination"));
+            } else {
+                trains = trainService.getAllTrains();
+            }
+            List<String> trainIds = new ArrayList<>(trains.size());
+            for (Train train : trains) {
+                trainIds.add(train.getTrainId());
+            }
+            Map<String, Integer> available = trainService.getAvailableSeats(trainIds);
+            List<Map<String, Object>> summaries = new ArrayList<>(trains.size());
+            for (Train train : trains) {
+                Map<String, Object> summary = trainSummary(train);
+                summary.put("available", available.getOrDefault(train.getTrainId(), 0));
+                summaries.add(summary);
+            }
+            return Response.of(200, summaries);
+        }
+        if (path.length == 2 && path[1].equals("seats")) {
+            String trainId = path[0];
+            if (trainService.getTrainById(trainId).isEmpty()) {
+                return Response.error(404, "Train not found: " + trainId);
+            }
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("trainId", trainId);
+            if (query.containsKey("date")) {
+                LocalDate date = parseDate(query.get("date"));
+                body.put("date", date.toString());
+                body.put("available", trainService.getAvailableSeats(trainId, query.get("source"), query.get("destination"), date));
+            } else if (query.containsKey("source") && query.containsKey("destination")) {
+                body.put("available", trainService.getAvailableSeats(trainId, query.get("source"), query.get("destination")));
+            } else {
+                body.put("available", trainService.getAvailableSeats(trainId));
+                body.put("availableByCoach", trainService.getAvailableSeatsByCoach(trainId));
+            }
+            return Response.of(200, body);
+        }
+        return Response.error(404, "Not found");
+    }
+
+    private Response bookings(HttpExchange exchange) throws IOException {
+        String userId = requireSession(exchange);
+        String[] path = pathSegments(exchange, "/api/bookings");
+        String method = exchange.getRequestMethod();
+        if (path.length == 0 && method.equals("GET")) {
+            return Response.of(200, userBookingService.getBookings(userId));
+        }
+        if (path.length == 0 && method.equals("POST")) {
+            return book(userId, readBody(exchange));
+        }
+        if (path.length == 1 && method.equals("DELETE")) {
+            return cancel(userId, path[0]);
+        }
+        return Response.error(405, "Method not allowed");
+    }
+
+    private Response book(String userId, JsonNode body) {
+        String trainId = requireText(body, "trainId");
+        int row = requireInt(body, "row");
+        int col = requireInt(body, "col");
+        String source = body.path("source").asText(null);
+        String destination = body.path("destination").asText(null);
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (train.isEmpty()) {
+            return Response.error(404, "Train not found: " + trainId);
+        }
+        if (!train.get().getSeats().isValid(row, col)) {
+            return Response.error(400, "Invalid seat position");
+        }
+        String dateOfJourney = body.path("dateOfJourney").asText(null);
+        LocalDate date = dateOfJourney == null ? null : parseDate(dateOfJourney);
+        if (date != null && !trainService.isBookableDate(date)) {
+            return Response.error(400, "Date is outside the booking period: " + date);
+        }
+        boolean journey = source != null && destination != null;
+        boolean booked = date != null
+                ? trainTicketService.bookTicket(trainId, row, col, journey ? source : null, journey ? destination : null, date)
+                : journey
+                ? trainTicketService.bookTicket(trainId, row, col, source, destination)
+                : trainTicketService.bookTicket(trainId, row, col);
+        if (!booked) {
+            return Response.error(409, "Seat is not available");
+        }
+        Ticket ticket = newTicket(userId, train.get(), row, col, source, destination, date == null ? null : date.toString());
+        try {
+            return Response.of(201, userBookingService.recordBooking(ticket));
+        } catch (RuntimeException e) {
+            // No ticket holds the seat; give it back rather than leave it sold to nobody
+            releaseSeat(trainId, row, col, journey ? source : null, journey ? destination : null, date);
+            throw e;
+        }
+    }
+
+    private Response waitlist(HttpExchange exchange) throws IOException {
+        String userId = requireSession(exchange);
+        if (waitlistService == null) {
+            return Response.error(404, "Not found");
+        }
+        String[] path = pathSegments(exchange, "/api/waitlist");
+        String method = exchange.getRequestMethod();
+        if (path.length == 0 && method.equals("POST")) {
+            return joinWaitlist(userId, readBody(exchange));
+        }
+        if (path.length != 1) {
+            return Response.error(405, "Method not allowed");
+        }
+        String waitlistId = path[0];
+        Optional<WaitlistEntry> entry = waitlistService.find(waitlistId);
+        if (entry.isEmpty() || !entry.get().getUserId().equals(userId)) {
+            return Response.error(404, "Not on the waitlist: " + waitlistId);
+        }
+        if (method.equals("GET")) {
+            OptionalInt position = waitlistService.position(waitlistId);
+            return position.isPresent()
+                    ? Response.of(200, Map.of("waitlistId", waitlistId, "position", position.getAsInt()))
+                    : Response.error(404, "Not on the waitlist: " + waitlistId);
+        }
+        if (method.equals("DELETE")) {
+            return waitlistService.leave(waitlistId)
+                    ? Response.of(204, null)
+                    : Response.error(404, "Not on the waitlist: " + waitlistId);
+        }
+        return Response.error(405, "Method not allowed");
+    }
+
+    private Response joinWaitlist(String userId, JsonNode body) {
+        String trainId = requireText(body, "trainId");
+        String source = body.path("source").asText(null);
+        String destination = body.path("destination").asText(null);
+        boolean journey = source != null && destination != null;
+        if (trainService.getTrainById(trainId).isEmpty()) {
+            return Response.error(404, "Train not found: " + trainId);
+        }
+        String dateOfJourney = body.path("dateOfJourney").asText(null);
+        LocalDate date = dateOfJourney == null ? null : parseDate(dateOfJourney);
+        // Clients all wait at the same priority; other levels are for callers inside the server
+        Optional<WaitlistEntry> entry = waitlistService.join(userId, trainId, journey ? source : null,
+                journey ? destination : null, date, 0);
+        if (entry.isEmpty()) {
+            return Response.error(400, "Invalid journey or date");
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("waitlistId", entry.get().getWaitlistId());
+        OptionalInt position = waitlistService.position(entry.get().getWaitlistId());
+        // Seated at once if a seat was free; the ticket is already in the user's bookings
+        response.put("position", position.isPresent() ? position.getAsInt() : 0);
+        return Response.of(201, response);
+    }
+
+    /**
+     * A ticket for a seat on the train; null source and destination stand for the whole run. A
+     * dated ticket's seat is on that date's run.
+     */
+    private static Ticket newTicket(String userId, Train train, int row, int col, String source, String destination,
+                                    String dateOfJourney) {
+        List<String> stations = train.getStations();
+        Ticket ticket = new Ticket();
+        ticket.setUserId(userId);
+        ticket.setTrainId(train.getTrainId());
+        ticket.setRow(row);
+        ticket.setCol(col);
+        ticket.setSource(source != null ? source : stations == null || stations.isEmpty() ? null : stations.get(0));
+        ticket.setDestination(destination != null ? destination : stations == null || stations.isEmpty() ? null : stations.get(stations.size() - 1));
+        ticket.setDateOfJourney(dateOfJourney);
+        ticket.setRunDate(dateOfJourney);
+        return ticket;
+    }
+
+    private Response cancel(String userId, String ticketId) {
+        Optional<Ticket> ticket = userBookingService.getTicket(ticketId);
+        if (ticket.isEmpty()) {
+            return Response.error(404, "Ticket not found: " + ticketId);
+        }
+        Ticket cancelled = ticket.get();
+        if (!userId.equals(cancelled.getUserId())) {
+            return Response.error(403, "Ticket " + ticketId + " belongs to another user");
+        }
+        if (userBookingService.removeBooking(ticketId).isEmpty()) {
+            return Response.error(404, "Ticket not found: " + ticketId);
+        }
+        if (cancelled.getRow() != null && cancelled.getCol() != null) {
+            boolean released;
+            try {
+                released = trainTicketService.cancelTicket(cancelled);
+            } catch (RuntimeException e) {
+                // The seat is still booked, so the ticket for it must stay too. Removing the ticket
+                // first keeps a concurrent cancel of the same ticket from releasing the seat twice
+                userBookingService.recordBooking(cancelled);
+                throw e;
+            }
+            if (!released) {
+                // The ticket is gone either way; it pointed at a seat that was not booked
+                return Response.error(409, "Seat of ticket " + ticketId + " was not booked");
+            }
+        }
+        return Response.of(204, null);
+    }
+
+    /**
+     * Releases a seat the way it was booked: on a dated run if there is a date, else on the
+     * train's own seat map, for the journey or, with null stations, the whole run.
+     * @return true if the seat was released.
+     */
+    private boolean releaseSeat(String trainId, int row, int col, String source, String destination, LocalDate date) {
+        if (date != null) {
+            return trainTicketService.cancelTicket(trainId, row, col, source, destination, date);
+        }
+        return source != null && destination != null
+                ? trainTicketService.cancelTicket(trainId, row, col, source, destination)
+                : trainTicketService.cancelTicket(trainId, row, col);
+    }
+
+    private static Map<String, Object> trainSummary(Train train) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("trainId", train.getTrainId());
+        summary.put("trainNo", train.getTrainNo());
+        summary.put("stations", train.getStations());
+        summary.put("stationTimes", train.getStationTimes());
+        return summary;
+    }
+
+    /**
+     * Service latency histograms and outcome counters in the Prometheus text format. Like the
+     * rest of the API it is served on the loopback interface only.
+     */
+    private Response metrics(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        return Response.text(200, ServiceMetrics.global().dump());
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        Response response;
+        try {
+            response = handler.handle(exchange);
+        } catch (ApiException e) {
+            response = Response.error(e.status, e.getMessage());
+        } catch (RuntimeException e) {
+            logger.severe("Error handling " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + e);
+            response = Response.error(500, "Internal error");
+        }
+        try (exchange) {
+            if (response.body == null) {
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            byte[] bytes = response.body instanceof String
+                    ? ((String) response.body).getBytes(StandardCharsets.UTF_8)
+                    : objectMapper.writeValueAsBytes(response.body);
+            exchange.getResponseHeaders().set("Content-Type", response.contentType);
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private String requireSession(HttpExchange exchange) {
+        return sessionService.validate(bearerToken(exchange))
+                .orElseThrow(() -> new ApiException(401, "Login required"));
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        return header.substring("Bearer ".length()).trim();
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new ApiException(405, "Method not allowed");
+        }
+    }
+
+    private static JsonNode readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode body = objectMapper.readTree(in);
+            if (body == null || !body.isObject()) {
+                throw new ApiException(400, "Expected a JSON object");
+            }
+            return body;
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new ApiException(400, "Malformed JSON");
+        }
+    }
+
+    private static String requireText(JsonNode body, String field) {
+        JsonNode value = body.get(field);
+        if (value == null || !value.isTextual() || value.asText().isBlank()) {
+            throw new ApiException(400, "Missing field: " + field);
+        }
+        return value.asText();
+    }
+
+    private static int requireInt(JsonNode body, String field) {
+        JsonNode value = body.get(field);
+        if (value == null || !value.canConvertToInt()) {
+            throw new ApiException(400, "Missing field: " + field);
+        }
+        return value.asInt();
+    }
+
+    private static LocalDate parseDate(String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new ApiException(400, "Invalid date: " + text);
+        }
+    }
+
+    private static String[] pathSegments(HttpExchange exchange, String prefix) {
+        String rest = exchange.getRequestURI().getPath().substring(prefix.length());
+        List<String> segments = new ArrayList<>();
+        for (String segment : rest.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, StandardCharsets.UTF_8));
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Serves the API on the port given as the first argument (default 8080) over the
+     * default local database.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("booking.http.port", 8080);
+        LocalDatabase localDatabase = LocalDatabase.open();
+        TrainService trainService = new TrainService(localDatabase.trains(), localDatabase.runs());
+        UserBookingService userBookingService = new UserBookingService(localDatabase.users(), localDatabase.tickets(), localDatabase.trains());
+        SessionService sessionService = new SessionService(userBookingService);
+        WaitlistService waitlistService = new WaitlistService(trainService);
+        // Promoted waiters already hold their seat; issue the ticket that goes with it
+        waitlistService.setPromotionListener(entry -> trainService.getTrainById(entry.getTrainId())
+                .ifPresent(train -> userBookingService.recordBooking(newTicket(entry.getUserId(), train, entry.getRow(),
+                        entry.getCol(), entry.getSource(), entry.getDestination(), entry.getDateOfJourney()))));
+        BookingHttpServer server = new BookingHttpServer(port, trainService,
+                new TrainTicketService(trainService, waitlistService), userBookingService, sessionService, waitlistService);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            sessionService.close();
+            try {
+                localDatabase.close();
+            } catch (IOException e) {
+                logger.severe("Error closing local database: " + e.getMessage());
+            }
+        }));
+        ServiceMetrics.global().registerMBeans();
+        server.start();
+    }
+
+    private interface Handler {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static final class Response {
+        final int status;
+        final Object body;
+        final String contentType;
+
+        private Response(int status, Object body, String contentType) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        static Response of(int status, Object body) {
+            return new Response(status, body, "application/json");
+        }
+
+        static Response text(int status, String body) {
+            return new Response(status, body, "text/plain; version=0.0.4; charset=utf-8");
+        }
+
+        static Response error(int status, String message) {
+            return of(status, Map.of("error", message));
+        }
+    }
+
+    private static final class ApiException extends RuntimeException {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.example.metrics;
+
+import java.util.Locale;
+
+/**
+ * Service-layer operations whose latency is recorded.
+ */
+public enum Operation {
+    SEARCH,
+    AVAILABILITY,
+    BOOK,
+    CANCEL,
+    LOGIN,
+    PERSIST;
+
+    /**
+     * Lower-case name used in metric labels and JMX object names.
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
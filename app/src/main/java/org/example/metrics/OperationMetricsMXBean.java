@@ -0,0 +1,22 @@
+package org.example.metrics;
+
+/**
+ * JMX view of one operation's latency histogram, in microseconds.
+ */
+public interface OperationMetricsMXBean {
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,32 @@
+package org.example.metrics;
+
+import java.util.Locale;
+
+/**
+ * Counted results of service-layer operations, failures broken down by reason.
+ */
+public enum Outcome {
+    BOOKED,
+    SEAT_TAKEN,
+    INVALID_SEAT,
+    INVALID_JOURNEY,
+    TRAIN_NOT_FOUND,
+    GROUP_NOT_SEATED,
+    CANCELLED,
+    NOT_BOOKED,
+    SEAT_HELD,
+    WAITLISTED,
+    WAITLIST_PROMOTED,
+    LOGIN_SUCCEEDED,
+    LOGIN_FAILED,
+    LOGIN_REJECTED,
+    VERSION_CONFLICT,
+    PERSIST_FAILED;
+
+    /**
+     * Lower-case name used in metric labels and JMX attributes.
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
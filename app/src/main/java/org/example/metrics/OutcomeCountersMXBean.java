@@ -0,0 +1,17 @@
+package org.example.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the outcome counters.
+ */
+public interface OutcomeCountersMXBean {
+    /**
+     * Count per outcome label, e.g. {@code seat_taken}.
+     */
+    Map<String, Long> getCounts();
+
+    long getBookingConflicts();
+
+    long getInvalidSeatRejections();
+}
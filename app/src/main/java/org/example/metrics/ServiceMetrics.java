@@ -0,0 +1,202 @@
+package org.example.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide latency histograms per {@link Operation} and counters per {@link Outcome} for the
+ * service layer. Like the loggers, there is one shared instance, so services record into it
+ * without being handed a registry.
+ * <p>
+ * Recording does not allocate: callers take {@link #start()} and pass it to {@link #record}.
+ * The numbers are exposed through JMX ({@link #registerMBeans()}) and as a text dump in the
+ * Prometheus exposition format ({@link #dump()}).
+ */
+public final class ServiceMetrics {
+    private static final Logger logger = Logger.getLogger(ServiceMetrics.class.getName());
+    private static final ServiceMetrics GLOBAL = new ServiceMetrics();
+    private static final String JMX_DOMAIN = "org.example";
+    private static final double[] DUMP_QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+
+    ServiceMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+    }
+
+    public static ServiceMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Start time to pass to {@link #record}.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since {@code startNanos} for an operation.
+     */
+    public void record(Operation operation, long startNanos) {
+        histograms[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void increment(Outcome outcome) {
+        outcomes[outcome.ordinal()].increment();
+    }
+
+    public LatencyHistogram histogram(Operation operation) {
+        return histograms[operation.ordinal()];
+    }
+
+    public long count(Outcome outcome) {
+        return outcomes[outcome.ordinal()].sum();
+    }
+
+    /**
+     * Registers one MBean per operation ({@code org.example:type=ServiceMetrics,operation=book})
+     * and one for the outcome counters ({@code org.example:type=ServiceMetrics,name=outcomes})
+     * with the platform MBean server. Already registered beans are left as they are.
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Operation operation : Operation.values()) {
+                register(server, new ObjectName(JMX_DOMAIN + ":type=ServiceMetrics,operation=" + operation.label()),
+                        new OperationMetrics(histogram(operation)));
+            }
+            register(server, new ObjectName(JMX_DOMAIN + ":type=ServiceMetrics,name=outcomes"), new OutcomeCounters());
+        } catch (JMException e) {
+            logger.warning("Error registering service metrics MBeans: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Renders every histogram and counter in the Prometheus text exposition format, latencies
+     * in seconds.
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP booking_operation_latency_seconds Service-layer operation latency.\n");
+        out.append("# TYPE booking_operation_latency_seconds summary\n");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = histogram(operation);
+            String label = "operation=\"" + operation.label() + "\"";
+            for (double quantile : DUMP_QUANTILES) {
+                out.append("booking_operation_latency_seconds{").append(label)
+                        .append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.percentileNanos(quantile * 100))).append('\n');
+            }
+            out.append("booking_operation_latency_seconds_sum{").append(label).append("} ")
+                    .append(seconds(histogram.totalNanos())).append('\n');
+            out.append("booking_operation_latency_seconds_count{").append(label).append("} ")
+                    .append(histogram.count()).append('\n');
+        }
+        out.append("# HELP booking_operation_latency_seconds_max Longest recorded latency.\n");
+        out.append("# TYPE booking_operation_latency_seconds_max gauge\n");
+        for (Operation operation : Operation.values()) {
+            out.append("booking_operation_latency_seconds_max{operation=\"").append(operation.label()).append("\"} ")
+                    .append(seconds(histogram(operation).maxNanos())).append('\n');
+        }
+        out.append("# HELP booking_outcomes_total Service-layer results by outcome.\n");
+        out.append("# TYPE booking_outcomes_total counter\n");
+        for (Outcome outcome : Outcome.values()) {
+            out.append("booking_outcomes_total{outcome=\"").append(outcome.label()).append("\"} ")
+                    .append(count(outcome)).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object bean) throws JMException {
+        if (!server.isRegistered(name)) {
+            server.registerMBean(bean, name);
+        }
+    }
+
+    private static final class OperationMetrics implements OperationMetricsMXBean {
+        private final LatencyHistogram histogram;
+
+        OperationMetrics(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.count();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return histogram.meanNanos() / 1000.0;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return histogram.percentileNanos(50) / 1000.0;
+        }
+
+        @Override
+        public double getP90Micros() {
+            return histogram.percentileNanos(90) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return histogram.percentileNanos(99) / 1000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return histogram.percentileNanos(99.9) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return histogram.maxNanos() / 1000.0;
+        }
+
+        @Override
+        public void reset() {
+            histogram.reset();
+        }
+    }
+
+    private final class OutcomeCounters implements OutcomeCountersMXBean {
+        @Override
+        public Map<String, Long> getCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (Outcome outcome : Outcome.values()) {
+                counts.put(outcome.label(), count(outcome));
+            }
+            return counts;
+        }
+
+        @Override
+        public long getBookingConflicts() {
+            return count(Outcome.SEAT_TAKEN);
+        }
+
+        @Override
+        public long getInvalidSeatRejections() {
+            return count(Outcome.INVALID_SEAT);
+        }
+    }
+}
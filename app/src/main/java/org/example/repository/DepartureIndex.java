@@ -0,0 +1,114 @@
+package org.example.repository;
+
+import org.example.entity.Train;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+/**
+ * Per-station index of departure times. Each train's ISO-8601 station times are parsed once into
+ * epoch milliseconds and kept in a sorted set per station, so a time-window query is a log-time
+ * seek followed by a walk over the matching range.
+ */
+public class DepartureIndex {
+    private static final Logger logger = Logger.getLogger(DepartureIndex.class.getName());
+
+    private final Map<String, NavigableSet<Departure>> departures = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes the train's departure from every station on its route except the last.
+     */
+    public void add(Train train) {
+        forEachDeparture(train, (station, departure) ->
+                departures.computeIfAbsent(station, name -> new ConcurrentSkipListSet<>(Departure.ORDER)).add(departure));
+    }
+
+    /**
+     * Removes the train's departures, dropping stations no train departs from any more.
+     */
+    public void remove(Train train) {
+        forEachDeparture(train, (station, departure) ->
+                departures.computeIfPresent(station, (name, set) -> {
+                    set.remove(departure);
+                    return set.isEmpty() ? null : set;
+                }));
+    }
+
+    public void clear() {
+        departures.clear();
+    }
+
+    /**
+     * Returns departures from the station in [from, to), ordered by time.
+     */
+    public List<Departure> between(String station, Instant from, Instant to) {
+        NavigableSet<Departure> set = departures.get(station);
+        if (set == null || !from.isBefore(to)) {
+            return new ArrayList<>();
+        }
+        Departure low = new Departure("", from.toEpochMilli());
+        Departure high = new Departure("", to.toEpochMilli());
+        return new ArrayList<>(set.subSet(low, true, high, false));
+    }
+
+    private void forEachDeparture(Train train, DepartureConsumer consumer) {
+        List<String> stations = train.getStations();
+        Map<String, String> times = train.getStationTimes();
+        if (stations == null || times == null) {
+            return;
+        }
+        for (int i = 0; i < stations.size() - 1; i++) {
+            String station = stations.get(i);
+            String time = times.get(station);
+            if (time == null) {
+                continue;
+            }
+            try {
+                consumer.accept(station, new Departure(train.getTrainId(), Instant.parse(time).toEpochMilli()));
+            } catch (DateTimeParseException e) {
+                logger.warning("Skipping unparseable time " + time + " of train " + train.getTrainId() + " at " + station);
+            }
+        }
+    }
+
+    private interface DepartureConsumer {
+        void accept(String station, Departure departure);
+    }
+
+    /**
+     * A train leaving a station at a point in time.
+     */
+    public static final class Departure {
+        // Ties on time are broken by train ID; the empty ID sorts first, which range bounds rely on
+        static final Comparator<Departure> ORDER = Comparator.comparingLong(Departure::getEpochMillis)
+                .thenComparing(Departure::getTrainId);
+
+        private final String trainId;
+        private final long epochMillis;
+
+        Departure(String trainId, long epochMillis) {
+            this.trainId = trainId;
+            this.epochMillis = epochMillis;
+        }
+
+        public String getTrainId() {
+            return trainId;
+        }
+
+        public long getEpochMillis() {
+            return epochMillis;
+        }
+
+        public Instant getTime() {
+            return Instant.ofEpochMilli(epochMillis);
+        }
+    }
+}
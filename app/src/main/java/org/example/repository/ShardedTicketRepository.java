@@ -0,0 +1,102 @@
+package org.example.repository;
+
+import org.example.entity.Ticket;
+import org.example.storage.ShardSet;
+import org.example.storage.TicketFileScanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Tickets partitioned by user ID hash over several {@link TicketRepository} shards, each with its
+ * own snapshot file and journal. A user's tickets all live in one shard, so listing them and
+ * booking for them open and lock that shard only. Lookups by ticket ID alone do not know the
+ * shard and check each one, streaming the files of shards not yet loaded.
+ */
+public class ShardedTicketRepository implements TicketStore, Closeable {
+    private static final Logger logger = Logger.getLogger(ShardedTicketRepository.class.getName());
+
+    private final ShardSet<TicketRepository> shards;
+
+    public ShardedTicketRepository(Path directory, int shardCount, boolean fsync) throws IOException {
+        this.shards = new ShardSet<>(directory, shardCount, fsync, TicketRepository::new);
+    }
+
+    /**
+     * Finds a ticket in any shard. Shards not yet loaded whose journal is empty are streamed from
+     * their snapshot file, stopping at the match, instead of being opened.
+     */
+    @Override
+    public Optional<Ticket> findById(String ticketId) {
+        if (ticketId == null) {
+            return Optional.empty();
+        }
+        for (int i = 0; i < shards.count(); i++) {
+            Optional<Ticket> ticket = findInShard(i, ticketId);
+            if (ticket.isPresent()) {
+                return ticket;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public List<Ticket> findByUserId(String userId) {
+        return userId == null ? new ArrayList<>() : shards.forKey(userId).findByUserId(userId);
+    }
+
+    @Override
+    public List<Ticket> findAll() {
+        List<Ticket> all = new ArrayList<>();
+        for (TicketRepository shard : shards.all()) {
+            all.addAll(shard.findAll());
+        }
+        return all;
+    }
+
+    @Override
+    public void save(Ticket ticket) {
+        shards.forKey(ticket.getUserId()).save(ticket);
+    }
+
+    @Override
+    public Optional<Ticket> delete(String ticketId) {
+        return findById(ticketId).flatMap(ticket -> shards.forKey(ticket.getUserId()).delete(ticketId));
+    }
+
+    private Optional<Ticket> findInShard(int index, String ticketId) {
+        try {
+            Optional<Path> snapshot = shards.unopenedSnapshot(index);
+            if (snapshot.isPresent()) {
+                return TicketFileScanner.findById(snapshot.get(), ticketId);
+            }
+        } catch (IOException e) {
+            logger.warning("Error scanning ticket shard " + index + ", loading it instead: " + e.getMessage());
+        }
+        return shards.get(index).findById(ticketId);
+    }
+
+    /**
+     * Catches up with what other processes wrote to the open shards.
+     */
+    public void refresh() {
+        shards.refresh();
+    }
+
+    /**
+     * Compacts the journals of open shards that have grown past the threshold.
+     */
+    public void compactIfLarge(long thresholdBytes) throws IOException {
+        shards.compactIfLarge(thresholdBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        shards.close();
+    }
+}
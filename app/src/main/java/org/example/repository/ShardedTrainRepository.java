@@ -0,0 +1,215 @@
+package org.example.repository;
+
+import org.example.entity.Train;
+import org.example.storage.JournalEvent;
+import org.example.storage.ShardSet;
+import org.example.storage.WriteLease;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Trains partitioned by train ID hash over several {@link TrainRepository} shards, each with its
+ * own snapshot file and journal. Lookups and writes by train ID open and touch one shard only;
+ * searches over all trains open every shard and merge their answers.
+ */
+public class ShardedTrainRepository implements TrainStore, Closeable {
+    private static final Comparator<Train> BY_ID = Comparator.comparing(Train::getTrainId);
+
+    private final ShardSet<TrainRepository> shards;
+
+    public ShardedTrainRepository(Path directory, int shardCount, boolean fsync) throws IOException {
+        this.shards = new ShardSet<>(directory, shardCount, fsync, TrainRepository::new);
+    }
+
+    @Override
+    public Optional<Train> findById(String trainId) {
+        return trainId == null ? Optional.empty() : shard(trainId).findById(trainId);
+    }
+
+    @Override
+    public List<Train> findAll() {
+        return merge(TrainRepository::findAll);
+    }
+
+    @Override
+    public List<Train> findByStation(String station) {
+        return merge(shard -> shard.findByStation(station));
+    }
+
+    @Override
+    public List<Train> findByRoute(String source, String destination) {
+        return merge(shard -> shard.findByRoute(source, destination));
+    }
+
+    @Override
+    public List<Train> findDepartures(String station, Instant from, Instant to) {
+        List<Train> departures = new ArrayList<>();
+        for (TrainRepository shard : shards.all()) {
+            departures.addAll(shard.findDepartures(station, from, to));
+        }
+        departures.sort(Comparator.comparing((Train train) -> departureTime(train, station)).thenComparing(BY_ID));
+        return departures;
+    }
+
+    @Override
+    public boolean exists(String trainId) {
+        return trainId != null && shard(trainId).exists(trainId);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (TrainRepository shard : shards.all()) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void save(Train train) {
+        shard(train.getTrainId()).save(train);
+    }
+
+    @Override
+    public boolean replace(Train train) {
+        return shard(train.getTrainId()).replace(train);
+    }
+
+    @Override
+    public boolean delete(String trainId) {
+        return shard(trainId).delete(trainId);
+    }
+
+    @Override
+    public void seatBooked(String trainId, int row, int col) {
+        shard(trainId).seatBooked(trainId, row, col);
+    }
+
+    @Override
+    public void seatReleased(String trainId, int row, int col) {
+        shard(trainId).seatReleased(trainId, row, col);
+    }
+
+    @Override
+    public void legBooked(String trainId, int row, int col, int fromSegment, int toSegment) {
+        shard(trainId).legBooked(trainId, row, col, fromSegment, toSegment);
+    }
+
+    @Override
+    public void legReleased(String trainId, int row, int col, int fromSegment, int toSegment) {
+        shard(trainId).legReleased(trainId, row, col, fromSegment, toSegment);
+    }
+
+    @Override
+    public void seatsBooked(String trainId, int[][] seats) {
+        shard(trainId).seatsBooked(trainId, seats);
+    }
+
+    @Override
+    public void legsBooked(String trainId, int[][] seats, int fromSegment, int toSegment) {
+        shard(trainId).legsBooked(trainId, seats, fromSegment, toSegment);
+    }
+
+    /**
+     * Persists a batch with one write per shard it touches.
+     */
+    @Override
+    public void seatChanges(List<JournalEvent> events) {
+        Map<Integer, List<JournalEvent>> byShard = new LinkedHashMap<>();
+        for (JournalEvent event : events) {
+            byShard.computeIfAbsent(ShardSet.indexOf(event.getTrainId(), shards.count()), index -> new ArrayList<>())
+                    .add(event);
+        }
+        for (Map.Entry<Integer, List<JournalEvent>> entry : byShard.entrySet()) {
+            shards.get(entry.getKey()).seatChanges(entry.getValue());
+        }
+    }
+
+    @Override
+    public WriteLease lease(String trainId) {
+        return shard(trainId).lease(trainId);
+    }
+
+    /**
+     * Takes the leases of the shards the trains belong to in shard order, each with the locks of
+     * its trains, so that two processes or threads leasing overlapping shards cannot each wait
+     * for the other.
+     */
+    @Override
+    public WriteLease leaseAll(Collection<String> trainIds) {
+        TreeMap<Integer, List<String>> byShard = new TreeMap<>();
+        for (String trainId : trainIds) {
+            byShard.computeIfAbsent(ShardSet.indexOf(trainId, shards.count()), index -> new ArrayList<>()).add(trainId);
+        }
+        List<WriteLease> leases = new ArrayList<>(byShard.size());
+        try {
+            for (Map.Entry<Integer, List<String>> shard : byShard.entrySet()) {
+                leases.add(shards.get(shard.getKey()).leaseAll(shard.getValue()));
+            }
+        } catch (RuntimeException e) {
+            closeAll(leases);
+            throw e;
+        }
+        return () -> closeAll(leases);
+    }
+
+    /**
+     * Catches up with what other processes wrote to the open shards.
+     */
+    public void refresh() {
+        shards.refresh();
+    }
+
+    /**
+     * Compacts the journals of open shards that have grown past the threshold.
+     */
+    public void compactIfLarge(long thresholdBytes) throws IOException {
+        shards.compactIfLarge(thresholdBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        shards.close();
+    }
+
+    private static void closeAll(List<WriteLease> leases) {
+        List<WriteLease> reversed = new ArrayList<>(leases);
+        Collections.reverse(reversed);
+        reversed.forEach(WriteLease::close);
+    }
+
+    private TrainRepository shard(String trainId) {
+        return shards.forKey(trainId);
+    }
+
+    private List<Train> merge(Function<TrainRepository, List<Train>> query) {
+        List<Train> merged = new ArrayList<>();
+        for (TrainRepository shard : shards.all()) {
+            merged.addAll(query.apply(shard));
+        }
+        merged.sort(BY_ID);
+        return merged;
+    }
+
+    private static Instant departureTime(Train train, String station) {
+        try {
+            return Instant.parse(train.getStationTimes().get(station));
+        } catch (DateTimeParseException | NullPointerException e) {
+            return Instant.MAX;
+        }
+    }
+}
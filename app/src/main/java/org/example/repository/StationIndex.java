@@ -0,0 +1,96 @@
+package org.example.repository;
+
+import org.example.entity.Train;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from station name to the trains stopping there, each posting holding the
+ * station's position on that train's route. Route queries intersect the two stations' postings
+ * and keep trains where the source comes before the destination.
+ */
+public class StationIndex {
+
+    // station -> (trainId -> position of the station on the train's route)
+    private final Map<String, Map<String, Integer>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Adds postings for every station on the train's route.
+     */
+    public void add(Train train) {
+        List<String> stations = train.getStations();
+        if (stations == null) {
+            return;
+        }
+        for (int position = 0; position < stations.size(); position++) {
+            postings.computeIfAbsent(stations.get(position), station -> new ConcurrentHashMap<>())
+                    .putIfAbsent(train.getTrainId(), position);
+        }
+    }
+
+    /**
+     * Removes the train's postings, dropping stations no train stops at any more.
+     */
+    public void remove(Train train) {
+        List<String> stations = train.getStations();
+        if (stations == null) {
+            return;
+        }
+        for (String station : stations) {
+            postings.computeIfPresent(station, (name, trains) -> {
+                trains.remove(train.getTrainId());
+                return trains.isEmpty() ? null : trains;
+            });
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+    }
+
+    /**
+     * Returns the IDs of trains stopping at the station, sorted.
+     */
+    public List<String> trainsAt(String station) {
+        Map<String, Integer> trains = postings.get(station);
+        if (trains == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<>(trains.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Returns the IDs of trains that stop at the source and later at the destination, sorted.
+     */
+    public List<String> trainsBetween(String source, String destination) {
+        Map<String, Integer> from = postings.get(source);
+        Map<String, Integer> to = postings.get(destination);
+        if (from == null || to == null) {
+            return Collections.emptyList();
+        }
+        // Walk the shorter posting list and probe the longer one
+        boolean fromSmaller = from.size() <= to.size();
+        Map<String, Integer> walk = fromSmaller ? from : to;
+        Map<String, Integer> probe = fromSmaller ? to : from;
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, Integer> posting : walk.entrySet()) {
+            Integer other = probe.get(posting.getKey());
+            if (other == null) {
+                continue;
+            }
+            int sourcePosition = fromSmaller ? posting.getValue() : other;
+            int destinationPosition = fromSmaller ? other : posting.getValue();
+            if (sourcePosition < destinationPosition) {
+                ids.add(posting.getKey());
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
@@ -0,0 +1,236 @@
+package org.example.repository;
+
+import org.example.entity.Ticket;
+import org.example.storage.BinarySnapshot;
+import org.example.storage.BookingJournal;
+import org.example.storage.JournalEvent;
+import org.example.storage.JournaledStore;
+import org.example.storage.JsonFiles;
+import org.example.storage.TicketFileScanner;
+import org.example.storage.WriteLease;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Resident store of tickets, loaded once from the JSON file. Tickets are indexed by ticket ID
+ * (primary) and by user ID (secondary multi-map), both kept in sync on every write, so a user's
+ * bookings cost O(that user's tickets) to look up.
+ * With a journal, changes are appended to it; without one, the file is rewritten.
+ * Every save bumps the ticket's version, and saving a copy older than the stored ticket fails.
+ */
+public class TicketRepository implements TicketStore, JournaledStore {
+    private static final Logger logger = Logger.getLogger(TicketRepository.class.getName());
+
+    private final Path ticketPath;
+    private final BookingJournal journal;
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> ticketIdsByUser = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    /**
+     * Creates a store that writes every change straight back to the file.
+     */
+    public TicketRepository(Path ticketPath) {
+        this(ticketPath, null);
+    }
+
+    /**
+     * Creates a store that records changes in the journal; the file is its snapshot.
+     */
+    public TicketRepository(Path ticketPath, BookingJournal journal) {
+        this.ticketPath = ticketPath;
+        this.journal = journal;
+        reload();
+    }
+
+    @Override
+    public Optional<Ticket> findById(String ticketId) {
+        return ticketId == null ? Optional.empty() : Optional.ofNullable(tickets.get(ticketId));
+    }
+
+    /**
+     * Returns the tickets booked by a user, ordered by ticket ID.
+     */
+    @Override
+    public List<Ticket> findByUserId(String userId) {
+        Set<String> ticketIds = userId == null ? null : ticketIdsByUser.get(userId);
+        if (ticketIds == null) {
+            return new ArrayList<>();
+        }
+        List<Ticket> userTickets = new ArrayList<>(ticketIds.size());
+        for (String ticketId : ticketIds) {
+            Ticket ticket = tickets.get(ticketId);
+            if (ticket != null && userId.equals(ticket.getUserId())) {
+                userTickets.add(ticket);
+            } else if (ticket != null) {
+                // The stored ticket was given to another user in place, so put() unindexed the wrong user
+                ticketIds.remove(ticketId);
+            }
+        }
+        userTickets.sort(Comparator.comparing(Ticket::getTicketId));
+        return userTickets;
+    }
+
+    @Override
+    public List<Ticket> findAll() {
+        return new ArrayList<>(tickets.values());
+    }
+
+    /**
+     * Inserts or replaces a ticket and persists the change.
+     * @throws VersionConflictException if the stored ticket has a different version.
+     */
+    @Override
+    public void save(Ticket ticket) {
+        try (WriteLease lease = lease()) {
+            synchronized (writeLock) {
+                Ticket current = tickets.get(ticket.getTicketId());
+                if (current != null && current != ticket && current.getVersion() != ticket.getVersion()) {
+                    throw new VersionConflictException("Ticket " + ticket.getTicketId() + " is at version "
+                            + current.getVersion() + ", not " + ticket.getVersion());
+                }
+                ticket.setVersion(ticket.getVersion() + 1);
+                put(ticket);
+                try {
+                    record(JournalEvent.ticketSaved(ticket));
+                } catch (RuntimeException e) {
+                    // Put back the stored ticket; one changed in place keeps its new fields in memory
+                    if (current == null) {
+                        remove(ticket.getTicketId());
+                    } else if (current != ticket) {
+                        put(current);
+                    }
+                    ticket.setVersion(ticket.getVersion() - 1);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a ticket and persists the change.
+     * @return the removed ticket, if it existed.
+     */
+    @Override
+    public Optional<Ticket> delete(String ticketId) {
+        try (WriteLease lease = lease()) {
+            synchronized (writeLock) {
+                Ticket removed = remove(ticketId);
+                if (removed != null) {
+                    try {
+                        record(JournalEvent.ticketDeleted(ticketId));
+                    } catch (RuntimeException e) {
+                        put(removed);
+                        throw e;
+                    }
+                }
+                return Optional.ofNullable(removed);
+            }
+        }
+    }
+
+    @Override
+    public void apply(JournalEvent event) {
+        if (event.getType() == JournalEvent.Type.TICKET_SAVED) {
+            synchronized (writeLock) {
+                put(event.getTicket());
+            }
+        } else if (event.getType() == JournalEvent.Type.TICKET_DELETED) {
+            synchronized (writeLock) {
+                remove(event.getTicketId());
+            }
+        }
+    }
+
+    @Override
+    public void reload() {
+        synchronized (writeLock) {
+            Map<String, Ticket> loaded = new LinkedHashMap<>();
+            try {
+                if (BinarySnapshot.isBinary(ticketPath)) {
+                    BinarySnapshot.readTickets(ticketPath).forEach(ticket -> loaded.put(ticket.getTicketId(), ticket));
+                } else {
+                    TicketFileScanner.forEach(ticketPath, ticket -> loaded.put(ticket.getTicketId(), ticket));
+                }
+            } catch (IOException e) {
+                logger.severe("Error reading ticket data: " + e.getMessage());
+                return;
+            }
+            // Readers keep seeing every ticket while the snapshot is merged over the current ones
+            for (String ticketId : new ArrayList<>(tickets.keySet())) {
+                if (!loaded.containsKey(ticketId)) {
+                    remove(ticketId);
+                }
+            }
+            loaded.values().forEach(this::put);
+        }
+    }
+
+    @Override
+    public void writeSnapshot() throws IOException {
+        if (BinarySnapshot.isBinary(ticketPath)) {
+            BinarySnapshot.writeTickets(ticketPath, findAll());
+        } else {
+            JsonFiles.writeAtomically(ticketPath, findAll());
+        }
+    }
+
+    /**
+     * Stores a ticket under both indexes. Callers must hold the write lock.
+     */
+    private void put(Ticket ticket) {
+        Ticket previous = tickets.put(ticket.getTicketId(), ticket);
+        if (previous != null && !Objects.equals(previous.getUserId(), ticket.getUserId())) {
+            unindex(previous);
+        }
+        if (ticket.getUserId() != null) {
+            ticketIdsByUser.computeIfAbsent(ticket.getUserId(), user -> ConcurrentHashMap.newKeySet())
+                    .add(ticket.getTicketId());
+        }
+    }
+
+    private Ticket remove(String ticketId) {
+        Ticket removed = tickets.remove(ticketId);
+        if (removed != null) {
+            unindex(removed);
+        }
+        return removed;
+    }
+
+    private void unindex(Ticket ticket) {
+        if (ticket.getUserId() == null) {
+            return;
+        }
+        ticketIdsByUser.computeIfPresent(ticket.getUserId(), (user, ticketIds) -> {
+            ticketIds.remove(ticket.getTicketId());
+            return ticketIds.isEmpty() ? null : ticketIds;
+        });
+    }
+
+    private WriteLease lease() {
+        return journal == null ? WriteLease.NONE : journal.lease();
+    }
+
+    private void record(JournalEvent event) {
+        if (journal != null) {
+            journal.append(event);
+        } else {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                logger.severe("Error saving ticket data: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.repository;
+
+import org.example.entity.Ticket;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Resident store of tickets as seen by the services. Implemented by a single-file
+ * {@link TicketRepository} and by the {@link ShardedTicketRepository} that spreads tickets
+ * over several files by user.
+ */
+public interface TicketStore {
+
+    Optional<Ticket> findById(String ticketId);
+
+    /**
+     * Returns the tickets booked by a user, ordered by ticket ID.
+     */
+    List<Ticket> findByUserId(String userId);
+
+    List<Ticket> findAll();
+
+    /**
+     * Inserts or replaces a ticket and persists the change.
+     */
+    void save(Ticket ticket);
+
+    /**
+     * Removes a ticket and persists the change.
+     * @return the removed ticket, if it existed.
+     */
+    Optional<Ticket> delete(String ticketId);
+}
@@ -0,0 +1,621 @@
+package org.example.repository;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.storage.BinarySnapshot;
+import org.example.storage.BookingJournal;
+import org.example.storage.JournalEvent;
+import org.example.storage.JournaledStore;
+import org.example.storage.JsonFiles;
+import org.example.storage.WriteLease;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Resident store of trains, loaded once from the JSON file and served from memory.
+ * With a journal, every change is appended to it and the file is only rewritten on compaction;
+ * without one, changes are written straight back to the file. An optional watcher reloads the
+ * store when the file is modified outside the application.
+ * <p>
+ * Every save bumps the train's version; {@link #replace} refuses a train whose version is not
+ * the stored one's, so an edit based on an outdated copy fails instead of undoing a newer one.
+ */
+public class TrainRepository implements TrainStore, JournaledStore, AutoCloseable {
+    private static final Logger logger = Logger.getLogger(TrainRepository.class.getName());
+    private static final Comparator<Train> BY_ID = Comparator.comparing(Train::getTrainId);
+
+    private final Path trainPath;
+    private final BookingJournal journal;
+    private final Map<String, Train> trains = new ConcurrentHashMap<>();
+    private final StationIndex stationIndex = new StationIndex();
+    private final DepartureIndex departureIndex = new DepartureIndex();
+    private final Object writeLock = new Object();
+    // Held while the file is written or read together with its modification time, and while the
+    // watcher compares that time, so the watcher never sees our own write before we record it
+    private final Object fileLock = new Object();
+    private final AtomicLong changeCount = new AtomicLong();
+    private long persistedChangeCount; // guarded by writeLock
+    private long failedChangeCount; // guarded by writeLock
+    private IOException writeFailure; // guarded by writeLock
+
+    // Modification time of the file as last read or written by us, so the watcher can skip our own writes
+    private long knownModifiedTime = -1L; // guarded by fileLock
+    // Records of the JSON file that could not be read as trains; written back on every rewrite
+    private volatile List<JsonNode> unreadable = List.of();
+    private volatile Runnable reloadListener = () -> { };
+    private WatchService watchService;
+    private Thread watcherThread;
+
+    /**
+     * Creates a store that writes every change straight back to the file.
+     */
+    public TrainRepository(Path trainPath) {
+        this(trainPath, null);
+    }
+
+    /**
+     * Creates a store that records changes in the journal; the file is its snapshot.
+     */
+    public TrainRepository(Path trainPath, BookingJournal journal) {
+        this.trainPath = trainPath;
+        this.journal = journal;
+        reload();
+    }
+
+    /**
+     * Looks up a train by ID without touching the file.
+     */
+    @Override
+    public Optional<Train> findById(String trainId) {
+        return trainId == null ? Optional.empty() : Optional.ofNullable(trains.get(trainId));
+    }
+
+    /**
+     * Returns a snapshot of all trains, ordered by train ID.
+     */
+    @Override
+    public List<Train> findAll() {
+        List<Train> all = new ArrayList<>(trains.values());
+        all.sort(BY_ID);
+        return all;
+    }
+
+    /**
+     * Returns the trains stopping at a station, ordered by train ID.
+     */
+    @Override
+    public List<Train> findByStation(String station) {
+        return resolve(stationIndex.trainsAt(station));
+    }
+
+    /**
+     * Returns the trains stopping at the source and later at the destination, ordered by train ID.
+     */
+    @Override
+    public List<Train> findByRoute(String source, String destination) {
+        return resolve(stationIndex.trainsBetween(source, destination));
+    }
+
+    /**
+     * Returns the trains leaving a station in [from, to), ordered by departure time.
+     */
+    @Override
+    public List<Train> findDepartures(String station, Instant from, Instant to) {
+        List<String> trainIds = new ArrayList<>();
+        for (DepartureIndex.Departure departure : departureIndex.between(station, from, to)) {
+            trainIds.add(departure.getTrainId());
+        }
+        return resolve(trainIds);
+    }
+
+    @Override
+    public boolean exists(String trainId) {
+        return trains.containsKey(trainId);
+    }
+
+    @Override
+    public int size() {
+        return trains.size();
+    }
+
+    /**
+     * Inserts or replaces a train, whatever its version, and persists the change.
+     */
+    @Override
+    public void save(Train train) {
+        try (WriteLease lease = lease(train.getTrainId())) {
+            synchronized (writeLock) {
+                Train current = trains.get(train.getTrainId());
+                long version = current == null ? train.getVersion() : Math.max(train.getVersion(), current.getVersion());
+                train.setVersion(version + 1);
+                put(train);
+                record(JournalEvent.trainSaved(train));
+            }
+        }
+    }
+
+    /**
+     * Replaces a train only if it is already present.
+     * @return true if the train existed and was replaced.
+     * @throws VersionConflictException if the stored train has a different version.
+     */
+    @Override
+    public boolean replace(Train train) {
+        try (WriteLease lease = lease(train.getTrainId())) {
+            synchronized (writeLock) {
+                Train current = trains.get(train.getTrainId());
+                if (current == null) {
+                    return false;
+                }
+                if (current != train && current.getVersion() != train.getVersion()) {
+                    throw new VersionConflictException("Train " + train.getTrainId() + " is at version "
+                            + current.getVersion() + ", not " + train.getVersion());
+                }
+                train.setVersion(train.getVersion() + 1);
+                put(train);
+                record(JournalEvent.trainSaved(train));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes a train and persists the change.
+     * @return true if the train existed.
+     */
+    @Override
+    public boolean delete(String trainId) {
+        try (WriteLease lease = lease(trainId)) {
+            synchronized (writeLock) {
+                if (!remove(trainId)) {
+                    return false;
+                }
+                record(JournalEvent.trainDeleted(trainId));
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes the journal's lease together with the train's lock, so that changes to the train by
+     * threads of this process are appended in the order they were made. A null train ID takes
+     * the lease alone.
+     */
+    @Override
+    public WriteLease lease(String trainId) {
+        if (journal == null) {
+            return WriteLease.NONE;
+        }
+        return trainId == null ? journal.lease() : journal.lease(List.of(trainId));
+    }
+
+    @Override
+    public WriteLease leaseAll(Collection<String> trainIds) {
+        return journal == null ? WriteLease.NONE : journal.lease(trainIds);
+    }
+
+    /**
+     * Persists a seat already booked in place on one of the stored trains.
+     */
+    @Override
+    public void seatBooked(String trainId, int row, int col) {
+        recordSeatChanges(List.of(JournalEvent.seatBooked(trainId, row, col)));
+    }
+
+    /**
+     * Persists a seat already released in place on one of the stored trains.
+     */
+    @Override
+    public void seatReleased(String trainId, int row, int col) {
+        recordSeatChanges(List.of(JournalEvent.seatReleased(trainId, row, col)));
+    }
+
+    /**
+     * Persists a seat already booked in place on segments [fromSegment, toSegment) of a stored train.
+     */
+    @Override
+    public void legBooked(String trainId, int row, int col, int fromSegment, int toSegment) {
+        recordSeatChanges(List.of(JournalEvent.legBooked(trainId, row, col, fromSegment, toSegment)));
+    }
+
+    /**
+     * Persists a seat already released in place on segments [fromSegment, toSegment) of a stored train.
+     */
+    @Override
+    public void legReleased(String trainId, int row, int col, int fromSegment, int toSegment) {
+        recordSeatChanges(List.of(JournalEvent.legReleased(trainId, row, col, fromSegment, toSegment)));
+    }
+
+    /**
+     * Persists a group of seats already booked in place on a stored train as a single write.
+     * @param seats [row, col] pairs.
+     */
+    @Override
+    public void seatsBooked(String trainId, int[][] seats) {
+        recordSeatChanges(List.of(JournalEvent.seatsBooked(trainId, seats)));
+    }
+
+    /**
+     * Persists a group of seats already booked in place on segments [fromSegment, toSegment)
+     * of a stored train as a single write.
+     * @param seats [row, col] pairs.
+     */
+    @Override
+    public void legsBooked(String trainId, int[][] seats, int fromSegment, int toSegment) {
+        recordSeatChanges(List.of(JournalEvent.legsBooked(trainId, seats, fromSegment, toSegment)));
+    }
+
+    /**
+     * Persists a batch of seat changes already made in place on stored trains as a single write.
+     */
+    @Override
+    public void seatChanges(List<JournalEvent> events) {
+        if (!events.isEmpty()) {
+            recordSeatChanges(events);
+        }
+    }
+
+    @Override
+    public void apply(JournalEvent event) {
+        switch (event.getType()) {
+            case TRAIN_SAVED:
+                synchronized (writeLock) {
+                    put(event.getTrain());
+                }
+                break;
+            case TRAIN_DELETED:
+                synchronized (writeLock) {
+                    remove(event.getTrainId());
+                }
+                break;
+            case SEAT_BOOKED:
+            case SEAT_RELEASED:
+                applySeatChange(event);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void writeSnapshot() throws IOException {
+        // Not under the write lock: compaction calls this while holding the journal, and
+        // journaled writers take the write lock before appending to the journal
+        List<Train> all = findAll();
+        synchronized (fileLock) {
+            if (BinarySnapshot.isBinary(trainPath)) {
+                BinarySnapshot.writeTrains(trainPath, all);
+            } else {
+                JsonFiles.writeAtomically(trainPath, withUnreadable(all));
+            }
+            knownModifiedTime = Files.getLastModifiedTime(trainPath).toMillis();
+        }
+    }
+
+    /**
+     * The trains to write to the JSON file, followed by the records that could not be read from
+     * it, unless a train of the same ID has been saved since.
+     */
+    private List<Object> withUnreadable(List<Train> all) {
+        List<Object> records = new ArrayList<>(all);
+        for (JsonNode record : unreadable) {
+            if (!trains.containsKey(record.path("trainId").asText())) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Re-reads the file and brings the store to its contents. Trains already in memory are
+     * updated in place, seat maps included, so callers holding on to them keep seeing them.
+     */
+    @Override
+    public void reload() {
+        synchronized (writeLock) {
+            if (!Files.exists(trainPath)) {
+                logger.warning("Train data file not found: " + trainPath);
+                trains.clear();
+                stationIndex.clear();
+                departureIndex.clear();
+                unreadable = List.of();
+                return;
+            }
+            try {
+                List<Train> loaded;
+                List<JsonNode> skipped = new ArrayList<>();
+                synchronized (fileLock) {
+                    loaded = BinarySnapshot.isBinary(trainPath)
+                            ? BinarySnapshot.readTrains(trainPath)
+                            : JsonFiles.readListSkippingInvalid(trainPath, Train.class, skipped);
+                    knownModifiedTime = Files.getLastModifiedTime(trainPath).toMillis();
+                }
+                unreadable = List.copyOf(skipped);
+                Map<String, Train> fresh = new HashMap<>();
+                for (Train train : loaded) {
+                    Train current = trains.get(train.getTrainId());
+                    if (current != null) {
+                        merge(current, train);
+                        train = current;
+                    }
+                    fresh.put(train.getTrainId(), train);
+                }
+                trains.keySet().retainAll(fresh.keySet());
+                trains.putAll(fresh);
+                stationIndex.clear();
+                departureIndex.clear();
+                for (Train train : fresh.values()) {
+                    stationIndex.add(train);
+                    departureIndex.add(train);
+                }
+                logger.info("Loaded " + fresh.size() + " trains from " + trainPath);
+            } catch (IOException e) {
+                logger.severe("Error reading train data: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Takes the file as written by someone else as the store's current snapshot, so the watcher
+     * does not reload it: another process compacting the journal writes it with nothing new in it.
+     */
+    public void markSnapshotCurrent() {
+        synchronized (fileLock) {
+            try {
+                if (Files.exists(trainPath)) {
+                    knownModifiedTime = Files.getLastModifiedTime(trainPath).toMillis();
+                }
+            } catch (IOException e) {
+                logger.warning("Unable to read train data modification time: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers a callback run after the watcher reloads the file.
+     */
+    public void setReloadListener(Runnable reloadListener) {
+        this.reloadListener = reloadListener;
+    }
+
+    /**
+     * Starts a daemon thread that reloads the store when the file changes on disk.
+     */
+    public synchronized void startWatching() {
+        if (watcherThread != null) {
+            return;
+        }
+        Path dir = trainPath.toAbsolutePath().getParent();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            logger.warning("Unable to watch train data for changes: " + e.getMessage());
+            return;
+        }
+        watcherThread = new Thread(this::watchLoop, "train-repository-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private void watchLoop() {
+        Path fileName = trainPath.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        touched = true;
+                    }
+                }
+                key.reset();
+                if (!touched) {
+                    continue;
+                }
+                // Under the lease, a compaction by another process has been caught up with and marked current
+                try (WriteLease lease = lease(null)) {
+                    if (changedExternally()) {
+                        logger.info("Train data changed on disk, reloading");
+                        reload();
+                        reloadListener.run();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Repository closed
+        }
+    }
+
+    private boolean changedExternally() {
+        synchronized (fileLock) {
+            try {
+                return Files.exists(trainPath) && Files.getLastModifiedTime(trainPath).toMillis() != knownModifiedTime;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Copies a train read from the file into the stored instance of it. The seat map is updated
+     * in place unless the file lays it out differently, in which case it has to be swapped.
+     * Callers must hold the write lock and re-index the train.
+     */
+    private void merge(Train current, Train loaded) {
+        current.setTrainNo(loaded.getTrainNo());
+        current.setStationTimes(loaded.getStationTimes());
+        current.setStations(loaded.getStations());
+        current.setVersion(loaded.getVersion());
+        SeatMap seats = current.getSeats();
+        if (seats != null && loaded.getSeats() != null && seats.assignBookings(loaded.getSeats())) {
+            return;
+        }
+        if (seats != null) {
+            logger.warning("Seat layout of train " + current.getTrainId() + " changed on disk, replacing its seat map");
+        }
+        current.setSeats(loaded.getSeats());
+    }
+
+    /**
+     * Stores a train and re-indexes its stations and departures. A seat map laid out for a
+     * different number of route segments is re-laid for the train's route first.
+     * Callers must hold the write lock.
+     */
+    private void put(Train train) {
+        SeatMap seats = train.getSeats();
+        if (seats != null && seats.segmentCount() != train.routeSegments()) {
+            train.setSeats(seats.withSegments(train.routeSegments()));
+        }
+        Train previous = trains.put(train.getTrainId(), train);
+        if (previous != null) {
+            stationIndex.remove(previous);
+            departureIndex.remove(previous);
+        }
+        stationIndex.add(train);
+        departureIndex.add(train);
+    }
+
+    private boolean remove(String trainId) {
+        Train removed = trains.remove(trainId);
+        if (removed == null) {
+            return false;
+        }
+        stationIndex.remove(removed);
+        departureIndex.remove(removed);
+        return true;
+    }
+
+    private List<Train> resolve(List<String> trainIds) {
+        List<Train> resolved = new ArrayList<>(trainIds.size());
+        for (String trainId : trainIds) {
+            Train train = trains.get(trainId);
+            if (train != null) {
+                resolved.add(train);
+            }
+        }
+        return resolved;
+    }
+
+    private void applySeatChange(JournalEvent event) {
+        if (event.getDate() != null) {
+            // Belongs to a dated run, not to the train's own seat map
+            return;
+        }
+        Train train = trains.get(event.getTrainId());
+        if (train == null || train.getSeats() == null) {
+            return;
+        }
+        if (event.getSeats() != null) {
+            for (int[] seat : event.getSeats()) {
+                applySeatChange(train.getSeats(), event, seat[0], seat[1]);
+            }
+        } else if (event.getRow() != null && event.getCol() != null) {
+            applySeatChange(train.getSeats(), event, event.getRow(), event.getCol());
+        }
+    }
+
+    private void applySeatChange(SeatMap seats, JournalEvent event, int row, int col) {
+        if (!seats.isValid(row, col)) {
+            return;
+        }
+        boolean booked = event.getType() == JournalEvent.Type.SEAT_BOOKED;
+        if (event.coversWholeRun()) {
+            if (booked) {
+                seats.forceBookLeg(row, col, 0, seats.segmentCount());
+            } else {
+                seats.release(row, col);
+            }
+        } else if (seats.isValidLeg(event.getFromSegment(), event.getToSegment())) {
+            if (booked) {
+                seats.forceBookLeg(row, col, event.getFromSegment(), event.getToSegment());
+            } else {
+                seats.releaseLeg(row, col, event.getFromSegment(), event.getToSegment());
+            }
+        }
+    }
+
+    /**
+     * Journals a structural change, or rewrites the file when running without a journal.
+     * Callers must hold the write lock.
+     */
+    private void record(JournalEvent event) {
+        if (journal != null) {
+            journal.append(event);
+        } else {
+            persist();
+        }
+    }
+
+    /**
+     * Journals seat changes in one write. Without a journal, callers that queue up behind a write
+     * in progress are covered by the next single rewrite instead of each rewriting the file.
+     */
+    private void recordSeatChanges(List<JournalEvent> events) {
+        if (journal != null) {
+            journal.appendAll(events);
+            return;
+        }
+        long change = changeCount.incrementAndGet();
+        synchronized (writeLock) {
+            if (persistedChangeCount >= change) {
+                return;
+            }
+            if (failedChangeCount >= change) {
+                // The write that covered this change failed; its caller undoes the change
+                throw new UncheckedIOException("Error saving train data", writeFailure);
+            }
+            persist();
+        }
+    }
+
+    /**
+     * Writes the current contents back to the JSON file. Callers must hold the write lock.
+     * @throws UncheckedIOException if the file cannot be written; the changes it covered are not saved.
+     */
+    private void persist() {
+        long change = changeCount.get();
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            failedChangeCount = change;
+            writeFailure = e;
+            throw new UncheckedIOException("Error saving train data", e);
+        }
+        persistedChangeCount = change;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warning("Error closing train data watcher: " + e.getMessage());
+            }
+            watchService = null;
+            watcherThread = null;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.example.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.entity.TrainRun;
+import org.example.storage.BookingJournal;
+import org.example.storage.JournalEvent;
+import org.example.storage.JournaledStore;
+import org.example.storage.JsonFiles;
+import org.example.storage.WriteLease;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Seat inventory per train and date of travel. A train's own seat map serves as the layout:
+ * a run gets a map of its own, copied from the layout's empty template, when the first seat is
+ * booked on it, and until then reads are answered by the shared template. Dates nobody has
+ * booked on cost nothing, so the whole advance booking period can be open for every train.
+ * <p>
+ * Runs are resident, like the other stores. With a journal, seat changes are appended to it as
+ * dated seat events and the JSON file is the snapshot; without one, changes are written straight
+ * back to the file, and without a file they are kept in memory only. Runs dated before a cutoff
+ * are moved out by {@link #archiveBefore} into a JSON Lines archive next to the snapshot.
+ */
+public class TrainRunRepository implements JournaledStore {
+    private static final Logger logger = Logger.getLogger(TrainRunRepository.class.getName());
+
+    private final Path runPath;
+    private final BookingJournal journal;
+    private final TrainStore trains;
+    // Runs by date and then train ID; sorted by date, so past runs are a prefix
+    private final ConcurrentSkipListMap<LocalDate, Map<String, SeatMap>> runs = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+    private final AtomicLong changeCount = new AtomicLong();
+    private long persistedChangeCount; // guarded by writeLock
+    private long failedChangeCount; // guarded by writeLock
+    private IOException writeFailure; // guarded by writeLock
+
+    /**
+     * Creates a store kept in memory only.
+     */
+    public TrainRunRepository(TrainStore trains) {
+        this(null, null, trains);
+    }
+
+    /**
+     * Creates a store that records changes in the journal, or writes them straight back to the
+     * file if there is no journal.
+     * @param trains Supplies the seat layout of runs replayed from the journal.
+     */
+    public TrainRunRepository(Path runPath, BookingJournal journal, TrainStore trains) {
+        this.runPath = runPath;
+        this.journal = journal;
+        this.trains = trains;
+        reload();
+    }
+
+    /**
+     * The archive file next to a run snapshot.
+     */
+    public static Path archivePath(Path runPath) {
+        String name = runPath.getFileName().toString();
+        String base = name.endsWith(".json") ? name.substring(0, name.length() - ".json".length()) : name;
+        return runPath.resolveSibling(base + "-archive.jsonl");
+    }
+
+    /**
+     * Returns the run's own seat map, if anything has been booked on it.
+     */
+    public Optional<SeatMap> findSeats(String trainId, LocalDate date) {
+        Map<String, SeatMap> byTrain = runs.get(date);
+        return byTrain == null ? Optional.empty() : Optional.ofNullable(byTrain.get(trainId));
+    }
+
+    /**
+     * Returns the seats of a run for reading: its own map, or the train's empty template if
+     * nothing has been booked on it. The result must not be booked on.
+     */
+    public SeatMap seatsForReading(Train train, LocalDate date) {
+        return findSeats(train.getTrainId(), date).orElseGet(() -> train.getSeats().emptyTemplate());
+    }
+
+    /**
+     * Returns the seats of a run for booking, giving the run its own map on first use.
+     */
+    public SeatMap seatsForBooking(Train train, LocalDate date) {
+        Map<String, SeatMap> byTrain = runs.computeIfAbsent(date, d -> new ConcurrentHashMap<>());
+        SeatMap seats = byTrain.computeIfAbsent(train.getTrainId(), id -> train.getSeats().emptyCopy());
+        if (seats.segmentCount() != train.routeSegments()) {
+            // The route changed since the run was first booked; lay the run out for the new one
+            SeatMap relaid = seats.withSegments(train.routeSegments());
+            seats = byTrain.replace(train.getTrainId(), seats, relaid) ? relaid : byTrain.get(train.getTrainId());
+        }
+        return seats;
+    }
+
+    /**
+     * Number of runs that have a seat map of their own.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, SeatMap> byTrain : runs.values()) {
+            size += byTrain.size();
+        }
+        return size;
+    }
+
+    /**
+     * Persists a seat already booked in place on segments [fromSegment, toSegment) of a run.
+     */
+    public void legBooked(String trainId, LocalDate date, int row, int col, int fromSegment, int toSegment) {
+        seatChanges(List.of(JournalEvent.legBooked(trainId, row, col, fromSegment, toSegment).onDate(date)));
+    }
+
+    /**
+     * Persists a seat already released in place on segments [fromSegment, toSegment) of a run.
+     */
+    public void legReleased(String trainId, LocalDate date, int row, int col, int fromSegment, int toSegment) {
+        seatChanges(List.of(JournalEvent.legReleased(trainId, row, col, fromSegment, toSegment).onDate(date)));
+    }
+
+    /**
+     * Persists a group of seats already booked in place on segments [fromSegment, toSegment)
+     * of a run as a single write.
+     * @param seats [row, col] pairs.
+     */
+    public void legsBooked(String trainId, LocalDate date, int[][] seats, int fromSegment, int toSegment) {
+        seatChanges(List.of(JournalEvent.legsBooked(trainId, seats, fromSegment, toSegment).onDate(date)));
+    }
+
+    /**
+     * Persists a batch of dated seat changes already made in place as a single write. Without a
+     * journal, callers that queue up behind a write in progress are covered by the next rewrite.
+     */
+    public void seatChanges(List<JournalEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (journal != null) {
+            journal.appendAll(events);
+            return;
+        }
+        long change = changeCount.incrementAndGet();
+        synchronized (writeLock) {
+            if (persistedChangeCount >= change) {
+                return;
+            }
+            if (failedChangeCount >= change) {
+                // The write that covered this change failed; its caller undoes the change
+                throw new UncheckedIOException("Error saving train runs", writeFailure);
+            }
+            persist();
+        }
+    }
+
+    /**
+     * Takes the journal's lease, so that seats checked and booked in place on runs under it are
+     * not taken by another process in between.
+     */
+    public WriteLease lease() {
+        return journal == null ? WriteLease.NONE : journal.lease();
+    }
+
+    /**
+     * Takes the journal's lease together with the train's lock, so that changes to the train's
+     * runs by threads of this process are appended in the order they were made.
+     */
+    public WriteLease lease(String trainId) {
+        return journal == null ? WriteLease.NONE : journal.lease(List.of(trainId));
+    }
+
+    /**
+     * Appends the runs dated before the cutoff to the archive file and drops them from memory.
+     * @return the number of runs archived.
+     */
+    public int archiveBefore(LocalDate cutoff) {
+        // Under the lease, runs another process archived first have already been dropped here
+        try (WriteLease lease = lease()) {
+            synchronized (writeLock) {
+                Map<LocalDate, Map<String, SeatMap>> past = runs.headMap(cutoff);
+                if (past.isEmpty()) {
+                    return 0;
+                }
+                List<TrainRun> archived = toRuns(past);
+                if (runPath != null) {
+                    try {
+                        JsonFiles.appendLines(archivePath(runPath), archived);
+                    } catch (IOException e) {
+                        logger.severe("Error archiving train runs: " + e.getMessage());
+                        return 0;
+                    }
+                }
+                past.clear();
+                if (journal != null) {
+                    journal.append(JournalEvent.runsArchived(cutoff));
+                } else {
+                    persist();
+                }
+                logger.info("Archived " + archived.size() + " train runs dated before " + cutoff);
+                return archived.size();
+            }
+        }
+    }
+
+    @Override
+    public void apply(JournalEvent event) {
+        if (event.getDate() == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case SEAT_BOOKED:
+            case SEAT_RELEASED:
+                applySeatChange(event);
+                break;
+            case RUNS_ARCHIVED:
+                // The runs went to the archive when the event was written
+                runs.headMap(LocalDate.parse(event.getDate())).clear();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void writeSnapshot() throws IOException {
+        // Not under the write lock, for the same reason as the train store: compaction holds the journal
+        if (runPath != null) {
+            JsonFiles.writeAtomically(runPath, toRuns(runs));
+        }
+    }
+
+    @Override
+    public void reload() {
+        synchronized (writeLock) {
+            runs.clear();
+            if (runPath == null || !Files.exists(runPath)) {
+                return;
+            }
+            try {
+                List<TrainRun> loaded = JsonFiles.readList(runPath, new TypeReference<List<TrainRun>>() {});
+                for (TrainRun run : loaded) {
+                    if (run.getTrainId() != null && run.getSeats() != null) {
+                        runs.computeIfAbsent(LocalDate.parse(run.getDate()), d -> new ConcurrentHashMap<>())
+                                .put(run.getTrainId(), run.getSeats());
+                    }
+                }
+                logger.info("Loaded " + loaded.size() + " train runs from " + runPath);
+            } catch (IOException | DateTimeParseException e) {
+                logger.severe("Error reading train runs: " + e.getMessage());
+            }
+        }
+    }
+
+    private void applySeatChange(JournalEvent event) {
+        Optional<Train> train = trains.findById(event.getTrainId());
+        LocalDate date = LocalDate.parse(event.getDate());
+        SeatMap seats = train.isPresent() && train.get().getSeats() != null
+                ? seatsForBooking(train.get(), date)
+                : findSeats(event.getTrainId(), date).orElse(null);
+        if (seats == null) {
+            return;
+        }
+        if (event.getSeats() != null) {
+            for (int[] seat : event.getSeats()) {
+                applySeatChange(seats, event, seat[0], seat[1]);
+            }
+        } else if (event.getRow() != null && event.getCol() != null) {
+            applySeatChange(seats, event, event.getRow(), event.getCol());
+        }
+    }
+
+    private static void applySeatChange(SeatMap seats, JournalEvent event, int row, int col) {
+        if (!seats.isValid(row, col)) {
+            return;
+        }
+        int from = event.coversWholeRun() ? 0 : event.getFromSegment();
+        int to = event.coversWholeRun() ? seats.segmentCount() : event.getToSegment();
+        if (!seats.isValidLeg(from, to)) {
+            return;
+        }
+        if (event.getType() == JournalEvent.Type.SEAT_BOOKED) {
+            seats.forceBookLeg(row, col, from, to);
+        } else {
+            seats.releaseLeg(row, col, from, to);
+        }
+    }
+
+    private static List<TrainRun> toRuns(Map<LocalDate, Map<String, SeatMap>> byDate) {
+        List<TrainRun> list = new ArrayList<>();
+        for (Map.Entry<LocalDate, Map<String, SeatMap>> date : byDate.entrySet()) {
+            for (Map.Entry<String, SeatMap> run : date.getValue().entrySet()) {
+                list.add(new TrainRun(run.getKey(), date.getKey().toString(), run.getValue()));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Writes the current runs back to the file. Callers must hold the write lock.
+     * @throws UncheckedIOException if the file cannot be written; the changes it covered are not saved.
+     */
+    private void persist() {
+        long change = changeCount.get();
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            failedChangeCount = change;
+            writeFailure = e;
+            throw new UncheckedIOException("Error saving train runs", e);
+        }
+        persistedChangeCount = change;
+    }
+}
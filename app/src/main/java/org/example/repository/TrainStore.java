@@ -0,0 +1,112 @@
+package org.example.repository;
+
+import org.example.entity.Train;
+import org.example.storage.JournalEvent;
+import org.example.storage.WriteLease;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Resident store of trains as seen by the services. Implemented by a single-file
+ * {@link TrainRepository} and by the {@link ShardedTrainRepository} that spreads trains over
+ * several files.
+ */
+public interface TrainStore {
+
+    Optional<Train> findById(String trainId);
+
+    /**
+     * Returns a snapshot of all trains, ordered by train ID.
+     */
+    List<Train> findAll();
+
+    /**
+     * Returns the trains stopping at a station, ordered by train ID.
+     */
+    List<Train> findByStation(String station);
+
+    /**
+     * Returns the trains stopping at the source and later at the destination, ordered by train ID.
+     */
+    List<Train> findByRoute(String source, String destination);
+
+    /**
+     * Returns the trains leaving a station in [from, to), ordered by departure time.
+     */
+    List<Train> findDepartures(String station, Instant from, Instant to);
+
+    boolean exists(String trainId);
+
+    int size();
+
+    /**
+     * Inserts or replaces a train and persists the change.
+     */
+    void save(Train train);
+
+    /**
+     * Replaces a train only if it is already present and the replacement carries its version.
+     * @return true if the train existed and was replaced.
+     * @throws VersionConflictException if the stored train has a different version.
+     */
+    boolean replace(Train train);
+
+    /**
+     * Removes a train and persists the change.
+     * @return true if the train existed.
+     */
+    boolean delete(String trainId);
+
+    /**
+     * Persists a seat already booked in place on one of the stored trains.
+     */
+    void seatBooked(String trainId, int row, int col);
+
+    /**
+     * Persists a seat already released in place on one of the stored trains.
+     */
+    void seatReleased(String trainId, int row, int col);
+
+    /**
+     * Persists a seat already booked in place on segments [fromSegment, toSegment) of a stored train.
+     */
+    void legBooked(String trainId, int row, int col, int fromSegment, int toSegment);
+
+    /**
+     * Persists a seat already released in place on segments [fromSegment, toSegment) of a stored train.
+     */
+    void legReleased(String trainId, int row, int col, int fromSegment, int toSegment);
+
+    /**
+     * Persists a group of seats already booked in place on a stored train as a single write.
+     * @param seats [row, col] pairs.
+     */
+    void seatsBooked(String trainId, int[][] seats);
+
+    /**
+     * Persists a group of seats already booked in place on segments [fromSegment, toSegment)
+     * of a stored train as a single write.
+     * @param seats [row, col] pairs.
+     */
+    void legsBooked(String trainId, int[][] seats, int fromSegment, int toSegment);
+
+    /**
+     * Persists a batch of seat changes already made in place on stored trains.
+     */
+    void seatChanges(List<JournalEvent> events);
+
+    /**
+     * Takes the write lease of the journal recording the train's changes, so that seats checked
+     * and booked in place under it are not taken by another process in between, nor changed by
+     * another thread before the change is saved.
+     */
+    WriteLease lease(String trainId);
+
+    /**
+     * Takes the write leases covering several trains, in an order every process and thread agrees on.
+     */
+    WriteLease leaseAll(Collection<String> trainIds);
+}
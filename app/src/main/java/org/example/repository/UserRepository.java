@@ -0,0 +1,263 @@
+package org.example.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.example.entity.User;
+import org.example.storage.BinarySnapshot;
+import org.example.storage.BookingJournal;
+import org.example.storage.JournalEvent;
+import org.example.storage.JournaledStore;
+import org.example.storage.JsonFiles;
+import org.example.storage.WriteLease;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Resident store of users, loaded once from the JSON file and indexed by user ID and by
+ * case-folded username. {@link #insert} reserves the username in the index with a single
+ * putIfAbsent, so of two concurrent signups for the same name exactly one succeeds.
+ * With a journal, new and changed users are appended to it; without one, the file is rewritten.
+ * Every save bumps the user's version, and saving a copy older than the stored user fails.
+ */
+public class UserRepository implements JournaledStore {
+    private static final Logger logger = Logger.getLogger(UserRepository.class.getName());
+
+    private final Path userPath;
+    private final BookingJournal journal;
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    // case-folded username -> userId
+    private final Map<String, String> userIdsByName = new ConcurrentHashMap<>();
+    // userId -> case-folded username it is indexed under, to find the entry a rename replaces
+    private final Map<String, String> namesById = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    /**
+     * Creates a store that writes every change straight back to the file.
+     */
+    public UserRepository(Path userPath) {
+        this(userPath, null);
+    }
+
+    /**
+     * Creates a store that records changes in the journal; the file is its snapshot.
+     */
+    public UserRepository(Path userPath, BookingJournal journal) {
+        this.userPath = userPath;
+        this.journal = journal;
+        reload();
+    }
+
+    public Optional<User> findById(String userId) {
+        return userId == null ? Optional.empty() : Optional.ofNullable(users.get(userId));
+    }
+
+    /**
+     * Looks up a user by username, ignoring case.
+     */
+    public Optional<User> findByUserName(String userName) {
+        if (userName == null) {
+            return Optional.empty();
+        }
+        String userId = userIdsByName.get(fold(userName));
+        return userId == null ? Optional.empty() : findById(userId);
+    }
+
+    public boolean isUserNameTaken(String userName) {
+        return userName != null && userIdsByName.containsKey(fold(userName));
+    }
+
+    public List<User> findAll() {
+        return new ArrayList<>(users.values());
+    }
+
+    /**
+     * Adds a new user if the username is not taken yet, and persists it.
+     * @return false if another user already has the username (ignoring case).
+     */
+    public boolean insert(User user) {
+        // Under the lease, names other processes took have been applied to the index
+        try (WriteLease lease = lease()) {
+            String name = fold(user.getUserName());
+            if (userIdsByName.putIfAbsent(name, user.getUserId()) != null) {
+                return false;
+            }
+            synchronized (writeLock) {
+                user.setVersion(user.getVersion() + 1);
+                put(user);
+                try {
+                    record(JournalEvent.userSaved(user));
+                } catch (RuntimeException e) {
+                    remove(user);
+                    user.setVersion(user.getVersion() - 1);
+                    throw e;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts or replaces a user and persists the change. A new username is reserved the same
+     * way {@link #insert} reserves one.
+     * @return false if the user was renamed to a username another user already has.
+     * @throws VersionConflictException if the stored user has a different version, as when
+     *         another process saved the user since this copy was read.
+     */
+    public boolean save(User user) {
+        try (WriteLease lease = lease()) {
+            synchronized (writeLock) {
+                User current = users.get(user.getUserId());
+                if (current != null && current != user && current.getVersion() != user.getVersion()) {
+                    throw new VersionConflictException("User " + user.getUserId() + " is at version "
+                            + current.getVersion() + ", not " + user.getVersion());
+                }
+                String name = user.getUserName() == null ? null : fold(user.getUserName());
+                if (name != null && !name.equals(namesById.get(user.getUserId()))) {
+                    String owner = userIdsByName.putIfAbsent(name, user.getUserId());
+                    if (owner != null && !owner.equals(user.getUserId())) {
+                        return false;
+                    }
+                }
+                user.setVersion(user.getVersion() + 1);
+                put(user);
+                try {
+                    record(JournalEvent.userSaved(user));
+                } catch (RuntimeException e) {
+                    // Put back the stored user; one renamed in place keeps its new name in memory
+                    if (current == null) {
+                        remove(user);
+                    } else if (current != user) {
+                        put(current);
+                    }
+                    user.setVersion(user.getVersion() - 1);
+                    throw e;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes the journal's lease; a user read under it is current until the lease is closed, so
+     * saving it cannot conflict.
+     */
+    public WriteLease lease() {
+        return journal == null ? WriteLease.NONE : journal.lease();
+    }
+
+    @Override
+    public void apply(JournalEvent event) {
+        if (event.getType() == JournalEvent.Type.USER_SAVED) {
+            synchronized (writeLock) {
+                put(event.getUser());
+            }
+        }
+    }
+
+    @Override
+    public void reload() {
+        synchronized (writeLock) {
+            List<User> loaded;
+            try {
+                loaded = BinarySnapshot.isBinary(userPath)
+                        ? BinarySnapshot.readUsers(userPath)
+                        : JsonFiles.readList(userPath, new TypeReference<List<User>>() {});
+            } catch (IOException e) {
+                logger.severe("Error reading user data: " + e.getMessage());
+                return;
+            }
+            Set<String> loadedIds = new HashSet<>();
+            for (User user : loaded) {
+                if (user.getUserId() == null) {
+                    if (user.getUserName() == null) {
+                        logger.warning("Skipping a user with neither an ID nor a username");
+                        continue;
+                    }
+                    // Older signups did not assign an ID. Derive it from the username, so every
+                    // load and every process gives the user the same one
+                    user.setUserId(legacyUserId(user.getUserName()));
+                    logger.warning("Assigned user ID " + user.getUserId() + " to " + user.getUserName());
+                }
+                loadedIds.add(user.getUserId());
+            }
+            // Merge in place rather than clearing first, so lookups during a reload never miss a user
+            for (User user : findAll()) {
+                if (!loadedIds.contains(user.getUserId())) {
+                    remove(user);
+                }
+            }
+            for (User user : loaded) {
+                if (user.getUserId() != null) {
+                    put(user);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writeSnapshot() throws IOException {
+        if (BinarySnapshot.isBinary(userPath)) {
+            BinarySnapshot.writeUsers(userPath, findAll());
+        } else {
+            JsonFiles.writeAtomically(userPath, findAll());
+        }
+    }
+
+    /**
+     * Stores a user under both indexes, moving its username entry if the name changed.
+     * Callers must hold the write lock.
+     */
+    private void put(User user) {
+        users.put(user.getUserId(), user);
+        String name = user.getUserName() == null ? null : fold(user.getUserName());
+        String previousName = name == null ? namesById.remove(user.getUserId()) : namesById.put(user.getUserId(), name);
+        if (previousName != null && !previousName.equals(name)) {
+            userIdsByName.remove(previousName, user.getUserId());
+        }
+        if (name != null) {
+            userIdsByName.put(name, user.getUserId());
+        }
+    }
+
+    private void remove(User user) {
+        users.remove(user.getUserId(), user);
+        String name = namesById.remove(user.getUserId());
+        if (name != null) {
+            userIdsByName.remove(name, user.getUserId());
+        }
+    }
+
+    private void record(JournalEvent event) {
+        if (journal != null) {
+            journal.append(event);
+        } else {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                logger.severe("Error saving user data: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * ID of a user stored without one: a name-based UUID of the case-folded username.
+     */
+    static String legacyUserId(String userName) {
+        return UUID.nameUUIDFromBytes(("user:" + fold(userName)).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static String fold(String userName) {
+        return userName.toLowerCase(Locale.ROOT);
+    }
+}
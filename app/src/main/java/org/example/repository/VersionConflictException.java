@@ -0,0 +1,12 @@
+package org.example.repository;
+
+/**
+ * Thrown when a record is saved from a copy older than the stored one, typically because another
+ * process changed it in the meantime. Read the record again and retry the change.
+ */
+public class VersionConflictException extends RuntimeException {
+
+    public VersionConflictException(String message) {
+        super(message);
+    }
+}
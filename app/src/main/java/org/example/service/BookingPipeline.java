@@ -0,0 +1,328 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.metrics.Operation;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+import org.example.storage.JournalEvent;
+import org.example.storage.WriteLease;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Books seats through per-shard request queues instead of one write per caller.
+ * <p>
+ * Trains are spread over shards by ID, and each shard has one writer thread. The writer takes
+ * the first waiting request, then keeps collecting until the batch is full or the linger time
+ * has passed, books every request of the batch in memory, and persists all the successful
+ * bookings with a single journal write (one fsync). Only then are the callers' futures
+ * completed, so a {@link BookingResult#isBooked() booked} result is as durable as a direct
+ * {@link TrainTicketService#bookTicket} call. If the write fails, the batch's seats are freed
+ * again and every future in it fails.
+ * <p>
+ * Batch sizes are recorded for monitoring: totals, the largest batch, and a histogram with one
+ * bucket per power of two.
+ */
+public class BookingPipeline implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(BookingPipeline.class.getName());
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
+    private static final int DEFAULT_SHARDS = Integer.getInteger("booking.pipeline.shards",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int DEFAULT_MAX_BATCH = Integer.getInteger("booking.pipeline.batch", 256);
+    private static final Duration DEFAULT_MAX_LINGER = Duration.ofNanos(
+            TimeUnit.MICROSECONDS.toNanos(Long.getLong("booking.pipeline.linger.micros", 500)));
+    private static final int HISTOGRAM_BUCKETS = 32;
+
+    private final TrainService trainService;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final Shard[] shards;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAccumulator largestBatch = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray batchSizeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    // Enqueuing holds the read lock, so no request lands behind the poison close() queues
+    private final ReadWriteLock enqueueLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    public BookingPipeline(TrainService trainService) {
+        this(trainService, DEFAULT_SHARDS, DEFAULT_MAX_BATCH, DEFAULT_MAX_LINGER);
+    }
+
+    /**
+     * @param shards Number of writer threads; a train always goes to the same one.
+     * @param maxBatchSize Most requests persisted in one write.
+     * @param maxLinger How long a writer waits for more requests once it has one; zero only
+     *                  batches requests that are already queued.
+     */
+    public BookingPipeline(TrainService trainService, int shards, int maxBatchSize, Duration maxLinger) {
+        if (shards < 1 || maxBatchSize < 1 || maxLinger.isNegative()) {
+            throw new IllegalArgumentException("Invalid pipeline settings: shards=" + shards
+                    + ", maxBatchSize=" + maxBatchSize + ", maxLinger=" + maxLinger);
+        }
+        this.trainService = trainService;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLinger.toNanos();
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Queues a whole-run booking of a seat.
+     */
+    public CompletableFuture<BookingResult> bookTicket(String trainId, int row, int col) {
+        return bookTicket(trainId, row, col, null, null);
+    }
+
+    /**
+     * Queues a booking of a seat from source to destination; both null book the whole run.
+     */
+    public CompletableFuture<BookingResult> bookTicket(String trainId, int row, int col, String source, String destination) {
+        BookingRequest request = new BookingRequest(trainId, row, col, source, destination);
+        enqueueLock.readLock().lock();
+        try {
+            if (closed) {
+                request.result.completeExceptionally(new IllegalStateException("Booking pipeline is closed"));
+                return request.result;
+            }
+            shards[Math.floorMod(trainId.hashCode(), shards.length)].queue.add(request);
+        } finally {
+            enqueueLock.readLock().unlock();
+        }
+        return request.result;
+    }
+
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    public long largestBatchSize() {
+        return largestBatch.get();
+    }
+
+    public double averageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) requests.sum() / count;
+    }
+
+    /**
+     * Batch counts by size: entry i counts batches of 2^i to 2^(i+1) - 1 requests.
+     */
+    public long[] batchSizeHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = batchSizeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Stops accepting requests, lets the writers finish what is already queued and waits for them.
+     */
+    @Override
+    public void close() {
+        enqueueLock.writeLock().lock();
+        try {
+            closed = true;
+            for (Shard shard : shards) {
+                shard.queue.add(BookingRequest.POISON);
+            }
+        } finally {
+            enqueueLock.writeLock().unlock();
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void process(List<BookingRequest> batch) {
+        List<JournalEvent> events = new ArrayList<>(batch.size());
+        List<BookingRequest> booked = new ArrayList<>(batch.size());
+        List<BookingResult> results = new ArrayList<>(batch.size());
+        Set<String> trainIds = new HashSet<>();
+        for (BookingRequest request : batch) {
+            trainIds.add(request.trainId);
+        }
+        // Other processes sharing the database book nothing on these trains until the batch is saved
+        try (WriteLease lease = trainService.lockSeats(trainIds)) {
+            for (BookingRequest request : batch) {
+                BookingResult result = apply(request);
+                results.add(result);
+                if (result.isBooked()) {
+                    events.add(request.event);
+                    booked.add(request);
+                }
+            }
+            trainService.saveSeatChanges(events);
+        } catch (RuntimeException e) {
+            logger.severe("Error persisting booking batch of " + events.size() + ": " + e.getMessage());
+            for (BookingRequest request : booked) {
+                request.seats.releaseLeg(request.seat, request.fromSegment, request.toSegment);
+            }
+            for (BookingRequest request : batch) {
+                request.result.completeExceptionally(e);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            BookingRequest request = batch.get(i);
+            BookingResult result = results.get(i);
+            metrics.increment(outcomeOf(result.getStatus()));
+            metrics.record(Operation.BOOK, request.enqueuedAt);
+            request.result.complete(result);
+        }
+        recordBatch(batch.size());
+    }
+
+    private static Outcome outcomeOf(BookingResult.Status status) {
+        return switch (status) {
+            case BOOKED -> Outcome.BOOKED;
+            case SEAT_TAKEN -> Outcome.SEAT_TAKEN;
+            case TRAIN_NOT_FOUND -> Outcome.TRAIN_NOT_FOUND;
+            case INVALID_SEAT -> Outcome.INVALID_SEAT;
+            case INVALID_JOURNEY -> Outcome.INVALID_JOURNEY;
+        };
+    }
+
+    /**
+     * Books the request's seat in memory and remembers what to persist and how to undo it.
+     */
+    private BookingResult apply(BookingRequest request) {
+        Optional<Train> optionalTrain = trainService.getTrainById(request.trainId);
+        if (optionalTrain.isEmpty()) {
+            return request.resultOf(BookingResult.Status.TRAIN_NOT_FOUND);
+        }
+        Train train = optionalTrain.get();
+        SeatMap seats = train.getSeats();
+        boolean wholeRun = request.source == null && request.destination == null;
+        int from = wholeRun ? 0 : train.stopIndex(request.source);
+        int to = wholeRun ? seats.segmentCount() : train.stopIndex(request.destination);
+        if (from < 0 || from >= to) {
+            return request.resultOf(BookingResult.Status.INVALID_JOURNEY);
+        }
+        if (!seats.isValid(request.row, request.col)) {
+            return request.resultOf(BookingResult.Status.INVALID_SEAT);
+        }
+        int seat = seats.seatIndex(request.row, request.col);
+        if (!seats.bookLeg(seat, from, to)) {
+            return request.resultOf(BookingResult.Status.SEAT_TAKEN);
+        }
+        request.seats = seats;
+        request.seat = seat;
+        request.fromSegment = from;
+        request.toSegment = to;
+        request.event = wholeRun
+                ? JournalEvent.seatBooked(request.trainId, request.row, request.col)
+                : JournalEvent.legBooked(request.trainId, request.row, request.col, from, to);
+        return request.resultOf(BookingResult.Status.BOOKED);
+    }
+
+    private void recordBatch(int size) {
+        batches.increment();
+        requests.add(size);
+        largestBatch.accumulate(size);
+        batchSizeHistogram.incrementAndGet(31 - Integer.numberOfLeadingZeros(size));
+    }
+
+    private final class Shard {
+        final BlockingQueue<BookingRequest> queue = new LinkedBlockingQueue<>();
+        final Thread writer;
+
+        Shard(int index) {
+            writer = new Thread(this::writeLoop, "booking-pipeline-" + index);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void writeLoop() {
+            List<BookingRequest> batch = new ArrayList<>(maxBatchSize);
+            boolean stopping = false;
+            while (!stopping) {
+                try {
+                    BookingRequest first = queue.take();
+                    if (first == BookingRequest.POISON) {
+                        return;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long deadline = System.nanoTime() + maxLingerNanos;
+                    while (batch.size() < maxBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        BookingRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                    }
+                } catch (InterruptedException e) {
+                    stopping = true;
+                }
+                // Everything queued before close() is processed; the poison pill ends the loop after it
+                stopping |= batch.remove(BookingRequest.POISON);
+                if (!batch.isEmpty()) {
+                    process(batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private static final class BookingRequest {
+        static final BookingRequest POISON = new BookingRequest(null, -1, -1, null, null);
+
+        final String trainId;
+        final int row;
+        final int col;
+        final String source;
+        final String destination;
+        final CompletableFuture<BookingResult> result = new CompletableFuture<>();
+        // Booking latency is measured from submission, so it includes queueing and linger
+        final long enqueuedAt = ServiceMetrics.start();
+        // Set by the writer once the seat is booked in memory
+        SeatMap seats;
+        int seat;
+        int fromSegment;
+        int toSegment;
+        JournalEvent event;
+
+        BookingRequest(String trainId, int row, int col, String source, String destination) {
+            this.trainId = trainId;
+            this.row = row;
+            this.col = col;
+            this.source = source;
+            this.destination = destination;
+        }
+
+        BookingResult resultOf(BookingResult.Status status) {
+            return new BookingResult(status, trainId, row, col);
+        }
+    }
+}
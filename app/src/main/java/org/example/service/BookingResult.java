@@ -0,0 +1,32 @@
+package org.example.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of a booking request submitted to the {@link BookingPipeline}.
+ */
+@Getter
+@AllArgsConstructor
+public class BookingResult {
+
+    public enum Status {
+        BOOKED,
+        SEAT_TAKEN,
+        TRAIN_NOT_FOUND,
+        INVALID_SEAT,
+        INVALID_JOURNEY
+    }
+
+    private final Status status;
+
+    private final String trainId;
+
+    private final int row;
+
+    private final int col;
+
+    public boolean isBooked() {
+        return status == Status.BOOKED;
+    }
+}
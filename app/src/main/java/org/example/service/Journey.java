@@ -0,0 +1,35 @@
+package org.example.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A trip found by the {@link JourneyPlanner}: one or more train legs, each boarded at the
+ * station where the previous one ended.
+ */
+@Getter
+@AllArgsConstructor
+public class Journey {
+
+    private final List<JourneyLeg> legs;
+
+    public Instant getDeparture() {
+        return legs.get(0).getDeparture();
+    }
+
+    public Instant getArrival() {
+        return legs.get(legs.size() - 1).getArrival();
+    }
+
+    public Duration getDuration() {
+        return Duration.between(getDeparture(), getArrival());
+    }
+
+    public int getTransfers() {
+        return legs.size() - 1;
+    }
+}
@@ -0,0 +1,25 @@
+package org.example.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * One leg of a {@link Journey}: a ride on one train from the station where it is boarded to the
+ * one where it is left.
+ */
+@Getter
+@AllArgsConstructor
+public class JourneyLeg {
+
+    private final String trainId;
+
+    private final String source;
+
+    private final String destination;
+
+    private final Instant departure;
+
+    private final Instant arrival;
+}
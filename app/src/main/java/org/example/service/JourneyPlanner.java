@@ -0,0 +1,413 @@
+package org.example.service;
+
+import org.example.entity.Train;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Earliest-arrival journey planner over the station graph, using the Connection Scan Algorithm.
+ * <p>
+ * Every hop of every train between two consecutive stops is a connection (from, to, departure,
+ * arrival, train). Connections are kept in parallel primitive arrays sorted by departure, so a
+ * query is a binary search for the departure time followed by one forward scan that stops once
+ * no later connection can arrive earlier. Arrival labels are kept per number of trains used, which
+ * bounds the transfers and yields the journey with the fewest transfers among the earliest ones.
+ * <p>
+ * The arrays are immutable and replaced as a whole, so queries never lock. A changed or removed
+ * train is merged into a copy in linear time instead of re-sorting everything.
+ */
+public class JourneyPlanner {
+    private static final Logger logger = Logger.getLogger(JourneyPlanner.class.getName());
+    private static final long UNREACHED = Long.MAX_VALUE;
+
+    private volatile Timetable timetable = Timetable.EMPTY;
+
+    public JourneyPlanner(Collection<Train> trains) {
+        rebuild(trains);
+    }
+
+    /**
+     * Replaces the timetable with the connections of the given trains.
+     */
+    public synchronized void rebuild(Collection<Train> trains) {
+        StopTable stops = new StopTable(Timetable.EMPTY);
+        Map<String, Integer> tripIds = new HashMap<>();
+        List<String> tripTrainIds = new ArrayList<>();
+        List<Connection> connections = new ArrayList<>();
+        for (Train train : trains) {
+            if (train.getTrainId() == null || tripIds.containsKey(train.getTrainId())) {
+                continue;
+            }
+            tripIds.put(train.getTrainId(), tripTrainIds.size());
+            tripTrainIds.add(train.getTrainId());
+            connections.addAll(connectionsOf(train, tripTrainIds.size() - 1, stops));
+        }
+        connections.sort(Connection.ORDER);
+        timetable = new Timetable(connections, stops, tripIds, tripTrainIds.toArray(new String[0]));
+    }
+
+    /**
+     * Adds a train's connections, replacing those it had before. A new train takes the first
+     * trip slot freed by a removed one, if there is any.
+     */
+    public synchronized void trainChanged(Train train) {
+        Timetable current = timetable;
+        Integer trip = current.tripIds.get(train.getTrainId());
+        Map<String, Integer> tripIds = current.tripIds;
+        String[] tripTrainIds = current.tripTrainIds;
+        if (trip == null) {
+            trip = 0;
+            while (trip < tripTrainIds.length && tripTrainIds[trip] != null) {
+                trip++;
+            }
+            tripIds = new HashMap<>(tripIds);
+            tripIds.put(train.getTrainId(), trip);
+            tripTrainIds = Arrays.copyOf(tripTrainIds, Math.max(tripTrainIds.length, trip + 1));
+            tripTrainIds[trip] = train.getTrainId();
+        }
+        StopTable stops = new StopTable(current);
+        List<Connection> added = connectionsOf(train, trip, stops);
+        added.sort(Connection.ORDER);
+        timetable = current.merge(trip, added, stops, tripIds, tripTrainIds);
+    }
+
+    /**
+     * Drops a train's connections and frees its trip slot for the next train added. Free slots
+     * at the end of the trip table are cut off.
+     */
+    public synchronized void trainRemoved(String trainId) {
+        Timetable current = timetable;
+        Integer trip = current.tripIds.get(trainId);
+        if (trip == null) {
+            return;
+        }
+        Map<String, Integer> tripIds = new HashMap<>(current.tripIds);
+        tripIds.remove(trainId);
+        String[] tripTrainIds = current.tripTrainIds.clone();
+        tripTrainIds[trip] = null;
+        int used = tripTrainIds.length;
+        while (used > 0 && tripTrainIds[used - 1] == null) {
+            used--;
+        }
+        timetable = current.merge(trip, List.of(), new StopTable(current), tripIds, Arrays.copyOf(tripTrainIds, used));
+    }
+
+    public int connectionCount() {
+        return timetable.size;
+    }
+
+    /**
+     * Size of the trip table: one slot per train, plus slots freed by removed trains and not yet reused.
+     */
+    int tripSlotCount() {
+        return timetable.tripTrainIds.length;
+    }
+
+    /**
+     * Finds the journey from source to destination that leaves no earlier than {@code departAfter}
+     * and arrives as early as possible, changing trains at most {@code maxTransfers} times and
+     * allowing at least {@code minConnection} at each change. Of several journeys arriving at the
+     * same time, the one with the fewest transfers is returned.
+     * @return the journey, or empty if the destination cannot be reached.
+     */
+    public Optional<Journey> plan(String source, String destination, Instant departAfter, int maxTransfers, Duration minConnection) {
+        if (maxTransfers < 0) {
+            throw new IllegalArgumentException("Transfers must not be negative: " + maxTransfers);
+        }
+        Timetable t = timetable;
+        Integer origin = t.stopIds.get(source);
+        Integer target = t.stopIds.get(destination);
+        if (origin == null || target == null || origin.equals(target)) {
+            return Optional.empty();
+        }
+        int s = origin;
+        int d = target;
+        int stopCount = t.stopNames.length;
+        int rounds = maxTransfers + 1;
+        long transferMillis = minConnection == null ? 0 : minConnection.toMillis();
+
+        // Label (round, stop) at round * stopCount + stop: earliest arrival using at most round + 1 trains
+        long[] arrival = new long[rounds * stopCount];
+        Arrays.fill(arrival, UNREACHED);
+        int[] boardedBy = new int[rounds * stopCount];
+        int[] alightedBy = new int[rounds * stopCount];
+        int[] boardedInRound = new int[rounds * stopCount];
+        // Per trip: lowest round it has been boarded in so far, and the connection it was boarded at
+        int[] tripRound = new int[t.tripTrainIds.length];
+        Arrays.fill(tripRound, Integer.MAX_VALUE);
+        int[] tripBoarded = new int[t.tripTrainIds.length];
+        int best = (rounds - 1) * stopCount + d;
+
+        for (int c = t.firstDepartingAt(departAfter.toEpochMilli()); c < t.size; c++) {
+            long departure = t.departures[c];
+            // Later connections cannot arrive earlier; equal times still matter for fewer transfers
+            if (departure > arrival[best]) {
+                break;
+            }
+            int trip = t.trips[c];
+            int from = t.fromStops[c];
+            int boardRound = from == s ? 0 : Integer.MAX_VALUE;
+            for (int round = 1; round < rounds && boardRound == Integer.MAX_VALUE; round++) {
+                long reached = arrival[(round - 1) * stopCount + from];
+                if (reached != UNREACHED && reached + transferMillis <= departure) {
+                    boardRound = round;
+                }
+            }
+            if (boardRound < tripRound[trip]) {
+                tripRound[trip] = boardRound;
+                tripBoarded[trip] = c;
+            }
+            int onboardRound = tripRound[trip];
+            if (onboardRound == Integer.MAX_VALUE) {
+                continue;
+            }
+            int to = t.toStops[c];
+            // Labels never increase with the round, so the first label not improved ends the update
+            for (int round = onboardRound; round < rounds; round++) {
+                int label = round * stopCount + to;
+                if (t.arrivals[c] >= arrival[label]) {
+                    break;
+                }
+                arrival[label] = t.arrivals[c];
+                boardedBy[label] = tripBoarded[trip];
+                alightedBy[label] = c;
+                boardedInRound[label] = onboardRound;
+            }
+        }
+        if (arrival[best] == UNREACHED) {
+            return Optional.empty();
+        }
+
+        int round = 0;
+        while (arrival[round * stopCount + d] != arrival[best]) {
+            round++;
+        }
+        List<JourneyLeg> legs = new ArrayList<>();
+        int stop = d;
+        while (true) {
+            int label = round * stopCount + stop;
+            int board = boardedBy[label];
+            int alight = alightedBy[label];
+            legs.add(new JourneyLeg(t.tripTrainIds[t.trips[board]], t.stopNames[t.fromStops[board]], t.stopNames[stop],
+                    Instant.ofEpochMilli(t.departures[board]), Instant.ofEpochMilli(t.arrivals[alight])));
+            stop = t.fromStops[board];
+            if (boardedInRound[label] == 0) {
+                break;
+            }
+            round = boardedInRound[label] - 1;
+        }
+        Collections.reverse(legs);
+        return Optional.of(new Journey(legs));
+    }
+
+    /**
+     * Connections of one train, between consecutive stops that both have a valid time.
+     */
+    private static List<Connection> connectionsOf(Train train, int trip, StopTable stops) {
+        List<Connection> connections = new ArrayList<>();
+        List<String> stations = train.getStations();
+        Map<String, String> times = train.getStationTimes();
+        if (stations == null || times == null) {
+            return connections;
+        }
+        for (int i = 0; i + 1 < stations.size(); i++) {
+            long departure = parseTime(train, stations.get(i), times);
+            long arrival = parseTime(train, stations.get(i + 1), times);
+            if (departure == UNREACHED || arrival == UNREACHED) {
+                continue;
+            }
+            if (arrival < departure) {
+                logger.warning("Skipping hop " + stations.get(i) + " -> " + stations.get(i + 1)
+                        + " of train " + train.getTrainId() + ": it arrives before it departs");
+                continue;
+            }
+            connections.add(new Connection(departure, arrival, stops.idOf(stations.get(i)),
+                    stops.idOf(stations.get(i + 1)), trip));
+        }
+        return connections;
+    }
+
+    private static long parseTime(Train train, String station, Map<String, String> times) {
+        String time = times.get(station);
+        if (time == null) {
+            return UNREACHED;
+        }
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            logger.warning("Skipping unparseable time " + time + " of train " + train.getTrainId() + " at " + station);
+            return UNREACHED;
+        }
+    }
+
+    private static final class Connection {
+        static final Comparator<Connection> ORDER = Comparator.comparingLong((Connection c) -> c.departure)
+                .thenComparingLong(c -> c.arrival);
+
+        final long departure;
+        final long arrival;
+        final int from;
+        final int to;
+        final int trip;
+
+        Connection(long departure, long arrival, int from, int to, int trip) {
+            this.departure = departure;
+            this.arrival = arrival;
+            this.from = from;
+            this.to = to;
+            this.trip = trip;
+        }
+    }
+
+    /**
+     * Station name to stop ID mapping being extended by an update; copied from the current
+     * timetable only if a new station shows up.
+     */
+    private static final class StopTable {
+        Map<String, Integer> ids;
+        List<String> names;
+        private boolean copied;
+
+        StopTable(Timetable base) {
+            this.ids = base.stopIds;
+            this.names = Arrays.asList(base.stopNames);
+        }
+
+        int idOf(String station) {
+            Integer id = ids.get(station);
+            if (id != null) {
+                return id;
+            }
+            if (!copied) {
+                ids = new HashMap<>(ids);
+                names = new ArrayList<>(names);
+                copied = true;
+            }
+            ids.put(station, names.size());
+            names.add(station);
+            return names.size() - 1;
+        }
+    }
+
+    /**
+     * Immutable connection arrays, sorted by departure and then arrival, with the stop and trip
+     * tables they refer to.
+     */
+    private static final class Timetable {
+        static final Timetable EMPTY = new Timetable(List.of(), Map.of(), new String[0], Map.of(), new String[0]);
+
+        final int size;
+        final long[] departures;
+        final long[] arrivals;
+        final int[] fromStops;
+        final int[] toStops;
+        final int[] trips;
+        final Map<String, Integer> stopIds;
+        final String[] stopNames;
+        final Map<String, Integer> tripIds;
+        final String[] tripTrainIds;
+
+        Timetable(List<Connection> sorted, StopTable stops, Map<String, Integer> tripIds, String[] tripTrainIds) {
+            this(sorted, stops.ids, stops.names.toArray(new String[0]), tripIds, tripTrainIds);
+        }
+
+        private Timetable(List<Connection> sorted, Map<String, Integer> stopIds, String[] stopNames,
+                          Map<String, Integer> tripIds, String[] tripTrainIds) {
+            this(sorted.size(), stopIds, stopNames, tripIds, tripTrainIds);
+            for (int i = 0; i < size; i++) {
+                set(i, sorted.get(i));
+            }
+        }
+
+        private Timetable(int size, Map<String, Integer> stopIds, String[] stopNames,
+                          Map<String, Integer> tripIds, String[] tripTrainIds) {
+            this.size = size;
+            this.departures = new long[size];
+            this.arrivals = new long[size];
+            this.fromStops = new int[size];
+            this.toStops = new int[size];
+            this.trips = new int[size];
+            this.stopIds = stopIds;
+            this.stopNames = stopNames;
+            this.tripIds = tripIds;
+            this.tripTrainIds = tripTrainIds;
+        }
+
+        /**
+         * Returns a copy without the connections of {@code trip} and with {@code added} (sorted)
+         * merged in, in one pass over both.
+         */
+        Timetable merge(int trip, List<Connection> added, StopTable stops, Map<String, Integer> tripIds, String[] tripTrainIds) {
+            int removed = 0;
+            for (int i = 0; i < size; i++) {
+                if (trips[i] == trip) {
+                    removed++;
+                }
+            }
+            Timetable merged = new Timetable(size - removed + added.size(), stops.ids,
+                    stops.names.toArray(new String[0]), tripIds, tripTrainIds);
+            int next = 0;
+            int out = 0;
+            for (int i = 0; i < size; i++) {
+                if (trips[i] == trip) {
+                    continue;
+                }
+                while (next < added.size() && precedes(added.get(next), i)) {
+                    merged.set(out++, added.get(next++));
+                }
+                merged.departures[out] = departures[i];
+                merged.arrivals[out] = arrivals[i];
+                merged.fromStops[out] = fromStops[i];
+                merged.toStops[out] = toStops[i];
+                merged.trips[out] = trips[i];
+                out++;
+            }
+            while (next < added.size()) {
+                merged.set(out++, added.get(next++));
+            }
+            return merged;
+        }
+
+        /**
+         * Index of the first connection departing at or after the given time.
+         */
+        int firstDepartingAt(long epochMillis) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departures[mid] < epochMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private boolean precedes(Connection connection, int i) {
+            return connection.departure < departures[i]
+                    || (connection.departure == departures[i] && connection.arrival < arrivals[i]);
+        }
+
+        private void set(int i, Connection connection) {
+            departures[i] = connection.departure;
+            arrivals[i] = connection.arrival;
+            fromStops[i] = connection.from;
+            toStops[i] = connection.to;
+            trips[i] = connection.trip;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.storage.WriteLease;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Seats held for a buyer during checkout. A hold takes the seat in memory only: nobody else can
+ * book it, but nothing is written until the hold is confirmed, at which point it is persisted
+ * like any other booking. Holds that are neither confirmed nor released expire after a TTL.
+ * <p>
+ * Expiry is driven by a {@link DelayQueue} drained by a single reaper thread, which wakes only
+ * when the earliest hold is due and then releases every expired hold in one batch. Confirming
+ * or releasing a hold just removes it from the hold table; its queue entry is left behind and
+ * skipped when it comes due, so neither operation pays for a search of the queue.
+ * <p>
+ * Holds are kept by the process that took them. Another process sharing the database sees a
+ * held seat as free, and if it books the seat, the booking wins and the hold is lost.
+ */
+public class SeatHoldService implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SeatHoldService.class.getName());
+    private static final Duration DEFAULT_TTL = Duration.ofSeconds(Long.getLong("booking.hold.ttl.seconds", 600));
+
+    private final TrainService trainService;
+    private final long ttlNanos;
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    private final DelayQueue<Hold> expiries = new DelayQueue<>();
+    private final SecureRandom random = new SecureRandom();
+    private final Thread reaper;
+
+    public SeatHoldService(TrainService trainService) {
+        this(trainService, DEFAULT_TTL);
+    }
+
+    public SeatHoldService(TrainService trainService, Duration ttl) {
+        this.trainService = trainService;
+        this.ttlNanos = ttl.toNanos();
+        this.reaper = new Thread(this::reapExpired, "seat-hold-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Holds a seat for the whole run.
+     * @return the hold ID, or empty if the seat is not available.
+     */
+    public Optional<String> holdSeat(String trainId, int row, int col) {
+        return holdSeat(trainId, row, col, null, null);
+    }
+
+    /**
+     * Holds a seat from source to destination; both null hold it for the whole run.
+     * @return the hold ID, or empty if the seat is not available on that journey.
+     */
+    public Optional<String> holdSeat(String trainId, int row, int col, String source, String destination) {
+        try (WriteLease lease = trainService.lockSeats(trainId, null)) {
+            Optional<Train> optionalTrain = trainService.getTrainById(trainId);
+
+            if (optionalTrain.isEmpty()) {
+                logger.warning("Train not found: " + trainId);
+                return Optional.empty();
+            }
+
+            Train train = optionalTrain.get();
+            SeatMap seats = train.getSeats();
+            boolean wholeRun = source == null && destination == null;
+            int from = wholeRun ? 0 : train.stopIndex(source);
+            int to = wholeRun ? seats.segmentCount() : train.stopIndex(destination);
+            if (from < 0 || from >= to || !seats.isValid(row, col)) {
+                logger.warning("Invalid seat position or journey.");
+                return Optional.empty();
+            }
+
+            if (!seats.holdLeg(seats.seatIndex(row, col), from, to)) {
+                logger.warning("Seat is not available to hold!");
+                return Optional.empty();
+            }
+            Hold hold = new Hold(newHoldId(), trainId, seats, row, col, from, to, wholeRun, System.nanoTime() + ttlNanos);
+            holds.put(hold.holdId, hold);
+            expiries.put(hold);
+            return Optional.of(hold.holdId);
+        }
+    }
+
+    /**
+     * Books a held seat and persists the booking.
+     * @return true if the hold was still live; false if it expired, was released or never existed.
+     * @throws RuntimeException if the booking could not be persisted. The hold is used up and
+     *         the seat is free again.
+     */
+    public boolean confirm(String holdId) {
+        Hold hold = holdId == null ? null : holds.remove(holdId);
+        if (hold == null) {
+            logger.warning("Hold not found or expired: " + holdId);
+            return false;
+        }
+        try (WriteLease lease = trainService.lockSeats(hold.trainId, null)) {
+            if (!hold.seats.confirmHold(hold.seat(), hold.fromSegment, hold.toSegment)) {
+                // The train was replaced, or another process booked the seat, while it was held
+                logger.warning("Hold " + holdId + " on train " + hold.trainId + " was lost while the seat was held");
+                return false;
+            }
+            try {
+                if (hold.wholeRun) {
+                    trainService.saveSeatBooked(hold.trainId, hold.row, hold.col);
+                } else {
+                    trainService.saveLegBooked(hold.trainId, hold.row, hold.col, hold.fromSegment, hold.toSegment);
+                }
+            } catch (RuntimeException e) {
+                // The hold is gone from the table already, so nothing else would free the seat
+                hold.seats.releaseLeg(hold.seat(), hold.fromSegment, hold.toSegment);
+                logger.warning("Hold " + holdId + " on train " + hold.trainId + " could not be confirmed: " + e.getMessage());
+                throw e;
+            }
+        }
+        logger.info("Hold " + holdId + " confirmed for train " + hold.trainId + " at (" + hold.row + "," + hold.col + ")");
+        return true;
+    }
+
+    /**
+     * Gives a held seat back without booking it.
+     * @return true if the hold was still live.
+     */
+    public boolean release(String holdId) {
+        Hold hold = holdId == null ? null : holds.remove(holdId);
+        if (hold == null) {
+            return false;
+        }
+        releaseHold(hold);
+        return true;
+    }
+
+    public int activeHolds() {
+        return holds.size();
+    }
+
+    private void reapExpired() {
+        List<Hold> due = new ArrayList<>();
+        try {
+            while (true) {
+                due.add(expiries.take());
+                expiries.drainTo(due);
+                int released = 0;
+                for (Hold hold : due) {
+                    // Entries of confirmed or released holds are no longer in the table
+                    if (holds.remove(hold.holdId, hold)) {
+                        releaseHold(hold);
+                        released++;
+                    }
+                }
+                if (released > 0) {
+                    logger.info("Released " + released + " expired seat holds");
+                }
+                due.clear();
+            }
+        } catch (InterruptedException e) {
+            // Service closed
+        }
+    }
+
+    /**
+     * Frees a held seat under the lease, so a booking another process made of it is not applied
+     * half-way through and cleared along with the hold.
+     */
+    private void releaseHold(Hold hold) {
+        try (WriteLease lease = trainService.lockSeats(hold.trainId, null)) {
+            hold.seats.releaseHold(hold.seat(), hold.fromSegment, hold.toSegment);
+        }
+    }
+
+    private String newHoldId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    @Override
+    public void close() {
+        reaper.interrupt();
+    }
+
+    private static final class Hold implements Delayed {
+        final String holdId;
+        final String trainId;
+        // The seat map the hold was taken on; a train reloaded with a new seat layout gets a new one without the hold
+        final SeatMap seats;
+        final int row;
+        final int col;
+        final int fromSegment;
+        final int toSegment;
+        final boolean wholeRun;
+        final long expiresAtNanos;
+
+        Hold(String holdId, String trainId, SeatMap seats, int row, int col, int fromSegment, int toSegment,
+             boolean wholeRun, long expiresAtNanos) {
+            this.holdId = holdId;
+            this.trainId = trainId;
+            this.seats = seats;
+            this.row = row;
+            this.col = col;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+            this.wholeRun = wholeRun;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        int seat() {
+            return seats.seatIndex(row, col);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expiresAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiresAtNanos, ((Hold) other).expiresAtNanos);
+        }
+    }
+}
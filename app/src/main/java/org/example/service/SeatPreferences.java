@@ -0,0 +1,31 @@
+package org.example.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * What a group booking asks for beyond the number of seats. Every field is optional:
+ * the defaults book the whole run, in any row, splitting the group if no row can hold it.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SeatPreferences {
+
+    // Journey; both null for the whole run
+    private String source;
+
+    private String destination;
+
+    // Row (coach) to try first
+    private Integer preferredRow;
+
+    private boolean allowSplit = true;
+
+    public static SeatPreferences any() {
+        return new SeatPreferences();
+    }
+}
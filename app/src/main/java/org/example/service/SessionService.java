@@ -0,0 +1,160 @@
+package org.example.service;
+
+import org.example.entity.User;
+import org.example.metrics.Operation;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Authenticated sessions. A successful login issues an opaque token backed by a concurrent
+ * session table, so later requests are authorized with an O(1) lookup instead of a BCrypt check.
+ * <p>
+ * Password verification is expensive by design, so it runs on a small bounded executor: a burst
+ * of logins queues up there (and is rejected once the queue is full) instead of taking CPU from
+ * booking threads. Sessions expire after a period of inactivity and are evicted by a reaper.
+ */
+public class SessionService implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SessionService.class.getName());
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(30);
+    private static final int LOGIN_QUEUE_PER_THREAD = 64;
+
+    private final UserBookingService userBookingService;
+    private final long ttlMillis;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadPoolExecutor loginExecutor;
+    private final ScheduledExecutorService reaper;
+
+    public SessionService(UserBookingService userBookingService) {
+        this(userBookingService, DEFAULT_TTL, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public SessionService(UserBookingService userBookingService, Duration ttl, int loginThreads) {
+        this.userBookingService = userBookingService;
+        this.ttlMillis = ttl.toMillis();
+        this.loginExecutor = new ThreadPoolExecutor(loginThreads, loginThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(loginThreads * LOGIN_QUEUE_PER_THREAD), daemonThreads("login-verifier"));
+        this.reaper = Executors.newSingleThreadScheduledExecutor(daemonThreads("session-reaper"));
+        long period = Math.max(1000L, ttlMillis / 4);
+        reaper.scheduleAtFixedRate(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Verifies the credentials on the login executor and, if they match, opens a session.
+     * @return a future with the session token, or empty if the credentials are wrong. The future
+     *         fails with {@link RejectedExecutionException} when too many logins are already queued.
+     */
+    public CompletableFuture<Optional<String>> login(String userName, String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> authenticate(userName, password), loginExecutor);
+        } catch (RejectedExecutionException e) {
+            metrics.increment(Outcome.LOGIN_REJECTED);
+            logger.warning("Login rejected, verification queue is full");
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Resolves a token to its user ID, extending the session's lifetime.
+     */
+    public Optional<String> validate(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return Optional.empty();
+        }
+        long now = System.currentTimeMillis();
+        if (session.expiresAt < now) {
+            sessions.remove(token, session);
+            return Optional.empty();
+        }
+        session.expiresAt = now + ttlMillis;
+        return Optional.of(session.userId);
+    }
+
+    /**
+     * Ends a session.
+     */
+    public void logout(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    private Optional<String> authenticate(String userName, String password) {
+        long start = ServiceMetrics.start();
+        try {
+            Optional<User> user = userBookingService.findByUserName(userName);
+            if (user.isEmpty() || !userBookingService.verifyPassword(user.get(), password)) {
+                metrics.increment(Outcome.LOGIN_FAILED);
+                return Optional.empty();
+            }
+            metrics.increment(Outcome.LOGIN_SUCCEEDED);
+            return Optional.of(openSession(user.get().getUserId()));
+        } finally {
+            metrics.record(Operation.LOGIN, start);
+        }
+    }
+
+    private String openSession(String userId) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userId, System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.expiresAt < now);
+    }
+
+    @Override
+    public void close() {
+        loginExecutor.shutdownNow();
+        reaper.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Session {
+        final String userId;
+        volatile long expiresAt;
+
+        Session(String userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,41 +1,90 @@
 package org.example.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.entity.SeatMap;
 import org.example.entity.Train;
+import org.example.metrics.Operation;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+import org.example.repository.TrainRepository;
+import org.example.repository.TrainRunRepository;
+import org.example.repository.TrainStore;
+import org.example.repository.VersionConflictException;
+import org.example.storage.JournalEvent;
+import org.example.storage.LocalDatabase;
+import org.example.storage.WriteLease;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class TrainService {
     private static final Logger logger = Logger.getLogger(TrainService.class.getName());
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String TRAIN_PATH = Paths.get("app", "src", "main", "java", "org", "example", "localDb", "trains.json").toString();
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
+    // How many days ahead of today (UTC) a run can be booked
+    private static final int ADVANCE_BOOKING_DAYS = Integer.getInteger("booking.advance.days", 120);
+
+    private final TrainStore trainRepository;
+    private final TrainRunRepository runRepository;
+    private volatile JourneyPlanner journeyPlanner;
+
+    /**
+     * Loads trains from the default local database and watches it for external changes.
+     */
+    public TrainService() {
+        this(LocalDatabase.defaultDirectory());
+    }
+
+    private TrainService(Path directory) {
+        this(watched(new TrainRepository(LocalDatabase.snapshotFile(directory, LocalDatabase.TRAIN_FILE))),
+                directory.resolve(LocalDatabase.RUN_FILE));
+    }
+
+    private TrainService(TrainStore trainRepository, Path runPath) {
+        this(trainRepository, new TrainRunRepository(runPath, null, trainRepository));
+    }
+
+    /**
+     * Uses the given trains, with dated runs kept in memory only.
+     */
+    public TrainService(TrainStore trainRepository) {
+        this(trainRepository, new TrainRunRepository(trainRepository));
+    }
+
+    public TrainService(TrainStore trainRepository, TrainRunRepository runRepository) {
+        this.trainRepository = trainRepository;
+        this.runRepository = runRepository;
+    }
+
+    private static TrainRepository watched(TrainRepository trainRepository) {
+        trainRepository.startWatching();
+        return trainRepository;
+    }
 
     /**
      * Fetches train details by ID.
      */
     public Optional<Train> getTrainById(String trainId) {
-        return getAllTrains().stream()
-                .filter(train -> train.getTrainId().equals(trainId))
-                .findFirst();
+        return trainRepository.findById(trainId);
     }
 
     /**
      * Retrieves a list of all trains.
      */
     public List<Train> getAllTrains() {
+        long start = ServiceMetrics.start();
         try {
-            return objectMapper.readValue(new File(TRAIN_PATH), new TypeReference<List<Train>>() {});
-        } catch (IOException e) {
-            logger.severe("Error reading train data: " + e.getMessage());
-            return new ArrayList<>();
+            return trainRepository.findAll();
+        } finally {
+            metrics.record(Operation.SEARCH, start);
         }
     }
 
@@ -43,45 +92,245 @@ public class TrainService {
      * Searches for trains passing through a given station.
      */
     public List<Train> searchTrainByStation(String station) {
-        return getAllTrains().stream()
-                .filter(train -> train.getStations().contains(station))
-                .collect(Collectors.toList());
+        long start = ServiceMetrics.start();
+        try {
+            return trainRepository.findByStation(station);
+        } finally {
+            metrics.record(Operation.SEARCH, start);
+        }
+    }
+
+    /**
+     * Searches for trains stopping at the source and later at the destination.
+     */
+    public List<Train> searchTrainsBetween(String source, String destination) {
+        long start = ServiceMetrics.start();
+        try {
+            return trainRepository.findByRoute(source, destination);
+        } finally {
+            metrics.record(Operation.SEARCH, start);
+        }
+    }
+
+    /**
+     * Searches for trains leaving a station at or after {@code from} and before {@code to},
+     * ordered by departure time.
+     */
+    public List<Train> searchDepartures(String station, Instant from, Instant to) {
+        long start = ServiceMetrics.start();
+        try {
+            return trainRepository.findDepartures(station, from, to);
+        } finally {
+            metrics.record(Operation.SEARCH, start);
+        }
+    }
+
+    /**
+     * Plans the earliest-arriving journey from source to destination leaving at or after
+     * {@code departAfter}, changing trains at most {@code maxTransfers} times with at least
+     * {@code minConnection} between arriving and departing at a change.
+     * <p>
+     * The timetable is built on first use and kept in step with {@link #addTrain},
+     * {@link #updateTrain} and {@link #deleteTrain}; changes made to the store by other means
+     * are not seen until the service is recreated.
+     */
+    public Optional<Journey> planJourney(String source, String destination, Instant departAfter,
+                                        int maxTransfers, Duration minConnection) {
+        long start = ServiceMetrics.start();
+        try {
+            return journeyPlanner().plan(source, destination, departAfter, maxTransfers, minConnection);
+        } finally {
+            metrics.record(Operation.SEARCH, start);
+        }
+    }
+
+    private JourneyPlanner journeyPlanner() {
+        JourneyPlanner planner = journeyPlanner;
+        if (planner == null) {
+            synchronized (this) {
+                planner = journeyPlanner;
+                if (planner == null) {
+                    planner = new JourneyPlanner(trainRepository.findAll());
+                    journeyPlanner = planner;
+                }
+            }
+        }
+        return planner;
+    }
+
+    /**
+     * The planner if it has been built. Taking the lock it is built under means a change made
+     * before this call is either in its initial timetable or still to be applied by the caller.
+     */
+    private synchronized JourneyPlanner builtJourneyPlanner() {
+        return journeyPlanner;
     }
 
     /**
      * Adds a new train to the database.
      */
     public void addTrain(Train newTrain) {
-        List<Train> trains = getAllTrains();
-        trains.add(newTrain);
-        saveTrains(trains);
+        trainRepository.save(newTrain);
+        JourneyPlanner planner = builtJourneyPlanner();
+        if (planner != null) {
+            planner.trainChanged(newTrain);
+        }
         logger.info("Train added successfully: " + newTrain.getTrainId());
     }
 
     /**
-     * Updates an existing train.
+     * Updates an existing train. The update must carry the version of the stored train, as read
+     * from this service; it is refused if the train was changed since, here or by another process.
      */
     public boolean updateTrain(Train updatedTrain) {
-        List<Train> trains = getAllTrains();
-        for (int i = 0; i < trains.size(); i++) {
-            if (trains.get(i).getTrainId().equals(updatedTrain.getTrainId())) {
-                trains.set(i, updatedTrain);
-                saveTrains(trains);
-                logger.info("Train updated successfully: " + updatedTrain.getTrainId());
-                return true;
+        boolean replaced;
+        try {
+            replaced = trainRepository.replace(updatedTrain);
+        } catch (VersionConflictException e) {
+            metrics.increment(Outcome.VERSION_CONFLICT);
+            logger.warning(e.getMessage());
+            return false;
+        }
+        if (replaced) {
+            JourneyPlanner planner = builtJourneyPlanner();
+            if (planner != null) {
+                planner.trainChanged(updatedTrain);
             }
+            logger.info("Train updated successfully: " + updatedTrain.getTrainId());
+            return true;
         }
         return false;
     }
 
+    /**
+     * Takes the write lease covering the seats of a train's run, or of its own seat map for a
+     * null date. Seats checked and booked in place under the lease cannot be taken by another
+     * process sharing the database before the booking is saved, and what other processes booked
+     * has been applied when it is taken. Other threads changing the same train wait for it, so
+     * the change is saved in the order it was made. Close it once the change is saved.
+     */
+    public WriteLease lockSeats(String trainId, LocalDate date) {
+        return date == null ? trainRepository.lease(trainId) : runRepository.lease(trainId);
+    }
+
+    /**
+     * Takes the write leases covering the own seat maps of several trains at once.
+     */
+    public WriteLease lockSeats(Collection<String> trainIds) {
+        return trainRepository.leaseAll(trainIds);
+    }
+
+    /**
+     * Persists a seat booked in place on a train returned by this service.
+     */
+    public void saveSeatBooked(String trainId, int row, int col) {
+        trainRepository.seatBooked(trainId, row, col);
+    }
+
+    /**
+     * Persists a seat released in place on a train returned by this service.
+     */
+    public void saveSeatReleased(String trainId, int row, int col) {
+        trainRepository.seatReleased(trainId, row, col);
+    }
+
+    /**
+     * Persists a seat booked in place on segments [fromSegment, toSegment) of a train.
+     */
+    public void saveLegBooked(String trainId, int row, int col, int fromSegment, int toSegment) {
+        trainRepository.legBooked(trainId, row, col, fromSegment, toSegment);
+    }
+
+    /**
+     * Persists a seat released in place on segments [fromSegment, toSegment) of a train.
+     */
+    public void saveLegReleased(String trainId, int row, int col, int fromSegment, int toSegment) {
+        trainRepository.legReleased(trainId, row, col, fromSegment, toSegment);
+    }
+
+    /**
+     * Persists a group of seats booked in place on a train in one write.
+     * @param seats [row, col] pairs.
+     */
+    public void saveSeatsBooked(String trainId, int[][] seats) {
+        trainRepository.seatsBooked(trainId, seats);
+    }
+
+    /**
+     * Persists a group of seats booked in place on segments [fromSegment, toSegment) of a train in one write.
+     * @param seats [row, col] pairs.
+     */
+    public void saveLegsBooked(String trainId, int[][] seats, int fromSegment, int toSegment) {
+        trainRepository.legsBooked(trainId, seats, fromSegment, toSegment);
+    }
+
+    /**
+     * Persists a batch of seat changes made in place on trains of this service in one write.
+     */
+    public void saveSeatChanges(List<JournalEvent> events) {
+        trainRepository.seatChanges(events);
+    }
+
+    /**
+     * Returns true if a run on the given date can be booked: from today (UTC) up to the advance
+     * booking period ahead.
+     */
+    public boolean isBookableDate(LocalDate date) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        return !date.isBefore(today) && !date.isAfter(today.plusDays(ADVANCE_BOOKING_DAYS));
+    }
+
+    /**
+     * Gets the seats of a train's run on a date for reading; the result must not be booked on.
+     */
+    public SeatMap getRunSeats(Train train, LocalDate date) {
+        return runRepository.seatsForReading(train, date);
+    }
+
+    /**
+     * Gets the seats of a train's run on a date for booking in place, allocating them on first use.
+     */
+    public SeatMap getRunSeatsForBooking(Train train, LocalDate date) {
+        return runRepository.seatsForBooking(train, date);
+    }
+
+    /**
+     * Returns true if anything has been booked on the train's run on a date.
+     */
+    public boolean hasRunSeats(String trainId, LocalDate date) {
+        return runRepository.findSeats(trainId, date).isPresent();
+    }
+
+    /**
+     * Persists a seat booked in place on segments [fromSegment, toSegment) of a dated run.
+     */
+    public void saveRunLegBooked(String trainId, LocalDate date, int row, int col, int fromSegment, int toSegment) {
+        runRepository.legBooked(trainId, date, row, col, fromSegment, toSegment);
+    }
+
+    /**
+     * Persists a seat released in place on segments [fromSegment, toSegment) of a dated run.
+     */
+    public void saveRunLegReleased(String trainId, LocalDate date, int row, int col, int fromSegment, int toSegment) {
+        runRepository.legReleased(trainId, date, row, col, fromSegment, toSegment);
+    }
+
+    /**
+     * Persists a batch of seat changes made in place on dated runs in one write.
+     */
+    public void saveRunSeatChanges(List<JournalEvent> events) {
+        runRepository.seatChanges(events);
+    }
+
     /**
      * Deletes a train by ID.
      */
     public boolean deleteTrain(String trainId) {
-        List<Train> trains = getAllTrains();
-        boolean removed = trains.removeIf(train -> train.getTrainId().equals(trainId));
-        if (removed) {
-            saveTrains(trains);
+        if (trainRepository.delete(trainId)) {
+            JourneyPlanner planner = builtJourneyPlanner();
+            if (planner != null) {
+                planner.trainRemoved(trainId);
+            }
             logger.info("Train deleted: " + trainId);
             return true;
         }
@@ -89,32 +338,109 @@ public class TrainService {
     }
 
     /**
-     * Saves the train list back to the JSON file.
+     * Gets available seats for a train.
      */
-    private void saveTrains(List<Train> trains) {
+    public int getAvailableSeats(String trainId) {
+        long start = ServiceMetrics.start();
         try {
-            objectMapper.writeValue(new File(TRAIN_PATH), trains);
-        } catch (IOException e) {
-            logger.severe("Error saving train data: " + e.getMessage());
+            return getTrainById(trainId)
+                    .map(this::countAvailableSeats)
+                    .orElse(0);
+        } finally {
+            metrics.record(Operation.AVAILABILITY, start);
         }
     }
 
     /**
-     * Gets available seats for a train.
+     * Gets seats free for the whole journey from source to destination, which may be sold
+     * to others on legs outside it.
      */
-    public int getAvailableSeats(String trainId) {
-        return getTrainById(trainId)
-                .map(this::countAvailableSeats)
-                .orElse(0);
+    public int getAvailableSeats(String trainId, String source, String destination) {
+        long start = ServiceMetrics.start();
+        try {
+            Optional<Train> train = getTrainById(trainId);
+            if (train.isEmpty()) {
+                return 0;
+            }
+            int from = train.get().stopIndex(source);
+            int to = train.get().stopIndex(destination);
+            if (from < 0 || from >= to) {
+                return 0;
+            }
+            return train.get().getSeats().availableSeats(from, to);
+        } finally {
+            metrics.record(Operation.AVAILABILITY, start);
+        }
+    }
+
+    /**
+     * Gets seats free from source to destination on the train's run on a date; both null ask
+     * for the whole run.
+     */
+    public int getAvailableSeats(String trainId, String source, String destination, LocalDate date) {
+        long start = ServiceMetrics.start();
+        try {
+            Optional<Train> train = getTrainById(trainId);
+            if (train.isEmpty()) {
+                return 0;
+            }
+            SeatMap seats = getRunSeats(train.get(), date);
+            boolean wholeRun = source == null && destination == null;
+            int from = wholeRun ? 0 : train.get().stopIndex(source);
+            int to = wholeRun ? seats.segmentCount() : train.get().stopIndex(destination);
+            if (from < 0 || from >= to || !seats.isValidLeg(from, to)) {
+                return 0;
+            }
+            return wholeRun ? seats.availableSeats() : seats.availableSeats(from, to);
+        } finally {
+            metrics.record(Operation.AVAILABILITY, start);
+        }
+    }
+
+    /**
+     * Gets available seats for many trains at once, e.g. for a listing page. Each count is a
+     * read of the train's free-seat counter, so the cost is one map lookup per train.
+     * @return counts keyed by train ID in the order given; unknown trains are left out.
+     */
+    public Map<String, Integer> getAvailableSeats(Collection<String> trainIds) {
+        long start = ServiceMetrics.start();
+        try {
+            Map<String, Integer> available = new LinkedHashMap<>();
+            for (String trainId : trainIds) {
+                getTrainById(trainId).ifPresent(train -> available.put(trainId, countAvailableSeats(train)));
+            }
+            return available;
+        } finally {
+            metrics.record(Operation.AVAILABILITY, start);
+        }
+    }
+
+    /**
+     * Gets available seats in each row (coach) of a train, for the whole run.
+     * @return one count per row, or an empty list if the train does not exist.
+     */
+    public List<Integer> getAvailableSeatsByCoach(String trainId) {
+        long start = ServiceMetrics.start();
+        try {
+            Optional<Train> train = getTrainById(trainId);
+            if (train.isEmpty()) {
+                return List.of();
+            }
+            SeatMap seats = train.get().getSeats();
+            List<Integer> available = new ArrayList<>(seats.rowCount());
+            for (int row = 0; row < seats.rowCount(); row++) {
+                available.add(seats.availableSeatsInRow(row));
+            }
+            return available;
+        } finally {
+            metrics.record(Operation.AVAILABILITY, start);
+        }
     }
 
     /**
      * Counts available seats in a train.
      */
     private int countAvailableSeats(Train train) {
-        return (int) train.getSeats().stream()
-                .flatMap(List::stream)
-                .filter(seat -> seat == 0)
-                .count();
+        return train.getSeats().availableSeats();
     }
 }
@@ -1,71 +1,378 @@
 package org.example.service;
 
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
 import org.example.entity.Train;
+import org.example.metrics.Operation;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+import org.example.storage.WriteLease;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class TrainTicketService {
     private static final Logger logger = Logger.getLogger(TrainTicketService.class.getName());
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
+    // A group found free can be partly taken before it is claimed; search again this many times
+    private static final int GROUP_BOOKING_ATTEMPTS = 5;
     private final TrainService trainService;
+    // Hands cancelled seats to waiters; null if there is no waitlist
+    private final WaitlistService waitlist;
 
     // Constructor-based Dependency Injection
     public TrainTicketService(TrainService trainService) {
+        this(trainService, null);
+    }
+
+    /**
+     * Creates a service whose cancellations go through the waitlist, so a freed seat is given to
+     * the first waiter it suits in the same step that frees it.
+     */
+    public TrainTicketService(TrainService trainService, WaitlistService waitlist) {
         this.trainService = trainService;
+        this.waitlist = waitlist;
     }
 
     /**
-     * Books a seat in the given train.
+     * Books a seat in the given train for the whole run. The seat is claimed with a compare-and-set
+     * on the train's seat map, so exactly one of several concurrent callers wins a given seat.
      */
     public boolean bookTicket(String trainId, int row, int col) {
-        Optional<Train> optionalTrain = trainService.getTrainById(trainId);
+        return changeSeat(Operation.BOOK, trainId, row, col, null, null, null, train -> {
+            if (!train.getSeats().isValid(row, col)) {
+                return Outcome.INVALID_SEAT;
+            }
+            SeatMap seats = train.getSeats();
+            if (!seats.book(row, col)) {
+                return Outcome.SEAT_TAKEN;
+            }
+            try {
+                trainService.saveSeatBooked(trainId, row, col);
+            } catch (RuntimeException e) {
+                seats.releaseLeg(row, col, 0, seats.segmentCount());
+                throw e;
+            }
+            return Outcome.BOOKED;
+        });
+    }
 
-        if (optionalTrain.isEmpty()) {
-            logger.warning("Train not found: " + trainId);
-            return false;
-        }
+    /**
+     * Books a seat from source to destination only. The seat stays sellable on the legs
+     * before the source and after the destination.
+     */
+    public boolean bookTicket(String trainId, int row, int col, String source, String destination) {
+        return changeSeat(Operation.BOOK, trainId, row, col, source, destination, null, train -> {
+            int from = train.stopIndex(source);
+            int to = train.stopIndex(destination);
+            if (from < 0 || from >= to) {
+                return Outcome.INVALID_JOURNEY;
+            }
+            if (!train.getSeats().isValid(row, col)) {
+                return Outcome.INVALID_SEAT;
+            }
+            if (!train.getSeats().bookLeg(row, col, from, to)) {
+                return Outcome.SEAT_TAKEN;
+            }
+            try {
+                trainService.saveLegBooked(trainId, row, col, from, to);
+            } catch (RuntimeException e) {
+                train.getSeats().releaseLeg(row, col, from, to);
+                throw e;
+            }
+            return Outcome.BOOKED;
+        });
+    }
 
-        Train train = optionalTrain.get();
-        if (row < 0 || row >= train.getSeats().size() || col < 0 || col >= train.getSeats().get(row).size()) {
-            logger.warning("Invalid seat position.");
-            return false;
+    /**
+     * Books a seat on the train's run on the given date, from source to destination or, with
+     * both null, for the whole run. The run gets a seat map of its own on its first booking.
+     * Without a date the seat is booked on the train's own seat map.
+     */
+    public boolean bookTicket(String trainId, int row, int col, String source, String destination, LocalDate date) {
+        if (date == null) {
+            return source == null && destination == null
+                    ? bookTicket(trainId, row, col)
+                    : bookTicket(trainId, row, col, source, destination);
         }
+        return changeSeat(Operation.BOOK, trainId, row, col, source, destination, date, train -> {
+            boolean wholeRun = source == null && destination == null;
+            int from = wholeRun ? 0 : train.stopIndex(source);
+            int to = wholeRun ? train.routeSegments() : train.stopIndex(destination);
+            if (from < 0 || from >= to || !trainService.isBookableDate(date)) {
+                return Outcome.INVALID_JOURNEY;
+            }
+            if (!train.getSeats().isValid(row, col)) {
+                return Outcome.INVALID_SEAT;
+            }
+            SeatMap seats = trainService.getRunSeatsForBooking(train, date);
+            if (!seats.bookLeg(row, col, from, to)) {
+                return Outcome.SEAT_TAKEN;
+            }
+            try {
+                trainService.saveRunLegBooked(trainId, date, row, col, from, to);
+            } catch (RuntimeException e) {
+                // Unrecorded, the booking would hold the seat until restart; give it back first
+                seats.releaseLeg(row, col, from, to);
+                throw e;
+            }
+            return Outcome.BOOKED;
+        });
+    }
 
-        if (train.getSeats().get(row).get(col) == 0) {
-            train.getSeats().get(row).set(col, 1); // Mark seat as booked
-            trainService.updateTrain(train);
-            logger.info("Ticket booked successfully for train " + trainId + " at (" + row + "," + col + ")");
-            return true;
-        } else {
-            logger.warning("Seat already booked!");
-            return false;
+    /**
+     * Finds and books the best available {@code count} seats as one operation: adjacent seats
+     * in one row if possible, else seats in the same row, else (if the preferences allow it)
+     * seats spread over several rows. Either every seat is booked or none is, and the whole
+     * group is persisted in a single write.
+     * @return the booked seats as [row, col] pairs, or an empty list if the group could not be seated.
+     */
+    public List<int[]> bookSeats(String trainId, int count, SeatPreferences preferences) {
+        long start = ServiceMetrics.start();
+        try (WriteLease lease = trainService.lockSeats(trainId, null)) {
+            Optional<Train> optionalTrain = trainService.getTrainById(trainId);
+
+            if (optionalTrain.isEmpty()) {
+                metrics.increment(Outcome.TRAIN_NOT_FOUND);
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.warning("Train not found: " + trainId);
+                }
+                return List.of();
+            }
+
+            Train train = optionalTrain.get();
+            SeatMap seats = train.getSeats();
+            boolean wholeRun = preferences.getSource() == null && preferences.getDestination() == null;
+            int from = wholeRun ? 0 : train.stopIndex(preferences.getSource());
+            int to = wholeRun ? seats.segmentCount() : train.stopIndex(preferences.getDestination());
+            if (from < 0 || from >= to) {
+                metrics.increment(Outcome.INVALID_JOURNEY);
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.warning("Invalid journey " + preferences.getSource() + " -> " + preferences.getDestination() + " for train " + trainId);
+                }
+                return List.of();
+            }
+            if (count <= 0) {
+                metrics.increment(Outcome.INVALID_SEAT);
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.warning("Invalid seat count: " + count);
+                }
+                return List.of();
+            }
+
+            int preferredRow = preferences.getPreferredRow() == null ? -1 : preferences.getPreferredRow();
+            for (int attempt = 0; attempt < GROUP_BOOKING_ATTEMPTS; attempt++) {
+                int[] group = seats.findSeatGroup(count, from, to, preferredRow, preferences.isAllowSplit());
+                if (group.length == 0 && seats.availableSeats(from, to) < count) {
+                    break;
+                }
+                if (group.length == 0 || !seats.bookSeats(group, from, to)) {
+                    continue;
+                }
+                int[][] booked = new int[group.length][];
+                for (int i = 0; i < group.length; i++) {
+                    booked[i] = new int[] {seats.rowOf(group[i]), seats.colOf(group[i])};
+                }
+                try {
+                    if (wholeRun) {
+                        trainService.saveSeatsBooked(trainId, booked);
+                    } else {
+                        trainService.saveLegsBooked(trainId, booked, from, to);
+                    }
+                } catch (RuntimeException e) {
+                    // The group was never recorded; free all of it rather than hold it until restart
+                    for (int seat : group) {
+                        seats.releaseLeg(seat, from, to);
+                    }
+                    throw e;
+                }
+                metrics.increment(Outcome.BOOKED);
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info("Booked " + count + " seats together for train " + trainId);
+                }
+                return new ArrayList<>(List.of(booked));
+            }
+            metrics.increment(Outcome.GROUP_NOT_SEATED);
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.warning("Could not seat a group of " + count + " on train " + trainId);
+            }
+            return List.of();
+        } finally {
+            metrics.record(Operation.BOOK, start);
         }
     }
 
     /**
-     * Cancels a booked ticket.
+     * Cancels a ticket booked for the whole run.
      */
     public boolean cancelTicket(String trainId, int row, int col) {
-        Optional<Train> optionalTrain = trainService.getTrainById(trainId);
+        return changeSeat(Operation.CANCEL, trainId, row, col, null, null, null, train -> {
+            SeatMap seats = train.getSeats();
+            if (!seats.isValid(row, col)) {
+                return Outcome.INVALID_SEAT;
+            }
+            if (seats.isHeld(row, col)) {
+                return Outcome.SEAT_HELD;
+            }
+            if (waitlist != null) {
+                return waitlist.release(trainId, null, seats, row, col, 0, seats.segmentCount())
+                        ? Outcome.CANCELLED : Outcome.NOT_BOOKED;
+            }
+            if (!seats.releaseLeg(row, col, 0, seats.segmentCount())) {
+                return Outcome.NOT_BOOKED;
+            }
+            try {
+                trainService.saveSeatReleased(trainId, row, col);
+            } catch (RuntimeException e) {
+                // Unrecorded, the release would be undone by a restart; keep the seat booked
+                seats.bookLeg(row, col, 0, seats.segmentCount());
+                throw e;
+            }
+            return Outcome.CANCELLED;
+        });
+    }
 
-        if (optionalTrain.isEmpty()) {
-            logger.warning("Train not found: " + trainId);
-            return false;
-        }
+    /**
+     * Cancels a ticket booked from source to destination, leaving other legs of the seat untouched.
+     */
+    public boolean cancelTicket(String trainId, int row, int col, String source, String destination) {
+        return changeSeat(Operation.CANCEL, trainId, row, col, source, destination, null, train -> {
+            SeatMap seats = train.getSeats();
+            int from = train.stopIndex(source);
+            int to = train.stopIndex(destination);
+            if (from < 0 || from >= to || !seats.isValid(row, col)) {
+                return Outcome.INVALID_SEAT;
+            }
+            if (seats.isHeld(row, col, from, to)) {
+                return Outcome.SEAT_HELD;
+            }
+            if (waitlist != null) {
+                return waitlist.release(trainId, null, seats, row, col, from, to)
+                        ? Outcome.CANCELLED : Outcome.NOT_BOOKED;
+            }
+            if (!seats.releaseLeg(row, col, from, to)) {
+                return Outcome.NOT_BOOKED;
+            }
+            try {
+                trainService.saveLegReleased(trainId, row, col, from, to);
+            } catch (RuntimeException e) {
+                seats.bookLeg(row, col, from, to);
+                throw e;
+            }
+            return Outcome.CANCELLED;
+        });
+    }
+
+    /**
+     * Cancels a seat booked on the train's run on the given date, from source to destination or,
+     * with both null, for the whole run.
+     */
+    public boolean cancelTicket(String trainId, int row, int col, String source, String destination, LocalDate date) {
+        return changeSeat(Operation.CANCEL, trainId, row, col, source, destination, date, train -> {
+            // A run nothing was booked on reads as the empty template; releasing on it finds nothing
+            SeatMap seats = trainService.getRunSeats(train, date);
+            boolean wholeRun = source == null && destination == null;
+            int from = wholeRun ? 0 : train.stopIndex(source);
+            int to = wholeRun ? seats.segmentCount() : train.stopIndex(destination);
+            if (from < 0 || from >= to || !seats.isValidLeg(from, to) || !seats.isValid(row, col)) {
+                return Outcome.INVALID_SEAT;
+            }
+            if (seats.isHeld(row, col, from, to)) {
+                return Outcome.SEAT_HELD;
+            }
+            if (waitlist != null) {
+                return waitlist.release(trainId, date, seats, row, col, from, to)
+                        ? Outcome.CANCELLED : Outcome.NOT_BOOKED;
+            }
+            if (!seats.releaseLeg(row, col, from, to)) {
+                return Outcome.NOT_BOOKED;
+            }
+            try {
+                trainService.saveRunLegReleased(trainId, date, row, col, from, to);
+            } catch (RuntimeException e) {
+                seats.bookLeg(row, col, from, to);
+                throw e;
+            }
+            return Outcome.CANCELLED;
+        });
+    }
 
-        Train train = optionalTrain.get();
-        if (row < 0 || row >= train.getSeats().size() || col < 0 || col >= train.getSeats().get(row).size()) {
-            logger.warning("Invalid seat position.");
+    /**
+     * Releases the seat a ticket was booked on, the way it was booked: on its dated run if it has
+     * a run date, else on the train's own seat map, for its journey or the whole run.
+     * @return true if the seat was released; false if the ticket has no seat or it was not booked.
+     */
+    public boolean cancelTicket(Ticket ticket) {
+        if (ticket.getRow() == null || ticket.getCol() == null) {
             return false;
         }
+        boolean wholeRun = isWholeRun(ticket);
+        String source = wholeRun ? null : ticket.getSource();
+        String destination = wholeRun ? null : ticket.getDestination();
+        // Tickets from before dated runs carry a date of journey but no run date
+        if (ticket.getRunDate() != null) {
+            return cancelTicket(ticket.getTrainId(), ticket.getRow(), ticket.getCol(), source, destination,
+                    LocalDate.parse(ticket.getRunDate()));
+        }
+        return wholeRun
+                ? cancelTicket(ticket.getTrainId(), ticket.getRow(), ticket.getCol())
+                : cancelTicket(ticket.getTrainId(), ticket.getRow(), ticket.getCol(), source, destination);
+    }
 
-        if (train.getSeats().get(row).get(col) == 1) {
-            train.getSeats().get(row).set(col, 0); // Mark seat as available
-            trainService.updateTrain(train);
-            logger.info("Ticket cancelled for train " + trainId + " at (" + row + "," + col + ")");
-            return true;
-        } else {
-            logger.warning("Seat is already available!");
-            return false;
+    private boolean isWholeRun(Ticket ticket) {
+        return trainService.getTrainById(ticket.getTrainId())
+                .map(train -> train.stopIndex(ticket.getSource()) == 0
+                        && train.stopIndex(ticket.getDestination()) == train.routeSegments())
+                .orElse(true);
+    }
+
+    /**
+     * Runs one seat booking or cancellation under the train's write lease, timing it and
+     * counting and logging its outcome. The change is only called if the train exists.
+     * @return whether the seat was booked or cancelled.
+     */
+    private boolean changeSeat(Operation operation, String trainId, int row, int col, String source,
+                               String destination, LocalDate date, SeatChange change) {
+        long start = ServiceMetrics.start();
+        try (WriteLease lease = trainService.lockSeats(trainId, date)) {
+            Optional<Train> optionalTrain = trainService.getTrainById(trainId);
+            Outcome outcome = optionalTrain.isEmpty() ? Outcome.TRAIN_NOT_FOUND : change.apply(optionalTrain.get());
+            metrics.increment(outcome);
+            boolean changed = outcome == Outcome.BOOKED || outcome == Outcome.CANCELLED;
+            Level level = changed ? Level.INFO : Level.WARNING;
+            if (logger.isLoggable(level)) {
+                logger.log(level, describe(outcome) + " for train " + trainId
+                        + (date == null ? "" : " on " + date) + " at (" + row + "," + col + ")"
+                        + (source == null && destination == null ? "" : " from " + source + " to " + destination));
+            }
+            return changed;
+        } finally {
+            metrics.record(operation, start);
         }
     }
+
+    private static String describe(Outcome outcome) {
+        return switch (outcome) {
+            case BOOKED -> "Ticket booked";
+            case CANCELLED -> "Ticket cancelled";
+            case TRAIN_NOT_FOUND -> "Train not found";
+            case INVALID_SEAT -> "Invalid seat position";
+            case INVALID_JOURNEY -> "Invalid journey";
+            case SEAT_TAKEN -> "Seat already booked on part of the journey";
+            case SEAT_HELD -> "Seat is held for checkout, not booked";
+            case NOT_BOOKED -> "Seat is not booked for that journey";
+            default -> outcome.label();
+        };
+    }
+
+    /**
+     * Books or releases a seat of an existing train and says how it went.
+     */
+    private interface SeatChange {
+        Outcome apply(Train train);
+    }
 }
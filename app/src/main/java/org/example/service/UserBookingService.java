@@ -1,38 +1,65 @@
 package org.example.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
 import org.example.entity.Ticket;
+import org.example.entity.Train;
 import org.example.entity.User;
+import org.example.metrics.Operation;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+import org.example.repository.TicketRepository;
+import org.example.repository.TicketStore;
+import org.example.repository.TrainRepository;
+import org.example.repository.TrainStore;
+import org.example.repository.UserRepository;
+import org.example.repository.VersionConflictException;
+import org.example.storage.LocalDatabase;
+import org.example.storage.WriteLease;
 import org.example.util.PasswordUtil;
 
-import java.io.File;
-import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.logging.Logger;
 
 /**
  * Service for managing user bookings.
  */
 public class UserBookingService {
-    private static final String USER_PATH = "app/src/main/java/org/example/localDb/users.json"; // Adjusted path
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final String TICKET_PATH = "app/src/main/java/org/example/localDb/tickets.json";
-    private static final String TRAIN_PATH = "app/src/main/java/org/example/localDb/trains.json"; // Train data path
+    private static final Logger logger = Logger.getLogger(UserBookingService.class.getName());
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
 
 
+    private final UserRepository userRepository;
+    private final TicketStore ticketRepository;
+    private final TrainStore trainRepository;
+
     /**
-     * Retrieves all users from the JSON file.
+     * Uses stores that write straight back to the default local database files.
+     */
+    public UserBookingService() {
+        this(LocalDatabase.defaultDirectory());
+    }
+
+    private UserBookingService(Path directory) {
+        this(new UserRepository(LocalDatabase.snapshotFile(directory, LocalDatabase.USER_FILE)),
+                new TicketRepository(LocalDatabase.snapshotFile(directory, LocalDatabase.TICKET_FILE)),
+                new TrainRepository(LocalDatabase.snapshotFile(directory, LocalDatabase.TRAIN_FILE)));
+    }
+
+    public UserBookingService(UserRepository userRepository, TicketStore ticketRepository, TrainStore trainRepository) {
+        this.userRepository = userRepository;
+        this.ticketRepository = ticketRepository;
+        this.trainRepository = trainRepository;
+    }
+
+    /**
+     * Retrieves all users.
      * @return List of users.
      */
     public List<User> getAllUsers() {
-        try {
-            return objectMapper.readValue(new File(USER_PATH), new TypeReference<List<User>>() {});
-        } catch (IOException e) {
-            e.printStackTrace();
-            return new ArrayList<>();
-        }
+        return userRepository.findAll();
     }
 
     /**
@@ -40,30 +67,28 @@ public class UserBookingService {
      * @param newUser New user to be registered.
      * @return true if signup is successful, false if user already exists.
      */
-    public void signup(User newUser) {
-        try {
-            List<User> users = objectMapper.readValue(new File(USER_PATH), new TypeReference<List<User>>() {});
-
-            // Check if user already exists
-            for (User user : users) {
-                if (user.getUserName().equalsIgnoreCase(newUser.getUserName())) {
-                    System.out.println("Username already taken!");
-                    return;
-                }
-            }
-
-            // Hash the password before storing
-            String hashedPassword = PasswordUtil.hashPassword(newUser.getPasswordHash());
-            newUser.setPasswordHash(hashedPassword);
+    public boolean signup(User newUser) {
+        // Cheap early check so a taken name does not pay for hashing; insert() below is the atomic one
+        if (userRepository.isUserNameTaken(newUser.getUserName())) {
+            logger.fine("Username already taken: " + newUser.getUserName());
+            return false;
+        }
 
-            // Add user and save back to file
-            users.add(newUser);
-            objectMapper.writeValue(new File(USER_PATH), users);
+        // Hash the password before storing
+        String hashedPassword = PasswordUtil.hashPassword(newUser.getPasswordHash());
+        newUser.setPasswordHash(hashedPassword);
+        if (newUser.getUserId() == null) {
+            newUser.setUserId(UUID.randomUUID().toString());
+        }
 
-            System.out.println("Signup successful!");
-        } catch (IOException e) {
-            e.printStackTrace();
+        // Add user; the store appends it to the journal instead of rewriting the file
+        if (!userRepository.insert(newUser)) {
+            logger.fine("Username already taken: " + newUser.getUserName());
+            return false;
         }
+
+        logger.fine("Signed up user " + newUser.getUserId());
+        return true;
     }
 
 
@@ -74,28 +99,61 @@ public class UserBookingService {
      * @return true if login is successful, false otherwise.
      */
     public boolean login(String userName, String password) {
+        long start = ServiceMetrics.start();
         try {
-            List<User> users = objectMapper.readValue(new File(USER_PATH), new TypeReference<List<User>>() {});
-
-            for (User user : users) {
-                if (user.getUserName().equalsIgnoreCase(userName)) {
-                    // Check if the entered password matches the stored hashed password
-                    if (PasswordUtil.checkPassword(password, user.getPasswordHash())) {
-                        System.out.println("Login successful!");
-                        return true;
-                    } else {
-                        System.out.println("Incorrect password!");
-                        return false;
-                    }
-                }
+            Optional<User> user = findByUserName(userName);
+            if (user.isEmpty()) {
+                metrics.increment(Outcome.LOGIN_FAILED);
+                logger.fine("Login failed, user not found: " + userName);
+                return false;
             }
 
-            System.out.println("User not found!");
-            return false;
-        } catch (IOException e) {
-            e.printStackTrace();
+            // Check if the entered password matches the stored hashed password
+            if (verifyPassword(user.get(), password)) {
+                metrics.increment(Outcome.LOGIN_SUCCEEDED);
+                logger.fine("Login succeeded: " + userName);
+                return true;
+            } else {
+                metrics.increment(Outcome.LOGIN_FAILED);
+                logger.fine("Login failed, incorrect password: " + userName);
+                return false;
+            }
+        } finally {
+            metrics.record(Operation.LOGIN, start);
+        }
+    }
+
+    /**
+     * Finds a user by username, ignoring case.
+     * @param userName Username.
+     * @return The user, if registered.
+     */
+    public Optional<User> findByUserName(String userName) {
+        return userRepository.findByUserName(userName);
+    }
+
+    /**
+     * Checks a password against the user's stored hash. On success, a hash made with an outdated
+     * BCrypt cost factor is transparently replaced by one made with the current factor.
+     * @param user User.
+     * @param password Password.
+     * @return true if the password matches.
+     */
+    public boolean verifyPassword(User user, String password) {
+        String storedHash = user.getPasswordHash();
+        if (!PasswordUtil.checkPassword(password, storedHash)) {
             return false;
         }
+        if (PasswordUtil.needsRehash(storedHash)) {
+            user.setPasswordHash(PasswordUtil.hashPassword(password));
+            try {
+                userRepository.save(user);
+            } catch (VersionConflictException e) {
+                // Saved by another process meanwhile; the hash is upgraded on a later login
+                metrics.increment(Outcome.VERSION_CONFLICT);
+            }
+        }
+        return true;
     }
 
 
@@ -105,93 +163,155 @@ public class UserBookingService {
      * @return User object if found, otherwise null.
      */
     public User getUserById(String userId) {
-        return getAllUsers().stream()
-                .filter(user -> user.getUserId().equals(userId))
-                .findFirst()
-                .orElse(null);
+        return userRepository.findById(userId).orElse(null);
     }
 
     /**
-     * Saves the updated users list to the JSON file.
-     * @param users List of users.
+     * Looks up a ticket by ID, whoever booked it.
+     * @param ticketId Ticket ID.
+     * @return The ticket, if it exists.
      */
-    private void saveUsers(List<User> users) {
-        try {
-            objectMapper.writeValue(new File(USER_PATH), users);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public Optional<Ticket> getTicket(String ticketId) {
+        return ticketRepository.findById(ticketId);
     }
 
     public void getTicketInfo(String ticketId) {
-        try {
-            List<Ticket> tickets = objectMapper.readValue(new File(TICKET_PATH), new TypeReference<List<Ticket>>() {});
-            for (Ticket ticket : tickets) {
-                if (ticket.getTicketId().equals(ticketId)) {
-                    System.out.println("🎟 Ticket Details:");
-                    System.out.println("Ticket ID: " + ticket.getTicketId());
-                    System.out.println("User ID: " + ticket.getUserId());
-                    System.out.println("Source: " + ticket.getSource());
-                    System.out.println("Destination: " + ticket.getDestination());
-                    System.out.println("Date of Journey: " + ticket.getDateOfJourney());
-                    return;
-                }
-            }
+        Optional<Ticket> found = ticketRepository.findById(ticketId);
+        if (found.isEmpty()) {
             System.out.println("Ticket not found!");
-        } catch (IOException e) {
-            e.printStackTrace();
+            return;
+        }
+        Ticket ticket = found.get();
+        System.out.println("🎟 Ticket Details:");
+        System.out.println("Ticket ID: " + ticket.getTicketId());
+        System.out.println("User ID: " + ticket.getUserId());
+        System.out.println("Source: " + ticket.getSource());
+        System.out.println("Destination: " + ticket.getDestination());
+        System.out.println("Date of Journey: " + ticket.getDateOfJourney());
+        getTrainForTicket(ticket).ifPresent(train -> System.out.println("Train: " + train.getTrainNo()));
+        if (ticket.getRow() != null && ticket.getCol() != null) {
+            System.out.println("Seat: (" + ticket.getRow() + "," + ticket.getCol() + ")");
         }
     }
+
+    /**
+     * Resolves the train a ticket refers to from the train store.
+     * @param ticket Ticket.
+     * @return The referenced train, if it still exists.
+     */
+    public Optional<Train> getTrainForTicket(Ticket ticket) {
+        return trainRepository.findById(ticket.getTrainId());
+    }
     /**
      * Fetches all bookings for a specific user.
      * @param userId User ID.
      */
     public void fetchBookings(String userId) {
-        try {
-            List<Ticket> tickets = objectMapper.readValue(new File(TICKET_PATH), new TypeReference<List<Ticket>>() {});
-            List<Ticket> userTickets = new ArrayList<>();
+        List<Ticket> userTickets = getBookings(userId);
 
-            for (Ticket ticket : tickets) {
-                if (ticket.getUserId().equals(userId)) {
-                    userTickets.add(ticket);
-                }
-            }
+        if (userTickets.isEmpty()) {
+            System.out.println("No bookings found for user ID: " + userId);
+            return;
+        }
 
-            if (userTickets.isEmpty()) {
-                System.out.println("No bookings found for user ID: " + userId);
-                return;
-            }
+        System.out.println("🎟 User Bookings:");
+        for (Ticket ticket : userTickets) {
+            System.out.println("Ticket ID: " + ticket.getTicketId() +
+                    " | Source: " + ticket.getSource() +
+                    " | Destination: " + ticket.getDestination() +
+                    " | Date: " + ticket.getDateOfJourney());
+        }
+    }
 
-            System.out.println("🎟 User Bookings:");
-            for (Ticket ticket : userTickets) {
-                System.out.println("Ticket ID: " + ticket.getTicketId() +
-                        " | Source: " + ticket.getSource() +
-                        " | Destination: " + ticket.getDestination() +
-                        " | Date: " + ticket.getDateOfJourney());
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Returns all tickets booked by a user, looked up through the store's user index.
+     * @param userId User ID.
+     * @return The user's tickets, ordered by ticket ID.
+     */
+    public List<Ticket> getBookings(String userId) {
+        return ticketRepository.findByUserId(userId);
+    }
+
+    /**
+     * Cancels a ticket: deletes it and releases its seat through the ticket service, which hands
+     * the seat to the first suitable waiter if it has a waitlist. If the seat cannot be released,
+     * the ticket is stored again.
+     * @param ticketId Ticket ID.
+     * @param trainTicketService Releases the seat the ticket was booked on.
+     * @return true if the ticket existed and was cancelled.
+     */
+    public boolean cancelBooking(String ticketId, TrainTicketService trainTicketService) {
+        // Removing the ticket first keeps a concurrent cancel of the same ticket from releasing the seat twice
+        Optional<Ticket> removed = removeBooking(ticketId);
+        if (removed.isEmpty()) {
+            System.out.println("Ticket not found!");
+            return false;
+        }
+        try {
+            trainTicketService.cancelTicket(removed.get());
+        } catch (RuntimeException e) {
+            recordBooking(removed.get());
+            throw e;
         }
+        System.out.println("Ticket " + ticketId + " has been canceled.");
+        return true;
     }
 
     /**
-     * Cancels a ticket booking for a user.
+     * Stores a ticket for a seat that has already been booked and links it to its user.
+     * @param ticket Ticket; a ticket ID is generated if it has none.
+     * @return The stored ticket.
+     */
+    public Ticket recordBooking(Ticket ticket) {
+        if (ticket.getTicketId() == null) {
+            ticket.setTicketId("TKT" + UUID.randomUUID().toString().replace("-", "").substring(0, 12).toUpperCase());
+        }
+        ticketRepository.save(ticket);
+        userRepository.findById(ticket.getUserId()).ifPresent(user -> updateTicketIds(user, ticket.getTicketId(), true));
+        return ticket;
+    }
+
+    /**
+     * Deletes a ticket and unlinks it from its user. Releasing the seat is up to the caller;
+     * {@link #cancelBooking} does both.
      * @param ticketId Ticket ID.
+     * @return The removed ticket, if it existed.
      */
-    public void cancelBooking(String ticketId) {
+    public Optional<Ticket> removeBooking(String ticketId) {
+        Optional<Ticket> removed = ticketRepository.delete(ticketId);
+        removed.flatMap(ticket -> userRepository.findById(ticket.getUserId()))
+                .ifPresent(user -> updateTicketIds(user, ticketId, false));
+        return removed;
+    }
+
+    /**
+     * Replaces the user's ticket ID list with an updated copy, so a snapshot being written
+     * concurrently never sees a list in the middle of a change. If another process saved the
+     * user since it was read, the change is made again on the stored copy under the lease, where
+     * it cannot be outdated.
+     */
+    private void updateTicketIds(User user, String ticketId, boolean add) {
         try {
-            List<Ticket> tickets = objectMapper.readValue(new File(TICKET_PATH), new TypeReference<List<Ticket>>() {});
-            Optional<Ticket> ticketToRemove = tickets.stream().filter(t -> t.getTicketId().equals(ticketId)).findFirst();
+            changeTicketIds(user, ticketId, add);
+            return;
+        } catch (VersionConflictException e) {
+            metrics.increment(Outcome.VERSION_CONFLICT);
+        }
+        try (WriteLease lease = userRepository.lease()) {
+            userRepository.findById(user.getUserId()).ifPresent(stored -> changeTicketIds(stored, ticketId, add));
+        }
+    }
 
-            if (ticketToRemove.isPresent()) {
-                tickets.remove(ticketToRemove.get());
-                saveTickets(tickets); // Save the updated ticket list
-                System.out.println("Ticket " + ticketId + " has been canceled.");
+    private void changeTicketIds(User user, String ticketId, boolean add) {
+        synchronized (user) {
+            List<String> ticketIds = user.getTicketIds() == null ? new ArrayList<>() : new ArrayList<>(user.getTicketIds());
+            if (add) {
+                ticketIds.add(ticketId);
             } else {
-                System.out.println("Ticket not found!");
+                ticketIds.remove(ticketId);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            user.setTicketIds(ticketIds);
+            userRepository.save(user);
         }
     }
 
@@ -200,35 +320,20 @@ public class UserBookingService {
      * @param trainId Train ID.
      */
     public void getTrainInfo(String trainId) {
-        try {
-            List<Ticket> trains = objectMapper.readValue(new File(TRAIN_PATH), new TypeReference<List<Ticket>>() {});
-            for (Ticket train : trains) {
-                if (train.getTicketId().equals(trainId)) { // Assuming Train ID is stored as Ticket ID (Adjust if needed)
-                    System.out.println("🚆 Train Details:");
-                    System.out.println("Train ID: " + train.getTicketId());
-                    System.out.println("Source: " + train.getSource());
-                    System.out.println("Destination: " + train.getDestination());
-                    System.out.println("Date of Journey: " + train.getDateOfJourney());
-                    return;
-                }
-            }
+        Optional<Train> found = trainRepository.findById(trainId);
+        if (found.isEmpty()) {
             System.out.println("Train not found!");
-        } catch (IOException e) {
-            e.printStackTrace();
+            return;
         }
-    }
-
-    /**
-     * Saves the updated ticket list after modifications (e.g., cancellations).
-     * @param tickets List of tickets.
-     */
-    private void saveTickets(List<Ticket> tickets) {
-        try {
-            objectMapper.writeValue(new File(TICKET_PATH), tickets);
-        } catch (IOException e) {
-            e.printStackTrace();
+        Train train = found.get();
+        List<String> stations = train.getStations();
+        System.out.println("🚆 Train Details:");
+        System.out.println("Train ID: " + train.getTrainId());
+        System.out.println("Train No: " + train.getTrainNo());
+        if (stations != null && !stations.isEmpty()) {
+            System.out.println("Source: " + stations.get(0));
+            System.out.println("Destination: " + stations.get(stations.size() - 1));
+            System.out.println("Stations: " + String.join(" -> ", stations));
         }
     }
-
-
 }
@@ -0,0 +1,42 @@
+package org.example.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A passenger waiting for a seat on a train run, and the seat they got once promoted.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class WaitlistEntry {
+
+    private String waitlistId;
+
+    private String userId;
+
+    private String trainId;
+
+    // Journey; both null for the whole run
+    private String source;
+
+    private String destination;
+
+    // ISO date of the run, or null for the train's own seat map
+    private String dateOfJourney;
+
+    // Higher priorities are served first; equal ones in order of joining
+    private int priority;
+
+    // Seat booked on promotion; null while waiting
+    private Integer row;
+
+    private Integer col;
+
+    public boolean isPromoted() {
+        return row != null && col != null;
+    }
+}
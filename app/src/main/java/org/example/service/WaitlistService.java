@@ -0,0 +1,542 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+import org.example.storage.JournalEvent;
+import org.example.storage.WriteLease;
+
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waitlists for full train runs, served by the server instead of by clients retrying.
+ * <p>
+ * Each run (a train's own seat map, or one of its dated runs) has one queue, ordered by priority
+ * and then by order of joining. When {@link TrainTicketService} cancels a seat, it hands the seat
+ * to this service, which gives it to the first waiter whose journey lies within the freed legs
+ * without ever clearing the bits on that waiter's legs, so no other booker can take it in
+ * between. The release and the promotion are persisted in one journal write. Legs that are
+ * freed and not handed on are then offered to the following waiters, and a waiter who joins
+ * while a seat is free is seated at once.
+ * <p>
+ * Every priority level keeps a Fenwick tree over join order, so a waiter's position is a
+ * prefix sum, O(log n), rather than a walk of the queue. The waiters are renumbered whenever
+ * the tree runs out of room, so its size follows the queue's length rather than the number of
+ * joins. Waitlists live in memory only.
+ */
+public class WaitlistService {
+    private static final Logger logger = Logger.getLogger(WaitlistService.class.getName());
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
+    // Waiters tried per freed seat before giving up; bounds a cancel on a long queue whose
+    // journeys do not fit what was freed
+    private static final int PROMOTION_SCAN_LIMIT = 64;
+
+    private final TrainService trainService;
+    private final Map<String, RunQueue> queues = new ConcurrentHashMap<>();
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private volatile Consumer<WaitlistEntry> promotionListener = entry -> { };
+
+    public WaitlistService(TrainService trainService) {
+        this.trainService = trainService;
+    }
+
+    /**
+     * Registers a callback run for every promoted entry, after its seat has been booked and
+     * persisted, e.g. to issue the ticket. It is not called under any queue lock.
+     */
+    public void setPromotionListener(Consumer<WaitlistEntry> promotionListener) {
+        this.promotionListener = promotionListener;
+    }
+
+    /**
+     * Joins the waitlist of a train run for a journey; source and destination both null wait
+     * for the whole run, and a null date for the train's own seat map. If a seat is free for the
+     * journey, it is booked at once and the returned entry is already promoted.
+     * @return the entry, or empty if the train, journey or date is not valid.
+     */
+    public Optional<WaitlistEntry> join(String userId, String trainId, String source, String destination,
+                                        LocalDate date, int priority) {
+        List<Waiter> promoted = new ArrayList<>();
+        WaitlistEntry entry;
+        try (WriteLease lease = trainService.lockSeats(trainId, date)) {
+            Optional<Train> optionalTrain = trainService.getTrainById(trainId);
+            if (optionalTrain.isEmpty()) {
+                metrics.increment(Outcome.TRAIN_NOT_FOUND);
+                logger.warning("Train not found: " + trainId);
+                return Optional.empty();
+            }
+            Train train = optionalTrain.get();
+            boolean wholeRun = source == null && destination == null;
+            int from = wholeRun ? 0 : train.stopIndex(source);
+            int to = wholeRun ? train.routeSegments() : train.stopIndex(destination);
+            if (from < 0 || from >= to || (date != null && !trainService.isBookableDate(date))) {
+                metrics.increment(Outcome.INVALID_JOURNEY);
+                logger.warning("Invalid journey " + source + " -> " + destination + " on " + date + " for train " + trainId);
+                return Optional.empty();
+            }
+
+            entry = new WaitlistEntry(newWaitlistId(), userId, trainId, source, destination,
+                    date == null ? null : date.toString(), priority, null, null);
+            Waiter waiter = new Waiter(entry, from, to);
+            RunQueue queue = queues.computeIfAbsent(key(trainId, date), k -> new RunQueue());
+            synchronized (queue) {
+                queue.add(waiter);
+                waiters.put(entry.getWaitlistId(), waiter);
+                metrics.increment(Outcome.WAITLISTED);
+                SeatMap seats = date == null ? train.getSeats() : trainService.getRunSeats(train, date);
+                if (date != null && (!seats.isValidLeg(from, to) || seats.findFreeSeats(1, from, to).length > 0)) {
+                    // A run gets a seat map of its own only once there is a seat to book on it
+                    seats = trainService.getRunSeatsForBooking(train, date);
+                }
+                try {
+                    seatWaiters(queue, trainId, date, seats, promoted);
+                } catch (RuntimeException e) {
+                    // The caller never learns the entry's ID, so it must not stay queued
+                    if (waiter.queued) {
+                        queue.remove(waiter);
+                        waiters.remove(entry.getWaitlistId());
+                    }
+                    throw e;
+                }
+            }
+        }
+        notifyPromoted(promoted);
+        return Optional.of(entry);
+    }
+
+    /**
+     * Position of a waiting entry in its queue, 1 for the next to be served.
+     * @return the position, or empty if the entry has been promoted, has left or never existed.
+     */
+    public OptionalInt position(String waitlistId) {
+        Waiter waiter = waitlistId == null ? null : waiters.get(waitlistId);
+        if (waiter == null) {
+            return OptionalInt.empty();
+        }
+        RunQueue queue = queues.get(key(waiter));
+        synchronized (queue) {
+            return waiter.queued ? OptionalInt.of(queue.position(waiter)) : OptionalInt.empty();
+        }
+    }
+
+    /**
+     * Returns an entry that is still waiting.
+     */
+    public Optional<WaitlistEntry> find(String waitlistId) {
+        Waiter waiter = waitlistId == null ? null : waiters.get(waitlistId);
+        return waiter == null ? Optional.empty() : Optional.of(waiter.entry);
+    }
+
+    /**
+     * Leaves the waitlist.
+     * @return true if the entry was still waiting.
+     */
+    public boolean leave(String waitlistId) {
+        Waiter waiter = waitlistId == null ? null : waiters.get(waitlistId);
+        if (waiter == null) {
+            return false;
+        }
+        RunQueue queue = queues.get(key(waiter));
+        synchronized (queue) {
+            if (!waiter.queued) {
+                return false;
+            }
+            queue.remove(waiter);
+            waiters.remove(waitlistId);
+            return true;
+        }
+    }
+
+    /**
+     * Number of entries waiting for a run; a null date for the train's own seat map.
+     */
+    public int waiting(String trainId, LocalDate date) {
+        RunQueue queue = queues.get(key(trainId, date));
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.size;
+        }
+    }
+
+    /**
+     * Frees a seat booked on segments [fromSegment, toSegment) of a run and persists the change,
+     * handing the seat to the first waiter whose journey lies within those segments. Callers
+     * check that the seat is valid and not held.
+     * @param date The run, or null for the train's own seat map.
+     * @param seats The run's seat map.
+     * @return true if the seat was booked on every one of those segments.
+     */
+    boolean release(String trainId, LocalDate date, SeatMap seats, int row, int col, int fromSegment, int toSegment) {
+        String key = key(trainId, date);
+        RunQueue queue = queues.get(key);
+        List<Waiter> promoted = new ArrayList<>();
+        if (queue == null) {
+            if (!seats.releaseLeg(row, col, fromSegment, toSegment)) {
+                return false;
+            }
+            try {
+                save(trainId, date, List.of(JournalEvent.legReleased(trainId, row, col, fromSegment, toSegment)));
+            } catch (RuntimeException e) {
+                // Unrecorded, the release would be undone by a restart; keep the seat booked
+                seats.bookLeg(row, col, fromSegment, toSegment);
+                throw e;
+            }
+            // Someone may have joined after the lookup and found no free seat; offer them this one
+            queue = queues.get(key);
+            if (queue != null) {
+                synchronized (queue) {
+                    offerFreedSeats(queue, trainId, date, seats, promoted);
+                }
+            }
+        } else {
+            synchronized (queue) {
+                int seat = seats.seatIndex(row, col);
+                if (!seats.isTaken(seat, fromSegment, toSegment)) {
+                    return false;
+                }
+                Waiter taker = queue.firstWithin(fromSegment, toSegment);
+                List<JournalEvent> events = new ArrayList<>(2);
+                events.add(JournalEvent.legReleased(trainId, row, col, fromSegment, toSegment));
+                if (taker == null) {
+                    seats.releaseLeg(seat, fromSegment, toSegment);
+                } else {
+                    // The taker's legs stay taken throughout; only the rest of the freed legs are cleared
+                    if (fromSegment < taker.fromSegment) {
+                        seats.releaseLeg(seat, fromSegment, taker.fromSegment);
+                    }
+                    if (taker.toSegment < toSegment) {
+                        seats.releaseLeg(seat, taker.toSegment, toSegment);
+                    }
+                    promote(queue, taker, row, col);
+                    events.add(JournalEvent.legBooked(trainId, row, col, taker.fromSegment, taker.toSegment));
+                }
+                try {
+                    save(trainId, date, events);
+                } catch (RuntimeException e) {
+                    // Unrecorded, the hand-over would be undone by a restart; the seat stays the
+                    // canceller's and the taker keeps its place in the queue
+                    if (taker == null) {
+                        seats.bookLeg(seat, fromSegment, toSegment);
+                    } else {
+                        if (fromSegment < taker.fromSegment) {
+                            seats.bookLeg(seat, fromSegment, taker.fromSegment);
+                        }
+                        if (taker.toSegment < toSegment) {
+                            seats.bookLeg(seat, taker.toSegment, toSegment);
+                        }
+                        requeue(queue, taker);
+                    }
+                    throw e;
+                }
+                if (taker != null) {
+                    promoted.add(taker);
+                }
+                offerFreedSeats(queue, trainId, date, seats, promoted);
+            }
+        }
+        notifyPromoted(promoted);
+        return true;
+    }
+
+    /**
+     * Seats waiters on legs a recorded release left free. The release stands even if their
+     * bookings cannot be recorded; the legs then stay free for the next booker or join.
+     */
+    private void offerFreedSeats(RunQueue queue, String trainId, LocalDate date, SeatMap seats, List<Waiter> promoted) {
+        try {
+            seatWaiters(queue, trainId, date, seats, promoted);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Could not seat waiters on freed legs of train " + trainId, e);
+        }
+    }
+
+    /**
+     * Books free seats for waiters in queue order, trying at most {@value #PROMOTION_SCAN_LIMIT}
+     * of them, and persists the bookings in one write. If the write fails, the seats are freed,
+     * the waiters put back in their places and the failure rethrown. Callers hold the queue's lock.
+     */
+    private void seatWaiters(RunQueue queue, String trainId, LocalDate date, SeatMap seats, List<Waiter> promoted) {
+        if (queue.size == 0) {
+            return;
+        }
+        List<JournalEvent> events = new ArrayList<>();
+        List<Waiter> seated = new ArrayList<>();
+        int tried = 0;
+        for (Waiter waiter : queue.inOrder()) {
+            if (++tried > PROMOTION_SCAN_LIMIT) {
+                break;
+            }
+            int[] free = seats.findFreeSeats(1, waiter.fromSegment, waiter.toSegment);
+            if (free.length == 1 && seats.bookLeg(free[0], waiter.fromSegment, waiter.toSegment)) {
+                int row = seats.rowOf(free[0]);
+                int col = seats.colOf(free[0]);
+                promote(queue, waiter, row, col);
+                events.add(JournalEvent.legBooked(trainId, row, col, waiter.fromSegment, waiter.toSegment));
+                seated.add(waiter);
+            }
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            save(trainId, date, events);
+        } catch (RuntimeException e) {
+            for (Waiter waiter : seated) {
+                seats.releaseLeg(waiter.entry.getRow(), waiter.entry.getCol(), waiter.fromSegment, waiter.toSegment);
+                requeue(queue, waiter);
+            }
+            throw e;
+        }
+        promoted.addAll(seated);
+    }
+
+    /**
+     * Takes a waiter off the queue with the seat it was given. Callers hold the queue's lock.
+     */
+    private void promote(RunQueue queue, Waiter waiter, int row, int col) {
+        queue.remove(waiter);
+        waiters.remove(waiter.entry.getWaitlistId());
+        waiter.entry.setRow(row);
+        waiter.entry.setCol(col);
+    }
+
+    /**
+     * Undoes {@link #promote} for a waiter whose seat could not be recorded, putting it back in
+     * its place in the queue. Callers hold the queue's lock.
+     */
+    private void requeue(RunQueue queue, Waiter waiter) {
+        waiter.entry.setRow(null);
+        waiter.entry.setCol(null);
+        queue.restore(waiter);
+        waiters.put(waiter.entry.getWaitlistId(), waiter);
+    }
+
+    private void save(String trainId, LocalDate date, List<JournalEvent> events) {
+        if (date == null) {
+            trainService.saveSeatChanges(events);
+        } else {
+            for (JournalEvent event : events) {
+                event.onDate(date);
+            }
+            trainService.saveRunSeatChanges(events);
+        }
+    }
+
+    private void notifyPromoted(List<Waiter> promoted) {
+        for (Waiter waiter : promoted) {
+            metrics.increment(Outcome.WAITLIST_PROMOTED);
+            WaitlistEntry entry = waiter.entry;
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("Waitlist entry " + entry.getWaitlistId() + " promoted to seat (" + entry.getRow() + ","
+                        + entry.getCol() + ") on train " + entry.getTrainId());
+            }
+            promotionListener.accept(entry);
+        }
+    }
+
+    private static String key(Waiter waiter) {
+        WaitlistEntry entry = waiter.entry;
+        return entry.getDateOfJourney() == null ? entry.getTrainId() : entry.getTrainId() + "@" + entry.getDateOfJourney();
+    }
+
+    private static String key(String trainId, LocalDate date) {
+        return date == null ? trainId : trainId + "@" + date;
+    }
+
+    private String newWaitlistId() {
+        byte[] bytes = new byte[12];
+        random.nextBytes(bytes);
+        return "WL" + Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static final class Waiter {
+        final WaitlistEntry entry;
+        final int fromSegment;
+        final int toSegment;
+        // Place in its priority level; guarded by the queue's lock like the rest
+        int sequence;
+        boolean queued;
+
+        Waiter(WaitlistEntry entry, int fromSegment, int toSegment) {
+            this.entry = entry;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+        }
+    }
+
+    /**
+     * The waiters of one run, by priority level. Not thread-safe; used under its own monitor.
+     */
+    private static final class RunQueue {
+        final TreeMap<Integer, PriorityLevel> levels = new TreeMap<>(Comparator.reverseOrder());
+        int size;
+
+        void add(Waiter waiter) {
+            levels.computeIfAbsent(waiter.entry.getPriority(), p -> new PriorityLevel()).add(waiter);
+            waiter.queued = true;
+            size++;
+        }
+
+        /**
+         * Puts a removed waiter back in its place, ahead of everyone who joined after it.
+         */
+        void restore(Waiter waiter) {
+            levels.computeIfAbsent(waiter.entry.getPriority(), p -> new PriorityLevel()).restore(waiter);
+            waiter.queued = true;
+            size++;
+        }
+
+        void remove(Waiter waiter) {
+            PriorityLevel level = levels.get(waiter.entry.getPriority());
+            level.remove(waiter);
+            if (level.waiters.isEmpty()) {
+                levels.remove(waiter.entry.getPriority());
+            }
+            waiter.queued = false;
+            size--;
+        }
+
+        /**
+         * 1-based position: everyone in higher levels, plus those ahead in the waiter's own.
+         */
+        int position(Waiter waiter) {
+            int ahead = 0;
+            for (Map.Entry<Integer, PriorityLevel> level : levels.entrySet()) {
+                if (level.getKey() == waiter.entry.getPriority()) {
+                    return ahead + level.getValue().countBefore(waiter.sequence) + 1;
+                }
+                ahead += level.getValue().waiters.size();
+            }
+            throw new IllegalStateException("Waiter is not queued");
+        }
+
+        /**
+         * The first waiter, in queue order, whose journey lies within [fromSegment, toSegment).
+         */
+        Waiter firstWithin(int fromSegment, int toSegment) {
+            for (Waiter waiter : inOrder()) {
+                if (waiter.fromSegment >= fromSegment && waiter.toSegment <= toSegment) {
+                    return waiter;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * A copy of the waiters in queue order, so callers may promote while walking it.
+         */
+        List<Waiter> inOrder() {
+            if (levels.size() == 1) {
+                return new ArrayList<>(levels.firstEntry().getValue().waiters.values());
+            }
+            List<Waiter> ordered = new ArrayList<>(size);
+            for (PriorityLevel level : levels.values()) {
+                ordered.addAll(level.waiters.values());
+            }
+            return ordered.isEmpty() ? Collections.emptyList() : ordered;
+        }
+    }
+
+    /**
+     * Waiters of one priority in join order, with a Fenwick tree counting the ones still queued
+     * by sequence number.
+     */
+    private static final class PriorityLevel {
+        static final int MIN_TREE_SIZE = 16;
+
+        final LinkedHashMap<Integer, Waiter> waiters = new LinkedHashMap<>();
+        int[] tree = new int[MIN_TREE_SIZE];
+        int nextSequence;
+
+        void add(Waiter waiter) {
+            if (nextSequence + 1 >= tree.length) {
+                renumber();
+            }
+            waiter.sequence = nextSequence++;
+            waiters.put(waiter.sequence, waiter);
+            update(waiter.sequence, 1);
+        }
+
+        void remove(Waiter waiter) {
+            waiters.remove(waiter.sequence);
+            update(waiter.sequence, -1);
+        }
+
+        /**
+         * Re-adds a waiter under its old sequence number. Numbers are only reassigned when a
+         * waiter joins, so the number is still free unless the level was emptied and made anew,
+         * in which case the waiter joins it afresh.
+         */
+        void restore(Waiter waiter) {
+            if (waiter.sequence >= nextSequence || waiters.containsKey(waiter.sequence)) {
+                add(waiter);
+                return;
+            }
+            update(waiter.sequence, 1);
+            List<Waiter> queued = new ArrayList<>(waiters.values());
+            queued.add(waiter);
+            queued.sort(Comparator.comparingInt(w -> w.sequence));
+            waiters.clear();
+            for (Waiter w : queued) {
+                waiters.put(w.sequence, w);
+            }
+        }
+
+        /**
+         * Number of queued waiters with a lower sequence number.
+         */
+        int countBefore(int sequence) {
+            int count = 0;
+            for (int i = sequence; i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count;
+        }
+
+        private void update(int sequence, int delta) {
+            for (int i = sequence + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        /**
+         * Numbers the queued waiters from 0 in join order, dropping the numbers of those who left,
+         * and rebuilds the tree with at least as many free numbers as waiters. A full tree is
+         * rebuilt after every n or more joins, so the cost per join stays constant.
+         */
+        private void renumber() {
+            List<Waiter> queued = new ArrayList<>(waiters.values());
+            int capacity = MIN_TREE_SIZE;
+            while (capacity <= 2 * (queued.size() + 1)) {
+                capacity *= 2;
+            }
+            tree = new int[capacity];
+            waiters.clear();
+            nextSequence = 0;
+            for (Waiter waiter : queued) {
+                waiter.sequence = nextSequence++;
+                waiters.put(waiter.sequence, waiter);
+                update(waiter.sequence, 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package org.example.storage;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.entity.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.BiFunction;
+
+/**
+ * Compact binary snapshot format for the train, user and ticket stores, an alternative to the
+ * JSON files selected by the {@value #FILE_SUFFIX} extension.
+ * <p>
+ * A file is a 32-byte header, one fixed-width record per entity, a heap with the variable-length
+ * parts (station lists, station times, seat planes, ticket ID lists) and a string table. Every
+ * string, station names included, is stored once in the table and referenced by index, and a
+ * train's seats are its {@link SeatMap#toPlanes() packed planes}.
+ * <p>
+ * Reading maps the file and returns a list view that decodes a record only when it is accessed;
+ * strings are decoded on first use and shared by every record that refers to them.
+ */
+public final class BinarySnapshot {
+    public static final String FILE_SUFFIX = ".bin";
+
+    private static final int MAGIC = 0x54424B53; // "TBKS"
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int NULL_REF = -1;
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    private BinarySnapshot() {
+    }
+
+    /**
+     * Kinds of snapshot, each with its own fixed record width.
+     */
+    private enum Kind {
+        // trainId, trainNo, stationCount, stations, timeCount, times, rowCount, seats
+        TRAINS(32, 32),
+        // userId, userName, passwordHash, ticketCount, ticketIds
+        USERS(20, 20),
+        // ticketId, userId, source, destination, dateOfJourney, trainId, row, col, runDate; files
+        // written before tickets had a run date end the record at col
+        TICKETS(36, 32);
+
+        final int recordBytes;
+        final int oldestRecordBytes;
+
+        Kind(int recordBytes, int oldestRecordBytes) {
+            this.recordBytes = recordBytes;
+            this.oldestRecordBytes = oldestRecordBytes;
+        }
+    }
+
+    public static boolean isBinary(Path path) {
+        return path.getFileName().toString().endsWith(FILE_SUFFIX);
+    }
+
+    /**
+     * The binary counterpart of a JSON snapshot file: {@code trains.json} becomes {@code trains.bin}.
+     */
+    public static Path binaryPath(Path jsonPath) {
+        String name = jsonPath.getFileName().toString();
+        String base = name.endsWith(".json") ? name.substring(0, name.length() - ".json".length()) : name;
+        return jsonPath.resolveSibling(base + FILE_SUFFIX);
+    }
+
+    public static List<Train> readTrains(Path path) throws IOException {
+        return open(path, Kind.TRAINS, Records::train);
+    }
+
+    public static List<User> readUsers(Path path) throws IOException {
+        return open(path, Kind.USERS, Records::user);
+    }
+
+    public static List<Ticket> readTickets(Path path) throws IOException {
+        return open(path, Kind.TICKETS, Records::ticket);
+    }
+
+    public static void writeTrains(Path path, Collection<Train> trains) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(Kind.TRAINS, trains.size());
+        for (Train train : trains) {
+            writer.train(train);
+        }
+        writer.writeTo(path);
+    }
+
+    public static void writeUsers(Path path, Collection<User> users) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(Kind.USERS, users.size());
+        for (User user : users) {
+            writer.user(user);
+        }
+        writer.writeTo(path);
+    }
+
+    public static void writeTickets(Path path, Collection<Ticket> tickets) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(Kind.TICKETS, tickets.size());
+        for (Ticket ticket : tickets) {
+            writer.ticket(ticket);
+        }
+        writer.writeTo(path);
+    }
+
+    private static <T> List<T> open(Path path, Kind kind, BiFunction<Records<T>, Integer, T> decoder) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Not a binary snapshot: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary snapshot: " + path);
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("Unsupported binary snapshot version " + buffer.getShort(4) + ": " + path);
+        }
+        int recordBytes = buffer.getInt(12);
+        if (buffer.get(6) != kind.ordinal() || recordBytes < kind.oldestRecordBytes || recordBytes > kind.recordBytes) {
+            throw new IOException("Binary snapshot " + path + " does not hold " + kind.name().toLowerCase());
+        }
+        return new Records<>(buffer, decoder);
+    }
+
+    /**
+     * Read-only list view over a mapped snapshot. Records are decoded on every access, so callers
+     * that keep entities should copy them out once.
+     */
+    private static final class Records<T> extends AbstractList<T> implements RandomAccess {
+        private final ByteBuffer buffer;
+        private final BiFunction<Records<T>, Integer, T> decoder;
+        private final int size;
+        private final int recordBytes;
+        private final int stringIndex;
+        private final String[] strings;
+
+        Records(ByteBuffer buffer, BiFunction<Records<T>, Integer, T> decoder) {
+            this.buffer = buffer;
+            this.decoder = decoder;
+            this.size = buffer.getInt(8);
+            this.recordBytes = buffer.getInt(12);
+            this.strings = new String[buffer.getInt(20)];
+            this.stringIndex = buffer.getInt(24);
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+            }
+            return decoder.apply(this, HEADER_BYTES + index * recordBytes);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        Train train(int at) {
+            String trainId = string(at);
+            String trainNo = string(at + 4);
+            List<String> stations = stringList(buffer.getInt(at + 8), buffer.getInt(at + 12));
+            Map<String, String> stationTimes = stringMap(buffer.getInt(at + 16), buffer.getInt(at + 20));
+            SeatMap seats = seatMap(buffer.getInt(at + 24), buffer.getInt(at + 28));
+            return new Train(trainId, trainNo, seats, stationTimes, stations);
+        }
+
+        User user(int at) {
+            return new User(string(at), string(at + 4), string(at + 8),
+                    stringList(buffer.getInt(at + 12), buffer.getInt(at + 16)));
+        }
+
+        Ticket ticket(int at) {
+            return new Ticket(string(at), string(at + 4), string(at + 8), string(at + 12), string(at + 16),
+                    string(at + 20), integer(at + 24), integer(at + 28), 0, recordBytes > Kind.TICKETS.oldestRecordBytes ? string(at + 32) : null);
+        }
+
+        private SeatMap seatMap(int rowCount, int offset) {
+            if (rowCount == NULL_INT) {
+                return null;
+            }
+            int segments = buffer.getInt(offset);
+            int[] rowLengths = new int[rowCount];
+            int totalSeats = 0;
+            for (int r = 0; r < rowCount; r++) {
+                rowLengths[r] = buffer.getInt(offset + 4 + 4 * r);
+                totalSeats += rowLengths[r];
+            }
+            int planesAt = offset + 4 + 4 * rowCount;
+            int words = segments * ((totalSeats + Long.SIZE - 1) / Long.SIZE);
+            return SeatMap.fromPlanes(segments, rowLengths, buffer.slice(planesAt, words * Long.BYTES).asLongBuffer());
+        }
+
+        private List<String> stringList(int count, int offset) {
+            if (count == NULL_INT) {
+                return null;
+            }
+            List<String> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(string(offset + 4 * i));
+            }
+            return list;
+        }
+
+        private Map<String, String> stringMap(int count, int offset) {
+            if (count == NULL_INT) {
+                return null;
+            }
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                map.put(string(offset + 8 * i), string(offset + 8 * i + 4));
+            }
+            return map;
+        }
+
+        private Integer integer(int at) {
+            int value = buffer.getInt(at);
+            return value == NULL_INT ? null : value;
+        }
+
+        /**
+         * Resolves the string reference stored at {@code at}, decoding it on first use.
+         */
+        private String string(int at) {
+            int ref = buffer.getInt(at);
+            if (ref == NULL_REF) {
+                return null;
+            }
+            String value = strings[ref];
+            if (value == null) {
+                int offset = buffer.getInt(stringIndex + 4 * ref);
+                byte[] bytes = new byte[buffer.getInt(offset)];
+                buffer.get(offset + 4, bytes);
+                // Racing decoders store equal strings, so the cache needs no locking
+                value = new String(bytes, StandardCharsets.UTF_8);
+                strings[ref] = value;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Builds a snapshot in memory: records and heap are written separately, with heap offsets
+     * computed from the known record count, and joined with the string table at the end.
+     */
+    private static final class SnapshotWriter {
+        private final Kind kind;
+        private final int count;
+        private final int heapStart;
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream records = new DataOutputStream(recordBytes);
+        private final ByteArrayOutputStream heapBytes = new ByteArrayOutputStream();
+        private final DataOutputStream heap = new DataOutputStream(heapBytes);
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+        SnapshotWriter(Kind kind, int count) throws IOException {
+            this.kind = kind;
+            this.count = count;
+            long heapStart = HEADER_BYTES + (long) count * kind.recordBytes;
+            if (heapStart > Integer.MAX_VALUE) {
+                throw new IOException("Too many records for a binary snapshot: " + count);
+            }
+            this.heapStart = (int) heapStart;
+        }
+
+        void train(Train train) throws IOException {
+            records.writeInt(ref(train.getTrainId()));
+            records.writeInt(ref(train.getTrainNo()));
+            List<String> stations = train.getStations();
+            records.writeInt(stations == null ? NULL_INT : stations.size());
+            records.writeInt(heapOffset());
+            if (stations != null) {
+                for (String station : stations) {
+                    heap.writeInt(ref(station));
+                }
+            }
+            Map<String, String> stationTimes = train.getStationTimes();
+            records.writeInt(stationTimes == null ? NULL_INT : stationTimes.size());
+            records.writeInt(heapOffset());
+            if (stationTimes != null) {
+                for (Map.Entry<String, String> entry : stationTimes.entrySet()) {
+                    heap.writeInt(ref(entry.getKey()));
+                    heap.writeInt(ref(entry.getValue()));
+                }
+            }
+            SeatMap seats = train.getSeats();
+            records.writeInt(seats == null ? NULL_INT : seats.rowCount());
+            records.writeInt(heapOffset());
+            if (seats != null) {
+                heap.writeInt(seats.segmentCount());
+                for (int r = 0; r < seats.rowCount(); r++) {
+                    heap.writeInt(seats.rowLength(r));
+                }
+                for (long word : seats.toPlanes()) {
+                    heap.writeLong(word);
+                }
+            }
+        }
+
+        void user(User user) throws IOException {
+            records.writeInt(ref(user.getUserId()));
+            records.writeInt(ref(user.getUserName()));
+            records.writeInt(ref(user.getPasswordHash()));
+            List<String> ticketIds = user.getTicketIds();
+            records.writeInt(ticketIds == null ? NULL_INT : ticketIds.size());
+            records.writeInt(heapOffset());
+            if (ticketIds != null) {
+                for (String ticketId : ticketIds) {
+                    heap.writeInt(ref(ticketId));
+                }
+            }
+        }
+
+        void ticket(Ticket ticket) throws IOException {
+            records.writeInt(ref(ticket.getTicketId()));
+            records.writeInt(ref(ticket.getUserId()));
+            records.writeInt(ref(ticket.getSource()));
+            records.writeInt(ref(ticket.getDestination()));
+            records.writeInt(ref(ticket.getDateOfJourney()));
+            records.writeInt(ref(ticket.getTrainId()));
+            records.writeInt(ticket.getRow() == null ? NULL_INT : ticket.getRow());
+            records.writeInt(ticket.getCol() == null ? NULL_INT : ticket.getCol());
+            records.writeInt(ref(ticket.getRunDate()));
+        }
+
+        void writeTo(Path path) throws IOException {
+            if (records.size() != count * kind.recordBytes) {
+                throw new IllegalStateException("Collection changed while writing snapshot " + path);
+            }
+            List<byte[]> encoded = new ArrayList<>(strings.size());
+            long stringIndex = (long) heapStart + heap.size();
+            long offset = stringIndex + 4L * strings.size();
+            int[] offsets = new int[strings.size()];
+            for (String value : strings.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                offsets[encoded.size()] = (int) offset;
+                encoded.add(bytes);
+                offset += 4 + bytes.length;
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Binary snapshot would exceed 2 GB: " + path);
+            }
+            JsonFiles.replaceAtomically(path, stream -> {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeByte(kind.ordinal());
+                out.writeByte(0);
+                out.writeInt(count);
+                out.writeInt(kind.recordBytes);
+                out.writeInt(heapStart);
+                out.writeInt(strings.size());
+                out.writeInt((int) stringIndex);
+                out.writeInt(0);
+                recordBytes.writeTo(out);
+                heapBytes.writeTo(out);
+                for (int stringOffset : offsets) {
+                    out.writeInt(stringOffset);
+                }
+                for (byte[] bytes : encoded) {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.flush();
+            });
+        }
+
+        private int heapOffset() {
+            return heapStart + heap.size();
+        }
+
+        private int ref(String value) {
+            return value == null ? NULL_REF : strings.computeIfAbsent(value, key -> strings.size());
+        }
+    }
+}
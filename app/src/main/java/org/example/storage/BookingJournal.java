@@ -0,0 +1,610 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.metrics.Operation;
+import org.example.metrics.Outcome;
+import org.example.metrics.ServiceMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of booking events, written through a {@link FileChannel}.
+ * <p>
+ * Each record is {@code [int length][int crc32][JSON payload]}. Appenders hand their record to a
+ * single writer thread which drains everything queued so far and writes it with one channel write
+ * and, if enabled, one fsync (group commit). {@link #append} returns once its record is durable.
+ * <p>
+ * Replay stops at the first torn or corrupt record and truncates the file there, so a crash in the
+ * middle of a write loses at most the records whose appenders had not yet been acknowledged.
+ * <p>
+ * Several processes may share the journal. Writes are made under a {@link #lease() lease}, which
+ * holds a lock on a {@code .lock} file next to the journal and first applies whatever other
+ * processes appended since to the {@link #follow follower}, so the stores are current whenever
+ * they are changed. Compaction seals the file with a {@code JOURNAL_SEALED} record and renames a
+ * new file, starting with a {@code JOURNAL_STARTED} record, over it; a process reading the
+ * sealed file reopens the journal by name and carries on there.
+ */
+public class BookingJournal implements Closeable {
+    private static final Logger logger = Logger.getLogger(BookingJournal.class.getName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ServiceMetrics metrics = ServiceMetrics.global();
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_BATCH = 1024;
+    // Once this process has held the lock this long, new holders let other processes in first
+    private static final long MAX_LEASE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("booking.journal.lease.millis", 20));
+
+    private final Path path;
+    private final boolean fsync;
+    private final FileChannel lockChannel;
+    private volatile FileChannel channel;
+    // End of the records this process has written or read; anything past it was written by another
+    private volatile long position;
+    private long generation; // guarded by the lease
+    private volatile Follower follower;
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    // Appends and keyed leases hold the read lock until done; compaction takes the write lock to pause them
+    private final ReadWriteLock appendLock = new ReentrantReadWriteLock();
+    // Keep changes to the same key in order between their update in memory and their append
+    private final Map<String, ReentrantLock> keyLocks = new ConcurrentHashMap<>();
+    // Threads of this process share the lease: the first takes the file lock and the last releases it
+    private final ReentrantLock leaseLock = new ReentrantLock();
+    private final Condition drained = leaseLock.newCondition();
+    private final ThreadLocal<int[]> leaseDepth = ThreadLocal.withInitial(() -> new int[1]);
+    private FileLock fileLock; // guarded by leaseLock
+    private int leaseHolders; // guarded by leaseLock
+    private long leaseStart; // guarded by leaseLock
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public BookingJournal(Path path, boolean fsync) throws IOException {
+        this.path = path;
+        this.fsync = fsync;
+        this.lockChannel = FileChannel.open(lockPath(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.writer = new Thread(this::writeLoop, "booking-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * The lock file next to a journal. It is never replaced, unlike the journal itself.
+     */
+    public static Path lockPath(Path journalPath) {
+        return journalPath.resolveSibling(journalPath.getFileName() + ".lock");
+    }
+
+    /**
+     * Returns true if the journal file holds any events, as opposed to being missing, empty or
+     * freshly compacted. Reads the first record only.
+     */
+    public static boolean hasEvents(Path journalPath) throws IOException {
+        if (!Files.exists(journalPath)) {
+            return false;
+        }
+        try (FileChannel file = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            long size = file.size();
+            if (size == 0) {
+                return false;
+            }
+            byte[] head = readRecord(file, 0, size);
+            return head == null || decode(head).getType() != JournalEvent.Type.JOURNAL_STARTED
+                    || size > HEADER_BYTES + head.length;
+        }
+    }
+
+    /**
+     * Sets the callback that receives the events other processes append. Until one is set,
+     * their events are skipped when the journal catches up.
+     */
+    public void follow(Follower follower) {
+        this.follower = follower;
+    }
+
+    /**
+     * Takes the journal's lease for this process, waiting for other processes to release it, and
+     * catches up with what they appended. Leases are reentrant and shared by the threads of this
+     * process; close the lease as soon as the change it guards has been appended.
+     * <p>
+     * Take the lease before any store lock: the catch-up applies events to the stores.
+     */
+    public WriteLease lease() {
+        int[] depth = leaseDepth.get();
+        if (depth[0] > 0) {
+            depth[0]++;
+            return this::releaseLease;
+        }
+        leaseLock.lock();
+        try {
+            if (leaseHolders > 0 && System.nanoTime() - leaseStart > MAX_LEASE_NANOS) {
+                // Give other processes a turn, but not for long: a holder may wait on a lock the caller holds
+                long remaining = MAX_LEASE_NANOS;
+                while (leaseHolders > 0 && remaining > 0) {
+                    remaining = drained.awaitNanos(remaining);
+                }
+            }
+            if (leaseHolders == 0) {
+                acquireFileLock();
+            }
+            leaseHolders++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for journal lease", e);
+        } finally {
+            leaseLock.unlock();
+        }
+        depth[0] = 1;
+        return this::releaseLease;
+    }
+
+    /**
+     * Takes the lease together with a lock for each key, in key order, and holds off compaction
+     * until it is closed. Changes made in memory under it and appended before it is closed reach
+     * the journal in the order they were made for each key, and a compaction never snapshots
+     * such a change without its event or before its append has failed and been undone.
+     * <p>
+     * Take it before any store lock, like the lease. A key lock is kept for the life of the
+     * journal, so keys should come from a bounded set such as train IDs.
+     */
+    public WriteLease lease(Collection<String> keys) {
+        WriteLease lease = lease();
+        appendLock.readLock().lock();
+        List<ReentrantLock> held = new ArrayList<>(keys.size());
+        for (String key : new TreeSet<>(keys)) {
+            ReentrantLock lock = keyLocks.computeIfAbsent(key, k -> new ReentrantLock());
+            lock.lock();
+            held.add(lock);
+        }
+        return () -> {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+            appendLock.readLock().unlock();
+            lease.close();
+        };
+    }
+
+    /**
+     * Catches up with other processes if the journal has grown or been sealed since last read.
+     * Cheap when nothing changed: one size check, no lock.
+     * @return true if the journal was read.
+     */
+    public boolean refresh() {
+        try {
+            if (channel.size() == position) {
+                return false;
+            }
+        } catch (ClosedChannelException e) {
+            // Swapped for a new file by a concurrent catch-up; the lease below settles it
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error checking journal " + path, e);
+        }
+        try (WriteLease lease = lease()) {
+            return true;
+        }
+    }
+
+    /**
+     * Appends an event and waits until it has been written (and forced, if fsync is enabled).
+     */
+    public void append(JournalEvent event) {
+        write(encode(event));
+    }
+
+    /**
+     * Appends several events as one write and waits until all have been written (and forced,
+     * if fsync is enabled). On replay after a crash, a prefix of them may survive.
+     */
+    public void appendAll(List<JournalEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>(events.size());
+        int bytes = 0;
+        for (JournalEvent event : events) {
+            byte[] record = encode(event);
+            records.add(record);
+            bytes += record.length;
+        }
+        ByteBuffer batch = ByteBuffer.allocate(bytes);
+        for (byte[] record : records) {
+            batch.put(record);
+        }
+        write(batch.array());
+    }
+
+    private void write(byte[] record) {
+        long start = ServiceMetrics.start();
+        try (WriteLease lease = lease()) {
+            appendLock.readLock().lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("Journal is closed: " + path);
+                }
+                PendingRecord pending = new PendingRecord(record);
+                queue.add(pending);
+                pending.done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while appending to journal", e);
+            } catch (ExecutionException e) {
+                metrics.increment(Outcome.PERSIST_FAILED);
+                throw new UncheckedIOException("Error appending to journal " + path, asIOException(e.getCause()));
+            } finally {
+                appendLock.readLock().unlock();
+            }
+        } finally {
+            metrics.record(Operation.PERSIST, start);
+        }
+    }
+
+    /**
+     * Reads every intact record from the start of the journal and hands it to the consumer.
+     * @return the number of events replayed.
+     */
+    public int replay(Consumer<JournalEvent> consumer) throws IOException {
+        try (WriteLease lease = lease()) {
+            appendLock.writeLock().lock();
+            try {
+                position = 0;
+                return scan(consumer);
+            } finally {
+                appendLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Pauses appends, runs the snapshot action and, if it succeeds, replaces the journal with an
+     * empty one. Events appended after the pause are kept for the next compaction.
+     */
+    public void compact(SnapshotAction snapshot) throws IOException {
+        try (WriteLease lease = lease()) {
+            appendLock.writeLock().lock();
+            try {
+                snapshot.run();
+                long next = generation + 1;
+                FileChannel sealed = channel;
+                ByteBuffer seal = ByteBuffer.wrap(encode(JournalEvent.journalSealed(next)));
+                long at = position;
+                while (seal.hasRemaining()) {
+                    at += sealed.write(seal, at);
+                }
+                if (fsync) {
+                    sealed.force(false);
+                }
+                startGeneration(next);
+                sealed.close();
+            } finally {
+                appendLock.writeLock().unlock();
+            }
+        }
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writer.interrupt();
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    private void acquireFileLock() {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed: " + path);
+        }
+        try {
+            while (true) {
+                try {
+                    fileLock = lockChannel.lock();
+                    break;
+                } catch (OverlappingFileLockException e) {
+                    // Held by another journal over the same file in this JVM
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+            Follower current = follower;
+            int caughtUp = scan(current == null ? event -> { } : current::apply);
+            if (caughtUp > 0) {
+                logger.fine("Applied " + caughtUp + " events from other processes in " + path);
+            }
+        } catch (IOException e) {
+            releaseFileLock();
+            throw new UncheckedIOException("Error catching up with journal " + path, e);
+        }
+        leaseStart = System.nanoTime();
+    }
+
+    private void releaseLease() {
+        int[] depth = leaseDepth.get();
+        if (--depth[0] > 0) {
+            return;
+        }
+        leaseLock.lock();
+        try {
+            if (--leaseHolders == 0) {
+                releaseFileLock();
+                drained.signalAll();
+            }
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    private void releaseFileLock() {
+        if (fileLock == null) {
+            return;
+        }
+        try {
+            fileLock.release();
+        } catch (IOException e) {
+            logger.warning("Error releasing journal lock " + path + ": " + e.getMessage());
+        }
+        fileLock = null;
+    }
+
+    /**
+     * Hands the events after the current position to the consumer, following the journal into the
+     * file that replaced it if it was sealed, and truncates a torn tail. Callers hold the lease.
+     * @return the number of events handed over.
+     */
+    private int scan(Consumer<JournalEvent> consumer) throws IOException {
+        long at = position;
+        long size = channel.size();
+        int scanned = 0;
+        while (at + HEADER_BYTES <= size) {
+            byte[] payload = readRecord(channel, at, size);
+            if (payload == null) {
+                break;
+            }
+            JournalEvent event = decode(payload);
+            at += HEADER_BYTES + payload.length;
+            if (event.getType() == JournalEvent.Type.JOURNAL_STARTED) {
+                generation = event.getGeneration();
+            } else if (event.getType() == JournalEvent.Type.JOURNAL_SEALED) {
+                followSeal(event.getGeneration());
+                at = 0;
+                size = channel.size();
+            } else {
+                consumer.accept(event);
+                scanned++;
+            }
+        }
+        if (at < size) {
+            logger.warning("Discarding " + (size - at) + " bytes of torn journal tail in " + path);
+            channel.truncate(at);
+        }
+        position = at;
+        return scanned;
+    }
+
+    /**
+     * Moves on from a sealed file to the one that replaced it. If that is not the next
+     * generation, compactions were missed and the followed stores reload their snapshots.
+     */
+    private void followSeal(long next) throws IOException {
+        FileChannel sealed = channel;
+        FileChannel current = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = current.size();
+        byte[] head = size == 0 ? null : readRecord(current, 0, size);
+        JournalEvent started = head == null ? null : decode(head);
+        if (started == null || started.getType() != JournalEvent.Type.JOURNAL_STARTED || started.getGeneration() < next) {
+            // The compaction that sealed the file stopped before replacing it; its snapshots are written, so finish it
+            current.close();
+            logger.warning("Completing interrupted compaction of " + path);
+            startGeneration(next);
+        } else {
+            channel = current;
+        }
+        sealed.close();
+        Follower followed = follower;
+        if (followed == null) {
+            return;
+        }
+        if (started != null && started.getType() == JournalEvent.Type.JOURNAL_STARTED && started.getGeneration() > next) {
+            logger.info("Journal " + path + " was compacted more than once since last read, reloading snapshots");
+            followed.reload();
+        } else {
+            followed.compacted();
+        }
+    }
+
+    /**
+     * Renames a new journal file holding only its start record over the journal and switches to it.
+     * Callers hold the lease with appends paused.
+     */
+    private void startGeneration(long next) throws IOException {
+        byte[] start = encode(JournalEvent.journalStarted(next));
+        JsonFiles.replaceAtomically(path, out -> out.write(start));
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        generation = next;
+        position = start.length;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            try {
+                int bytes = 0;
+                for (PendingRecord pending : batch) {
+                    bytes += pending.record.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(bytes);
+                for (PendingRecord pending : batch) {
+                    buffer.put(pending.record);
+                }
+                buffer.flip();
+                // Every appender holds the lease, so nobody else writes and the position is the end
+                long at = position;
+                while (buffer.hasRemaining()) {
+                    at += channel.write(buffer, at);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+                position = at;
+                for (PendingRecord pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException e) {
+                logger.severe("Error writing journal batch: " + e.getMessage());
+                for (PendingRecord pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Reads the payload of the record at a position, or returns null if it is torn or corrupt.
+     */
+    private static byte[] readRecord(FileChannel file, long at, long size) throws IOException {
+        if (at + HEADER_BYTES > size) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(file, header, at);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length <= 0 || at + HEADER_BYTES + length > size) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(file, payload, at + HEADER_BYTES);
+        return crc32(payload.array()) == crc ? payload.array() : null;
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = file.read(buffer, at + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+    }
+
+    private static JournalEvent decode(byte[] payload) throws IOException {
+        return objectMapper.readValue(payload, JournalEvent.class);
+    }
+
+    private static byte[] encode(JournalEvent event) {
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error encoding journal event", e);
+        }
+        return ByteBuffer.allocate(HEADER_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt(crc32(payload))
+                .put(payload)
+                .array();
+    }
+
+    private static int crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+
+    /**
+     * Snapshot step run by {@link #compact} while appends are paused.
+     */
+    public interface SnapshotAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Receives what other processes sharing the journal changed.
+     */
+    public interface Follower {
+
+        /**
+         * Applies an event another process appended.
+         */
+        void apply(JournalEvent event);
+
+        /**
+         * Called when another process compacted the journal into fresh snapshots. The followed
+         * stores already hold everything in them.
+         */
+        default void compacted() {
+        }
+
+        /**
+         * Called when events were compacted away before this process read them; the followed
+         * stores must reload their snapshots.
+         */
+        void reload();
+    }
+
+    private static final class PendingRecord {
+        final byte[] record;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingRecord(byte[] record) {
+            this.record = record;
+        }
+    }
+}
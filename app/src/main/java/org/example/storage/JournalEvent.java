@@ -0,0 +1,194 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.entity.User;
+
+import java.time.LocalDate;
+
+/**
+ * One change recorded in the booking journal. Only the fields relevant to the type are set.
+ * Every event is idempotent, so replaying a journal over a snapshot that already contains
+ * some of its events yields the same state.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Getter
+@Setter
+@NoArgsConstructor
+public class JournalEvent {
+
+    public enum Type {
+        SEAT_BOOKED,
+        SEAT_RELEASED,
+        TRAIN_SAVED,
+        TRAIN_DELETED,
+        TICKET_SAVED,
+        TICKET_DELETED,
+        USER_SAVED,
+        RUNS_ARCHIVED,
+        // First record of a journal file; the journal handles these two itself
+        JOURNAL_STARTED,
+        // Last record of a journal file that compaction replaced with a new one
+        JOURNAL_SEALED
+    }
+
+    private Type type;
+
+    private String trainId;
+
+    private Integer row;
+
+    private Integer col;
+
+    // [row, col] pairs of a group booked in one event, in place of row and col
+    private int[][] seats;
+
+    // Leg of the route a seat event covers; both null for the whole run
+    private Integer fromSegment;
+
+    private Integer toSegment;
+
+    // ISO date of the train run a seat event applies to, or the cutoff of RUNS_ARCHIVED;
+    // null for seat events on the train's own seat map
+    private String date;
+
+    private String ticketId;
+
+    private Train train;
+
+    private Ticket ticket;
+
+    private User user;
+
+    // Generation of the journal file a JOURNAL_STARTED record starts, or of the file that
+    // replaces the one a JOURNAL_SEALED record ends
+    private Long generation;
+
+    private JournalEvent(Type type) {
+        this.type = type;
+    }
+
+    public static JournalEvent seatBooked(String trainId, int row, int col) {
+        return seat(Type.SEAT_BOOKED, trainId, row, col);
+    }
+
+    public static JournalEvent seatReleased(String trainId, int row, int col) {
+        return seat(Type.SEAT_RELEASED, trainId, row, col);
+    }
+
+    public static JournalEvent legBooked(String trainId, int row, int col, int fromSegment, int toSegment) {
+        return leg(Type.SEAT_BOOKED, trainId, row, col, fromSegment, toSegment);
+    }
+
+    public static JournalEvent legReleased(String trainId, int row, int col, int fromSegment, int toSegment) {
+        return leg(Type.SEAT_RELEASED, trainId, row, col, fromSegment, toSegment);
+    }
+
+    /**
+     * A group of seats booked together for the whole run, recorded as one event.
+     */
+    public static JournalEvent seatsBooked(String trainId, int[][] seats) {
+        JournalEvent event = new JournalEvent(Type.SEAT_BOOKED);
+        event.trainId = trainId;
+        event.seats = seats;
+        return event;
+    }
+
+    /**
+     * A group of seats booked together on segments [fromSegment, toSegment), recorded as one event.
+     */
+    public static JournalEvent legsBooked(String trainId, int[][] seats, int fromSegment, int toSegment) {
+        JournalEvent event = seatsBooked(trainId, seats);
+        event.fromSegment = fromSegment;
+        event.toSegment = toSegment;
+        return event;
+    }
+
+    /**
+     * Makes a seat event apply to the run of its train on the given date.
+     * @return this event.
+     */
+    public JournalEvent onDate(LocalDate runDate) {
+        this.date = runDate.toString();
+        return this;
+    }
+
+    /**
+     * Train runs dated before the cutoff were archived and dropped from memory.
+     */
+    public static JournalEvent runsArchived(LocalDate cutoff) {
+        JournalEvent event = new JournalEvent(Type.RUNS_ARCHIVED);
+        event.date = cutoff.toString();
+        return event;
+    }
+
+    public static JournalEvent journalStarted(long generation) {
+        JournalEvent event = new JournalEvent(Type.JOURNAL_STARTED);
+        event.generation = generation;
+        return event;
+    }
+
+    public static JournalEvent journalSealed(long nextGeneration) {
+        JournalEvent event = new JournalEvent(Type.JOURNAL_SEALED);
+        event.generation = nextGeneration;
+        return event;
+    }
+
+    /**
+     * Returns true if a seat event covers the whole run rather than one leg.
+     */
+    public boolean coversWholeRun() {
+        return fromSegment == null || toSegment == null;
+    }
+
+    public static JournalEvent trainSaved(Train train) {
+        JournalEvent event = new JournalEvent(Type.TRAIN_SAVED);
+        event.train = train;
+        return event;
+    }
+
+    public static JournalEvent trainDeleted(String trainId) {
+        JournalEvent event = new JournalEvent(Type.TRAIN_DELETED);
+        event.trainId = trainId;
+        return event;
+    }
+
+    public static JournalEvent ticketSaved(Ticket ticket) {
+        JournalEvent event = new JournalEvent(Type.TICKET_SAVED);
+        event.ticket = ticket;
+        return event;
+    }
+
+    public static JournalEvent ticketDeleted(String ticketId) {
+        JournalEvent event = new JournalEvent(Type.TICKET_DELETED);
+        event.ticketId = ticketId;
+        return event;
+    }
+
+    public static JournalEvent userSaved(User user) {
+        JournalEvent event = new JournalEvent(Type.USER_SAVED);
+        event.user = user;
+        return event;
+    }
+
+    private static JournalEvent seat(Type type, String trainId, int row, int col) {
+        JournalEvent event = new JournalEvent(type);
+        event.trainId = trainId;
+        event.row = row;
+        event.col = col;
+        return event;
+    }
+
+    private static JournalEvent leg(Type type, String trainId, int row, int col, int fromSegment, int toSegment) {
+        JournalEvent event = seat(type, trainId, row, col);
+        event.fromSegment = fromSegment;
+        event.toSegment = toSegment;
+        return event;
+    }
+}
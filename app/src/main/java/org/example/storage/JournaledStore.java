@@ -0,0 +1,26 @@
+package org.example.storage;
+
+import java.io.IOException;
+
+/**
+ * An in-memory store whose changes are recorded in the {@link BookingJournal}
+ * and periodically compacted into a JSON snapshot.
+ */
+public interface JournaledStore {
+
+    /**
+     * Applies a replayed journal event to the in-memory state without journaling it again.
+     * Events of types the store does not own are ignored.
+     */
+    void apply(JournalEvent event);
+
+    /**
+     * Writes the current in-memory state as the store's snapshot file.
+     */
+    void writeSnapshot() throws IOException;
+
+    /**
+     * Discards the in-memory state and reads the snapshot file again.
+     */
+    void reload();
+}
@@ -0,0 +1,179 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Reading and crash-safe writing of the JSON files in the local database.
+ */
+public final class JsonFiles {
+    private static final Logger logger = Logger.getLogger(JsonFiles.class.getName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private JsonFiles() {
+    }
+
+    /**
+     * Reads a JSON array file, returning an empty list if the file does not exist.
+     */
+    public static <T> List<T> readList(Path path, TypeReference<List<T>> type) throws IOException {
+        if (!Files.exists(path)) {
+            return new ArrayList<>();
+        }
+        return objectMapper.readValue(path.toFile(), type);
+    }
+
+    /**
+     * Reads a JSON array file like {@link #readList}, except that an element which cannot be
+     * bound is logged and added to {@code skipped} instead of failing the whole file, so a
+     * caller that rewrites the file can write it back unchanged.
+     */
+    public static <T> List<T> readListSkippingInvalid(Path path, Class<T> type, List<JsonNode> skipped) throws IOException {
+        List<T> values = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return values;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(path.toFile())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Not a JSON array: " + path);
+            }
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == null) {
+                    throw new IOException("Unexpected end of " + path);
+                }
+                // Bound from a tree so a failure mid-element leaves the parser at the next one
+                JsonNode element = objectMapper.readTree(parser);
+                try {
+                    values.add(objectMapper.treeToValue(element, type));
+                } catch (JsonProcessingException e) {
+                    logger.warning("Skipping element " + index + " of " + path + ": " + e.getOriginalMessage());
+                    skipped.add(element);
+                }
+                index++;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Streams a JSON array file and reports whether any of its objects has the given top-level
+     * field. Field values are skipped, not built, and the scan stops at the first hit.
+     */
+    public static boolean anyElementHasField(Path path, String field) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(path.toFile())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return false;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    if (field.equals(parser.currentName())) {
+                        return true;
+                    }
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Writes the value to a temporary file next to the target, forces it to disk and renames it
+     * over the target, so a crash leaves either the old or the new file but never a torn one.
+     */
+    public static void writeAtomically(Path path, Object value) throws IOException {
+        replaceAtomically(path, out -> objectMapper.writeValue(out, value));
+    }
+
+    /**
+     * Replaces a file the same way as {@link #writeAtomically} with whatever the writer produces.
+     */
+    public static void replaceAtomically(Path path, ContentWriter writer) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                writer.write(new NonClosingOutputStream(out));
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Appends each value as one line of JSON to a JSON Lines file, creating it if needed, and
+     * forces the file to disk.
+     */
+    public static void appendLines(Path path, List<?> values) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            OutputStream out = new NonClosingOutputStream(Channels.newOutputStream(channel));
+            for (Object value : values) {
+                out.write(objectMapper.writeValueAsBytes(value));
+                out.write('\n');
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Produces the content of a file being replaced.
+     */
+    public interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Keeps Jackson from closing the channel before it has been forced.
+     */
+    private static final class NonClosingOutputStream extends java.io.FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * One-shot migration of tickets.json and users.json from the old format, where every ticket
+ * embedded a full copy of its train (seat grid included) and every user embedded full tickets,
+ * to the normalized one: tickets reference their train by {@code trainId} and users list
+ * {@code ticketIds}. Tickets found only inside users are moved into tickets.json.
+ * <p>
+ * Running it on already migrated files changes nothing.
+ */
+public final class LegacyFormatMigration {
+    private static final Logger logger = Logger.getLogger(LegacyFormatMigration.class.getName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private LegacyFormatMigration() {
+    }
+
+    /**
+     * Migrates the files in the database directory if either still uses the old format.
+     * @return true if anything was rewritten.
+     */
+    public static boolean migrateIfNeeded(Path directory) throws IOException {
+        Path ticketPath = directory.resolve(LocalDatabase.TICKET_FILE);
+        Path userPath = directory.resolve(LocalDatabase.USER_FILE);
+        // Stream-check for the old fields first so normalized files are never built as trees
+        if (!JsonFiles.anyElementHasField(ticketPath, "train") && !JsonFiles.anyElementHasField(userPath, "ticketsBooked")) {
+            return false;
+        }
+        ArrayNode tickets = readArray(ticketPath);
+        ArrayNode users = readArray(userPath);
+
+        boolean ticketsChanged = false;
+        Map<String, ObjectNode> ticketsById = new LinkedHashMap<>();
+        for (JsonNode node : tickets) {
+            ObjectNode ticket = (ObjectNode) node;
+            ticketsChanged |= normalizeTicket(ticket);
+            ticketsById.put(ticket.path("ticketId").asText(), ticket);
+        }
+
+        boolean usersChanged = false;
+        for (JsonNode node : users) {
+            ObjectNode user = (ObjectNode) node;
+            JsonNode embedded = user.remove("ticketsBooked");
+            if (embedded == null) {
+                continue;
+            }
+            usersChanged = true;
+            ArrayNode ticketIds = user.has("ticketIds") ? (ArrayNode) user.get("ticketIds") : user.putArray("ticketIds");
+            Set<String> listed = new HashSet<>();
+            ticketIds.forEach(id -> listed.add(id.asText()));
+            for (JsonNode ticketNode : embedded) {
+                ObjectNode ticket = (ObjectNode) ticketNode;
+                normalizeTicket(ticket);
+                String ticketId = ticket.path("ticketId").asText();
+                if (listed.add(ticketId)) {
+                    ticketIds.add(ticketId);
+                }
+                if (!ticketsById.containsKey(ticketId)) {
+                    ticketsById.put(ticketId, ticket);
+                    ticketsChanged = true;
+                }
+            }
+        }
+
+        if (ticketsChanged) {
+            ArrayNode migrated = objectMapper.createArrayNode();
+            ticketsById.values().forEach(migrated::add);
+            JsonFiles.writeAtomically(ticketPath, migrated);
+            logger.info("Migrated " + ticketPath + " to train references");
+        }
+        if (usersChanged) {
+            JsonFiles.writeAtomically(userPath, users);
+            logger.info("Migrated " + userPath + " to ticket references");
+        }
+        return ticketsChanged || usersChanged;
+    }
+
+    /**
+     * Replaces an embedded train with its ID.
+     * @return true if the ticket was changed.
+     */
+    private static boolean normalizeTicket(ObjectNode ticket) {
+        JsonNode train = ticket.remove("train");
+        if (train == null) {
+            return false;
+        }
+        if (!ticket.has("trainId") && train.hasNonNull("trainId")) {
+            ticket.put("trainId", train.get("trainId").asText());
+        }
+        return true;
+    }
+
+    private static ArrayNode readArray(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return objectMapper.createArrayNode();
+        }
+        JsonNode node = objectMapper.readTree(path.toFile());
+        return node instanceof ArrayNode ? (ArrayNode) node : objectMapper.createArrayNode();
+    }
+
+    /**
+     * Migrates the database directory given as the only argument.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: LegacyFormatMigration <localDb directory>");
+            return;
+        }
+        boolean migrated = migrateIfNeeded(Paths.get(args[0]));
+        System.out.println(migrated ? "Migration complete." : "Files already use the normalized format.");
+    }
+}
@@ -0,0 +1,374 @@
+package org.example.storage;
+
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.repository.ShardedTicketRepository;
+import org.example.repository.ShardedTrainRepository;
+import org.example.repository.TicketRepository;
+import org.example.repository.TicketStore;
+import org.example.repository.TrainRepository;
+import org.example.repository.TrainRunRepository;
+import org.example.repository.TrainStore;
+import org.example.repository.UserRepository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * The local database directory: JSON snapshots of trains, users and tickets plus the booking
+ * journal holding every change made since those snapshots were written.
+ * <p>
+ * Opening the database loads the snapshots and replays the journal on top of them. A background
+ * task compacts the journal into fresh snapshots once it grows past a threshold.
+ * <p>
+ * A database can instead be sharded (see {@link #reshard}): trains are then partitioned by
+ * train ID and tickets by user ID into {@code trains/} and {@code tickets/} subdirectories, each
+ * shard with its own snapshot and journal, loaded on first access. Users stay in the main files.
+ * The layout is recorded in {@value #LAYOUT_FILE}.
+ * <p>
+ * Seat inventory per date of travel is kept in {@value #RUN_FILE} (see {@link TrainRunRepository})
+ * in either layout. Runs dated before today (UTC) are archived when the database is opened and
+ * by the background task.
+ * <p>
+ * Each of the three main snapshots may also be kept in the {@link BinarySnapshot} format (see
+ * {@link SnapshotConverter}); a {@code .bin} file takes precedence over the JSON one.
+ * <p>
+ * Several processes may open the same directory. Every change is made under the journal's
+ * {@link BookingJournal#lease() lease}, which first applies what the other processes appended,
+ * and records carry versions so that a change based on a stale copy is refused. Between changes,
+ * a background task catches up with the other processes every {@code booking.db.refresh.millis}
+ * milliseconds (200 by default), at the cost of one file size check when nothing changed.
+ */
+public class LocalDatabase implements Closeable {
+    private static final Logger logger = Logger.getLogger(LocalDatabase.class.getName());
+
+    public static final String TRAIN_FILE = "trains.json";
+    public static final String USER_FILE = "users.json";
+    public static final String TICKET_FILE = "tickets.json";
+    public static final String RUN_FILE = "runs.json";
+    public static final String JOURNAL_FILE = "booking.journal";
+    public static final String LAYOUT_FILE = "storage.properties";
+    public static final String TRAIN_SHARD_DIR = "trains";
+    public static final String TICKET_SHARD_DIR = "tickets";
+
+    private static final Path DEFAULT_DIRECTORY = Paths.get("app", "src", "main", "java", "org", "example", "localDb");
+
+    private static final long COMPACTION_INTERVAL_SECONDS = 30;
+    private static final long COMPACTION_THRESHOLD_BYTES = 1L << 20;
+    private static final long REFRESH_INTERVAL_MILLIS = Long.getLong("booking.db.refresh.millis", 200);
+
+    private final BookingJournal journal;
+    private final TrainStore trains;
+    private final UserRepository users;
+    private final TicketStore tickets;
+    private final TrainRunRepository runs;
+    private final List<JournaledStore> stores;
+    // Exactly one layout is set: the single-file train store, or the two sharded stores
+    private final TrainRepository fileTrains;
+    private final ShardedTrainRepository shardedTrains;
+    private final ShardedTicketRepository shardedTickets;
+    private final ScheduledExecutorService compactor;
+
+    private LocalDatabase(Path directory, boolean fsync) throws IOException {
+        Files.createDirectories(directory);
+        LegacyFormatMigration.migrateIfNeeded(directory);
+        this.journal = new BookingJournal(directory.resolve(JOURNAL_FILE), fsync);
+
+        // Under the lease, no other process compacts the journal between loading the snapshots and replaying it
+        try (WriteLease lease = journal.lease()) {
+            this.users = new UserRepository(snapshotFile(directory, USER_FILE), journal);
+            Properties layout = readLayout(directory);
+            if (layout == null) {
+                TicketRepository fileTickets = new TicketRepository(snapshotFile(directory, TICKET_FILE), journal);
+                this.fileTrains = new TrainRepository(snapshotFile(directory, TRAIN_FILE), journal);
+                this.shardedTrains = null;
+                this.shardedTickets = null;
+                this.trains = fileTrains;
+                this.tickets = fileTickets;
+                this.runs = new TrainRunRepository(directory.resolve(RUN_FILE), journal, trains);
+                this.stores = List.of(fileTrains, users, fileTickets, runs);
+            } else {
+                this.fileTrains = null;
+                this.shardedTrains = new ShardedTrainRepository(directory.resolve(TRAIN_SHARD_DIR),
+                        Integer.parseInt(layout.getProperty("trainShards")), fsync);
+                this.shardedTickets = new ShardedTicketRepository(directory.resolve(TICKET_SHARD_DIR),
+                        Integer.parseInt(layout.getProperty("ticketShards")), fsync);
+                this.trains = shardedTrains;
+                this.tickets = shardedTickets;
+                this.runs = new TrainRunRepository(directory.resolve(RUN_FILE), journal, trains);
+                this.stores = List.of(users, runs);
+            }
+
+            int replayed = journal.replay(event -> stores.forEach(store -> store.apply(event)));
+            logger.info("Replayed " + replayed + " journal events from " + directory);
+            journal.follow(new BookingJournal.Follower() {
+                @Override
+                public void apply(JournalEvent event) {
+                    stores.forEach(store -> store.apply(event));
+                }
+
+                @Override
+                public void compacted() {
+                    if (fileTrains != null) {
+                        // The snapshot the other process wrote holds nothing new; the watcher need not reload it
+                        fileTrains.markSnapshotCurrent();
+                    }
+                }
+
+                @Override
+                public void reload() {
+                    stores.forEach(JournaledStore::reload);
+                }
+            });
+        }
+        archivePastRuns();
+        if (fileTrains != null) {
+            // An external edit of trains.json reloads the snapshot; re-apply what the journal holds on top
+            fileTrains.setReloadListener(this::replayTrainEvents);
+            fileTrains.startWatching();
+        }
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "booking-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfLarge,
+                COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        compactor.scheduleWithFixedDelay(this::refreshQuietly,
+                REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The database directory: the {@code booking.db.dir} system property, else the
+     * {@code BOOKING_DB_DIR} environment variable, else the bundled local database relative to
+     * the working directory.
+     */
+    public static Path defaultDirectory() {
+        String configured = System.getProperty("booking.db.dir", System.getenv("BOOKING_DB_DIR"));
+        return configured == null || configured.isBlank() ? DEFAULT_DIRECTORY : Paths.get(configured);
+    }
+
+    /**
+     * The snapshot file of a store in the directory: its {@link BinarySnapshot binary} file if the
+     * directory has been converted to that format, else the JSON file.
+     */
+    public static Path snapshotFile(Path directory, String jsonFile) {
+        Path json = directory.resolve(jsonFile);
+        Path binary = BinarySnapshot.binaryPath(json);
+        return Files.exists(binary) ? binary : json;
+    }
+
+    /**
+     * Opens the database in the {@link #defaultDirectory() default directory}.
+     */
+    public static LocalDatabase open() throws IOException {
+        return open(defaultDirectory());
+    }
+
+    /**
+     * Opens the database in the given directory. Journal writes are fsynced unless the
+     * {@code booking.journal.fsync} system property is set to false.
+     */
+    public static LocalDatabase open(Path directory) throws IOException {
+        return open(directory, Boolean.parseBoolean(System.getProperty("booking.journal.fsync", "true")));
+    }
+
+    public static LocalDatabase open(Path directory, boolean fsync) throws IOException {
+        return new LocalDatabase(directory, fsync);
+    }
+
+    public TrainStore trains() {
+        return trains;
+    }
+
+    public UserRepository users() {
+        return users;
+    }
+
+    public TicketStore tickets() {
+        return tickets;
+    }
+
+    public TrainRunRepository runs() {
+        return runs;
+    }
+
+    /**
+     * Catches up with the changes other processes sharing the directory made since last read.
+     * Writes catch up by themselves; this only matters to reads.
+     */
+    public void refresh() {
+        journal.refresh();
+        if (shardedTrains != null) {
+            shardedTrains.refresh();
+            shardedTickets.refresh();
+        }
+    }
+
+    /**
+     * Writes fresh snapshots of every store and empties the journal.
+     */
+    public void compact() throws IOException {
+        journal.compact(() -> {
+            for (JournaledStore store : stores) {
+                store.writeSnapshot();
+            }
+        });
+        if (shardedTrains != null) {
+            shardedTrains.compactIfLarge(0);
+            shardedTickets.compactIfLarge(0);
+        }
+        logger.info("Compacted booking journal into snapshots");
+    }
+
+    /**
+     * Splits the trains and tickets of a single-file database into shard files, keeping users in
+     * the main files. The database must not be open. The old snapshot files are kept with a
+     * {@code .unsharded} suffix.
+     */
+    public static void reshard(Path directory, int trainShards, int ticketShards) throws IOException {
+        if (readLayout(directory) != null) {
+            throw new IllegalStateException("Database is already sharded: " + directory);
+        }
+        if (trainShards < 1 || ticketShards < 1) {
+            throw new IllegalArgumentException("Shard counts must be positive");
+        }
+        // Fold the journal into the snapshots first, so they are all there is to split
+        open(directory, true).close();
+        Path trainFile = snapshotFile(directory, TRAIN_FILE);
+        Path ticketFile = snapshotFile(directory, TICKET_FILE);
+        writeShards(directory.resolve(TRAIN_SHARD_DIR), trainShards,
+                new TrainRepository(trainFile).findAll(), Train::getTrainId);
+        writeShards(directory.resolve(TICKET_SHARD_DIR), ticketShards,
+                new TicketRepository(ticketFile).findAll(), Ticket::getUserId);
+
+        Properties layout = new Properties();
+        layout.setProperty("trainShards", Integer.toString(trainShards));
+        layout.setProperty("ticketShards", Integer.toString(ticketShards));
+        Path temp = directory.resolve(LAYOUT_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            layout.store(out, "Shard counts; keys are assigned by hash, so do not edit");
+        }
+        Files.move(temp, directory.resolve(LAYOUT_FILE), StandardCopyOption.ATOMIC_MOVE);
+        for (Path path : new Path[] {trainFile, ticketFile}) {
+            if (Files.exists(path)) {
+                Files.move(path, path.resolveSibling(path.getFileName() + ".unsharded"), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        logger.info("Sharded " + directory + " into " + trainShards + " train and " + ticketShards + " ticket shards");
+    }
+
+    private static <T> void writeShards(Path shardDirectory, int count, List<T> items,
+                                        Function<T, String> key) throws IOException {
+        List<List<T>> partitions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (T item : items) {
+            partitions.get(ShardSet.indexOf(key.apply(item), count)).add(item);
+        }
+        for (int i = 0; i < count; i++) {
+            JsonFiles.writeAtomically(ShardSet.snapshotPath(shardDirectory, i), partitions.get(i));
+        }
+    }
+
+    private static Properties readLayout(Path directory) throws IOException {
+        Path path = directory.resolve(LAYOUT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        Properties layout = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            layout.load(in);
+        }
+        return layout;
+    }
+
+    private void archivePastRuns() {
+        runs.archiveBefore(LocalDate.now(ZoneOffset.UTC));
+    }
+
+    private void compactIfLarge() {
+        archivePastRuns();
+        try {
+            if (journal.size() >= COMPACTION_THRESHOLD_BYTES) {
+                compact();
+            }
+            if (shardedTrains != null) {
+                shardedTrains.compactIfLarge(COMPACTION_THRESHOLD_BYTES);
+                shardedTickets.compactIfLarge(COMPACTION_THRESHOLD_BYTES);
+            }
+        } catch (IOException e) {
+            logger.severe("Error compacting booking journal: " + e.getMessage());
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            logger.warning("Error catching up with the booking journal: " + e.getMessage());
+        }
+    }
+
+    private void replayTrainEvents() {
+        try {
+            journal.replay(fileTrains::apply);
+        } catch (IOException e) {
+            logger.severe("Error replaying journal after train reload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compacts the journal one last time and releases the files.
+     */
+    @Override
+    public void close() throws IOException {
+        // No interrupt: one arriving during file I/O would close the journal's channels under it
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (fileTrains != null) {
+                fileTrains.close();
+            } else {
+                shardedTrains.close();
+                shardedTickets.close();
+            }
+            compact();
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Shards a database from the command line: {@code <directory> <trainShards> <ticketShards>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: LocalDatabase <directory> <trainShards> <ticketShards>");
+            System.exit(2);
+        }
+        reshard(Paths.get(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+}
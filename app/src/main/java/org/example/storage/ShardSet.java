@@ -0,0 +1,221 @@
+package org.example.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+/**
+ * A fixed number of stores partitioned by key hash, each with its own snapshot file and journal
+ * in one directory ({@code shard-007.json} and {@code shard-007.journal}).
+ * <p>
+ * A shard is opened on first access: its snapshot is loaded and its journal replayed then, not
+ * when the set is created. Shards share nothing, so writes to different shards take different
+ * locks and are appended and forced to different files in parallel. Each shard's journal follows
+ * what other processes append to it, as the main journal does.
+ */
+public final class ShardSet<S extends JournaledStore> implements Closeable {
+    private static final Logger logger = Logger.getLogger(ShardSet.class.getName());
+
+    private final Path directory;
+    private final boolean fsync;
+    private final StoreFactory<S> factory;
+    private final AtomicReferenceArray<Shard<S>> shards;
+    private final Object[] openLocks;
+    private volatile boolean closed;
+
+    public ShardSet(Path directory, int count, boolean fsync, StoreFactory<S> factory) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + count);
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.fsync = fsync;
+        this.factory = factory;
+        this.shards = new AtomicReferenceArray<>(count);
+        this.openLocks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            openLocks[i] = new Object();
+        }
+    }
+
+    public static Path snapshotPath(Path directory, int index) {
+        return directory.resolve(String.format("shard-%03d.json", index));
+    }
+
+    public static Path journalPath(Path directory, int index) {
+        return directory.resolve(String.format("shard-%03d.journal", index));
+    }
+
+    /**
+     * Shard a key belongs to; a null key goes to shard 0.
+     */
+    public static int indexOf(String key, int count) {
+        return key == null ? 0 : Math.floorMod(key.hashCode(), count);
+    }
+
+    public int count() {
+        return shards.length();
+    }
+
+    /**
+     * Returns the store of the shard the key belongs to, opening it if needed.
+     */
+    public S forKey(String key) {
+        return get(indexOf(key, count()));
+    }
+
+    /**
+     * Returns the store of a shard, opening it if needed.
+     */
+    public S get(int index) {
+        Shard<S> shard = shards.get(index);
+        if (shard == null) {
+            synchronized (openLocks[index]) {
+                shard = shards.get(index);
+                if (shard == null) {
+                    shard = open(index);
+                    shards.set(index, shard);
+                }
+            }
+        }
+        return shard.store;
+    }
+
+    /**
+     * Returns every shard's store, opening the ones not yet loaded.
+     */
+    public List<S> all() {
+        List<S> stores = new ArrayList<>(count());
+        for (int i = 0; i < count(); i++) {
+            stores.add(get(i));
+        }
+        return stores;
+    }
+
+    /**
+     * Returns the snapshot file of a shard that has not been opened and has an empty journal,
+     * so that the file alone holds its contents and can be scanned without loading the shard.
+     * Empty if the shard is open or has journaled changes.
+     */
+    public Optional<Path> unopenedSnapshot(int index) throws IOException {
+        if (shards.get(index) != null) {
+            return Optional.empty();
+        }
+        if (BookingJournal.hasEvents(journalPath(directory, index))) {
+            return Optional.empty();
+        }
+        return Optional.of(snapshotPath(directory, index));
+    }
+
+    /**
+     * Catches up with what other processes appended to the journals of open shards.
+     */
+    public void refresh() {
+        for (int i = 0; i < count(); i++) {
+            Shard<S> shard = shards.get(i);
+            if (shard != null) {
+                shard.journal.refresh();
+            }
+        }
+    }
+
+    /**
+     * Compacts the journal of every open shard that has grown past the threshold.
+     */
+    public void compactIfLarge(long thresholdBytes) throws IOException {
+        for (int i = 0; i < count(); i++) {
+            Shard<S> shard = shards.get(i);
+            if (shard != null && shard.journal.size() >= thresholdBytes) {
+                shard.compact();
+            }
+        }
+    }
+
+    /**
+     * Compacts every open shard and releases its files. Shards never opened are left as they are.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (int i = 0; i < count(); i++) {
+            synchronized (openLocks[i]) {
+                Shard<S> shard = shards.getAndSet(i, null);
+                if (shard == null) {
+                    continue;
+                }
+                try {
+                    shard.compact();
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    shard.journal.close();
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Shard<S> open(int index) {
+        if (closed) {
+            throw new IllegalStateException("Shards are closed: " + directory);
+        }
+        try {
+            Path snapshot = snapshotPath(directory, index);
+            BookingJournal journal = new BookingJournal(journalPath(directory, index), fsync);
+            // Under the lease, no other process compacts the shard between loading and replaying
+            try (WriteLease lease = journal.lease()) {
+                if (!Files.exists(snapshot)) {
+                    JsonFiles.writeAtomically(snapshot, List.of());
+                }
+                S store = factory.create(snapshot, journal);
+                int replayed = journal.replay(store::apply);
+                journal.follow(new BookingJournal.Follower() {
+                    @Override
+                    public void apply(JournalEvent event) {
+                        store.apply(event);
+                    }
+
+                    @Override
+                    public void reload() {
+                        store.reload();
+                    }
+                });
+                logger.fine("Opened shard " + snapshot + ", replayed " + replayed + " journal events");
+                return new Shard<>(store, journal);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error opening shard " + index + " in " + directory, e);
+        }
+    }
+
+    /**
+     * Creates the store of one shard over its snapshot file and journal.
+     */
+    public interface StoreFactory<S> {
+        S create(Path snapshot, BookingJournal journal) throws IOException;
+    }
+
+    private static final class Shard<S extends JournaledStore> {
+        final S store;
+        final BookingJournal journal;
+
+        Shard(S store, BookingJournal journal) {
+            this.store = store;
+            this.journal = journal;
+        }
+
+        void compact() throws IOException {
+            journal.compact(store::writeSnapshot);
+        }
+    }
+}
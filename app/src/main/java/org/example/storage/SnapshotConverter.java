@@ -0,0 +1,97 @@
+package org.example.storage;
+
+import org.example.repository.TicketRepository;
+import org.example.repository.TrainRepository;
+import org.example.repository.UserRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+/**
+ * Converts the train, user and ticket snapshots of a database directory between the JSON files
+ * and the {@link BinarySnapshot} format. The journal is folded into the snapshots first, and each
+ * replaced file is kept with a {@code .bak} suffix. The database must not be open.
+ */
+public final class SnapshotConverter {
+    private static final Logger logger = Logger.getLogger(SnapshotConverter.class.getName());
+
+    private SnapshotConverter() {
+    }
+
+    /**
+     * Rewrites every JSON snapshot in the directory as a binary one.
+     * @return the number of files converted.
+     */
+    public static int toBinary(Path directory) throws IOException {
+        LocalDatabase.open(directory, true).close();
+        int converted = 0;
+        Path trains = directory.resolve(LocalDatabase.TRAIN_FILE);
+        if (Files.exists(trains)) {
+            BinarySnapshot.writeTrains(BinarySnapshot.binaryPath(trains), new TrainRepository(trains).findAll());
+            converted += backUp(trains);
+        }
+        Path users = directory.resolve(LocalDatabase.USER_FILE);
+        if (Files.exists(users)) {
+            BinarySnapshot.writeUsers(BinarySnapshot.binaryPath(users), new UserRepository(users).findAll());
+            converted += backUp(users);
+        }
+        Path tickets = directory.resolve(LocalDatabase.TICKET_FILE);
+        if (Files.exists(tickets)) {
+            BinarySnapshot.writeTickets(BinarySnapshot.binaryPath(tickets), new TicketRepository(tickets).findAll());
+            converted += backUp(tickets);
+        }
+        logger.info("Converted " + converted + " snapshots in " + directory + " to the binary format");
+        return converted;
+    }
+
+    /**
+     * Rewrites every binary snapshot in the directory as a JSON one.
+     * @return the number of files converted.
+     */
+    public static int toJson(Path directory) throws IOException {
+        LocalDatabase.open(directory, true).close();
+        int converted = 0;
+        Path trains = directory.resolve(LocalDatabase.TRAIN_FILE);
+        Path binaryTrains = BinarySnapshot.binaryPath(trains);
+        if (Files.exists(binaryTrains)) {
+            JsonFiles.writeAtomically(trains, BinarySnapshot.readTrains(binaryTrains));
+            converted += backUp(binaryTrains);
+        }
+        Path users = directory.resolve(LocalDatabase.USER_FILE);
+        Path binaryUsers = BinarySnapshot.binaryPath(users);
+        if (Files.exists(binaryUsers)) {
+            JsonFiles.writeAtomically(users, BinarySnapshot.readUsers(binaryUsers));
+            converted += backUp(binaryUsers);
+        }
+        Path tickets = directory.resolve(LocalDatabase.TICKET_FILE);
+        Path binaryTickets = BinarySnapshot.binaryPath(tickets);
+        if (Files.exists(binaryTickets)) {
+            JsonFiles.writeAtomically(tickets, BinarySnapshot.readTickets(binaryTickets));
+            converted += backUp(binaryTickets);
+        }
+        logger.info("Converted " + converted + " snapshots in " + directory + " to JSON");
+        return converted;
+    }
+
+    private static int backUp(Path path) throws IOException {
+        Files.move(path, path.resolveSibling(path.getFileName() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
+        return 1;
+    }
+
+    /**
+     * Converts the database directory given as the first argument; {@code --json} converts back.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !"--json".equals(args[1]))) {
+            System.out.println("Usage: SnapshotConverter <localDb directory> [--json]");
+            return;
+        }
+        Path directory = Paths.get(args[0]);
+        int converted = args.length == 2 ? toJson(directory) : toBinary(directory);
+        System.out.println(converted == 0 ? "Nothing to convert." : "Converted " + converted + " snapshot files.");
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.example.entity.Ticket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Streaming reader for ticket files, built on the {@link JsonParser} token stream instead of
+ * binding the whole array.
+ * <p>
+ * Tickets are decoded one at a time from their scalar fields. Everything else, such as a train
+ * embedded by the old format (seat grid included), is skipped without being built. Memory use
+ * does not depend on the file size, and a lookup by ticket ID stops at the first match.
+ */
+public final class TicketFileScanner {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private TicketFileScanner() {
+    }
+
+    /**
+     * Finds a ticket by ID, reading only up to the first ticket with that ID.
+     */
+    public static Optional<Ticket> findById(Path path, String ticketId) throws IOException {
+        Ticket[] found = new Ticket[1];
+        scan(path, ticket -> {
+            if (ticketId.equals(ticket.getTicketId())) {
+                found[0] = ticket;
+                return false;
+            }
+            return true;
+        });
+        return Optional.ofNullable(found[0]);
+    }
+
+    /**
+     * Returns the tickets booked by a user, in file order.
+     */
+    public static List<Ticket> findByUserId(Path path, String userId) throws IOException {
+        List<Ticket> tickets = new ArrayList<>();
+        scan(path, ticket -> {
+            if (userId.equals(ticket.getUserId())) {
+                tickets.add(ticket);
+            }
+            return true;
+        });
+        return tickets;
+    }
+
+    /**
+     * Hands every ticket in the file to the consumer, in file order.
+     */
+    public static void forEach(Path path, Consumer<Ticket> consumer) throws IOException {
+        scan(path, ticket -> {
+            consumer.accept(ticket);
+            return true;
+        });
+    }
+
+    /**
+     * Decodes tickets in file order until the visitor returns false or the array ends.
+     * A missing file holds no tickets.
+     */
+    private static void scan(Path path, Predicate<Ticket> visitor) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (JsonParser parser = jsonFactory.createParser(path.toFile())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (!visitor.test(readTicket(parser))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one ticket object; the parser is on its START_OBJECT and is left on its END_OBJECT.
+     */
+    private static Ticket readTicket(JsonParser parser) throws IOException {
+        Ticket ticket = new Ticket();
+        String embeddedTrainId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "ticketId" -> ticket.setTicketId(text(parser, value));
+                case "userId" -> ticket.setUserId(text(parser, value));
+                case "source" -> ticket.setSource(text(parser, value));
+                case "destination" -> ticket.setDestination(text(parser, value));
+                case "dateOfJourney" -> ticket.setDateOfJourney(text(parser, value));
+                case "trainId" -> ticket.setTrainId(text(parser, value));
+                case "row" -> ticket.setRow(number(parser, value));
+                case "col" -> ticket.setCol(number(parser, value));
+                case "runDate" -> ticket.setRunDate(text(parser, value));
+                case "train" -> embeddedTrainId = embeddedTrainId(parser, value);
+                default -> parser.skipChildren();
+            }
+        }
+        if (ticket.getTrainId() == null) {
+            ticket.setTrainId(embeddedTrainId);
+        }
+        return ticket;
+    }
+
+    /**
+     * Reads only the ID of a train embedded by the old format, skipping its seats and stations.
+     */
+    private static String embeddedTrainId(JsonParser parser, JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        String trainId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken fieldValue = parser.nextToken();
+            if ("trainId".equals(field)) {
+                trainId = text(parser, fieldValue);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return trainId;
+    }
+
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isScalarValue()) {
+            return value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Integer number(JsonParser parser, JsonToken value) throws IOException {
+        if (value.isNumeric()) {
+            return parser.getIntValue();
+        }
+        parser.skipChildren();
+        return null;
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.storage;
+
+/**
+ * Exclusive right to write to a journal across every process sharing it, held until closed.
+ * While it is held, the stores reading the journal have seen every change other processes made,
+ * so a check made under the lease stays true until the lease is closed.
+ */
+public interface WriteLease extends AutoCloseable {
+
+    /**
+     * A lease for stores without a journal, which are not shared between processes.
+     */
+    WriteLease NONE = () -> { };
+
+    @Override
+    void close();
+}
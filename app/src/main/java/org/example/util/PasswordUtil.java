@@ -4,13 +4,52 @@ import org.mindrot.jbcrypt.BCrypt;
 
 public class PasswordUtil {
 
+    // BCrypt work factor for new hashes; override with -Dbooking.bcrypt.cost
+    private static volatile int costFactor = Integer.getInteger("booking.bcrypt.cost", 12);
+
     // Hash a password using BCrypt
     public static String hashPassword(String plainPassword) {
-        return BCrypt.hashpw(plainPassword, BCrypt.gensalt(12));
+        return BCrypt.hashpw(plainPassword, BCrypt.gensalt(costFactor));
     }
 
-    // Verify if entered password matches the stored hash
+    // Verify if entered password matches the stored hash; malformed hashes never match
     public static boolean checkPassword(String plainPassword, String hashedPassword) {
-        return BCrypt.checkpw(plainPassword, hashedPassword);
+        try {
+            return hashedPassword != null && BCrypt.checkpw(plainPassword, hashedPassword);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // True if the hash was made with a different cost factor than the current one
+    public static boolean needsRehash(String hashedPassword) {
+        return costOf(hashedPassword) != costFactor;
+    }
+
+    public static int getCostFactor() {
+        return costFactor;
+    }
+
+    public static void setCostFactor(int cost) {
+        if (cost < 4 || cost > 31) {
+            throw new IllegalArgumentException("BCrypt cost must be between 4 and 31: " + cost);
+        }
+        costFactor = cost;
+    }
+
+    // Cost encoded in a "$2a$NN$..." hash, or -1 if the hash is not in that format
+    private static int costOf(String hashedPassword) {
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(0) != '$') {
+            return -1;
+        }
+        int start = hashedPassword.indexOf('$', 1) + 1;
+        if (start <= 0 || start + 2 > hashedPassword.length()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(hashedPassword.substring(start, start + 2));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
@@ -0,0 +1,102 @@
+package org.example.entity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SeatMapTest {
+    private static final int THREADS = 8;
+
+    @Test public void freeSeatCountersAreExactAfterConcurrentBookingsAndReleases() throws Exception {
+        SeatMap seats = new SeatMap(5, new int[] {70, 3, 0, 40});
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            results.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                start.await();
+                for (int i = 0; i < 20_000; i++) {
+                    int seat = random.nextInt(seats.totalSeats());
+                    int from = random.nextInt(seats.segmentCount());
+                    int to = from + 1 + random.nextInt(seats.segmentCount() - from);
+                    if (random.nextBoolean()) {
+                        seats.bookLeg(seat, from, to);
+                    } else {
+                        seats.releaseLeg(seat, from, to);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        int free = 0;
+        for (int r = 0; r < seats.rowCount(); r++) {
+            int freeInRow = 0;
+            for (int c = 0; c < seats.rowLength(r); c++) {
+                if (!seats.isBooked(r, c)) {
+                    freeInRow++;
+                }
+            }
+            assertEquals("row " + r, freeInRow, seats.availableSeatsInRow(r));
+            assertEquals("row " + r, freeInRow, seats.availableSeatsInRow(r, 0, seats.segmentCount()));
+            free += freeInRow;
+        }
+        assertEquals(free, seats.availableSeats());
+        assertEquals(free, seats.availableSeats(0, seats.segmentCount()));
+
+        for (int seat = 0; seat < seats.totalSeats(); seat++) {
+            seats.release(seat);
+        }
+        assertEquals(seats.totalSeats(), seats.availableSeats());
+    }
+
+    @Test public void routesLongerThanAMaskKeepEveryLeg() {
+        SeatMap seats = new SeatMap(200, new int[] {3});
+        assertTrue(seats.bookLeg(0, 0, 10, 150));
+        assertTrue(seats.bookLeg(0, 0, 150, 200));
+        assertFalse(seats.bookLeg(0, 0, 149, 151));
+        assertTrue(seats.holdLeg(1, 70, 130));
+        assertTrue(seats.book(0, 2));
+        assertEquals(0, seats.availableSeats());
+        assertEquals(2, seats.availableSeats(0, 10));
+        assertEquals(0, seats.availableSeats(100, 120));
+        assertTrue(seats.isHeld(0, 1, 129, 200));
+        assertFalse(seats.isHeld(0, 1, 130, 200));
+
+        // Held legs are not written; the rest survive a round trip through the grid
+        SeatMap copy = SeatMap.fromGrid(seats.toGrid(), 200);
+        assertTrue(copy.isTaken(0, 10, 200));
+        assertTrue(copy.isFree(0, 0, 10));
+        assertTrue(copy.isFree(1, 0, 200));
+        assertTrue(copy.isTaken(2, 0, 200));
+        assertEquals(1, copy.availableSeats());
+
+        // Shortening the route keeps the shared legs, and whole-run bookings stay whole
+        SeatMap shorter = seats.withSegments(20);
+        assertTrue(shorter.isTaken(0, 10, 20));
+        assertTrue(shorter.isFree(0, 0, 10));
+        assertTrue(shorter.isTaken(2, 0, 20));
+
+        assertTrue(seats.releaseHold(1, 70, 130));
+        assertTrue(seats.releaseLeg(0, 0, 10, 150));
+        assertTrue(seats.releaseLeg(0, 0, 150, 200));
+        assertEquals(2, seats.availableSeats());
+    }
+}
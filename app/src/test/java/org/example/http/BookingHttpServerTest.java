@@ -0,0 +1,166 @@
+package org.example.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.repository.TicketRepository;
+import org.example.repository.TrainRepository;
+import org.example.repository.UserRepository;
+import org.example.service.SessionService;
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.example.service.UserBookingService;
+import org.example.service.WaitlistService;
+import org.example.util.PasswordUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BookingHttpServerTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Duration TTL = Duration.ofSeconds(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private int savedCost;
+    private SessionService sessions;
+    private BookingHttpServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        // Cheap hashes keep each login well inside the session TTL
+        savedCost = PasswordUtil.getCostFactor();
+        PasswordUtil.setCostFactor(4);
+        Path root = folder.getRoot().toPath();
+        TrainRepository trains = new TrainRepository(root.resolve("trains.json"));
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {2}), null, List.of("A", "B", "C")));
+        TrainService trainService = new TrainService(trains);
+        UserBookingService users = new UserBookingService(new UserRepository(root.resolve("users.json")),
+                new TicketRepository(root.resolve("tickets.json")), trains);
+        sessions = new SessionService(users, TTL, 1);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        server = new BookingHttpServer(0, trainService, new TrainTicketService(trainService, waitlist), users, sessions, waitlist);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+        sessions.close();
+        PasswordUtil.setCostFactor(savedCost);
+    }
+
+    @Test public void signUpLogInBookAndCancel() throws Exception {
+        HttpResponse<String> signup = send("POST", "/api/signup", null, "{\"userName\":\"alice\",\"password\":\"secret\"}");
+        assertEquals(201, signup.statusCode());
+        assertTrue(json(signup).get("userId").isTextual());
+        assertEquals(409, send("POST", "/api/signup", null, "{\"userName\":\"alice\",\"password\":\"other\"}").statusCode());
+        assertEquals(401, send("POST", "/api/login", null, "{\"userName\":\"alice\",\"password\":\"wrong\"}").statusCode());
+
+        String token = logIn("alice");
+        HttpResponse<String> booked = send("POST", "/api/bookings", token, "{\"trainId\":\"T1\",\"row\":0,\"col\":1}");
+        assertEquals(201, booked.statusCode());
+        String ticketId = json(booked).get("ticketId").asText();
+        assertEquals("A", json(booked).get("source").asText());
+        assertEquals("C", json(booked).get("destination").asText());
+        assertEquals(1, json(send("GET", "/api/trains/T1/seats", null, null)).get("available").asInt());
+
+        JsonNode bookings = json(send("GET", "/api/bookings", token, null));
+        assertEquals(1, bookings.size());
+        assertEquals(ticketId, bookings.get(0).get("ticketId").asText());
+
+        assertEquals(204, send("DELETE", "/api/bookings/" + ticketId, token, null).statusCode());
+        assertEquals(0, json(send("GET", "/api/bookings", token, null)).size());
+        assertEquals(2, json(send("GET", "/api/trains/T1/seats", null, null)).get("available").asInt());
+        assertEquals(404, send("DELETE", "/api/bookings/" + ticketId, token, null).statusCode());
+    }
+
+    @Test public void requestsWithoutALiveSessionAreUnauthorized() throws Exception {
+        signUp("alice");
+        assertEquals(401, send("GET", "/api/bookings", null, null).statusCode());
+        assertEquals(401, send("GET", "/api/bookings", "forged", null).statusCode());
+        assertEquals(401, send("POST", "/api/bookings", null, "{\"trainId\":\"T1\",\"row\":0,\"col\":0}").statusCode());
+
+        String loggedOut = logIn("alice");
+        assertEquals(204, send("POST", "/api/logout", loggedOut, null).statusCode());
+        assertEquals(401, send("GET", "/api/bookings", loggedOut, null).statusCode());
+
+        String expired = logIn("alice");
+        assertEquals(200, send("GET", "/api/bookings", expired, null).statusCode());
+        Thread.sleep(TTL.toMillis() * 3 / 2);
+        assertEquals(401, send("GET", "/api/bookings", expired, null).statusCode());
+        assertEquals(2, json(send("GET", "/api/trains/T1/seats", null, null)).get("available").asInt());
+    }
+
+    @Test public void cancellingAnotherUsersTicketIsForbidden() throws Exception {
+        signUp("alice");
+        signUp("bob");
+        String alice = logIn("alice");
+        String bob = logIn("bob");
+        String ticketId = json(send("POST", "/api/bookings", alice, "{\"trainId\":\"T1\",\"row\":0,\"col\":0}"))
+                .get("ticketId").asText();
+
+        assertEquals(403, send("DELETE", "/api/bookings/" + ticketId, bob, null).statusCode());
+        assertEquals(1, json(send("GET", "/api/bookings", alice, null)).size());
+        assertEquals(1, json(send("GET", "/api/trains/T1/seats", null, null)).get("available").asInt());
+    }
+
+    @Test public void aTakenSeatIsAConflict() throws Exception {
+        signUp("alice");
+        signUp("bob");
+        String alice = logIn("alice");
+        String bob = logIn("bob");
+        assertEquals(201, send("POST", "/api/bookings", alice, "{\"trainId\":\"T1\",\"row\":0,\"col\":0}").statusCode());
+
+        HttpResponse<String> conflict = send("POST", "/api/bookings", bob, "{\"trainId\":\"T1\",\"row\":0,\"col\":0}");
+        assertEquals(409, conflict.statusCode());
+        assertTrue(json(conflict).get("error").isTextual());
+        // A leg of the seat is taken too; the other seat and bad requests are not conflicts
+        assertEquals(409, send("POST", "/api/bookings", bob,
+                "{\"trainId\":\"T1\",\"row\":0,\"col\":0,\"source\":\"B\",\"destination\":\"C\"}").statusCode());
+        assertEquals(400, send("POST", "/api/bookings", bob, "{\"trainId\":\"T1\",\"row\":0,\"col\":5}").statusCode());
+        assertEquals(404, send("POST", "/api/bookings", bob, "{\"trainId\":\"T9\",\"row\":0,\"col\":0}").statusCode());
+        assertEquals(201, send("POST", "/api/bookings", bob, "{\"trainId\":\"T1\",\"row\":0,\"col\":1}").statusCode());
+        assertEquals(1, json(send("GET", "/api/bookings", bob, null)).get(0).get("col").asInt());
+    }
+
+    private void signUp(String userName) throws Exception {
+        assertEquals(201, send("POST", "/api/signup", null,
+                "{\"userName\":\"" + userName + "\",\"password\":\"secret\"}").statusCode());
+    }
+
+    private String logIn(String userName) throws Exception {
+        HttpResponse<String> login = send("POST", "/api/login", null,
+                "{\"userName\":\"" + userName + "\",\"password\":\"secret\"}");
+        assertEquals(200, login.statusCode());
+        return json(login).get("token").asText();
+    }
+
+    private HttpResponse<String> send(String method, String path, String token, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static JsonNode json(HttpResponse<String> response) throws Exception {
+        return objectMapper.readTree(response.body());
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test public void bucketsAreExactBelowThirtyTwoAndLogLinearAbove() {
+        assertEquals(31, LatencyHistogram.bucketOf(31));
+        assertEquals(31, LatencyHistogram.highestValueIn(31));
+        assertEquals(32, LatencyHistogram.bucketOf(32));
+        assertEquals(32, LatencyHistogram.bucketOf(33));
+        assertEquals(33, LatencyHistogram.highestValueIn(32));
+        assertEquals(47, LatencyHistogram.bucketOf(63));
+        assertEquals(63, LatencyHistogram.highestValueIn(47));
+        assertEquals(48, LatencyHistogram.bucketOf(64));
+        assertEquals(67, LatencyHistogram.highestValueIn(48));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test public void aValueIsOffByAtMostOneSixteenth() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(Long.SIZE - 1));
+            long high = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(value));
+            assertTrue(value + " -> " + high, high >= value);
+            assertTrue(value + " -> " + high, high - value <= value / 16);
+            // The next bucket starts right after this one ends
+            if (high < Long.MAX_VALUE) {
+                assertEquals(LatencyHistogram.bucketOf(value) + 1, LatencyHistogram.bucketOf(high + 1));
+            }
+        }
+    }
+
+    @Test public void percentilesOfAnEmptyHistogramAreZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileNanos(0));
+        assertEquals(0, histogram.percentileNanos(50));
+        assertEquals(0, histogram.percentileNanos(100));
+        assertEquals(0, histogram.count());
+        assertEquals(0.0, histogram.meanNanos(), 0.0);
+    }
+
+    @Test public void percentilesRunFromTheLowestBucketToTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        histogram.record(-5);
+
+        assertEquals(1001, histogram.count());
+        assertEquals(0, histogram.percentileNanos(0));
+        assertEquals(1_000_000, histogram.percentileNanos(100));
+        assertEquals(1_000_000, histogram.percentileNanos(150));
+        assertEquals(histogram.maxNanos(), histogram.percentileNanos(100));
+        long median = histogram.percentileNanos(50);
+        assertTrue(Long.toString(median), median >= 500_000 && median <= 500_000 + 500_000 / 16);
+
+        histogram.reset();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.percentileNanos(100));
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.metrics;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.repository.TrainRepository;
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ServiceMetricsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void dumpIsInThePrometheusTextFormat() {
+        ServiceMetrics metrics = new ServiceMetrics();
+        metrics.histogram(Operation.BOOK).record(1000);
+        metrics.histogram(Operation.BOOK).record(3000);
+        metrics.increment(Outcome.SEAT_TAKEN);
+        metrics.increment(Outcome.SEAT_TAKEN);
+
+        String dump = metrics.dump();
+        List<String> lines = dump.lines().toList();
+        assertTrue(dump.endsWith("\n"));
+        assertEquals("# HELP booking_operation_latency_seconds Service-layer operation latency.", lines.get(0));
+        assertEquals("# TYPE booking_operation_latency_seconds summary", lines.get(1));
+        // A quantile is its bucket's upper bound, 1023 ns for 1000, capped at the maximum
+        assertTrue(lines.contains("booking_operation_latency_seconds{operation=\"book\",quantile=\"0.5\"} 0.000001023"));
+        assertTrue(lines.contains("booking_operation_latency_seconds{operation=\"book\",quantile=\"0.999\"} 0.000003000"));
+        assertTrue(lines.contains("booking_operation_latency_seconds_sum{operation=\"book\"} 0.000004000"));
+        assertTrue(lines.contains("booking_operation_latency_seconds_count{operation=\"book\"} 2"));
+        assertTrue(lines.contains("booking_operation_latency_seconds_count{operation=\"login\"} 0"));
+        assertTrue(lines.contains("# TYPE booking_operation_latency_seconds_max gauge"));
+        assertTrue(lines.contains("booking_operation_latency_seconds_max{operation=\"book\"} 0.000003000"));
+        assertTrue(lines.contains("# TYPE booking_outcomes_total counter"));
+        assertTrue(lines.contains("booking_outcomes_total{outcome=\"seat_taken\"} 2"));
+        assertTrue(lines.contains("booking_outcomes_total{outcome=\"booked\"} 0"));
+
+        // Every sample line is a name, optional labels and a number
+        for (String line : lines) {
+            if (!line.startsWith("#")) {
+                assertTrue(line, line.matches("[a-z_]+(\\{[a-z_]+=\"[^\"]*\"(,[a-z_]+=\"[^\"]*\")*})? -?[0-9.]+"));
+            }
+        }
+        assertEquals(Operation.values().length * 7 + Outcome.values().length + 6, lines.size());
+    }
+
+    @Test public void conflictsAndInvalidSeatsAreCounted() {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {2}), null, List.of("A", "B", "C")));
+        TrainTicketService ticketService = new TrainTicketService(new TrainService(trains));
+        ServiceMetrics metrics = ServiceMetrics.global();
+        long booked = metrics.count(Outcome.BOOKED);
+        long conflicts = metrics.count(Outcome.SEAT_TAKEN);
+        long invalid = metrics.count(Outcome.INVALID_SEAT);
+        long bookings = metrics.histogram(Operation.BOOK).count();
+
+        assertTrue(ticketService.bookTicket("T1", 0, 1));
+        assertFalse(ticketService.bookTicket("T1", 0, 1));
+        assertFalse(ticketService.bookTicket("T1", 0, 1, "A", "B"));
+        assertFalse(ticketService.bookTicket("T1", 0, 2));
+        assertFalse(ticketService.bookTicket("T1", 3, 0, "A", "C"));
+
+        assertEquals(booked + 1, metrics.count(Outcome.BOOKED));
+        assertEquals(conflicts + 2, metrics.count(Outcome.SEAT_TAKEN));
+        assertEquals(invalid + 2, metrics.count(Outcome.INVALID_SEAT));
+        assertEquals(bookings + 5, metrics.histogram(Operation.BOOK).count());
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.repository;
+
+import org.example.entity.Train;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DepartureIndexTest {
+
+    private static Instant at(String time) {
+        return Instant.parse("2025-04-10T" + time + ":00Z");
+    }
+
+    /**
+     * A train calling at each station at the time following it, e.g. {@code "A", "06:00", "B", "07:00"}.
+     */
+    private static Train train(String trainId, String... stops) {
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < stops.length; i += 2) {
+            times.put(stops[i], at(stops[i + 1]).toString());
+        }
+        return new Train(trainId, trainId, null, times, List.copyOf(times.keySet()));
+    }
+
+    private static List<String> trainsOf(List<DepartureIndex.Departure> departures) {
+        return departures.stream().map(DepartureIndex.Departure::getTrainId).toList();
+    }
+
+    @Test public void theWindowIncludesItsStartAndExcludesItsEnd() {
+        DepartureIndex index = new DepartureIndex();
+        index.add(train("T2", "A", "07:00", "B", "08:00"));
+        index.add(train("T1", "A", "06:00", "B", "07:00"));
+        index.add(train("T4", "A", "08:00", "B", "09:00"));
+        // Leaves at the same time as T2; ties come out by train ID
+        index.add(train("T3", "A", "07:00", "C", "07:30"));
+
+        assertEquals(List.of("T1", "T2", "T3"), trainsOf(index.between("A", at("06:00"), at("08:00"))));
+        assertEquals(List.of("T2", "T3", "T4"), trainsOf(index.between("A", at("06:00").plusMillis(1), at("08:01"))));
+        assertEquals(List.of("T2", "T3"), trainsOf(index.between("A", at("07:00"), at("07:00").plusMillis(1))));
+        assertTrue(index.between("A", at("07:00"), at("07:00")).isEmpty());
+        assertTrue(index.between("A", at("09:00"), at("07:00")).isEmpty());
+        assertEquals(at("06:00"), index.between("A", at("00:00"), at("23:59")).get(0).getTime());
+    }
+
+    @Test public void theLastStationOfARouteIsNoDeparture() {
+        DepartureIndex index = new DepartureIndex();
+        Train train = train("T1", "A", "06:00", "B", "07:00", "C", "08:00");
+        index.add(train);
+
+        assertEquals(List.of("T1"), trainsOf(index.between("B", at("07:00"), at("07:01"))));
+        assertTrue(index.between("C", at("00:00"), at("23:59")).isEmpty());
+
+        index.remove(train);
+        assertTrue(index.between("A", at("00:00"), at("23:59")).isEmpty());
+        assertTrue(index.between("B", at("00:00"), at("23:59")).isEmpty());
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.repository;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.storage.ShardSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShardedRepositoryTest {
+    private static final int SHARDS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void shardIndexDependsOnlyOnTheKey() {
+        // String.hashCode is specified, so files written by one run are found by the next
+        assertEquals(Math.floorMod("T1".hashCode(), SHARDS), ShardSet.indexOf("T1", SHARDS));
+        assertEquals(1, ShardSet.indexOf("T1", SHARDS));
+        assertEquals(0, ShardSet.indexOf(null, SHARDS));
+        for (String key : List.of("polygenelubricants", "", "T-99", "zzzzzzzz")) {
+            int index = ShardSet.indexOf(key, SHARDS);
+            assertTrue(key, index >= 0 && index < SHARDS);
+            assertEquals(key, index, ShardSet.indexOf(new String(key), SHARDS));
+        }
+    }
+
+    @Test public void trainsLandInTheirShardAndAreFoundThereAfterReopening() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (ShardedTrainRepository trains = new ShardedTrainRepository(directory, SHARDS, false)) {
+            for (int i = 0; i < 20; i++) {
+                trains.save(new Train("T" + i, Integer.toString(i), new SeatMap(4), null, List.of("A", "B")));
+            }
+            assertTrue(trains.findById("T7").orElseThrow().getSeats().book(0, 2));
+            trains.seatBooked("T7", 0, 2);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            String trainId = "T" + i;
+            for (int shard = 0; shard < SHARDS; shard++) {
+                String snapshot = Files.readString(ShardSet.snapshotPath(directory, shard));
+                assertEquals(trainId + " in shard " + shard, shard == ShardSet.indexOf(trainId, SHARDS),
+                        snapshot.contains("\"trainId\":\"" + trainId + "\""));
+            }
+        }
+        try (ShardedTrainRepository trains = new ShardedTrainRepository(directory, SHARDS, false)) {
+            assertEquals(20, trains.size());
+            assertEquals("T0", trains.findAll().get(0).getTrainId());
+            assertTrue(trains.findById("T7").orElseThrow().getSeats().isBooked(0, 2));
+        }
+    }
+
+    @Test public void ticketsAreShardedByUser() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (ShardedTicketRepository tickets = new ShardedTicketRepository(directory, SHARDS, false)) {
+            for (int i = 0; i < 12; i++) {
+                tickets.save(new Ticket("K" + i, "user" + (i % 3), "A", "B", null, "T1", 0, i));
+            }
+        }
+        try (ShardedTicketRepository tickets = new ShardedTicketRepository(directory, SHARDS, false)) {
+            for (int user = 0; user < 3; user++) {
+                List<Ticket> found = tickets.findByUserId("user" + user);
+                assertEquals(4, found.size());
+                String snapshot = Files.readString(ShardSet.snapshotPath(directory, ShardSet.indexOf("user" + user, SHARDS)));
+                for (Ticket ticket : found) {
+                    assertTrue(snapshot.contains("\"ticketId\":\"" + ticket.getTicketId() + "\""));
+                }
+            }
+            assertEquals("user2", tickets.findById("K5").orElseThrow().getUserId());
+            assertEquals(12, tickets.findAll().size());
+        }
+    }
+}
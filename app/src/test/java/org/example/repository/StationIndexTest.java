@@ -0,0 +1,58 @@
+package org.example.repository;
+
+import org.example.entity.Train;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StationIndexTest {
+
+    private static Train train(String trainId, String... stations) {
+        return new Train(trainId, trainId, null, null, List.of(stations));
+    }
+
+    @Test public void trainsBetweenKeepOnlyThoseGoingTheRightWaySorted() {
+        StationIndex index = new StationIndex();
+        index.add(train("T3", "A", "B", "C"));
+        index.add(train("T1", "X", "A", "C"));
+        index.add(train("T2", "C", "B", "A"));
+        index.add(train("T0", "A", "B"));
+
+        assertEquals(List.of("T1", "T3"), index.trainsBetween("A", "C"));
+        assertEquals(List.of("T2"), index.trainsBetween("C", "A"));
+        assertEquals(List.of("T0", "T3"), index.trainsBetween("A", "B"));
+        assertEquals(List.of("T0", "T1", "T2", "T3"), index.trainsAt("A"));
+        assertTrue(index.trainsBetween("A", "A").isEmpty());
+        assertTrue(index.trainsBetween("A", "Nowhere").isEmpty());
+    }
+
+    @Test public void theResultIsTheSameWhicheverPostingListIsShorter() {
+        StationIndex index = new StationIndex();
+        // Many trains leave from A but only two reach Z, so the walk starts from either side
+        for (int i = 9; i >= 0; i--) {
+            index.add(train("T" + i, "A", "M" + i));
+        }
+        index.add(train("Z2", "A", "Z"));
+        index.add(train("Z1", "Z", "A"));
+        index.add(train("Y1", "Y", "Z"));
+
+        assertEquals(List.of("Z2"), index.trainsBetween("A", "Z"));
+        assertEquals(List.of("Z1"), index.trainsBetween("Z", "A"));
+        assertEquals(List.of("Y1"), index.trainsBetween("Y", "Z"));
+        assertEquals(List.of("T0", "T1", "T2", "T3", "T4", "T5", "T6", "T7", "T8", "T9", "Z1", "Z2"), index.trainsAt("A"));
+    }
+
+    @Test public void removedTrainsLeaveTheIndex() {
+        StationIndex index = new StationIndex();
+        Train only = train("T1", "A", "B");
+        index.add(only);
+        index.add(train("T2", "A", "C"));
+
+        index.remove(only);
+        assertTrue(index.trainsBetween("A", "B").isEmpty());
+        assertTrue(index.trainsAt("B").isEmpty());
+        assertEquals(List.of("T2"), index.trainsAt("A"));
+    }
+}
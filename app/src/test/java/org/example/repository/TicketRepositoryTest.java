@@ -0,0 +1,119 @@
+package org.example.repository;
+
+import org.example.entity.Ticket;
+import org.example.storage.BookingJournal;
+import org.example.storage.WriteLease;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TicketRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path ticketPath() {
+        return folder.getRoot().toPath().resolve("tickets.json");
+    }
+
+    private static Ticket ticket(String ticketId, String userId) {
+        return new Ticket(ticketId, userId, "A", "B", null, "T1", 0, 0);
+    }
+
+    private static List<String> idsOf(List<Ticket> tickets) {
+        return tickets.stream().map(Ticket::getTicketId).toList();
+    }
+
+    @Test public void aUsersBookingsComeFromTheUserIndexOrderedById() {
+        TicketRepository tickets = new TicketRepository(ticketPath());
+        tickets.save(ticket("K3", "u1"));
+        tickets.save(ticket("K1", "u1"));
+        tickets.save(ticket("K2", "u2"));
+        tickets.save(ticket("K0", null));
+
+        assertEquals(List.of("K1", "K3"), idsOf(tickets.findByUserId("u1")));
+        assertEquals(List.of("K2"), idsOf(tickets.findByUserId("u2")));
+        assertTrue(tickets.findByUserId("nobody").isEmpty());
+        assertTrue(tickets.findByUserId(null).isEmpty());
+        assertEquals(4, tickets.findAll().size());
+    }
+
+    @Test public void changingOrDeletingATicketMovesItInTheUserIndex() {
+        TicketRepository tickets = new TicketRepository(ticketPath());
+        tickets.save(ticket("K1", "u1"));
+        tickets.save(ticket("K2", "u1"));
+
+        Ticket moved = tickets.findById("K1").orElseThrow();
+        moved.setUserId("u2");
+        tickets.save(moved);
+        assertEquals(List.of("K2"), idsOf(tickets.findByUserId("u1")));
+        assertEquals(List.of("K1"), idsOf(tickets.findByUserId("u2")));
+
+        assertTrue(tickets.delete("K2").isPresent());
+        assertTrue(tickets.findByUserId("u1").isEmpty());
+        assertFalse(tickets.delete("K2").isPresent());
+    }
+
+    @Test public void theUserIndexIsRebuiltFromTheFile() {
+        TicketRepository tickets = new TicketRepository(ticketPath());
+        tickets.save(ticket("K1", "u1"));
+        tickets.save(ticket("K2", "u2"));
+        tickets.save(ticket("K3", "u1"));
+        tickets.delete("K3");
+
+        TicketRepository reloaded = new TicketRepository(ticketPath());
+        assertEquals(List.of("K1"), idsOf(reloaded.findByUserId("u1")));
+        assertEquals(List.of("K2"), idsOf(reloaded.findByUserId("u2")));
+    }
+
+    @Test public void reloadMergesTheSnapshotOverTheCurrentTickets() {
+        TicketRepository tickets = new TicketRepository(ticketPath());
+        tickets.save(ticket("K1", "u1"));
+        tickets.save(ticket("K2", "u1"));
+        TicketRepository other = new TicketRepository(ticketPath());
+        other.delete("K1");
+        other.save(ticket("K3", "u2"));
+
+        tickets.reload();
+        assertFalse(tickets.findById("K1").isPresent());
+        assertEquals(List.of("K2"), idsOf(tickets.findByUserId("u1")));
+        assertEquals(List.of("K3"), idsOf(tickets.findByUserId("u2")));
+    }
+
+    @Test public void aChangeTheJournalRejectsIsUndone() throws Exception {
+        BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("booking.journal"), false);
+        TicketRepository tickets = new TicketRepository(ticketPath(), journal);
+        tickets.save(ticket("K1", "u1"));
+        Ticket stored = tickets.findById("K1").orElseThrow();
+        Ticket moved = ticket("K1", "u2");
+        moved.setVersion(stored.getVersion());
+
+        // Closed under a held lease, the journal fails the appends themselves
+        try (WriteLease lease = journal.lease()) {
+            journal.close();
+            assertAppendFails(() -> tickets.save(ticket("K2", "u1")));
+            assertAppendFails(() -> tickets.save(moved));
+            assertAppendFails(() -> tickets.delete("K1"));
+        }
+
+        assertFalse(tickets.findById("K2").isPresent());
+        assertSame(stored, tickets.findById("K1").orElseThrow());
+        assertEquals(1, stored.getVersion());
+        assertEquals(1, moved.getVersion());
+        assertEquals(List.of("K1"), idsOf(tickets.findByUserId("u1")));
+        assertTrue(tickets.findByUserId("u2").isEmpty());
+    }
+
+    private static void assertAppendFails(Runnable change) {
+        try {
+            change.run();
+            fail("the change was made without being journaled");
+        } catch (IllegalStateException expected) {
+            // The journal is closed
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.example.repository;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.example.storage.JsonFiles;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TrainRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Train train(String trainNo) {
+        return new Train("T1", trainNo, new SeatMap(2, new int[] {4}), null, List.of("A", "B", "C"));
+    }
+
+    @Test public void reloadUpdatesStoredTrainsInPlace() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("trains.json");
+        TrainRepository trains = new TrainRepository(path);
+        trains.save(train("1"));
+        Train stored = trains.findById("T1").orElseThrow();
+        SeatMap seats = stored.getSeats();
+        assertTrue(seats.holdLeg(3, 0, 2));
+
+        Train edited = train("2");
+        edited.getSeats().book(0, 1);
+        JsonFiles.writeAtomically(path, List.of(edited));
+        trains.reload();
+
+        assertSame(stored, trains.findById("T1").orElseThrow());
+        assertSame(seats, stored.getSeats());
+        assertEquals("2", stored.getTrainNo());
+        assertTrue(seats.isBooked(0, 1));
+        assertTrue(seats.isHeld(0, 3));
+        assertEquals(2, seats.availableSeats());
+        // A booker still holding the seat map books into the store
+        assertTrue(seats.book(0, 0));
+        assertTrue(trains.findById("T1").orElseThrow().getSeats().isBooked(0, 0));
+    }
+
+    @Test public void watcherSkipsOwnWritesAndReloadsForeignOnes() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("trains.json");
+        try (TrainRepository trains = new TrainRepository(path)) {
+            AtomicInteger reloads = new AtomicInteger();
+            trains.setReloadListener(reloads::incrementAndGet);
+            trains.startWatching();
+            for (int i = 0; i < 20; i++) {
+                trains.save(train(Integer.toString(i)));
+            }
+            Thread.sleep(300);
+            assertEquals(0, reloads.get());
+
+            JsonFiles.writeAtomically(path, List.of(train("edited")));
+            for (int i = 0; i < 100 && reloads.get() == 0; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, reloads.get());
+            assertEquals("edited", trains.findById("T1").orElseThrow().getTrainNo());
+        }
+    }
+
+    @Test public void aTrainWithALongRouteIsLoadedAndWrittenBack() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("trains.json");
+        List<String> stations = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            stations.add("S" + i);
+        }
+        Files.writeString(path, "[{\"trainId\":\"LONG\",\"trainNo\":\"9\",\"seats\":[[0,1,[3,4,5]]],\"stations\":"
+                + stations.stream().map(s -> "\"" + s + "\"").toList()
+                + "},{\"trainId\":\"T1\",\"trainNo\":\"1\",\"seats\":[[0,1]],\"stations\":[\"A\",\"B\"]}]");
+
+        TrainRepository trains = new TrainRepository(path);
+        SeatMap seats = trains.findById("LONG").orElseThrow().getSeats();
+        assertEquals(100, seats.segmentCount());
+        assertTrue(seats.isTaken(1, 0, 100));
+        assertTrue(seats.isTaken(2, 3, 6));
+        assertTrue(seats.isFree(2, 6, 100));
+        assertTrue(seats.bookLeg(0, 0, 60, 90));
+        trains.save(trains.findById("T1").orElseThrow());
+
+        SeatMap reread = new TrainRepository(path).findById("LONG").orElseThrow().getSeats();
+        assertEquals(seats.toGrid(), reread.toGrid());
+        assertTrue(reread.isTaken(0, 60, 90));
+        assertTrue(reread.isFree(0, 0, 60));
+        assertEquals(0, reread.availableSeats());
+        assertEquals(2, reread.availableSeats(90, 100));
+    }
+
+    @Test public void recordsThatCannotBeReadAreKeptWhenTheFileIsRewritten() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("trains.json");
+        Files.writeString(path, "[{\"trainId\":\"BAD\",\"trainNo\":\"9\",\"seats\":[[[7]]],\"stations\":[\"A\",\"B\"]},"
+                + "{\"trainId\":\"T1\",\"trainNo\":\"1\",\"seats\":[[0,1]],\"stations\":[\"A\",\"B\"]}]");
+
+        TrainRepository trains = new TrainRepository(path);
+        assertFalse(trains.exists("BAD"));
+        assertTrue(trains.findById("T1").orElseThrow().getSeats().isBooked(0, 1));
+        trains.save(train("2"));
+
+        String written = Files.readString(path);
+        assertTrue(written.contains("\"BAD\""));
+        assertEquals("2", new TrainRepository(path).findById("T1").orElseThrow().getTrainNo());
+    }
+
+    @Test public void aSeatIsReleasedIfItsBookingCannotBeWritten() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("trains.json");
+        TrainRepository trains = new TrainRepository(path);
+        trains.save(train("1"));
+        TrainTicketService ticketService = new TrainTicketService(new TrainService(trains));
+        // A non-empty directory where the file goes makes every rewrite fail
+        Files.delete(path);
+        Files.createDirectories(path.resolve("in-the-way"));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                ticketService.bookTicket("T1", 0, 0);
+                fail("the failed write was not reported");
+            } catch (UncheckedIOException expected) {
+                // Nothing was booked, and the next booking writes the file again rather than trusting this one
+            }
+            assertFalse(trains.findById("T1").orElseThrow().getSeats().isBooked(0, 0));
+        }
+
+        Files.delete(path.resolve("in-the-way"));
+        Files.delete(path);
+        assertTrue(ticketService.bookTicket("T1", 0, 1));
+        SeatMap reread = new TrainRepository(path).findById("T1").orElseThrow().getSeats();
+        assertTrue(reread.isBooked(0, 1));
+        assertFalse(reread.isBooked(0, 0));
+    }
+}
@@ -0,0 +1,159 @@
+package org.example.repository;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.example.storage.LocalDatabase;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrainRunRepositoryTest {
+    private static final LocalDate TODAY = LocalDate.now(ZoneOffset.UTC);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Train train(String trainId) {
+        return new Train(trainId, "1", new SeatMap(2, new int[] {4, 4}), null, List.of("A", "B", "C"));
+    }
+
+    @Test public void runsAreAllocatedOnFirstBookingAndKeptApart() {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(train("T1"));
+        TrainService trainService = new TrainService(trains);
+        TrainTicketService ticketService = new TrainTicketService(trainService);
+        Train train = trains.findById("T1").orElseThrow();
+
+        assertSame(train.getSeats().emptyTemplate(), trainService.getRunSeats(train, TODAY.plusDays(1)));
+        assertEquals(8, trainService.getAvailableSeats("T1", null, null, TODAY.plusDays(1)));
+        assertFalse(trainService.hasRunSeats("T1", TODAY.plusDays(1)));
+
+        assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, TODAY.plusDays(1)));
+        assertFalse(ticketService.bookTicket("T1", 0, 0, "A", "B", TODAY.plusDays(1)));
+        assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, TODAY.plusDays(2)));
+        assertTrue(ticketService.bookTicket("T1", 1, 0, "A", "B", TODAY.plusDays(2)));
+        assertTrue(ticketService.bookTicket("T1", 1, 0, "B", "C", TODAY.plusDays(2)));
+
+        assertEquals(7, trainService.getAvailableSeats("T1", null, null, TODAY.plusDays(1)));
+        assertEquals(6, trainService.getAvailableSeats("T1", null, null, TODAY.plusDays(2)));
+        assertEquals(8, trainService.getAvailableSeats("T1", null, null, TODAY.plusDays(3)));
+        assertEquals(8, train.getSeats().availableSeats());
+        assertEquals(8, train.getSeats().emptyTemplate().availableSeats());
+
+        assertTrue(ticketService.cancelTicket("T1", 0, 0, null, null, TODAY.plusDays(1)));
+        assertFalse(ticketService.cancelTicket("T1", 0, 0, null, null, TODAY.plusDays(3)));
+        assertFalse(trainService.hasRunSeats("T1", TODAY.plusDays(3)));
+    }
+
+    @Test public void bookingOutsideTheAdvancePeriodIsRejected() {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(train("T1"));
+        TrainTicketService ticketService = new TrainTicketService(new TrainService(trains));
+
+        assertFalse(ticketService.bookTicket("T1", 0, 0, null, null, TODAY.minusDays(1)));
+        assertFalse(ticketService.bookTicket("T1", 0, 0, null, null, TODAY.plusDays(121)));
+        assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, TODAY.plusDays(120)));
+    }
+
+    @Test public void aBookingWithoutADateGoesOnTheTrainsOwnSeats() {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(train("T1"));
+        TrainService trainService = new TrainService(trains);
+        TrainTicketService ticketService = new TrainTicketService(trainService);
+
+        assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, null));
+        assertTrue(ticketService.bookTicket("T1", 0, 1, "A", "B", null));
+        SeatMap seats = trains.findById("T1").orElseThrow().getSeats();
+        assertTrue(seats.isBooked(0, 0));
+        assertFalse(seats.isFree(seats.seatIndex(0, 1), 0, 1));
+        assertTrue(seats.isFree(seats.seatIndex(0, 1), 1, 2));
+        assertFalse(trainService.hasRunSeats("T1", TODAY));
+    }
+
+    @Test public void aSeatIsReleasedIfItsBookingCannotBeSaved() throws Exception {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(train("T1"));
+        // A non-empty directory where the run file goes makes every rewrite fail
+        Path runPath = folder.getRoot().toPath().resolve("runs.json");
+        TrainRunRepository runs = new TrainRunRepository(runPath, null, trains);
+        Files.createDirectories(runPath.resolve("in-the-way"));
+        TrainService trainService = new TrainService(trains, runs);
+        TrainTicketService ticketService = new TrainTicketService(trainService);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                ticketService.bookTicket("T1", 0, 0, "A", "B", TODAY);
+                fail("the failed save was not reported");
+            } catch (UncheckedIOException expected) {
+                // The caller learns that nothing was booked, and the next booking writes the file again
+            }
+            SeatMap seats = trainService.getRunSeats(trains.findById("T1").orElseThrow(), TODAY);
+            assertTrue(seats.isFree(seats.seatIndex(0, 0), 0, 2));
+            assertEquals(8, seats.availableSeats());
+        }
+
+        Files.delete(runPath.resolve("in-the-way"));
+        Files.delete(runPath);
+        assertTrue(ticketService.bookTicket("T1", 0, 1, "A", "B", TODAY));
+        SeatMap reread = new TrainRunRepository(runPath, null, trains).findSeats("T1", TODAY).orElseThrow();
+        assertTrue(reread.isTaken(reread.seatIndex(0, 1), 0, 1));
+        assertTrue(reread.isFree(reread.seatIndex(0, 0), 0, 2));
+    }
+
+    @Test public void runsSurviveReopeningTheDatabase() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            database.trains().save(train("T1"));
+            TrainTicketService ticketService = new TrainTicketService(new TrainService(database.trains(), database.runs()));
+            assertTrue(ticketService.bookTicket("T1", 1, 2, "B", "C", TODAY.plusDays(5)));
+        }
+        // Closing compacted the dated event into the run snapshot; this booking stays in the journal
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            TrainTicketService ticketService = new TrainTicketService(new TrainService(database.trains(), database.runs()));
+            assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, TODAY.plusDays(6)));
+            assertFalse(database.trains().findById("T1").orElseThrow().getSeats().isBooked(0, 0));
+        }
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            TrainRunRepository runs = database.runs();
+            assertEquals(2, runs.size());
+            SeatMap fifth = runs.findSeats("T1", TODAY.plusDays(5)).orElseThrow();
+            assertFalse(fifth.isFree(fifth.seatIndex(1, 2), 1, 2));
+            assertTrue(fifth.isFree(fifth.seatIndex(1, 2), 0, 1));
+            assertTrue(runs.findSeats("T1", TODAY.plusDays(6)).orElseThrow().isBooked(0, 0));
+        }
+    }
+
+    @Test public void pastRunsAreArchived() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Path runFile = directory.resolve(LocalDatabase.RUN_FILE);
+        TrainRepository trains = new TrainRepository(directory.resolve(LocalDatabase.TRAIN_FILE));
+        Train train = train("T1");
+        trains.save(train);
+        TrainRunRepository runs = new TrainRunRepository(runFile, null, trains);
+        runs.seatsForBooking(train, TODAY.minusDays(2)).book(0, 1);
+        runs.seatsForBooking(train, TODAY).book(0, 1);
+        runs.seatsForBooking(train, TODAY.plusDays(1)).book(0, 1);
+        runs.writeSnapshot();
+
+        assertEquals(1, runs.archiveBefore(TODAY));
+        assertEquals(0, runs.archiveBefore(TODAY));
+        assertEquals(2, runs.size());
+        assertTrue(runs.findSeats("T1", TODAY.minusDays(2)).isEmpty());
+        List<String> archived = Files.readAllLines(TrainRunRepository.archivePath(runFile));
+        assertEquals(1, archived.size());
+        assertTrue(archived.get(0).contains(TODAY.minusDays(2).toString()));
+
+        assertEquals(2, new TrainRunRepository(runFile, null, trains).size());
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.repository;
+
+import org.example.entity.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class UserRepositoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void renamingKeepsUsernamesUnique() {
+        UserRepository users = new UserRepository(folder.getRoot().toPath().resolve("users.json"));
+        assertTrue(users.insert(new User("u1", "alice", "hash", new ArrayList<>())));
+        assertTrue(users.insert(new User("u2", "bob", "hash", new ArrayList<>())));
+        assertFalse(users.insert(new User("u3", "ALICE", "hash", new ArrayList<>())));
+
+        User bob = users.findById("u2").orElseThrow();
+        bob.setUserName("Alice");
+        assertFalse(users.save(bob));
+        assertEquals("u1", users.findByUserName("alice").orElseThrow().getUserId());
+
+        User renamed = new User("u2", "carol", "hash", new ArrayList<>(), users.findById("u2").orElseThrow().getVersion());
+        assertTrue(users.save(renamed));
+        assertEquals("u2", users.findByUserName("Carol").orElseThrow().getUserId());
+        assertFalse(users.isUserNameTaken("bob"));
+        assertTrue(users.insert(new User("u3", "bob", "hash", new ArrayList<>())));
+    }
+
+    @Test public void aUserStoredWithoutAnIdGetsTheSameIdOnEveryLoad() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("users.json");
+        Files.writeString(path, "[{\"userName\": \"Zahid\", \"passwordHash\": \"hash\", \"ticketIds\": []}]");
+
+        String userId = new UserRepository(path).findByUserName("zahid").orElseThrow().getUserId();
+        assertNotNull(userId);
+        assertEquals(userId, new UserRepository(path).findByUserName("zahid").orElseThrow().getUserId());
+        assertEquals(UserRepository.legacyUserId("ZAHID"), userId);
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.repository.TrainRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BookingPipelineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrainService trainService() {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {10, 10}), null, List.of("A", "B", "C")));
+        return new TrainService(trains);
+    }
+
+    private static BookingResult await(CompletableFuture<BookingResult> result) throws Exception {
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test public void requestsAreCutIntoBatchesOfAtMostTheMaximum() throws Exception {
+        try (BookingPipeline pipeline = new BookingPipeline(trainService(), 1, 4, Duration.ofMillis(300))) {
+            List<CompletableFuture<BookingResult>> results = new ArrayList<>();
+            for (int col = 0; col < 10; col++) {
+                results.add(pipeline.bookTicket("T1", 0, col));
+            }
+            for (CompletableFuture<BookingResult> result : results) {
+                assertTrue(await(result).isBooked());
+            }
+            // A batch is counted after its futures complete; closing waits for the writer to finish
+            pipeline.close();
+            // Two full batches go at once; the last two wait out the linger time
+            assertEquals(3, pipeline.batchCount());
+            assertEquals(10, pipeline.requestCount());
+            assertEquals(4, pipeline.largestBatchSize());
+            long[] histogram = pipeline.batchSizeHistogram();
+            assertEquals(1, histogram[1]);
+            assertEquals(2, histogram[2]);
+        }
+    }
+
+    @Test public void aPartialBatchIsFlushedWhenTheLingerTimeRunsOut() throws Exception {
+        try (BookingPipeline pipeline = new BookingPipeline(trainService(), 1, 100, Duration.ofMillis(200))) {
+            long start = System.nanoTime();
+            BookingResult result = await(pipeline.bookTicket("T1", 1, 1));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(result.isBooked());
+            assertTrue("flushed after " + elapsedMillis + " ms", elapsedMillis >= 150);
+            pipeline.close();
+            assertEquals(1, pipeline.batchCount());
+            assertEquals(1, pipeline.largestBatchSize());
+        }
+    }
+
+    @Test public void everySubmitterGetsTheResultOfItsOwnRequest() throws Exception {
+        TrainService trainService = trainService();
+        try (BookingPipeline pipeline = new BookingPipeline(trainService, 2, 16, Duration.ofMillis(100))) {
+            CompletableFuture<BookingResult> first = pipeline.bookTicket("T1", 0, 3);
+            CompletableFuture<BookingResult> again = pipeline.bookTicket("T1", 0, 3);
+            CompletableFuture<BookingResult> leg = pipeline.bookTicket("T1", 1, 3, "A", "B");
+            CompletableFuture<BookingResult> otherLeg = pipeline.bookTicket("T1", 1, 3, "B", "C");
+            CompletableFuture<BookingResult> invalidSeat = pipeline.bookTicket("T1", 5, 0);
+            CompletableFuture<BookingResult> invalidJourney = pipeline.bookTicket("T1", 0, 4, "C", "A");
+            CompletableFuture<BookingResult> noTrain = pipeline.bookTicket("T9", 0, 0);
+
+            assertEquals(BookingResult.Status.BOOKED, await(first).getStatus());
+            assertEquals(BookingResult.Status.SEAT_TAKEN, await(again).getStatus());
+            assertEquals(BookingResult.Status.BOOKED, await(leg).getStatus());
+            assertEquals(BookingResult.Status.BOOKED, await(otherLeg).getStatus());
+            assertEquals(BookingResult.Status.INVALID_SEAT, await(invalidSeat).getStatus());
+            assertEquals(BookingResult.Status.INVALID_JOURNEY, await(invalidJourney).getStatus());
+            assertEquals(BookingResult.Status.TRAIN_NOT_FOUND, await(noTrain).getStatus());
+            assertNotSame(await(first), await(again));
+            assertEquals(3, await(first).getCol());
+            assertEquals(0, await(first).getRow());
+            assertEquals(1, await(leg).getRow());
+            assertEquals("T9", await(noTrain).getTrainId());
+        }
+        assertEquals(18, trainService.getTrainById("T1").orElseThrow().getSeats().availableSeats());
+    }
+
+    @Test public void requestsAfterCloseFail() {
+        BookingPipeline pipeline = new BookingPipeline(trainService(), 1, 4, Duration.ZERO);
+        pipeline.close();
+        assertTrue(pipeline.bookTicket("T1", 0, 0).isCompletedExceptionally());
+    }
+
+    @Test public void requestsRacingCloseAreAllAnswered() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            BookingPipeline pipeline = new BookingPipeline(trainService(), 2, 4, Duration.ZERO);
+            List<List<CompletableFuture<BookingResult>>> submitted = new ArrayList<>();
+            List<Thread> submitters = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                List<CompletableFuture<BookingResult>> mine = new ArrayList<>();
+                submitted.add(mine);
+                Thread submitter = new Thread(() -> {
+                    CompletableFuture<BookingResult> last;
+                    do {
+                        last = pipeline.bookTicket("T1", 0, mine.size() % 10);
+                        mine.add(last);
+                    } while (!last.isCompletedExceptionally());
+                });
+                submitters.add(submitter);
+                submitter.start();
+            }
+            Thread.sleep(2);
+            pipeline.close();
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+            // Nothing was queued behind the writers' exit, so every request has its answer
+            for (List<CompletableFuture<BookingResult>> mine : submitted) {
+                for (CompletableFuture<BookingResult> result : mine) {
+                    assertTrue(result.isDone());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.repository.TrainRepository;
+import org.example.storage.BookingJournal;
+import org.example.storage.WriteLease;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GroupBookingTest {
+    private static final int THREADS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrainTicketService ticketService(SeatMap seats) {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(new Train("T1", "1", seats, null, List.of("A", "B", "C")));
+        return new TrainTicketService(new TrainService(trains));
+    }
+
+    private static SeatPreferences preferences(Integer preferredRow, boolean allowSplit) {
+        return new SeatPreferences(null, null, preferredRow, allowSplit);
+    }
+
+    @Test public void groupGetsAdjacentSeatsInOneRow() {
+        SeatMap seats = new SeatMap(2, new int[] {6, 6, 8});
+        TrainTicketService ticketService = ticketService(seats);
+        // Row 0 has three free seats but no three together
+        assertTrue(ticketService.bookTicket("T1", 0, 1));
+        assertTrue(ticketService.bookTicket("T1", 0, 4));
+
+        List<int[]> group = ticketService.bookSeats("T1", 3, preferences(0, true));
+        assertEquals(3, group.size());
+        // The tightest run that fits wins, leaving row 2's longer one for larger groups
+        for (int i = 0; i < group.size(); i++) {
+            assertEquals(1, group.get(i)[0]);
+            assertEquals(group.get(0)[1] + i, group.get(i)[1]);
+        }
+
+        List<int[]> preferred = ticketService.bookSeats("T1", 3, preferences(2, true));
+        assertEquals(2, preferred.get(0)[0]);
+        assertEquals(2, preferred.get(2)[0]);
+        assertEquals(preferred.get(0)[1] + 2, preferred.get(2)[1]);
+    }
+
+    @Test public void groupFallsBackToOneRowAndThenAcrossRows() {
+        SeatMap seats = new SeatMap(2, new int[] {4, 4});
+        TrainTicketService ticketService = ticketService(seats);
+        assertTrue(ticketService.bookTicket("T1", 0, 1));
+        assertTrue(ticketService.bookTicket("T1", 1, 2));
+
+        // No run of three anywhere, but row 0 still has three seats
+        List<int[]> sameRow = ticketService.bookSeats("T1", 3, preferences(null, false));
+        assertEquals(3, sameRow.size());
+        for (int[] seat : sameRow) {
+            assertEquals(0, seat[0]);
+        }
+
+        // Three seats are left, all in row 1, so a group of four cannot be seated
+        assertTrue(ticketService.bookSeats("T1", 4, preferences(null, true)).isEmpty());
+        assertTrue(ticketService.cancelTicket("T1", 0, 0));
+        assertTrue(ticketService.bookSeats("T1", 4, preferences(null, false)).isEmpty());
+        List<int[]> split = ticketService.bookSeats("T1", 4, preferences(null, true));
+        assertEquals(4, split.size());
+        assertEquals(0, seats.availableSeats());
+    }
+
+    @Test public void groupBookingIsAllOrNothing() {
+        SeatMap seats = new SeatMap(2, new int[] {8});
+        assertTrue(seats.bookLeg(2, 1, 2));
+        assertFalse(seats.bookSeats(new int[] {0, 1, 2, 3}, 0, 2));
+        assertEquals(8, seats.availableSeats(0, 1));
+        assertEquals(7, seats.availableSeats(0, 2));
+        assertFalse(seats.isBooked(0));
+        assertFalse(seats.isBooked(1));
+        assertFalse(seats.isBooked(3));
+    }
+
+    @Test public void contendedGroupsNeverLeaveAPartialClaim() throws Exception {
+        SeatMap seats = new SeatMap(2, new int[] {64, 64});
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<int[]>>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            results.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                List<int[]> won = new ArrayList<>();
+                start.await();
+                for (int i = 0; i < 200; i++) {
+                    int first = random.nextInt(seats.totalSeats() - 3);
+                    int[] group = {first, first + 1, first + 2, first + 3};
+                    if (seats.bookSeats(group, 0, 2)) {
+                        won.add(group);
+                    }
+                }
+                return won;
+            }));
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        boolean[] claimed = new boolean[seats.totalSeats()];
+        int booked = 0;
+        for (Future<List<int[]>> result : results) {
+            for (int[] group : result.get()) {
+                for (int seat : group) {
+                    assertFalse("seat " + seat + " won by two groups", claimed[seat]);
+                    claimed[seat] = true;
+                    booked++;
+                }
+            }
+        }
+        for (int seat = 0; seat < claimed.length; seat++) {
+            assertEquals("seat " + seat, claimed[seat], seats.isBooked(seat));
+        }
+        assertEquals(seats.totalSeats() - booked, seats.availableSeats());
+    }
+
+    @Test public void concurrentGroupsAreSeatedWholeOrNotAtAll() throws Exception {
+        SeatMap seats = new SeatMap(2, new int[] {10, 10, 10, 10});
+        TrainTicketService ticketService = ticketService(seats);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                int seated = 0;
+                for (int i = 0; i < 10; i++) {
+                    List<int[]> group = ticketService.bookSeats("T1", 3, SeatPreferences.any());
+                    assertTrue(group.isEmpty() || group.size() == 3);
+                    seated += group.size();
+                }
+                return seated;
+            }));
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        int seated = 0;
+        for (Future<Integer> result : results) {
+            seated += result.get();
+        }
+        // Thirteen groups of three fit in forty seats, and every seat taken belongs to one of them
+        assertEquals(39, seated);
+        assertEquals(1, seats.availableSeats());
+        assertEquals(1, seats.availableSeats(0, 2));
+    }
+
+    @Test public void aGroupThatCannotBeRecordedIsReleased() throws Exception {
+        BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("booking.journal"), false);
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"), journal);
+        SeatMap seats = new SeatMap(2, new int[] {4, 4});
+        trains.save(new Train("T1", "1", seats, null, List.of("A", "B", "C")));
+        TrainTicketService ticketService = new TrainTicketService(new TrainService(trains));
+
+        // Closed under a held lease, the journal fails the append itself
+        try (WriteLease lease = journal.lease()) {
+            journal.close();
+            ticketService.bookSeats("T1", 3, preferences(null, true));
+            fail("a group was booked without being recorded");
+        } catch (IllegalStateException expected) {
+            // The journal is closed
+        }
+        Train train = trains.findById("T1").orElseThrow();
+        assertEquals(8, train.getSeats().availableSeats(0, 2));
+    }
+}
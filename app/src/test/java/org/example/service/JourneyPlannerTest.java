@@ -0,0 +1,144 @@
+package org.example.service;
+
+import org.example.entity.Train;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JourneyPlannerTest {
+    private static final Instant MORNING = at("05:00");
+
+    private static Instant at(String time) {
+        return Instant.parse("2025-04-10T" + time + ":00Z");
+    }
+
+    /**
+     * A train calling at each station at the time following it, e.g. {@code "A", "06:00", "B", "07:00"}.
+     */
+    private static Train train(String trainId, String... stops) {
+        List<String> stations = new ArrayList<>();
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < stops.length; i += 2) {
+            stations.add(stops[i]);
+            times.put(stops[i], at(stops[i + 1]).toString());
+        }
+        return new Train(trainId, trainId, null, times, stations);
+    }
+
+    private static List<String> trainsOf(Journey journey) {
+        return journey.getLegs().stream().map(JourneyLeg::getTrainId).toList();
+    }
+
+    @Test public void findsJourneysWithNoOneAndTwoTransfers() {
+        JourneyPlanner planner = new JourneyPlanner(List.of(
+                train("T1", "A", "06:00", "B", "07:00", "C", "08:00"),
+                train("T2", "C", "08:30", "D", "09:30"),
+                train("T3", "D", "10:00", "E", "11:00")));
+
+        Journey direct = planner.plan("A", "C", MORNING, 2, Duration.ZERO).orElseThrow();
+        assertEquals(List.of("T1"), trainsOf(direct));
+        assertEquals(0, direct.getTransfers());
+        assertEquals(at("06:00"), direct.getDeparture());
+        assertEquals(at("08:00"), direct.getArrival());
+
+        Journey oneChange = planner.plan("B", "D", MORNING, 2, Duration.ZERO).orElseThrow();
+        assertEquals(List.of("T1", "T2"), trainsOf(oneChange));
+        assertEquals("C", oneChange.getLegs().get(0).getDestination());
+        assertEquals("C", oneChange.getLegs().get(1).getSource());
+
+        Journey twoChanges = planner.plan("A", "E", MORNING, 2, Duration.ZERO).orElseThrow();
+        assertEquals(List.of("T1", "T2", "T3"), trainsOf(twoChanges));
+        assertEquals(Duration.ofHours(5), twoChanges.getDuration());
+        assertFalse(planner.plan("A", "E", MORNING, 1, Duration.ZERO).isPresent());
+        assertFalse(planner.plan("A", "E", at("06:30"), 2, Duration.ZERO).isPresent());
+        assertFalse(planner.plan("E", "A", MORNING, 2, Duration.ZERO).isPresent());
+    }
+
+    @Test public void aChangeNeedsTheMinimumConnectionTime() {
+        JourneyPlanner planner = new JourneyPlanner(List.of(
+                train("T1", "A", "06:00", "B", "07:00"),
+                train("T2", "B", "07:10", "C", "08:00"),
+                train("T3", "B", "07:30", "C", "08:30")));
+
+        assertEquals(List.of("T1", "T2"), trainsOf(planner.plan("A", "C", MORNING, 1, Duration.ofMinutes(10)).orElseThrow()));
+        Journey slower = planner.plan("A", "C", MORNING, 1, Duration.ofMinutes(11)).orElseThrow();
+        assertEquals(List.of("T1", "T3"), trainsOf(slower));
+        assertEquals(at("08:30"), slower.getArrival());
+        assertFalse(planner.plan("A", "C", MORNING, 1, Duration.ofMinutes(31)).isPresent());
+    }
+
+    @Test public void ofJourneysArrivingTogetherTheOneWithFewestTransfersWins() {
+        JourneyPlanner planner = new JourneyPlanner(List.of(
+                train("T1", "A", "06:00", "B", "06:30"),
+                train("T2", "B", "06:40", "C", "07:10"),
+                train("T3", "C", "07:20", "D", "09:00"),
+                train("T4", "A", "06:10", "C", "07:15"),
+                train("T5", "A", "06:20", "D", "09:00")));
+
+        Journey journey = planner.plan("A", "D", MORNING, 3, Duration.ZERO).orElseThrow();
+        assertEquals(List.of("T5"), trainsOf(journey));
+        assertEquals(at("09:00"), journey.getArrival());
+
+        planner.trainRemoved("T5");
+        assertEquals(List.of("T4", "T3"), trainsOf(planner.plan("A", "D", MORNING, 3, Duration.ZERO).orElseThrow()));
+    }
+
+    @Test public void changedAndRemovedTrainsChangeTheJourneysFound() {
+        JourneyPlanner planner = new JourneyPlanner(List.of(
+                train("T1", "A", "06:00", "B", "07:00", "C", "08:00")));
+        assertEquals(2, planner.connectionCount());
+
+        planner.trainChanged(train("T2", "A", "06:30", "C", "07:30"));
+        assertEquals(List.of("T2"), trainsOf(planner.plan("A", "C", MORNING, 0, Duration.ZERO).orElseThrow()));
+        assertEquals(3, planner.connectionCount());
+
+        // Rescheduling the faster train makes the first one the better choice again
+        planner.trainChanged(train("T2", "A", "06:30", "C", "08:30"));
+        assertEquals(List.of("T1"), trainsOf(planner.plan("A", "C", MORNING, 0, Duration.ZERO).orElseThrow()));
+        assertEquals(3, planner.connectionCount());
+
+        // A train to a station nobody served before makes it reachable
+        planner.trainChanged(train("T3", "C", "08:10", "D", "09:00"));
+        assertEquals(List.of("T1", "T3"), trainsOf(planner.plan("A", "D", MORNING, 1, Duration.ZERO).orElseThrow()));
+
+        planner.trainRemoved("T1");
+        assertEquals(List.of("T2"), trainsOf(planner.plan("A", "C", MORNING, 0, Duration.ZERO).orElseThrow()));
+        assertFalse(planner.plan("A", "B", MORNING, 1, Duration.ZERO).isPresent());
+        assertFalse(planner.plan("A", "D", MORNING, 1, Duration.ZERO).isPresent());
+        assertEquals(2, planner.connectionCount());
+        planner.trainRemoved("T1");
+        assertEquals(2, planner.connectionCount());
+    }
+
+    @Test public void removedTrainsFreeTheirTripSlots() {
+        JourneyPlanner planner = new JourneyPlanner(List.of(
+                train("T1", "A", "06:00", "B", "07:00"),
+                train("T2", "B", "07:10", "C", "08:00")));
+        assertEquals(2, planner.tripSlotCount());
+
+        for (int i = 0; i < 100; i++) {
+            planner.trainChanged(train("X" + i, "A", "06:30", "C", "07:30"));
+            planner.trainRemoved("X" + i);
+        }
+        assertEquals(2, planner.tripSlotCount());
+
+        // A slot freed in the middle is taken by the next train added
+        planner.trainRemoved("T1");
+        assertEquals(2, planner.tripSlotCount());
+        planner.trainChanged(train("T3", "A", "06:10", "B", "06:50"));
+        assertEquals(2, planner.tripSlotCount());
+        assertEquals(List.of("T3", "T2"), trainsOf(planner.plan("A", "C", MORNING, 1, Duration.ZERO).orElseThrow()));
+
+        planner.trainRemoved("T2");
+        planner.trainRemoved("T3");
+        assertEquals(0, planner.tripSlotCount());
+        assertFalse(planner.plan("A", "B", MORNING, 0, Duration.ZERO).isPresent());
+    }
+}
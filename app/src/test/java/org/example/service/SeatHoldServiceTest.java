@@ -0,0 +1,110 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.repository.TrainRepository;
+import org.example.storage.BookingJournal;
+import org.example.storage.WriteLease;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class SeatHoldServiceTest {
+    private static final Duration TTL = Duration.ofMillis(100);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrainService trainService() {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {4}), null, List.of("A", "B", "C")));
+        return new TrainService(trains);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test public void expiredHoldReleasesItsSeat() throws Exception {
+        TrainService trainService = trainService();
+        SeatMap seats = trainService.getTrainById("T1").orElseThrow().getSeats();
+        try (SeatHoldService holds = new SeatHoldService(trainService, TTL)) {
+            String holdId = holds.holdSeat("T1", 0, 1).orElseThrow();
+            assertTrue(seats.isHeld(0, 1));
+            assertTrue(holds.holdSeat("T1", 0, 1).isEmpty());
+            assertFalse(new TrainTicketService(trainService).bookTicket("T1", 0, 1));
+
+            awaitTrue(() -> !seats.isBooked(0, 1));
+            assertFalse(seats.isHeld(0, 1));
+            assertEquals(0, holds.activeHolds());
+            assertEquals(4, seats.availableSeats());
+            assertFalse(holds.confirm(holdId));
+        }
+    }
+
+    @Test public void confirmedHoldIsNotReleasedWhenItComesDue() throws Exception {
+        TrainService trainService = trainService();
+        SeatMap seats = trainService.getTrainById("T1").orElseThrow().getSeats();
+        try (SeatHoldService holds = new SeatHoldService(trainService, TTL)) {
+            String holdId = holds.holdSeat("T1", 0, 2, "A", "B").orElseThrow();
+            assertTrue(holds.confirm(holdId));
+            assertFalse(seats.isHeld(0, 2));
+
+            Thread.sleep(TTL.toMillis() * 4);
+            assertTrue(seats.isBooked(0, 2));
+            assertEquals(3, seats.availableSeats(0, 1));
+            assertEquals(4, seats.availableSeats(1, 2));
+            assertFalse(holds.release(holdId));
+        }
+    }
+
+    @Test public void releasedHoldIsNotReleasedAgainWhenItComesDue() throws Exception {
+        TrainService trainService = trainService();
+        SeatMap seats = trainService.getTrainById("T1").orElseThrow().getSeats();
+        try (SeatHoldService holds = new SeatHoldService(trainService, TTL)) {
+            String holdId = holds.holdSeat("T1", 0, 3).orElseThrow();
+            assertTrue(holds.release(holdId));
+            assertFalse(holds.release(holdId));
+            assertFalse(seats.isBooked(0, 3));
+
+            // Someone else books the seat; the old hold's expiry must not free it
+            assertTrue(new TrainTicketService(trainService).bookTicket("T1", 0, 3));
+            Thread.sleep(TTL.toMillis() * 4);
+            assertTrue(seats.isBooked(0, 3));
+            assertEquals(3, seats.availableSeats());
+        }
+    }
+
+    @Test public void aConfirmThatCannotBeRecordedFreesTheSeat() throws Exception {
+        BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("booking.journal"), false);
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"), journal);
+        SeatMap seats = new SeatMap(2, new int[] {4});
+        trains.save(new Train("T1", "1", seats, null, List.of("A", "B", "C")));
+        try (SeatHoldService holds = new SeatHoldService(new TrainService(trains), Duration.ofMinutes(5))) {
+            String holdId = holds.holdSeat("T1", 0, 1, "A", "B").orElseThrow();
+
+            // Closed under a held lease, the journal fails the append itself
+            try (WriteLease lease = journal.lease()) {
+                journal.close();
+                holds.confirm(holdId);
+                fail("a hold was confirmed without being recorded");
+            } catch (IllegalStateException expected) {
+                // The journal is closed
+            }
+            assertFalse(seats.isHeld(0, 1));
+            assertFalse(seats.isBooked(0, 1));
+            assertEquals(4, seats.availableSeats());
+            assertEquals(0, holds.activeHolds());
+            assertFalse(holds.confirm(holdId));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.service;
+
+import org.example.entity.User;
+import org.example.repository.TicketRepository;
+import org.example.repository.TrainRepository;
+import org.example.repository.UserRepository;
+import org.example.util.PasswordUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SessionServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UserBookingService userBookingService;
+    private String userId;
+    private int savedCost;
+
+    @Before
+    public void signUp() {
+        // Cheap hashes keep each login well inside the short TTLs used below
+        savedCost = PasswordUtil.getCostFactor();
+        PasswordUtil.setCostFactor(4);
+        Path root = folder.getRoot().toPath();
+        userBookingService = new UserBookingService(new UserRepository(root.resolve("users.json")),
+                new TicketRepository(root.resolve("tickets.json")), new TrainRepository(root.resolve("trains.json")));
+        User user = new User(null, "alice", "secret", new ArrayList<>());
+        assertTrue(userBookingService.signup(user));
+        userId = user.getUserId();
+    }
+
+    @After
+    public void restoreCost() {
+        PasswordUtil.setCostFactor(savedCost);
+    }
+
+    @Test public void aLoginTokenResolvesToItsUserUntilLogout() {
+        try (SessionService sessions = new SessionService(userBookingService, Duration.ofMinutes(5), 1)) {
+            String token = sessions.login("alice", "secret").join().orElseThrow();
+            String other = sessions.login("alice", "secret").join().orElseThrow();
+
+            assertNotEquals(token, other);
+            assertEquals(Optional.of(userId), sessions.validate(token));
+            assertEquals(2, sessions.activeSessions());
+            assertFalse(sessions.login("alice", "wrong").join().isPresent());
+            assertFalse(sessions.login("nobody", "secret").join().isPresent());
+            assertFalse(sessions.validate("forged").isPresent());
+            assertFalse(sessions.validate(null).isPresent());
+
+            sessions.logout(token);
+            assertFalse(sessions.validate(token).isPresent());
+            assertEquals(Optional.of(userId), sessions.validate(other));
+        }
+    }
+
+    @Test public void idleSessionsExpireAndUseExtendsThem() throws Exception {
+        try (SessionService sessions = new SessionService(userBookingService, Duration.ofMillis(300), 1)) {
+            String used = sessions.login("alice", "secret").join().orElseThrow();
+            String idle = sessions.login("alice", "secret").join().orElseThrow();
+
+            for (int i = 0; i < 4; i++) {
+                Thread.sleep(100);
+                assertTrue(sessions.validate(used).isPresent());
+            }
+            assertFalse(sessions.validate(idle).isPresent());
+            assertEquals(1, sessions.activeSessions());
+        }
+    }
+
+    @Test public void loginsBeyondTheQueueAreRejected() throws Exception {
+        CountDownLatch verifying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Path root = folder.getRoot().toPath();
+        UserBookingService slowChecks = new UserBookingService(new UserRepository(root.resolve("users.json")),
+                new TicketRepository(root.resolve("tickets.json")), new TrainRepository(root.resolve("trains.json"))) {
+            @Override
+            public boolean verifyPassword(User user, String password) {
+                verifying.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.verifyPassword(user, password);
+            }
+        };
+        try (SessionService sessions = new SessionService(slowChecks, Duration.ofMinutes(5), 1)) {
+            CompletableFuture<Optional<String>> first = sessions.login("alice", "secret");
+            assertTrue(verifying.await(10, TimeUnit.SECONDS));
+            // One login holds the only verifier thread; the queue takes 64 more
+            List<CompletableFuture<Optional<String>>> queued = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                queued.add(sessions.login("alice", "secret"));
+            }
+            CompletableFuture<Optional<String>> rejected = sessions.login("alice", "secret");
+            try {
+                rejected.join();
+                fail("a login past the queue was accepted");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+
+            release.countDown();
+            assertTrue(first.join().isPresent());
+            for (CompletableFuture<Optional<String>> login : queued) {
+                assertTrue(login.join().isPresent());
+            }
+            assertEquals(65, sessions.activeSessions());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.example.repository.TrainRepository;
+import org.example.storage.BookingJournal;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class TrainTicketServiceConcurrencyTest {
+    private static final int ROWS = 20;
+    private static final int COLS = 50;
+    private static final int THREADS = 8;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void concurrentBookersNeverDoubleBookASeat() throws Exception {
+        Path trainFile = folder.getRoot().toPath().resolve("trains.json");
+        TrainRepository repository = new TrainRepository(trainFile);
+        int[] rowLengths = new int[ROWS];
+        Arrays.fill(rowLengths, COLS);
+        repository.save(new Train("T1", "Stress Express", new SeatMap(rowLengths), null, List.of("A", "B")));
+
+        TrainService trainService = new TrainService(repository);
+        TrainTicketService ticketService = new TrainTicketService(trainService);
+        AtomicIntegerArray winners = new AtomicIntegerArray(ROWS * COLS);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            pool.submit(() -> {
+                List<Integer> order = new ArrayList<>();
+                for (int seat = 0; seat < ROWS * COLS; seat++) {
+                    order.add(seat);
+                }
+                Collections.shuffle(order, new Random(seed));
+                start.await();
+                for (int seat : order) {
+                    if (ticketService.bookTicket("T1", seat / COLS, seat % COLS)) {
+                        winners.incrementAndGet(seat);
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue("bookers did not finish", pool.awaitTermination(60, TimeUnit.SECONDS));
+
+        for (int seat = 0; seat < ROWS * COLS; seat++) {
+            assertEquals("winners for seat " + seat, 1, winners.get(seat));
+        }
+        assertEquals(0, trainService.getAvailableSeats("T1"));
+
+        // Every booking must have reached the file as well
+        TrainRepository reloaded = new TrainRepository(trainFile);
+        assertEquals(0, reloaded.findById("T1").get().getSeats().availableSeats());
+    }
+
+    @Test public void concurrentCancellationsReleaseEachSeatOnce() throws Exception {
+        SeatMap seats = new SeatMap(COLS, COLS);
+        for (int col = 0; col < COLS; col++) {
+            seats.book(0, col);
+            seats.book(1, col);
+        }
+        TrainRepository repository = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        repository.save(new Train("T2", "Cancel Express", seats, null, List.of("A", "B")));
+        TrainTicketService ticketService = new TrainTicketService(new TrainService(repository));
+
+        AtomicIntegerArray releases = new AtomicIntegerArray(2 * COLS);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                for (int seat = 0; seat < 2 * COLS; seat++) {
+                    if (ticketService.cancelTicket("T2", seat / COLS, seat % COLS)) {
+                        releases.incrementAndGet(seat);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+
+        for (int seat = 0; seat < 2 * COLS; seat++) {
+            assertEquals(1, releases.get(seat));
+        }
+        assertEquals(2 * COLS, seats.availableSeats());
+    }
+
+    @Test public void theJournalReplaysToTheSeatsEachBookAndCancelStormLeft() throws Exception {
+        Path trainFile = folder.getRoot().toPath().resolve("trains.json");
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try (BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("journal.log"), false)) {
+            TrainRepository repository = new TrainRepository(trainFile, journal);
+            repository.save(new Train("T1", "Storm Express", new SeatMap(2, new int[] {2, 2}), null, List.of("A", "B", "C")));
+            TrainTicketService ticketService = new TrainTicketService(new TrainService(repository));
+            Random random = new Random(42);
+
+            // Few seats, so bookings and cancellations of the same seat keep overtaking each other.
+            // Only the last change of each seat shows in the end, so compare after every short storm
+            for (int round = 0; round < 200; round++) {
+                List<Future<?>> storm = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    long seed = random.nextLong();
+                    storm.add(pool.submit(() -> {
+                        Random changes = new Random(seed);
+                        for (int i = 0; i < 20; i++) {
+                            int row = changes.nextInt(2);
+                            int col = changes.nextInt(2);
+                            switch (changes.nextInt(4)) {
+                                case 0 -> ticketService.bookTicket("T1", row, col);
+                                case 1 -> ticketService.cancelTicket("T1", row, col);
+                                case 2 -> ticketService.bookTicket("T1", row, col, "A", "B");
+                                default -> ticketService.cancelTicket("T1", row, col, "B", "C");
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                // A compaction in between must not snapshot a change before its event is appended
+                storm.add(pool.submit(() -> {
+                    journal.compact(repository::writeSnapshot);
+                    return null;
+                }));
+                for (Future<?> changes : storm) {
+                    changes.get(60, TimeUnit.SECONDS);
+                }
+
+                TrainRepository replayed = new TrainRepository(trainFile);
+                journal.replay(replayed::apply);
+                assertEquals("seats after round " + round, repository.findById("T1").orElseThrow().getSeats().toGrid(),
+                        replayed.findById("T1").orElseThrow().getSeats().toGrid());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test public void aCancelledSeatIsRebookedAndSnapshottedOnlyOnceTheCancellationIsAppended() throws Exception {
+        Path trainFile = folder.getRoot().toPath().resolve("trains.json");
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try (BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("journal.log"), false)) {
+            // The cancellation stops between freeing the seat and appending its release
+            TrainRepository repository = new TrainRepository(trainFile, journal) {
+                @Override
+                public void seatReleased(String trainId, int row, int col) {
+                    released.countDown();
+                    try {
+                        proceed.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.seatReleased(trainId, row, col);
+                }
+            };
+            repository.save(new Train("T1", "Race Express", new SeatMap(1, 1), null, List.of("A", "B")));
+            TrainTicketService ticketService = new TrainTicketService(new TrainService(repository));
+            assertTrue(ticketService.bookTicket("T1", 0, 0));
+
+            Future<Boolean> cancel = pool.submit(() -> ticketService.cancelTicket("T1", 0, 0));
+            assertTrue(released.await(10, TimeUnit.SECONDS));
+            Future<Boolean> book = pool.submit(() -> ticketService.bookTicket("T1", 0, 0));
+            Future<?> compaction = pool.submit(() -> {
+                journal.compact(repository::writeSnapshot);
+                return null;
+            });
+            try {
+                book.get(200, TimeUnit.MILLISECONDS);
+                fail("the seat was booked again before its release was appended");
+            } catch (TimeoutException expected) {
+                // Waits for the cancellation to finish
+            }
+            try {
+                compaction.get(200, TimeUnit.MILLISECONDS);
+                fail("the release was snapshotted before it was appended");
+            } catch (TimeoutException expected) {
+                // So does the compaction
+            } finally {
+                proceed.countDown();
+            }
+            assertTrue(cancel.get(10, TimeUnit.SECONDS));
+            assertTrue(book.get(10, TimeUnit.SECONDS));
+            compaction.get(10, TimeUnit.SECONDS);
+
+            TrainRepository replayed = new TrainRepository(trainFile);
+            journal.replay(replayed::apply);
+            assertTrue(replayed.findById("T1").orElseThrow().getSeats().isBooked(0, 0));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
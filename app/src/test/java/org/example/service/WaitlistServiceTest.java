@@ -0,0 +1,252 @@
+package org.example.service;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.repository.TicketRepository;
+import org.example.repository.TrainRepository;
+import org.example.repository.UserRepository;
+import org.example.storage.BookingJournal;
+import org.example.storage.WriteLease;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WaitlistServiceTest {
+    private static final LocalDate DAY = LocalDate.now(ZoneOffset.UTC).plusDays(3);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrainService trainService(int seats) {
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"));
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {seats}), null, List.of("A", "B", "C")));
+        return new TrainService(trains);
+    }
+
+    private static Ticket ticket(String userId, int row, int col) {
+        Ticket ticket = new Ticket(null, userId, "A", "C", DAY.toString(), "T1", row, col);
+        ticket.setRunDate(DAY.toString());
+        return ticket;
+    }
+
+    @Test public void positionsFollowPriorityAndThenJoinOrder() {
+        TrainService trainService = trainService(1);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        assertTrue(new TrainTicketService(trainService, waitlist).bookTicket("T1", 0, 0));
+
+        String first = waitlist.join("u1", "T1", null, null, null, 0).orElseThrow().getWaitlistId();
+        String second = waitlist.join("u2", "T1", null, null, null, 0).orElseThrow().getWaitlistId();
+        String urgent = waitlist.join("u3", "T1", null, null, null, 5).orElseThrow().getWaitlistId();
+        String third = waitlist.join("u4", "T1", null, null, null, 0).orElseThrow().getWaitlistId();
+
+        assertEquals(1, waitlist.position(urgent).getAsInt());
+        assertEquals(2, waitlist.position(first).getAsInt());
+        assertEquals(3, waitlist.position(second).getAsInt());
+        assertEquals(4, waitlist.position(third).getAsInt());
+
+        assertTrue(waitlist.leave(second));
+        assertFalse(waitlist.leave(second));
+        assertFalse(waitlist.position(second).isPresent());
+        assertEquals(3, waitlist.position(third).getAsInt());
+        assertEquals(3, waitlist.waiting("T1", null));
+    }
+
+    @Test public void positionsStayRightAcrossManyJoinsAndLeaves() {
+        TrainService trainService = trainService(1);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        assertTrue(new TrainTicketService(trainService, waitlist).bookTicket("T1", 0, 0));
+
+        // The head never leaves, so the level is never emptied while thousands pass through it
+        String head = waitlist.join("u0", "T1", null, null, null, 0).orElseThrow().getWaitlistId();
+        List<String> queued = new ArrayList<>();
+        for (int i = 1; i <= 5000; i++) {
+            queued.add(waitlist.join("u" + i, "T1", null, null, null, 0).orElseThrow().getWaitlistId());
+            if (queued.size() > 3) {
+                assertTrue(waitlist.leave(queued.remove(0)));
+            }
+        }
+        assertEquals(1, waitlist.position(head).getAsInt());
+        for (int i = 0; i < queued.size(); i++) {
+            assertEquals(i + 2, waitlist.position(queued.get(i)).getAsInt());
+        }
+        assertEquals(4, waitlist.waiting("T1", null));
+    }
+
+    @Test public void joiningADatedRunSeatsOnlyWaitersWhoseLegsAreFree() {
+        TrainService trainService = trainService(1);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        TrainTicketService ticketService = new TrainTicketService(trainService, waitlist);
+        assertTrue(ticketService.bookTicket("T1", 0, 0, "A", "B", DAY));
+
+        assertFalse(waitlist.join("u1", "T1", "A", "C", DAY, 0).orElseThrow().isPromoted());
+        assertTrue(waitlist.join("u2", "T1", "B", "C", DAY, 0).orElseThrow().isPromoted());
+        // A run nothing was booked on is given its own seat map for the waiter it seats
+        assertFalse(trainService.hasRunSeats("T1", DAY.plusDays(1)));
+        assertTrue(waitlist.join("u3", "T1", null, null, DAY.plusDays(1), 0).orElseThrow().isPromoted());
+        assertTrue(trainService.hasRunSeats("T1", DAY.plusDays(1)));
+        assertEquals(0, trainService.getAvailableSeats("T1", null, null, DAY.plusDays(1)));
+    }
+
+    @Test public void cancellingHandsTheSeatToTheHeadOfTheQueue() {
+        TrainService trainService = trainService(1);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        List<WaitlistEntry> promoted = new ArrayList<>();
+        waitlist.setPromotionListener(promoted::add);
+        TrainTicketService ticketService = new TrainTicketService(trainService, waitlist);
+        assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, DAY));
+
+        WaitlistEntry head = waitlist.join("u1", "T1", null, null, DAY, 0).orElseThrow();
+        WaitlistEntry next = waitlist.join("u2", "T1", null, null, DAY, 0).orElseThrow();
+        assertFalse(head.isPromoted());
+
+        assertTrue(ticketService.cancelTicket("T1", 0, 0, null, null, DAY));
+        assertEquals(List.of(head), promoted);
+        assertEquals(Integer.valueOf(0), head.getRow());
+        assertEquals(Integer.valueOf(0), head.getCol());
+        // The seat never became free, so a booker racing the cancel could not have taken it
+        assertEquals(0, trainService.getAvailableSeats("T1", null, null, DAY));
+        assertFalse(ticketService.bookTicket("T1", 0, 0, null, null, DAY));
+        assertEquals(1, waitlist.position(next.getWaitlistId()).getAsInt());
+    }
+
+    @Test public void cancellingABookingFreesItsSeatForTheHeadOfTheQueue() {
+        TrainService trainService = trainService(1);
+        Path root = folder.getRoot().toPath();
+        UserBookingService bookings = new UserBookingService(new UserRepository(root.resolve("users.json")),
+                new TicketRepository(root.resolve("tickets.json")), new TrainRepository(root.resolve("trains.json")));
+        WaitlistService waitlist = new WaitlistService(trainService);
+        waitlist.setPromotionListener(entry -> bookings.recordBooking(ticket(entry.getUserId(), entry.getRow(), entry.getCol())));
+        TrainTicketService ticketService = new TrainTicketService(trainService, waitlist);
+        assertTrue(ticketService.bookTicket("T1", 0, 0, null, null, DAY));
+        String ticketId = bookings.recordBooking(ticket("u1", 0, 0)).getTicketId();
+        WaitlistEntry waiter = waitlist.join("u2", "T1", null, null, DAY, 0).orElseThrow();
+        assertFalse(waiter.isPromoted());
+
+        assertTrue(bookings.cancelBooking(ticketId, ticketService));
+        assertFalse(bookings.getTicket(ticketId).isPresent());
+        assertTrue(waiter.isPromoted());
+        assertEquals(0, waitlist.waiting("T1", DAY));
+        assertEquals(1, bookings.getBookings("u2").size());
+        assertEquals(0, trainService.getAvailableSeats("T1", null, null, DAY));
+        assertFalse(bookings.cancelBooking(ticketId, ticketService));
+
+        // With nobody waiting, the seat is simply free again
+        assertTrue(bookings.cancelBooking(bookings.getBookings("u2").get(0).getTicketId(), ticketService));
+        assertEquals(1, trainService.getAvailableSeats("T1", null, null, DAY));
+    }
+
+    @Test public void freedLegsGoToWaitersWhoseJourneyFits() {
+        TrainService trainService = trainService(1);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        TrainTicketService ticketService = new TrainTicketService(trainService, waitlist);
+        assertTrue(ticketService.bookTicket("T1", 0, 0));
+
+        WaitlistEntry firstLeg = waitlist.join("u1", "T1", "A", "B", null, 0).orElseThrow();
+        WaitlistEntry secondLeg = waitlist.join("u2", "T1", "B", "C", null, 0).orElseThrow();
+
+        assertTrue(ticketService.cancelTicket("T1", 0, 0));
+        assertTrue(firstLeg.isPromoted());
+        assertTrue(secondLeg.isPromoted());
+        assertEquals(0, waitlist.waiting("T1", null));
+        assertEquals(0, trainService.getAvailableSeats("T1", "A", "B"));
+        assertEquals(0, trainService.getAvailableSeats("T1", "B", "C"));
+
+        // The first waiter's leg is released alone; nobody waits, so it stays free
+        assertTrue(ticketService.cancelTicket("T1", 0, 0, "A", "B"));
+        assertEquals(1, trainService.getAvailableSeats("T1", "A", "B"));
+    }
+
+    @Test public void joiningWhileASeatIsFreeBooksItAtOnce() {
+        TrainService trainService = trainService(2);
+        WaitlistService waitlist = new WaitlistService(trainService);
+
+        WaitlistEntry entry = waitlist.join("u1", "T1", null, null, DAY, 0).orElseThrow();
+        assertTrue(entry.isPromoted());
+        assertFalse(waitlist.position(entry.getWaitlistId()).isPresent());
+        assertEquals(1, trainService.getAvailableSeats("T1", null, null, DAY));
+
+        assertTrue(waitlist.join("u1", "T1", "C", "A", DAY, 0).isEmpty());
+        assertTrue(waitlist.join("u1", "T1", null, null, LocalDate.now(ZoneOffset.UTC).minusDays(1), 0).isEmpty());
+    }
+
+    @Test public void aCancelThatCannotBeRecordedKeepsTheSeatBooked() throws Exception {
+        BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("booking.journal"), false);
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"), journal);
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {1}), null, List.of("A", "B", "C")));
+        TrainService trainService = new TrainService(trains);
+        TrainTicketService ticketService = new TrainTicketService(trainService, new WaitlistService(trainService));
+        assertTrue(ticketService.bookTicket("T1", 0, 0));
+
+        // Closed under a held lease, the journal fails the append itself
+        try (WriteLease lease = journal.lease()) {
+            journal.close();
+            ticketService.cancelTicket("T1", 0, 0);
+            fail("a cancel was applied without being recorded");
+        } catch (IllegalStateException expected) {
+            // The journal is closed
+        }
+        assertEquals(0, trainService.getAvailableSeats("T1", "A", "C"));
+    }
+
+    @Test public void aHandOverThatCannotBeRecordedLeavesTheQueueAsItWas() throws Exception {
+        BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("booking.journal"), false);
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"), journal);
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {1}), null, List.of("A", "B", "C")));
+        TrainService trainService = new TrainService(trains);
+        WaitlistService waitlist = new WaitlistService(trainService);
+        List<WaitlistEntry> promoted = new ArrayList<>();
+        waitlist.setPromotionListener(promoted::add);
+        TrainTicketService ticketService = new TrainTicketService(trainService, waitlist);
+        assertTrue(ticketService.bookTicket("T1", 0, 0));
+
+        WaitlistEntry firstLeg = waitlist.join("u1", "T1", "A", "B", null, 0).orElseThrow();
+        WaitlistEntry urgent = waitlist.join("u2", "T1", "B", "C", null, 5).orElseThrow();
+        WaitlistEntry secondLeg = waitlist.join("u3", "T1", "B", "C", null, 0).orElseThrow();
+        WaitlistEntry lateUrgent = waitlist.join("u4", "T1", null, null, null, 5).orElseThrow();
+
+        // Closed under a held lease, the journal fails the append itself
+        try (WriteLease lease = journal.lease()) {
+            journal.close();
+            ticketService.cancelTicket("T1", 0, 0);
+            fail("a seat was handed on without being recorded");
+        } catch (IllegalStateException expected) {
+            // The journal is closed
+        }
+        assertTrue(promoted.isEmpty());
+        assertFalse(urgent.isPromoted());
+        assertFalse(firstLeg.isPromoted());
+        assertEquals(1, waitlist.position(urgent.getWaitlistId()).getAsInt());
+        assertEquals(2, waitlist.position(lateUrgent.getWaitlistId()).getAsInt());
+        assertEquals(3, waitlist.position(firstLeg.getWaitlistId()).getAsInt());
+        assertEquals(4, waitlist.position(secondLeg.getWaitlistId()).getAsInt());
+        assertEquals(0, trainService.getAvailableSeats("T1", "A", "B"));
+        assertEquals(0, trainService.getAvailableSeats("T1", "B", "C"));
+    }
+
+    @Test public void aJoinThatCannotBeRecordedIsNotQueued() throws Exception {
+        BookingJournal journal = new BookingJournal(folder.getRoot().toPath().resolve("booking.journal"), false);
+        TrainRepository trains = new TrainRepository(folder.getRoot().toPath().resolve("trains.json"), journal);
+        trains.save(new Train("T1", "1", new SeatMap(2, new int[] {1}), null, List.of("A", "B", "C")));
+        TrainService trainService = new TrainService(trains);
+        WaitlistService waitlist = new WaitlistService(trainService);
+
+        try (WriteLease lease = journal.lease()) {
+            journal.close();
+            waitlist.join("u1", "T1", null, null, null, 0);
+            fail("a waiter was seated without being recorded");
+        } catch (IllegalStateException expected) {
+            // The journal is closed
+        }
+        assertEquals(0, waitlist.waiting("T1", null));
+        assertEquals(1, trainService.getAvailableSeats("T1", "A", "C"));
+    }
+}
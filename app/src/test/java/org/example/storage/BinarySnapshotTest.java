@@ -0,0 +1,216 @@
+package org.example.storage;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.entity.User;
+import org.example.repository.TicketRepository;
+import org.example.repository.TrainRepository;
+import org.example.repository.UserRepository;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BinarySnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void trainsRoundTripWithSeatsRoutesAndTimes() throws Exception {
+        Map<String, String> times = new LinkedHashMap<>();
+        times.put("Mumbai", "2025-04-10T06:00:00Z");
+        times.put("Vadodara", "2025-04-10T10:30:00Z");
+        times.put("Delhi", "2025-04-10T20:00:00Z");
+        SeatMap seats = new SeatMap(2, new int[] {3, 70, 0, 5});
+        seats.book(0, 1);
+        seats.bookLeg(1, 65, 0, 1);
+        seats.bookLeg(1, 66, 1, 2);
+        seats.book(3, 4);
+        Train train = new Train("1001", "12951", seats, times, List.of("Mumbai", "Vadodara", "Delhi"));
+        Train bare = new Train("1002", null, null, null, null);
+
+        Path file = folder.getRoot().toPath().resolve("trains.bin");
+        BinarySnapshot.writeTrains(file, List.of(train, bare));
+        List<Train> read = BinarySnapshot.readTrains(file);
+
+        assertEquals(2, read.size());
+        Train copy = read.get(0);
+        assertEquals("1001", copy.getTrainId());
+        assertEquals("12951", copy.getTrainNo());
+        assertEquals(train.getStations(), copy.getStations());
+        assertEquals(new ArrayList<>(times.entrySet()), new ArrayList<>(copy.getStationTimes().entrySet()));
+        assertEquals(seats.toGrid(), copy.getSeats().toGrid());
+        assertEquals(seats.availableSeats(), copy.getSeats().availableSeats());
+        assertEquals(seats.availableSeats(0, 1), copy.getSeats().availableSeats(0, 1));
+        assertEquals(seats.availableSeatsInRow(1), copy.getSeats().availableSeatsInRow(1));
+        assertFalse(copy.getSeats().bookLeg(1, 66, 1, 2));
+        assertTrue(copy.getSeats().bookLeg(1, 66, 0, 1));
+
+        Train empty = read.get(1);
+        assertEquals("1002", empty.getTrainId());
+        assertNull(empty.getTrainNo());
+        assertNull(empty.getSeats());
+        assertNull(empty.getStationTimes());
+        assertNull(empty.getStations());
+    }
+
+    @Test public void heldSeatsAreNotWritten() throws Exception {
+        SeatMap seats = new SeatMap(4, 4);
+        seats.book(0, 0);
+        assertTrue(seats.holdLeg(seats.seatIndex(1, 2), 0, 1));
+
+        Path file = folder.getRoot().toPath().resolve("trains.bin");
+        BinarySnapshot.writeTrains(file, List.of(new Train("T1", "1", seats, null, null)));
+        SeatMap copy = BinarySnapshot.readTrains(file).get(0).getSeats();
+
+        assertTrue(copy.isBooked(0, 0));
+        assertFalse(copy.isBooked(1, 2));
+        assertEquals(7, copy.availableSeats());
+    }
+
+    @Test public void randomSeatMapsRoundTrip() throws Exception {
+        Random random = new Random(42);
+        List<String> stations = new ArrayList<>();
+        for (int s = 0; s < 9; s++) {
+            stations.add("S" + s);
+        }
+        List<Train> trains = new ArrayList<>();
+        for (int t = 0; t < 20; t++) {
+            int[] rowLengths = new int[1 + random.nextInt(12)];
+            for (int r = 0; r < rowLengths.length; r++) {
+                rowLengths[r] = random.nextInt(150);
+            }
+            SeatMap seats = new SeatMap(stations.size() - 1, rowLengths);
+            for (int i = 0; i < seats.totalSeats(); i++) {
+                int from = random.nextInt(seats.segmentCount());
+                seats.bookLeg(random.nextInt(seats.totalSeats()), from, from + 1 + random.nextInt(seats.segmentCount() - from));
+            }
+            trains.add(new Train("T" + t, null, seats, null, stations));
+        }
+
+        Path file = folder.getRoot().toPath().resolve("trains.bin");
+        BinarySnapshot.writeTrains(file, trains);
+        List<Train> read = BinarySnapshot.readTrains(file);
+
+        for (int t = 0; t < trains.size(); t++) {
+            SeatMap expected = trains.get(t).getSeats();
+            SeatMap actual = read.get(t).getSeats();
+            assertEquals(expected.toGrid(), actual.toGrid());
+            assertEquals(expected.availableSeats(), actual.availableSeats());
+            for (int r = 0; r < expected.rowCount(); r++) {
+                assertEquals(expected.availableSeatsInRow(r), actual.availableSeatsInRow(r));
+            }
+        }
+    }
+
+    @Test public void usersRoundTrip() throws Exception {
+        List<User> users = List.of(
+                new User("U1", "zahid", "$2a$10$hash", new ArrayList<>(List.of("T1001", "TKT67890"))),
+                new User("U2", "Zoë Ünal", "$2a$10$other", new ArrayList<>()),
+                new User("U3", "nobody", null, null));
+
+        Path file = folder.getRoot().toPath().resolve("users.bin");
+        BinarySnapshot.writeUsers(file, users);
+        List<User> read = BinarySnapshot.readUsers(file);
+
+        assertEquals(3, read.size());
+        for (int i = 0; i < users.size(); i++) {
+            assertEquals(users.get(i).getUserId(), read.get(i).getUserId());
+            assertEquals(users.get(i).getUserName(), read.get(i).getUserName());
+            assertEquals(users.get(i).getPasswordHash(), read.get(i).getPasswordHash());
+            assertEquals(users.get(i).getTicketIds(), read.get(i).getTicketIds());
+        }
+    }
+
+    @Test public void ticketsRoundTripAndShareStrings() throws Exception {
+        Ticket onRun = new Ticket("T1", "U1", "Mumbai", "Delhi", "2025-04-10", "1001", 0, 1);
+        onRun.setRunDate("2025-04-10");
+        List<Ticket> tickets = List.of(
+                onRun,
+                new Ticket("T2", "U1", "Mumbai", "Delhi", "2025-04-10", "1001", null, null),
+                new Ticket("T3", null, null, null, null, null, 5, 0));
+
+        Path file = folder.getRoot().toPath().resolve("tickets.bin");
+        BinarySnapshot.writeTickets(file, tickets);
+        List<Ticket> read = BinarySnapshot.readTickets(file);
+
+        assertEquals(3, read.size());
+        for (int i = 0; i < tickets.size(); i++) {
+            Ticket expected = tickets.get(i);
+            Ticket actual = read.get(i);
+            assertEquals(expected.getTicketId(), actual.getTicketId());
+            assertEquals(expected.getUserId(), actual.getUserId());
+            assertEquals(expected.getSource(), actual.getSource());
+            assertEquals(expected.getDestination(), actual.getDestination());
+            assertEquals(expected.getDateOfJourney(), actual.getDateOfJourney());
+            assertEquals(expected.getTrainId(), actual.getTrainId());
+            assertEquals(expected.getRow(), actual.getRow());
+            assertEquals(expected.getCol(), actual.getCol());
+            assertEquals(expected.getRunDate(), actual.getRunDate());
+        }
+        assertSame(read.get(0).getSource(), read.get(1).getSource());
+    }
+
+    @Test public void emptySnapshotsRoundTrip() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("tickets.bin");
+        BinarySnapshot.writeTickets(file, List.of());
+        assertTrue(BinarySnapshot.readTickets(file).isEmpty());
+    }
+
+    @Test public void rejectsOtherKindsAndOtherFiles() throws Exception {
+        Path tickets = folder.getRoot().toPath().resolve("tickets.bin");
+        BinarySnapshot.writeTickets(tickets, List.of());
+        assertThrows(IOException.class, () -> BinarySnapshot.readTrains(tickets));
+
+        Path json = folder.getRoot().toPath().resolve("trains.json");
+        Files.writeString(json, "[{\"trainId\":\"1001\",\"trainNo\":\"12951\"}]");
+        assertThrows(IOException.class, () -> BinarySnapshot.readTrains(json));
+    }
+
+    @Test public void convertedDatabaseOpensAndConvertsBack() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        SeatMap seats = new SeatMap(2, new int[] {4, 4});
+        seats.bookLeg(0, 0, 0, 1);
+        new TrainRepository(directory.resolve(LocalDatabase.TRAIN_FILE))
+                .save(new Train("1001", "12951", seats, null, List.of("Mumbai", "Vadodara", "Delhi")));
+        new UserRepository(directory.resolve(LocalDatabase.USER_FILE))
+                .save(new User("U1", "zahid", "hash", new ArrayList<>(List.of("T1"))));
+        new TicketRepository(directory.resolve(LocalDatabase.TICKET_FILE))
+                .save(new Ticket("T1", "U1", "Mumbai", "Vadodara", "2025-04-10", "1001", 0, 0));
+
+        assertEquals(3, SnapshotConverter.toBinary(directory));
+        assertTrue(Files.exists(directory.resolve("trains.bin")));
+        assertFalse(Files.exists(directory.resolve(LocalDatabase.TRAIN_FILE)));
+
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            Train train = database.trains().findById("1001").orElseThrow();
+            assertTrue(train.getSeats().isFree(0, 1, 2));
+            assertFalse(train.getSeats().isFree(0, 0, 1));
+            assertEquals("zahid", database.users().findById("U1").orElseThrow().getUserName());
+            assertEquals(1, database.tickets().findByUserId("U1").size());
+            assertTrue(train.getSeats().book(1, 3));
+            database.trains().seatBooked("1001", 1, 3);
+        }
+        // Closing compacted the journal into the binary snapshot
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            assertTrue(database.trains().findById("1001").orElseThrow().getSeats().isBooked(1, 3));
+        }
+
+        assertEquals(3, SnapshotConverter.toJson(directory));
+        assertFalse(Files.exists(directory.resolve("trains.bin")));
+        Train restored = new TrainRepository(directory.resolve(LocalDatabase.TRAIN_FILE)).findById("1001").orElseThrow();
+        assertTrue(restored.getSeats().isBooked(1, 3));
+        assertFalse(restored.getSeats().isFree(0, 0, 1));
+        assertEquals("T1", new TicketRepository(directory.resolve(LocalDatabase.TICKET_FILE)).findAll().get(0).getTicketId());
+    }
+}
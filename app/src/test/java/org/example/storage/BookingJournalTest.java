@@ -0,0 +1,181 @@
+package org.example.storage;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Train;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BookingJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path journalPath() {
+        return folder.getRoot().toPath().resolve("booking.journal");
+    }
+
+    private static List<JournalEvent> replay(Path path) throws IOException {
+        List<JournalEvent> events = new ArrayList<>();
+        try (BookingJournal journal = new BookingJournal(path, false)) {
+            journal.replay(events::add);
+        }
+        return events;
+    }
+
+    private static List<Integer> cols(List<JournalEvent> events) {
+        return events.stream().map(JournalEvent::getCol).toList();
+    }
+
+    private void appendSeats(int... cols) throws IOException {
+        try (BookingJournal journal = new BookingJournal(journalPath(), false)) {
+            for (int col : cols) {
+                journal.append(JournalEvent.seatBooked("T1", 0, col));
+            }
+        }
+    }
+
+    @Test public void replayReturnsTheAppendedEventsInOrder() throws Exception {
+        appendSeats(0, 1);
+        appendSeats(2);
+        List<JournalEvent> events = replay(journalPath());
+
+        assertEquals(List.of(0, 1, 2), cols(events));
+        assertEquals(JournalEvent.Type.SEAT_BOOKED, events.get(0).getType());
+        assertEquals("T1", events.get(2).getTrainId());
+        assertTrue(BookingJournal.hasEvents(journalPath()));
+    }
+
+    @Test public void aTornFinalRecordIsTruncatedAway() throws Exception {
+        appendSeats(0, 1);
+        long intact = Files.size(journalPath());
+        appendSeats(2);
+        try (FileChannel file = FileChannel.open(journalPath(), StandardOpenOption.WRITE)) {
+            file.truncate(file.size() - 3);
+        }
+
+        assertEquals(List.of(0, 1), cols(replay(journalPath())));
+        assertEquals(intact, Files.size(journalPath()));
+        // Appends carry on from the cut
+        appendSeats(3);
+        assertEquals(List.of(0, 1, 3), cols(replay(journalPath())));
+    }
+
+    @Test public void aRecordFailingItsChecksumEndsTheReplay() throws Exception {
+        appendSeats(0);
+        long first = Files.size(journalPath());
+        appendSeats(1, 2);
+        byte[] bytes = Files.readAllBytes(journalPath());
+        // Flip a payload byte of the second record; its length still fits, only the CRC catches it
+        bytes[(int) first + 12] ^= 0x20;
+        Files.write(journalPath(), bytes);
+
+        assertEquals(List.of(0), cols(replay(journalPath())));
+        assertEquals(first, Files.size(journalPath()));
+    }
+
+    @Test public void compactionStartsANewGenerationThatFollowersMoveTo() throws Exception {
+        Path path = journalPath();
+        List<JournalEvent> followed = new ArrayList<>();
+        int[] compactions = new int[1];
+        int[] reloads = new int[1];
+        try (BookingJournal writer = new BookingJournal(path, false);
+             BookingJournal reader = new BookingJournal(path, false)) {
+            reader.follow(new BookingJournal.Follower() {
+                @Override
+                public void apply(JournalEvent event) {
+                    followed.add(event);
+                }
+
+                @Override
+                public void compacted() {
+                    compactions[0]++;
+                }
+
+                @Override
+                public void reload() {
+                    reloads[0]++;
+                }
+            });
+            writer.append(JournalEvent.seatBooked("T1", 0, 0));
+            assertTrue(reader.refresh());
+            assertEquals(List.of(0), cols(followed));
+
+            int[] snapshots = new int[1];
+            writer.compact(() -> snapshots[0]++);
+            assertEquals(1, snapshots[0]);
+            // The new file holds only its start record and replaced the old one by rename
+            assertFalse(BookingJournal.hasEvents(path));
+            try (Stream<Path> files = Files.list(path.getParent())) {
+                assertEquals(List.of("booking.journal", "booking.journal.lock"),
+                        files.map(file -> file.getFileName().toString()).sorted().toList());
+            }
+
+            writer.append(JournalEvent.seatBooked("T1", 0, 1));
+            assertTrue(reader.refresh());
+            assertEquals(1, compactions[0]);
+            assertEquals(List.of(0, 1), cols(followed));
+
+            // An event appended to a generation the reader skips over is only in the snapshots
+            writer.compact(() -> { });
+            writer.append(JournalEvent.seatBooked("T1", 0, 2));
+            writer.compact(() -> { });
+            reader.refresh();
+            assertEquals(1, reloads[0]);
+            assertEquals(List.of(0, 1), cols(followed));
+        }
+        assertTrue(replay(path).isEmpty());
+    }
+
+    @Test public void aFailedSnapshotLeavesTheJournalInPlace() throws Exception {
+        appendSeats(0);
+        try (BookingJournal journal = new BookingJournal(journalPath(), false)) {
+            journal.replay(event -> { });
+            try {
+                journal.compact(() -> {
+                    throw new IOException("disk full");
+                });
+                fail("compaction went ahead without its snapshot");
+            } catch (IOException expected) {
+                // The journal still holds what the snapshot would have
+            }
+        }
+        assertEquals(List.of(0), cols(replay(journalPath())));
+    }
+
+    @Test public void openingADatabaseReplaysWhatItsSnapshotsLack() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("live");
+        Path crashed = folder.getRoot().toPath().resolve("crashed");
+        Files.createDirectories(crashed);
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            database.trains().save(new Train("T1", "1", new SeatMap(1, new int[]{4}), null, List.of("A", "B")));
+            database.compact();
+            database.trains().save(new Train("T2", "2", new SeatMap(1, new int[]{4}), null, List.of("B", "C")));
+            // Copying the files now leaves the second train in the journal only, as a crash would
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    Files.copy(file, crashed.resolve(file.getFileName()));
+                }
+            }
+        }
+        // Half a record written as the process died
+        Files.write(crashed.resolve(LocalDatabase.JOURNAL_FILE), new byte[]{0, 0, 1, 0, 7},
+                StandardOpenOption.APPEND);
+
+        try (LocalDatabase database = LocalDatabase.open(crashed, false)) {
+            assertTrue(database.trains().exists("T1"));
+            assertEquals(List.of("B", "C"), database.trains().findById("T2").orElseThrow().getStations());
+        }
+        assertFalse(BookingJournal.hasEvents(crashed.resolve(LocalDatabase.JOURNAL_FILE)));
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LegacyFormatMigrationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void embeddedTicketsAreListedOncePerUser() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        Files.writeString(directory.resolve(LocalDatabase.TICKET_FILE), """
+                [{"ticketId": "t1", "userId": "u1", "train": {"trainId": "T1", "stations": ["A", "B"]}}]
+                """);
+        // t1 is already listed and embedded as well; t2 is embedded twice
+        Files.writeString(directory.resolve(LocalDatabase.USER_FILE), """
+                [{"userId": "u1", "userName": "a", "ticketIds": ["t1"], "ticketsBooked": [
+                  {"ticketId": "t1", "userId": "u1", "trainId": "T1"},
+                  {"ticketId": "t2", "userId": "u1", "train": {"trainId": "T2"}},
+                  {"ticketId": "t2", "userId": "u1", "train": {"trainId": "T2"}}]}]
+                """);
+
+        assertTrue(LegacyFormatMigration.migrateIfNeeded(directory));
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode user = mapper.readTree(directory.resolve(LocalDatabase.USER_FILE).toFile()).get(0);
+        List<String> ticketIds = new ArrayList<>();
+        user.get("ticketIds").forEach(id -> ticketIds.add(id.asText()));
+        assertEquals(List.of("t1", "t2"), ticketIds);
+        assertFalse(user.has("ticketsBooked"));
+
+        JsonNode tickets = mapper.readTree(directory.resolve(LocalDatabase.TICKET_FILE).toFile());
+        assertEquals(2, tickets.size());
+        assertEquals("T2", tickets.get(1).path("trainId").asText());
+        assertFalse(tickets.get(0).has("train"));
+
+        assertFalse(LegacyFormatMigration.migrateIfNeeded(directory));
+    }
+}
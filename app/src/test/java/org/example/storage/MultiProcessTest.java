@@ -0,0 +1,137 @@
+package org.example.storage;
+
+import org.example.entity.SeatMap;
+import org.example.entity.Ticket;
+import org.example.entity.Train;
+import org.example.entity.User;
+import org.example.service.TrainService;
+import org.example.service.TrainTicketService;
+import org.example.service.UserBookingService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Several JVMs book the same seats in one database directory at once; afterwards every seat is
+ * booked exactly once, by exactly one ticket, and the shared user lists every ticket.
+ */
+public class MultiProcessTest {
+    private static final int PROCESSES = 3;
+    private static final int[] ROWS = {4, 4, 4, 4, 4};
+    private static final int SEATS = 20;
+    private static final String USER_ID = "shared-user";
+    private static final LocalDate DAY = LocalDate.now(ZoneOffset.UTC).plusDays(2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void processesSharingADatabaseLoseNoUpdates() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            database.trains().save(new Train("T1", "1", new SeatMap(2, ROWS), null, List.of("A", "B", "C")));
+            database.users().insert(new User(USER_ID, "shared", "hash", new ArrayList<>()));
+        }
+
+        List<Process> children = new ArrayList<>();
+        List<String> command = new ArrayList<>(List.of(ProcessHandle.current().info().command().orElse("java")));
+        String loggingConfig = System.getProperty("java.util.logging.config.file");
+        if (loggingConfig != null) {
+            command.add("-Djava.util.logging.config.file=" + loggingConfig);
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), MultiProcessTest.class.getName(), directory.toString()));
+        for (int i = 0; i < PROCESSES; i++) {
+            List<String> childCommand = new ArrayList<>(command);
+            childCommand.add(Integer.toString(i));
+            children.add(new ProcessBuilder(childCommand)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+        int booked = 0;
+        for (Process child : children) {
+            String output;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+                output = reader.readLine();
+            }
+            assertTrue("child process timed out", child.waitFor(2, TimeUnit.MINUTES));
+            assertEquals(0, child.exitValue());
+            booked += Integer.parseInt(output.trim());
+        }
+        // Every process tried every seat of the train's own map and of the dated run
+        assertEquals(2 * SEATS, booked);
+
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            SeatMap own = database.trains().findById("T1").orElseThrow().getSeats();
+            SeatMap run = database.runs().findSeats("T1", DAY).orElseThrow();
+            assertEquals(0, own.availableSeats());
+            assertEquals(0, run.availableSeats());
+
+            List<Ticket> tickets = database.tickets().findAll();
+            assertEquals(booked, tickets.size());
+            Set<String> seats = new HashSet<>();
+            Set<String> ticketIds = new HashSet<>();
+            for (Ticket ticket : tickets) {
+                assertTrue("seat sold twice", seats.add(ticket.getDateOfJourney() + "/" + ticket.getRow() + "/" + ticket.getCol()));
+                ticketIds.add(ticket.getTicketId());
+            }
+            List<String> userTicketIds = database.users().findById(USER_ID).orElseThrow().getTicketIds();
+            assertEquals(ticketIds.size(), userTicketIds.size());
+            assertEquals(ticketIds, new HashSet<>(userTicketIds));
+        }
+    }
+
+    /**
+     * Child process: tries every seat in its own order, records a ticket for each one it gets and
+     * prints how many that was. The first child compacts the journal half-way through.
+     */
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(args[0]);
+        int index = Integer.parseInt(args[1]);
+        List<Integer> attempts = new ArrayList<>();
+        for (int i = 0; i < 2 * SEATS; i++) {
+            attempts.add(i);
+        }
+        Collections.shuffle(attempts, new Random(index));
+
+        int booked = 0;
+        try (LocalDatabase database = LocalDatabase.open(directory, false)) {
+            TrainTicketService ticketService = new TrainTicketService(new TrainService(database.trains(), database.runs()));
+            UserBookingService bookingService = new UserBookingService(database.users(), database.tickets(), database.trains());
+            for (int n = 0; n < attempts.size(); n++) {
+                if (index == 0 && n == attempts.size() / 2) {
+                    database.compact();
+                }
+                int attempt = attempts.get(n);
+                boolean dated = attempt >= SEATS;
+                int row = (attempt % SEATS) / ROWS[0];
+                int col = (attempt % SEATS) % ROWS[0];
+                boolean success = dated
+                        ? ticketService.bookTicket("T1", row, col, null, null, DAY)
+                        : ticketService.bookTicket("T1", row, col);
+                if (success) {
+                    bookingService.recordBooking(new Ticket(null, USER_ID, "A", "C",
+                            dated ? DAY.toString() : null, "T1", row, col));
+                    booked++;
+                }
+            }
+        }
+        System.out.println(booked);
+    }
+}
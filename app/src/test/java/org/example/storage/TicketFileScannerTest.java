@@ -0,0 +1,108 @@
+package org.example.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.example.entity.Ticket;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TicketFileScannerTest {
+    // Escaped strings, an unknown field holding nested arrays and objects, the old embedded
+    // train, and a ticket whose row and col are missing
+    private static final String TICKETS = """
+            [
+              {"ticketId": "t1", "userId": "u1", "source": "Say \\"hi\\"", "destination": "Caf\\u00e9\\\\Bar",
+               "dateOfJourney": "2025-04-10", "runDate": "2025-04-10", "trainId": "T1", "row": 0, "col": 3},
+              {"meta": {"tags": ["a", {"nested": [[1, 2], {"ticketId": "decoy"}]}], "note": null},
+               "ticketId": "t2", "userId": "u2", "source": "A", "destination": "B", "row": 1, "col": 0,
+               "dateOfJourney": "2025-04-11",
+               "train": {"trainId": "T2", "trainNo": "7", "seats": [[0, 1]], "stations": ["A", "B"]}},
+              {"ticketId": "t3", "userId": "u1", "source": "B", "destination": "C", "trainId": "T1",
+               "extra": [1, [2, [3]]]}
+            ]
+            """;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String json) throws IOException {
+        Path path = folder.getRoot().toPath().resolve("tickets.json");
+        Files.writeString(path, json);
+        return path;
+    }
+
+    private static void assertSameTicket(Ticket expected, Ticket actual) {
+        assertEquals(expected.getTicketId(), actual.getTicketId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getSource(), actual.getSource());
+        assertEquals(expected.getDestination(), actual.getDestination());
+        assertEquals(expected.getDateOfJourney(), actual.getDateOfJourney());
+        assertEquals(expected.getTrainId(), actual.getTrainId());
+        assertEquals(expected.getRow(), actual.getRow());
+        assertEquals(expected.getCol(), actual.getCol());
+        assertEquals(expected.getRunDate(), actual.getRunDate());
+    }
+
+    @Test public void scannedTicketsMatchTheBoundTree() throws Exception {
+        Path path = write(TICKETS);
+        List<Ticket> bound = JsonFiles.readList(path, new TypeReference<List<Ticket>>() {});
+        List<Ticket> scanned = new ArrayList<>();
+        TicketFileScanner.forEach(path, scanned::add);
+
+        assertEquals(3, bound.size());
+        assertEquals(bound.size(), scanned.size());
+        for (int i = 0; i < bound.size(); i++) {
+            assertSameTicket(bound.get(i), scanned.get(i));
+        }
+        assertEquals("Say \"hi\"", scanned.get(0).getSource());
+        assertEquals("Café\\Bar", scanned.get(0).getDestination());
+        assertEquals("2025-04-10", scanned.get(0).getRunDate());
+        assertEquals("T2", scanned.get(1).getTrainId());
+        assertNull(scanned.get(2).getRow());
+    }
+
+    @Test public void lookupsSkipNestedDecoysAndNonObjectElements() throws Exception {
+        Path path = write("[null, [\"t1\"], \"t1\", 5, " + TICKETS.strip().substring(1));
+
+        assertEquals("t2", TicketFileScanner.findById(path, "t2").orElseThrow().getTicketId());
+        assertFalse(TicketFileScanner.findById(path, "decoy").isPresent());
+        List<Ticket> mine = TicketFileScanner.findByUserId(path, "u1");
+        assertEquals(2, mine.size());
+        assertEquals("t1", mine.get(0).getTicketId());
+        assertEquals("t3", mine.get(1).getTicketId());
+    }
+
+    @Test public void missingFileHoldsNoTickets() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("absent.json");
+        assertFalse(TicketFileScanner.findById(path, "t1").isPresent());
+        assertTrue(TicketFileScanner.findByUserId(path, "u1").isEmpty());
+    }
+
+    @Test public void truncatedFileFailsOnceTheScanReachesTheCut() throws Exception {
+        String json = TICKETS.strip();
+        Path path = write(json.substring(0, json.indexOf("\"extra\"") + 10));
+
+        // A lookup that stops before the cut still succeeds
+        assertEquals("t1", TicketFileScanner.findById(path, "t1").orElseThrow().getTicketId());
+        try {
+            TicketFileScanner.findById(path, "missing");
+            fail("a truncated file was read as complete");
+        } catch (IOException expected) {
+            // The parser reports the unexpected end of input
+        }
+        try {
+            JsonFiles.readList(path, new TypeReference<List<Ticket>>() {});
+            fail("a truncated file was bound as complete");
+        } catch (IOException expected) {
+            // The tree-based parse rejects the same file
+        }
+    }
+}
@@ -0,0 +1,20 @@
+-- Write load: random seat bookings with a session token.
+-- TOKEN=$(loadtest/login.sh) wrk -t4 -c256 -d30s -s loadtest/book.lua http://127.0.0.1:8080
+-- Expect mostly 409s once the train fills up; those are the contention path being measured.
+local token = os.getenv("TOKEN")
+local train = os.getenv("TRAIN") or "1001"
+local rows = tonumber(os.getenv("ROWS") or "3")
+local cols = tonumber(os.getenv("COLS") or "6")
+
+init = function(args)
+  math.randomseed(os.time() + math.floor(os.clock() * 1000000))
+end
+
+request = function()
+  local body = string.format('{"trainId":"%s","row":%d,"col":%d}',
+    train, math.random(0, rows - 1), math.random(0, cols - 1))
+  return wrk.format("POST", "/api/bookings", {
+    ["Content-Type"] = "application/json",
+    ["Authorization"] = "Bearer " .. token,
+  }, body)
+end
@@ -0,0 +1,9 @@
+#!/bin/sh
+# Signs up a load-test user (ignoring "already taken") and prints a session token.
+set -e
+BASE=${BASE:-http://127.0.0.1:8080}
+USER=${LOADTEST_USER:-loadtest}
+PASS=${LOADTEST_PASSWORD:-loadtest}
+BODY="{\"userName\":\"$USER\",\"password\":\"$PASS\"}"
+curl -s -o /dev/null -H 'Content-Type: application/json' -d "$BODY" "$BASE/api/signup"
+curl -s -H 'Content-Type: application/json' -d "$BODY" "$BASE/api/login" | sed -n 's/.*"token":"\([^"]*\)".*/\1/p'
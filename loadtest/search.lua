@@ -0,0 +1,13 @@
+-- Read-only load: station searches and seat availability.
+-- wrk -t4 -c256 -d30s -s loadtest/search.lua http://127.0.0.1:8080
+local paths = {
+  "/api/trains?station=Bangalore",
+  "/api/trains?source=Mumbai&destination=Delhi",
+  "/api/trains/1001/seats",
+}
+local i = 0
+
+request = function()
+  i = i + 1
+  return wrk.format("GET", paths[(i % #paths) + 1])
+end